@@ -0,0 +1,153 @@
+package bufmgr;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Adaptive replacement cache policy (Megiddo and Modha).  Resident pages seen
+ * once are kept in T1 and pages seen at least twice in T2, both in LRU order;
+ * the ids of pages evicted from each are remembered in the ghost lists B1 and
+ * B2.  A miss on a ghost id shifts the target size of T1, so the split between
+ * recency and frequency adapts to the workload, and a long scan only ever
+ * churns T1.
+ */
+class ARCReplacer extends Replacer {
+
+	//Frames holding no page
+	FrameList free;
+
+	//Resident lists, least recently used first
+	FrameList t1;
+	FrameList t2;
+
+	//Ghost ids of pages evicted from T1 and T2, oldest first
+	LinkedHashSet<Integer> b1;
+	LinkedHashSet<Integer> b2;
+
+	//Target size of T1
+	int p;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool
+	 */
+	protected ARCReplacer(SubPool pool) {
+		this.frametab = pool.frametab;
+		free = new FrameList(frametab.length);
+		t1 = new FrameList(frametab.length);
+		t2 = new FrameList(frametab.length);
+		b1 = new LinkedHashSet<Integer>();
+		b2 = new LinkedHashSet<Integer>();
+		p = 0;
+		for (int i = 0; i < frametab.length; i++) {
+			free.addLast(i);
+		}
+	}
+
+	public synchronized void newPage(FrameDesc fdesc) {
+		int c = frametab.length;
+		int pid = fdesc.pageno.pid;
+		free.remove(fdesc.slot);
+		if (b1.contains(pid)) {
+			//recency ghost hit: favor T1
+			p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+			b1.remove(pid);
+			t2.addLast(fdesc.slot);
+		} else if (b2.contains(pid)) {
+			//frequency ghost hit: favor T2
+			p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+			b2.remove(pid);
+			t2.addLast(fdesc.slot);
+		} else {
+			t1.addLast(fdesc.slot);
+		}
+	}
+
+	public synchronized void pinPage(FrameDesc fdesc) {
+		if (t1.contains(fdesc.slot) || t2.contains(fdesc.slot)) {
+			t1.remove(fdesc.slot);
+			t2.addLast(fdesc.slot);
+		}
+	}
+
+	public void unpinPage(FrameDesc fdesc) {
+		//recency is taken at pin time
+	}
+
+	public synchronized void victimBusy(FrameDesc fdesc) {
+		//move it to the back of its queue
+		if (t1.contains(fdesc.slot)) {
+			t1.addLast(fdesc.slot);
+		}
+		if (t2.contains(fdesc.slot)) {
+			t2.addLast(fdesc.slot);
+		}
+	}
+
+	public synchronized void resize(FrameDesc[] frametab) {
+		int old = this.frametab.length;
+		super.resize(frametab);
+		int c = frametab.length;
+		free.resize(c);
+		t1.resize(c);
+		t2.resize(c);
+		for (int i = old; i < c; i++) {
+			free.addLast(i);
+		}
+		p = Math.min(p, c);
+
+		//the ghost lists shrink with the cache
+		while (t1.size() + b1.size() > c && b1.size() > 0) {
+			b1.remove(b1.iterator().next());
+		}
+		while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && b2.size() > 0) {
+			b2.remove(b2.iterator().next());
+		}
+	}
+
+	public synchronized void freePage(FrameDesc fdesc) {
+		int c = frametab.length;
+		if (t1.contains(fdesc.slot)) {
+			t1.remove(fdesc.slot);
+			b1.add(fdesc.pageno.pid);
+		} else if (t2.contains(fdesc.slot)) {
+			t2.remove(fdesc.slot);
+			b2.add(fdesc.pageno.pid);
+		}
+		free.addLast(fdesc.slot);
+
+		//keep |T1| + |B1| <= c and the whole directory within 2c
+		while (t1.size() + b1.size() > c && b1.size() > 0) {
+			b1.remove(b1.iterator().next());
+		}
+		while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && b2.size() > 0) {
+			b2.remove(b2.iterator().next());
+		}
+	}
+
+	/**
+	 * pickVictim
+	 * 
+	 * Returns a free frame if there is one.  Otherwise evicts the LRU page of T1
+	 * while T1 is larger than its target, else the LRU page of T2, falling back
+	 * to the other list if every frame in the preferred one is pinned.
+	 */
+	public synchronized int pickVictim() {
+		int victim = firstUnpinned(free);
+		if (victim != -1) {
+			return victim;
+		}
+		if (t1.size() > 0 && t1.size() > p) {
+			victim = firstUnpinned(t1);
+			if (victim == -1) {
+				victim = firstUnpinned(t2);
+			}
+		} else {
+			victim = firstUnpinned(t2);
+			if (victim == -1) {
+				victim = firstUnpinned(t1);
+			}
+		}
+		return victim;
+	}
+}
@@ -4,8 +4,13 @@ import global.GlobalConst;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import logmgr.LogMgr;
 
-import java.util.HashMap;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <h3>Minibase Buffer Manager</h3>
@@ -21,46 +26,403 @@ import java.util.HashMap;
  * </ol>
  * The buffer manager is used by access methods, heap files, and
  * relational operators.
+ * <br><br>
+ * All public methods may be called from multiple threads.  The page table is
+ * split into stripes by page number, each guarded by its own latch, so pins of
+ * unrelated pages do not contend.  A miss holds the latch of the requested
+ * page while the frame is loaded, so concurrent misses on the same page cause
+ * only one disk read.
+ * <br><br>
+ * When Minibase.LogManager is set, every frame keeps a copy of its page as of
+ * its last log record.  Unpinning a page dirty logs what changed since the
+ * copy, and a page is only written once the log is on disk up to the page's
+ * last record; a pinned page, which may hold changes not yet logged, is
+ * written from its copy.
+ * <br><br>
+ * When Minibase.OffHeap is set, the frames are slices of direct memory
+ * rather than byte arrays, and are read and changed through the Page
+ * accessors.
+ * <br><br>
+ * The pool can be split into partitions, each with its own replacer and
+ * free list over a share of the frames; a page only ever occupies frames of
+ * the partition its number hashes to.  See SubPool.
+ * <br><br>
+ * The pool can be grown or shrunk while in use; see resize.  Frame numbers
+ * never change, so the frame arrays are replaced as a whole, under every
+ * latch, and code that reads them without a latch checks its frame numbers
+ * against the arrays it has.
  * 
  * @author Stefan Gurgurich
  * @author Christopher Booye
  */
 public class BufMgr implements GlobalConst {
 
+  /** Maximum number of page table stripes. */
+  protected static final int MAX_STRIPES = 64;
+
+  /** The low bits of a page's hash that poolOf takes the partition from;
+   * the stripe is taken from the bits above them. */
+  private static final int PARTITION_BITS =
+      32 - Integer.numberOfTrailingZeros(MAX_STRIPES);
+  private static final int PARTITION_MASK = (1 << PARTITION_BITS) - 1;
+
+  /** Most bytes in one slab of direct memory for an off-heap pool; a
+   * buffer can hold less than 2 GB, so a larger pool takes several. */
+  protected static final int MAX_SLAB = 1 << 30;
+
+  /** Frame number meaning no frame, for pinChild and unpinPage. */
+  public static final int NO_FRAME = -1;
+
+  /** Optimistic reads readPage tries before pinning the page instead. */
+  protected static final int OPTIMISTIC_TRIES = 3;
+
+  /** Most pages a checkpoint copies and writes in one batch. */
+  protected static final int CHECKPOINT_BATCH = 32;
+
+  /** Results of copyFrame. */
+  private static final int COPY_DONE = 0;
+  private static final int COPY_SKIPPED = 1;
+  private static final int COPY_BUSY = 2;
+
   //Array of frames of data
-  Page[] buffer_pool;
+  volatile Page[] buffer_pool;
   
   //Array of frame descriptions
-  FrameDesc[] frametab;
+  volatile FrameDesc[] frametab;
   
-  HashMap<Integer, Integer> page_to_frame;
-  HashMap<Integer, Integer> frame_to_page;
+  //Maps disk page numbers to frame numbers, one table per stripe
+  PageTable[] page_to_frame;
   
-  Replacer replacer;
+  //Latches guarding each stripe of the page table
+  ReentrantLock[] latches;
+
+  //32 - log2 of the stripe count; the stripe count is always a power of two
+  int stripe_shift;
+
+  //Disk page number held by each frame, or INVALID_PAGEID
+  volatile int[] frame_to_page;
+
+  //Number of frames in use; frames past it are being retired by a shrink,
+  //and are either empty and held by the buffer manager, or still pinned
+  volatile int num_frames;
+
+  //Number of retiring frames still pinned and holding their pages
+  AtomicInteger retiring = new AtomicInteger();
+
+  //Set when the last retiring frame is emptied, so the arrays can be cut
+  volatile boolean trim_pending;
+
+  //Partitions of the frames, each with its replacer and free list
+  SubPool[] pools;
+
+  //Background writer of dirty frames, or null if not running
+  volatile PageWriter page_writer;
+
+  //Background reader of prefetched pages, or null until first needed
+  volatile Prefetcher prefetcher;
+
+  //Number of prefetched pages evicted before they were pinned
+  AtomicInteger wasted_prefetches = new AtomicInteger();
+
+  //Write-ahead log of page changes, or null if logging is off
+  final LogMgr log;
+
+  /**
+   * Constructs a buffer manager with the clock replacement policy.
+   *
+   * @param numframes number of frames in the buffer pool
+   */
+  public BufMgr(int numframes) {
+    this(numframes, "Clock");
+  } // public BufMgr(int numframes)
+
+  /**
+   * Constructs a buffer manager with a single partition.
+   *
+   * @param numframes number of frames in the buffer pool
+   * @param replacement_policy one of "Clock", "LRU", "LRU-K", "2Q", "ARC" or
+   * "CLOCK-Pro"; 2Q, ARC and CLOCK-Pro keep pages touched once by a scan from
+   * displacing pages that are reused
+   * @throws IllegalArgumentException if the policy is unknown
+   */
+  public BufMgr(int numframes, String replacement_policy) {
+    this(numframes, replacement_policy, 1);
+  } // public BufMgr(int numframes, String replacement_policy)
 
   /**
    * Constructs a buffer manager by initializing member data.  
    * 
    * @param numframes number of frames in the buffer pool
+   * @param replacement_policy as above; each partition has its own replacer
+   * @param partitions number of partitions to split the frames into, best a
+   * power of two; a partition is full when its own frames are all pinned,
+   * so more partitions need more frames for the same number of pins
+   * @throws IllegalArgumentException if the policy is unknown, or partitions
+   * is not between 1 and numframes
    */
-  public BufMgr(int numframes) {
+  public BufMgr(int numframes, String replacement_policy, int partitions) {
+
+	if (partitions < 1 || partitions > numframes){
+	  throw new IllegalArgumentException("Invalid number of partitions");
+	}
   
 	//initialization of buffer_pool array. This will store each 'frame'
 	buffer_pool = new Page[numframes];
 	frametab = new FrameDesc[numframes];
 	  
 	//populates the buffer_pool and frametab arrays
-	for (int i=0; i<frametab.length; i++){
- 	buffer_pool[i] = new Page();
- 	frametab[i] = new FrameDesc();
- 	}
+	log = Minibase.LogManager;
+	pools = new SubPool[partitions];
+	initFrames(buffer_pool, frametab, 0);
+	num_frames = numframes;
 	  
-	//creates an instance of replacer and initializes hashMaps
-	replacer = new ReplacerImpl(this);
-	page_to_frame = new HashMap<>();
-    frame_to_page = new HashMap<>();
+	//creates the partitions, each with its replacer and every frame free,
+	//and initializes the page table stripes
+	for (int i = 0; i < partitions; i++){
+	  pools[i] = new SubPool(i, partitions, frametab, numframes, replacement_policy);
+	}
+	page_to_frame = newPageTables(numframes);
+	stripe_shift = Integer.numberOfLeadingZeros(page_to_frame.length) + 1;
+	latches = new ReentrantLock[page_to_frame.length];
+	for (int i = 0; i < latches.length; i++){
+	  latches[i] = new ReentrantLock();
+	}
+    frame_to_page = new int[numframes];
+    Arrays.fill(frame_to_page, INVALID_PAGEID);
     
-  } // public BufMgr(int numframes)
+  } // public BufMgr(int numframes, String replacement_policy, int partitions)
+
+  /**
+   * newPageTables
+   *
+   * Makes the page table stripes for a pool of the given number of frames:
+   * a power of two of them, at least two and at most MAX_STRIPES, each sized
+   * for its share of the frames.  Public, with stripeOf, so that the test
+   * drivers can check and time the tables as the buffer manager uses them.
+   */
+  public static PageTable[] newPageTables(int numframes){
+    int stripes = 2;
+    while (stripes < MAX_STRIPES && stripes < numframes){
+      stripes <<= 1;
+    }
+    PageTable[] tables = new PageTable[stripes];
+    for (int i = 0; i < stripes; i++){
+      tables[i] = new PageTable(numframes / stripes + 1);
+    }
+    return tables;
+  } //newPageTables
+
+  /**
+   * initFrames
+   *
+   * Fills in the frames and frame descriptions from the given one to the
+   * end of the arrays.
+   */
+  private void initFrames(Page[] pool, FrameDesc[] tab, int from){
+    if (Minibase.OffHeap){
+      allocateSlabs(pool, from);
+    }
+    for (int i = from; i < tab.length; i++){
+      if (pool[i] == null){
+        pool[i] = new Page();
+      }
+      tab[i] = new FrameDesc(i, i / pools.length);
+      if (log != null){
+        tab[i].shadow = new byte[pool[i].getSize()];
+      }
+    }
+  } //initFrames
+
+  /**
+   * allocateSlabs
+   *
+   * Backs the frames from the given one on with direct memory instead of a
+   * byte array each: they are carved out of as few slabs as a buffer's size
+   * allows, and each frame is a page viewing its slice.  The collector then
+   * has no page data to trace or copy, and channel I/O moves pages straight
+   * between the file and the frame.  A slab is freed once none of its frames
+   * is in the pool; the JVM must be allowed enough direct memory
+   * (-XX:MaxDirectMemorySize).
+   */
+  private static void allocateSlabs(Page[] pool, int from){
+    int page_size = Minibase.PageSize;
+    int per_slab = MAX_SLAB / page_size;
+    for (int first = from; first < pool.length; first += per_slab){
+      int count = Math.min(per_slab, pool.length - first);
+      ByteBuffer slab = ByteBuffer.allocateDirect(count * page_size);
+      for (int i = 0; i < count; i++){
+        pool[first + i] = new Page(slab.slice(i * page_size, page_size));
+      }
+    }
+  } //allocateSlabs
+
+  /**
+   * resize
+   *
+   * Changes the number of frames in the buffer pool while it is in use.
+   * Every latch is held while the change is made, so pins wait for it but
+   * go on before and after.
+   * <br><br>
+   * Growing adds empty frames, after taking back any frames an earlier
+   * shrink is still retiring.  Shrinking retires the frames past the new
+   * number: an unpinned one has its page written if dirty and dropped at
+   * once, while a pinned one keeps its page, and can be pinned again, until
+   * its last pin is dropped.  The frame arrays and page table shrink once
+   * every retired frame is empty, and the replacers stop seeing the retired
+   * frames at once.  Frame numbers do not change, so a pinned page stays in
+   * its frame throughout.  Each partition keeps the frames congruent to it,
+   * so they grow and shrink together.
+   *
+   * @param numframes the new number of frames
+   * @throws IllegalArgumentException if numframes is less than the number
+   * of partitions
+   */
+  public void resize(int numframes) {
+
+    if (numframes < pools.length){
+      throw new IllegalArgumentException("Invalid number of frames");
+    }
+    boolean[] held = lockAll();
+    try {
+      int old = num_frames;
+      if (numframes > old){
+        grow(old, numframes);
+      }
+      else if (numframes < old){
+        shrink(old, numframes);
+      }
+      trimFrames();
+    } finally {
+      unlockRun(held);
+    }
+
+  } //resize
+
+  /**
+   * grow
+   *
+   * Adds frames up to numframes, taking back those still retiring first.
+   * The caller holds every latch.
+   */
+  private void grow(int old, int numframes){
+
+    FrameDesc[] tab = frametab;
+    int length = tab.length;
+
+    //add the new frames
+    if (numframes > length){
+      Page[] pool = Arrays.copyOf(buffer_pool, numframes);
+      tab = Arrays.copyOf(tab, numframes);
+      initFrames(pool, tab, length);
+      int[] pages = Arrays.copyOf(frame_to_page, numframes);
+      Arrays.fill(pages, length, numframes, INVALID_PAGEID);
+      frame_to_page = pages;
+      buffer_pool = pool;
+      frametab = tab;
+    }
+    num_frames = numframes;
+    for (SubPool pool : pools){
+      pool.length = pool.framesIn(tab.length);
+      pool.resize(tab, numframes);
+    }
+
+    //a retired frame is either empty and ours, or pinned with its page;
+    //the replacer sees the latter as newly loaded
+    int taken_back = Math.min(numframes, length);
+    for (int i = old; i < taken_back; i++){
+      if (frame_to_page[i] == INVALID_PAGEID){
+        unpinFrame(tab[i]);
+        poolAt(i).pushFree(i);
+      }
+      else {
+        retiring.decrementAndGet();
+        poolAt(i).replacer.newPage(tab[i]);
+      }
+    }
+    for (int i = length; i < numframes; i++){
+      poolAt(i).pushFree(i);
+    }
+
+  } //grow
+
+  /**
+   * shrink
+   *
+   * Retires the frames from numframes on, dropping the pages of those that
+   * are unpinned.  The caller holds every latch.
+   */
+  private void shrink(int old, int numframes){
+
+    FrameDesc[] tab = frametab;
+    for (int i = numframes; i < old; i++){
+      //with every latch held, no claim is under way, so an unpinned frame
+      //can always be taken
+      if (claimFrame(tab[i])){
+        if (frame_to_page[i] != INVALID_PAGEID){
+          evict(i, stripeOf(frame_to_page[i]));
+        }
+      }
+      else {
+        retiring.incrementAndGet();
+      }
+    }
+    num_frames = numframes;
+    for (SubPool pool : pools){
+      pool.resize(tab, numframes);
+    }
+
+  } //shrink
+
+  /**
+   * trimFrames
+   *
+   * Cuts the frame arrays down past the last retired frame that still holds
+   * a page, and sizes the page table to the frames left.  The caller holds
+   * every latch.
+   */
+  private void trimFrames(){
+
+    int length = frametab.length;
+    int keep = length;
+    while (keep > num_frames && frame_to_page[keep - 1] == INVALID_PAGEID){
+      keep--;
+    }
+    if (keep < length){
+      //the frames cut are empty and held by the buffer manager
+      frame_to_page = Arrays.copyOf(frame_to_page, keep);
+      buffer_pool = Arrays.copyOf(buffer_pool, keep);
+      frametab = Arrays.copyOf(frametab, keep);
+      for (SubPool pool : pools){
+        int cut = pool.length - pool.framesIn(keep);
+        pool.length -= cut;
+        pool.num_pinned.addAndGet(-cut);
+      }
+    }
+    if (retiring.get() == 0){
+      trim_pending = false;
+    }
+    for (int i = 0; i < page_to_frame.length; i++){
+      page_to_frame[i].resize(keep / page_to_frame.length + 1);
+    }
+
+  } //trimFrames
+
+  /**
+   * trim
+   *
+   * Cuts the frame arrays once the last retiring frame has been emptied.
+   * Called with no latch held.
+   */
+  private void trim(){
+    boolean[] held = lockAll();
+    try {
+      if (trim_pending){
+        trimFrames();
+      }
+    } finally {
+      unlockRun(held);
+    }
+  } //trim
 
   /**
    * pinPage
@@ -76,9 +438,11 @@ public class BufMgr implements GlobalConst {
    * 	writes the frame's contents to disk if valid and dirty
    * 	if (contents == PIN_DISKIO)
    * 		read disk page pageno into chosen frame
-   * 	else (contents == PIN_MEMCPY)
+   * 	else if (contents == PIN_MEMCPY)
    * 		copy mempage into chosen frame
-   * 	[omitted from the above is maintenance of the frame table and hash map]
+   * 	else (contents == PIN_NOOP)
+   * 		leave chosen frame as it is
+   * 	[omitted from the above is maintenance of the frame table and page table]
    * </pre>		
    * @param pageno identifies the page to pin
    * @param mempage An output parameter referring to the chosen frame.  If
@@ -87,101 +451,765 @@ public class BufMgr implements GlobalConst {
    * @param contents Describes how the contents of the frame are determined.<br>  
    * If PIN_DISKIO, read the page from disk into the frame.<br>  
    * If PIN_MEMCPY, copy mempage into the frame.<br>  
-   * If PIN_NOOP, copy nothing into the frame - the frame contents are irrelevant.<br>
-   * Note: In the cases of PIN_MEMCPY and PIN_NOOP, disk I/O is avoided.
+   * If PIN_NOOP, copy nothing into the frame - the frame contents are irrelevant,
+   * and the caller must fill in the page before relying on it.<br>
+   * Note: In the cases of PIN_MEMCPY and PIN_NOOP, disk I/O is avoided, and a
+   * PIN_DISKIO miss reads straight into the frame, without a copy.  When
+   * logging, a PIN_MEMCPY or PIN_NOOP miss is taken to be a new page: it is
+   * logged whole, and an abort does not bring back what was on disk.
    * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned.
    * @throws IllegalStateException if all pages are pinned (i.e. pool is full)
    */
   public void pinPage(PageId pageno, Page mempage, int contents) {
+	pin(pageno, mempage, contents, NO_FRAME, false);
+  } //pinPage
+  
+  /**
+   * pinChild
+   * 
+   * Pins a page that another resident page refers to, as pinPage does,
+   * with a hint as to its frame: each frame keeps a table of the frames its
+   * page's references were last found in, by slot, and the frame in the
+   * given slot of the parent is tried before the page table is searched.
+   * This is a cache of page table lookups, not a swizzled pointer: the pin
+   * still takes the page's latch and checks that the frame holds the page,
+   * so all it saves is the page table probe.  A stale hint, left by the
+   * child's eviction, merely costs the probe after all; the table is dropped
+   * when the parent's frame takes another page.
+   * 
+   * @param parent the frame of the referring page, as returned by pinChild,
+   * or NO_FRAME if there is none; the page should be pinned
+   * @param slot which of the parent's references this is, from 0
+   * @param pageno identifies the page to pin
+   * @param mempage as for pinPage
+   * @param contents as for pinPage
+   * @return the frame now holding the page, for unpinPage and as the parent
+   * of later calls
+   * @throws IllegalArgumentException as for pinPage
+   * @throws IllegalStateException as for pinPage
+   */
+  public int pinChild(int parent, int slot, PageId pageno, Page mempage,
+      int contents){
 
-	//Search the hash map to see if a page number already exists for the frame
-	Integer frame_num = page_to_frame.get(pageno.pid);
-	
-	if (frame_num == null){
-		
-		//There is no pre-existing frame number, so find a new one with 
-		//the replacerimpl pickVictim method.
-		frame_num = replacer.pickVictim();
-			
-		//A valid frame was found
-		if (frame_num != -1){
-      
-			//If a frame was found to be valid, but had data in it, save the data to the disk
-			//before overwriting it with new data and set the dirty flag to false.
-			if ((frametab[frame_num].valid ==  true) && (frametab[frame_num].dirty == true)){
-                Minibase.DiskManager.write_page(frametab[frame_num].pageno, buffer_pool[frame_num]);
-				frametab[frame_num].dirty = false;
-			}
-        
-			//Page data coming from disk.  Read and copy the data into the frame, 
-			//set the mempage to it, update the frame descriptions and hashmap.
-			if (contents == PIN_DISKIO){
-				Page disk_page = new Page();
-				Minibase.DiskManager.read_page(pageno, disk_page);
-				buffer_pool[frame_num].copyPage(disk_page);
-				mempage.setPage(buffer_pool[frame_num]);
-				frametab[frame_num].pin_count++;  
-				frametab[frame_num].valid = true; 
-				frametab[frame_num].dirty = false; 
-				frametab[frame_num].refbit = false; 
-				frametab[frame_num].pageno = new PageId(pageno.pid); 
-				updateHashMaps(pageno.pid, frame_num);       
-			}
-			//Page data coming from a mempage.  Copy the data into the frame, 
-			//set the mempage to it, update the frame descriptions and hashmap.
-			else if (contents == PIN_MEMCPY){
-				buffer_pool[frame_num].copyPage(mempage);  
-				mempage.setPage(buffer_pool[frame_num]);
-				frametab[frame_num].pin_count++;  
-				frametab[frame_num].valid = true;  
-				frametab[frame_num].dirty = false; 
-				frametab[frame_num].refbit = false; 
-				frametab[frame_num].pageno = new PageId(pageno.pid); 
-				updateHashMaps(pageno.pid, frame_num);    
-			}
-			else if (contents == PIN_NOOP){
-				// No operation needed  
-			}
-			else{
-				// Invalid operation, so error out
-				throw new IllegalArgumentException();
-			}
+    int[] children = (parent == NO_FRAME) ? null : frametab[parent].children;
+    int hint = (children != null && slot < children.length)
+        ? children[slot] - 1 : NO_FRAME;
+    int frame_num = pin(pageno, mempage, contents, hint, false);
+    if (parent != NO_FRAME && frame_num != hint){
+      //remember the frame; a race here only loses a hint
+      FrameDesc pdesc = frametab[parent];
+      children = pdesc.children;
+      if (children == null || slot >= children.length){
+        children = Arrays.copyOf(children == null ? new int[0] : children,
+            Math.max(slot + 1, children == null ? 8 : children.length * 2));
+        pdesc.children = children;
+      }
+      children[slot] = frame_num + 1;
+    }
+    return frame_num;
+
+  } //pinChild
+
+  /**
+   * pin
+   *
+   * Does the work of pinPage, pinChild and newPage: pins the page, trying the
+   * hinted frame before the page table, and returns its frame.  A fresh page
+   * has just been allocated, so a copy already in the pool can only have
+   * been read back since the page was freed, and is replaced.
+   */
+  private int pin(PageId pageno, Page mempage, int contents, int hint,
+      boolean fresh) {
+
+	if (contents != PIN_DISKIO && contents != PIN_MEMCPY && contents != PIN_NOOP){
+	  // Invalid operation, so error out
+	  throw new IllegalArgumentException();
+	}
+
+	int stripe = stripeOf(pageno.pid);
+	latches[stripe].lock();
+	try {
+	  //Search the page table to see if a page number already exists for the frame
+	  int frame_num = lookup(stripe, pageno.pid, hint);
+
+	  if (frame_num == PageTable.NOT_FOUND){
+
+		//There is no pre-existing frame number, so claim a new one with
+		//the replacer.  The claimed frame is unmapped and holds our pin.
+		frame_num = claimVictim(poolOf(pageno.pid));
+		FrameDesc fdesc = frametab[frame_num];
+
+		try {
+		  //Page data coming from disk.  Read it straight into the frame,
+		  //which no one else can see until it is mapped.
+		  if (contents == PIN_DISKIO){
+			Minibase.DiskManager.read_page(pageno, buffer_pool[frame_num]);
+		  }
+		  //Page data coming from a mempage.  Copy the data into the frame.
+		  else if (contents == PIN_MEMCPY){
+			buffer_pool[frame_num].copyPage(mempage);
+		  }
+		  //PIN_NOOP: the caller fills in the frame itself
+		} catch (RuntimeException exc){
+		  //give the frame back before passing the error on
+		  fdesc.valid = false;
+		  unpinFrame(fdesc);
+		  poolAt(frame_num).pushFree(frame_num);
+		  throw exc;
+		}
+
+		//set the mempage to it, update the frame descriptions and page table.
+		mempage.setPage(buffer_pool[frame_num]);
+		mapFrame(frame_num, pageno.pid);
+		//a page not read from disk is taken to be new, and is logged whole
+		fdesc.formatted = (contents != PIN_DISKIO);
+	  }
+	  else{
+		//Frame number already set for this page, so update the pin_count and
+		//the mempage reference.  A new page must not overwrite a stale copy
+		//that someone is using; an unused one, such as a read-ahead, is
+		//taken over and logged whole.
+		FrameDesc fdesc = frametab[frame_num];
+		if (fresh){
+		  if (!lockFrame(fdesc)){
+			throw new IllegalArgumentException();
+		  }
+		  if (contents == PIN_MEMCPY){
+			buffer_pool[frame_num].copyPage(mempage);
+		  }
+		  fdesc.formatted = true;
+		  fdesc.version.incrementAndGet();
 		}
-		//No valid frame could be found, error out.
-		else{
-			throw new IllegalStateException(); 
+		else {
+		  pinFrame(fdesc);
 		}
+		mempage.setPage(buffer_pool[frame_num]);
+		notePin(fdesc);
+	  }
+	  return frame_num;
+	} finally {
+	  latches[stripe].unlock();
 	}
-    else{
-      //Frame number already set for this page, so update the pin_count and
-      //the mempage reference.
-      frametab[frame_num].pin_count++;  
-      mempage.setPage(buffer_pool[frame_num]);
+  } //pin
+
+  /**
+   * lookup
+   *
+   * Finds the frame holding the given page, trying the hinted frame first.
+   * The caller holds the page's latch, under which a frame's page can only
+   * be changed, so the hint is trusted only if it still holds the page.
+   *
+   * @return the frame number, or PageTable.NOT_FOUND
+   */
+  private int lookup(int stripe, int pid, int hint){
+    if (hint >= 0 && holds(hint, pid)){
+      return hint;
     }
-  } //pinPage
-  
+    return page_to_frame[stripe].get(pid);
+  } //lookup
+
   /**
-   * updateHashMaps
-   * 
-   * First, check to see if this page was already in the hashmaps; if it was remove the
-   * references in both hash tables.  Then add the new data to both tables. 
-   * 
-   * @param page
-   * @param frame
+   * holds
+   *
+   * Tells whether the given frame, which may be past the end of a shrunk
+   * pool, holds the given page.
    */
-  private void updateHashMaps(int page, int frame)
-  {
-    Integer oldPage = frame_to_page.get(frame);
-    if (oldPage != null){
-      page_to_frame.remove(oldPage);
-      frame_to_page.remove(frame);
+  private boolean holds(int frame_num, int pid){
+    int[] pages = frame_to_page;
+    return frame_num < pages.length && pages[frame_num] == pid;
+  } //holds
+
+  /**
+   * readPage
+   *
+   * Runs a reader on a page without pinning it, in the style of a seqlock:
+   * the page's frame is found without the page table latch, its version is
+   * noted, the reader runs on the frame, and the result is kept only if the
+   * frame is still unpinned and its version unchanged.  Every change to a
+   * frame's page or contents is made while it is pinned and bumps its version
+   * before the pin is dropped, so an unpinned frame with the same version
+   * held the page, unchanged, throughout.  After a few failed tries, or if
+   * the page is not in the pool or is pinned, the page is pinned and read in
+   * the usual way.  A hot page is thus read without writing its pin count or
+   * taking a latch; the reader only sets its reference bit.
+   *
+   * @param pageno identifies the page to read
+   * @param mempage output parameter, made to refer to the page's frame while
+   * the reader runs
+   * @param reader the reader to run; see PageReader
+   * @return what the reader returned
+   * @throws RuntimeException whatever the reader threw on a consistent page
+   */
+  public <T> T readPage(PageId pageno, Page mempage, PageReader<T> reader){
+
+    PageTable table = page_to_frame[stripeOf(pageno.pid)];
+    for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++){
+      //the table may be changing under us, so a lookup that fails or finds
+      //the wrong frame is only a reason to try again
+      int frame_num;
+      try {
+        frame_num = table.get(pageno.pid);
+      } catch (RuntimeException exc){
+        continue;
+      }
+      if (frame_num == PageTable.NOT_FOUND){
+        break;
+      }
+      FrameDesc[] tab = frametab;
+      Page[] pool = buffer_pool;
+      if (frame_num >= tab.length || frame_num >= pool.length){
+        continue;
+      }
+      FrameDesc fdesc = tab[frame_num];
+      long version = fdesc.version.get();
+      if (fdesc.pin_count.get() != 0){
+        //someone may be changing it
+        break;
+      }
+      if (!holds(frame_num, pageno.pid) || !fdesc.valid){
+        continue;
+      }
+
+      //run the reader, keeping whatever it threw until the read is checked
+      mempage.setPage(pool[frame_num]);
+      T result = null;
+      RuntimeException failure = null;
+      try {
+        result = reader.read(mempage);
+      } catch (RuntimeException exc){
+        failure = exc;
+      }
+      VarHandle.acquireFence();
+      if (fdesc.pin_count.get() == 0 && fdesc.version.get() == version){
+        if (!fdesc.refbit){
+          fdesc.refbit = true;
+        }
+        if (failure != null){
+          throw failure;
+        }
+        return result;
+      }
     }
     
-    // Update both hashmaps
-    page_to_frame.put(page, frame);
-    frame_to_page.put(frame, page);			
+    //pin it, reading it in if need be
+    pinPage(pageno, mempage, PIN_DISKIO);
+    try {
+      return reader.read(mempage);
+    } finally {
+      unpinPage(pageno, UNPIN_CLEAN);
+    }
 		
-  } //updateHashMaps
+  } //readPage
+
+  /**
+   * pinRun
+   *
+   * Pins the n consecutive disk pages starting at first, as if each were
+   * pinned with PIN_DISKIO.  Pages already in the buffer pool are simply
+   * pinned again; each run of the others is read straight into its frames
+   * with a single disk manager call.
+   *
+   * @param first identifies the first page of the run
+   * @param n number of pages to pin
+   * @param mempages output parameters; mempages[i] is made to refer to the
+   * frame holding page first + i
+   * @throws IllegalArgumentException if n is not positive or mempages is too
+   * short
+   * @throws IllegalStateException if there are not enough unpinned frames;
+   * nothing is left pinned in that case
+   */
+  public void pinRun(PageId first, int n, Page[] mempages) {
+
+    if (n < 1 || mempages.length < n){
+      throw new IllegalArgumentException();
+    }
+    if (n > num_frames){
+      throw new IllegalStateException();
+    }
+
+    boolean[] held = lockRun(first.pid, n);
+    try {
+      int[] frames = new int[n];
+      boolean[] missing = new boolean[n];
+      Arrays.fill(frames, -1);
+      try {
+        //pin the resident pages first, so that the claims below cannot
+        //evict them
+        for (int i = 0; i < n; i++){
+          int pid = first.pid + i;
+          int frame_num = page_to_frame[stripeOf(pid)].get(pid);
+          if (frame_num == PageTable.NOT_FOUND){
+            missing[i] = true;
+          }
+          else {
+            pinFrame(frametab[frame_num]);
+            notePin(frametab[frame_num]);
+            frames[i] = frame_num;
+          }
+        }
+        for (int i = 0; i < n; i++){
+          if (missing[i]){
+            frames[i] = claimVictim(poolOf(first.pid + i));
+          }
+        }
+
+        readMissing(first.pid, n, frames, missing);
+      } catch (RuntimeException exc){
+        //give back every frame taken so far before passing the error on
+        for (int i = 0; i < n; i++){
+          if (frames[i] == -1){
+            continue;
+          }
+          FrameDesc fdesc = frametab[frames[i]];
+          if (missing[i]){
+            fdesc.valid = false;
+            unpinFrame(fdesc);
+            poolAt(frames[i]).pushFree(frames[i]);
+          }
+          else {
+            releasePin(frames[i], stripeOf(first.pid + i));
+          }
+        }
+        throw exc;
+      }
+
+      //map the pages just read, and point the mempages at the frames
+      for (int i = 0; i < n; i++){
+        if (missing[i]){
+          mapFrame(frames[i], first.pid + i);
+        }
+        mempages[i].setPage(buffer_pool[frames[i]]);
+      }
+    } finally {
+      unlockRun(held);
+      if (trim_pending){
+        trim();
+      }
+    }
+
+  } //pinRun
+
+  /**
+   * prefetch
+   *
+   * Asks for the given pages to be read into the buffer pool in the
+   * background, without pinning them.  This is only a hint: pages already in
+   * the pool are skipped, and the request is dropped if the background
+   * thread is too far behind or the pool is short of unpinned frames.
+   * Pinned pages are never evicted to make room.
+   *
+   * @param pageids the pages to read, best in ascending order so that runs
+   * of adjacent pages are read together
+   * @param n number of entries of pageids to use
+   */
+  public void prefetch(PageId[] pageids, int n) {
+    prefetch(pageids, n, null);
+  } //prefetch
+
+  /**
+   * prefetch
+   *
+   * Like prefetch(pageids, n), for a stream of requests such as a scan's
+   * read-ahead windows.  A request from the stream still waiting when the
+   * next one arrives is dropped: the stream has moved on, and reading those
+   * pages late would only evict pages it is about to use.
+   *
+   * @param stream identifies the stream; any object, compared by identity
+   */
+  public void prefetch(PageId[] pageids, int n, Object stream) {
+    if (n < 1){
+      return;
+    }
+    int[] pids = new int[n];
+    for (int i = 0; i < n; i++){
+      pids[i] = pageids[i].pid;
+    }
+    Prefetcher thread;
+    synchronized (this){
+      if (prefetcher == null){
+        prefetcher = new Prefetcher(this);
+        prefetcher.start();
+      }
+      thread = prefetcher;
+    }
+    thread.offer(pids, stream);
+  } //prefetch
+
+  /**
+   * getWastedPrefetches
+   *
+   * Gets the number of prefetched pages evicted before anyone pinned them;
+   * if this grows, read-ahead is running too far ahead for the pool.
+   */
+  public int getWastedPrefetches() {
+    return wasted_prefetches.get();
+  } //getWastedPrefetches
+
+  /**
+   * cancelPrefetch
+   *
+   * Drops every prefetch request not yet started, and waits for the one in
+   * progress, if any, to finish.  Afterwards the prefetcher holds no pins.
+   */
+  public void cancelPrefetch() {
+    cancelPrefetch(null);
+  } //cancelPrefetch
+
+  /**
+   * cancelPrefetch
+   *
+   * Drops the given stream's prefetch requests not yet started, and waits
+   * for the one in progress if it is the stream's.  Requests of other
+   * streams, such as other scans, carry on.  Afterwards the prefetcher holds
+   * no pins for the stream.
+   *
+   * @param stream the stream passed to prefetch, or null for every request
+   */
+  public void cancelPrefetch(Object stream) {
+    Prefetcher thread = prefetcher;
+    if (thread != null){
+      thread.cancel(stream);
+    }
+  } //cancelPrefetch
+
+  /**
+   * stopPrefetcher
+   *
+   * Cancels all prefetching and stops the background thread, if running.
+   */
+  public synchronized void stopPrefetcher() {
+    if (prefetcher != null){
+      prefetcher.shutdown();
+      prefetcher = null;
+    }
+  } //stopPrefetcher
+
+  /**
+   * loadRun
+   *
+   * Reads those of the n consecutive pages starting at first_pid that are not
+   * in the buffer pool into unpinned frames, for the prefetcher.  Stops
+   * claiming frames when the pool runs out, and skips the whole run if it
+   * would leave fewer than a quarter of the frames unpinned.
+   */
+  void loadRun(int first_pid, int n) {
+
+    if (getNumUnpinned() - n < num_frames / 4){
+      return;
+    }
+    boolean[] held = lockRun(first_pid, n);
+    try {
+      int[] frames = new int[n];
+      boolean[] missing = new boolean[n];
+      Arrays.fill(frames, -1);
+      int claimed = 0;
+      try {
+        for (int i = 0; i < n; i++){
+          int pid = first_pid + i;
+          if (page_to_frame[stripeOf(pid)].get(pid) == PageTable.NOT_FOUND){
+            frames[i] = claimVictim(poolOf(pid));
+            missing[i] = true;
+            claimed = i + 1;
+          }
+        }
+      } catch (IllegalStateException exc){
+        //the pool is full; read what there are frames for
+      }
+
+      try {
+        readMissing(first_pid, claimed, frames, missing);
+      } catch (RuntimeException exc){
+        for (int i = 0; i < claimed; i++){
+          if (missing[i]){
+            frametab[frames[i]].valid = false;
+            unpinFrame(frametab[frames[i]]);
+            poolAt(frames[i]).pushFree(frames[i]);
+          }
+        }
+        throw exc;
+      }
+
+      //map the pages, then drop the claims; the pages were never pinned, but
+      //count as referenced so that the next read-ahead does not take them
+      for (int i = 0; i < claimed; i++){
+        if (missing[i]){
+          FrameDesc fdesc = frametab[frames[i]];
+          mapFrame(frames[i], first_pid + i);
+          fdesc.refbit = true;
+          fdesc.prefetched = true;
+          unpinFrame(fdesc);
+          poolAt(frames[i]).replacer.unpinPage(fdesc);
+        }
+      }
+    } finally {
+      unlockRun(held);
+    }
+
+  } //loadRun
+
+  /**
+   * lockRun
+   *
+   * Latches every stripe the n pages starting at first_pid fall in, in
+   * ascending order so that two runs cannot deadlock on each other.
+   *
+   * @return which stripes are latched, for unlockRun
+   */
+  private boolean[] lockRun(int first_pid, int n) {
+    boolean[] held = new boolean[latches.length];
+    for (int i = 0; i < n; i++){
+      held[stripeOf(first_pid + i)] = true;
+    }
+    for (int stripe = 0; stripe < latches.length; stripe++){
+      if (held[stripe]){
+        latches[stripe].lock();
+      }
+    }
+    return held;
+  } //lockRun
+
+  /**
+   * lockAll
+   *
+   * Latches every stripe, in ascending order as lockRun does.
+   *
+   * @return which stripes are latched, for unlockRun
+   */
+  private boolean[] lockAll() {
+    boolean[] held = new boolean[latches.length];
+    Arrays.fill(held, true);
+    for (int stripe = 0; stripe < latches.length; stripe++){
+      latches[stripe].lock();
+    }
+    return held;
+  } //lockAll
+
+  /**
+   * unlockRun
+   *
+   * Releases the latches taken by lockRun or lockAll.
+   */
+  private void unlockRun(boolean[] held) {
+    for (int stripe = 0; stripe < latches.length; stripe++){
+      if (held[stripe]){
+        latches[stripe].unlock();
+      }
+    }
+  } //unlockRun
+
+  /**
+   * readMissing
+   *
+   * Reads each stretch of missing pages among the n starting at first_pid
+   * straight into their claimed frames, one disk manager call per stretch.
+   */
+  private void readMissing(int first_pid, int n, int[] frames, boolean[] missing) {
+    Page[] run = new Page[n];
+    for (int i = 0; i < n; ){
+      if (!missing[i]){
+        i++;
+        continue;
+      }
+      int end = i;
+      while (end < n && missing[end]){
+        run[end - i] = buffer_pool[frames[end]];
+        end++;
+      }
+      Minibase.DiskManager.read_pages(new PageId(first_pid + i), end - i, run);
+      i = end;
+    }
+  } //readMissing
+
+  /**
+   * notePin
+   *
+   * Tells the replacer about a pin of a resident page.  The first pin of a
+   * prefetched page is not news to it: the replacer saw the page arrive when
+   * it was prefetched, and counting both would make a page read once by a
+   * scan look like a page in reuse.
+   */
+  private void notePin(FrameDesc fdesc) {
+    if (fdesc.prefetched){
+      fdesc.prefetched = false;
+    }
+    else if (fdesc.index < num_frames){
+      poolAt(fdesc.index).replacer.pinPage(fdesc);
+    }
+  } //notePin
+
+  /**
+   * mapFrame
+   *
+   * Records that a claimed frame now holds the given page, clean, and tells
+   * the replacer.  The caller holds the page's latch.
+   */
+  private void mapFrame(int frame_num, int pid) {
+    FrameDesc fdesc = frametab[frame_num];
+    fdesc.valid = true;
+    fdesc.dirty = false;
+    fdesc.refbit = false;
+    fdesc.prefetched = false;
+    fdesc.pageno = new PageId(pid);
+    fdesc.children = null;
+    if (log != null){
+      //the page is as on disk, so as of the records already there
+      buffer_pool[frame_num].getBytes(0, fdesc.shadow, 0, fdesc.shadow.length);
+      fdesc.page_lsn = LogMgr.NULL_LSN;
+      fdesc.rec_lsn = LogMgr.NULL_LSN;
+      fdesc.formatted = false;
+    }
+    frame_to_page[frame_num] = pid;
+    page_to_frame[stripeOf(pid)].put(pid, frame_num);
+    fdesc.version.incrementAndGet();
+    poolAt(frame_num).replacer.newPage(fdesc);
+  } //mapFrame
+
+  /**
+   * claimVictim
+   *
+   * Takes a frame of the given partition from its free list, or failing that
+   * uses its replacer to pick one, then takes it over: the frame's old page
+   * is written if dirty and removed from the page table, and the frame is left
+   * invalid with a pin count of one.  The caller must hold the latch of the page
+   * being loaded; the latch of the old page is only tried, never waited on, so
+   * two misses cannot deadlock on each other's stripes.
+   *
+   * @return the claimed frame number
+   * @throws IllegalStateException if all the partition's frames are pinned
+   * (i.e. pool is full)
+   */
+  private int claimVictim(SubPool pool)
+  {
+    for (int attempt = 0; attempt <= pool.length * 2; attempt++){
+      if (pool.getNumUnpinned() == 0){
+        //Every frame is pinned, so fail without asking the replacer.
+        throw new IllegalStateException();
+      }
+
+      //a frame from the free list is only a hint: the replacer may have
+      //handed it out since, so it is claimed like any other victim
+      int frame_num = pool.popFree();
+      if (frame_num == FrameList.NONE){
+        int slot = pool.replacer.pickVictim();
+        if (slot == -1){
+          //No valid frame could be found, error out.
+          throw new IllegalStateException();
+        }
+        frame_num = pool.frame(slot);
+      }
+
+      //claim the frame; losing this race means another thread pinned it.
+      //Until the old page's latch is held the claim is marked as such, so
+      //that a thread holding that latch does not take it for a caller's pin.
+      FrameDesc fdesc = frametab[frame_num];
+      if (!fdesc.pin_count.compareAndSet(0, FrameDesc.CLAIM)){
+        continue;
+      }
+      pool.num_pinned.incrementAndGet();
+
+      //the page mapping can only change while the frame is pinned, so it is
+      //stable now; an unmapped frame needs nothing more
+      int old_page = frame_to_page[frame_num];
+      if (old_page == INVALID_PAGEID){
+        fdesc.pin_count.set(1);
+        return frame_num;
+      }
+
+      //keep hits on the old page out while it is written and unmapped
+      int old_stripe = stripeOf(old_page);
+      if (!latches[old_stripe].tryLock()){
+        dropClaim(fdesc);
+        pool.replacer.victimBusy(fdesc);
+        continue;
+      }
+      try {
+        if (fdesc.pin_count.get() != FrameDesc.CLAIM){
+          //a hit slipped in between the claim and the latch
+          dropClaim(fdesc);
+          continue;
+        }
+        fdesc.pin_count.set(1);
+        if (evict(frame_num, old_stripe)){
+          //the page writer is falling behind
+          PageWriter writer = page_writer;
+          if (writer != null){
+            writer.nudge();
+          }
+        }
+        return frame_num;
+      } finally {
+        latches[old_stripe].unlock();
+      }
+    }
+
+    //every candidate was contended; treat the pool as full
+    throw new IllegalStateException();
+
+  } //claimVictim
+
+  /**
+   * evict
+   *
+   * Takes the page out of a claimed frame: the page is written if dirty and
+   * removed from the page table, and the frame is left invalid, still
+   * claimed.  The caller holds the latch of the page, in the given stripe.
+   *
+   * @return true if the page had to be written
+   */
+  private boolean evict(int frame_num, int stripe){
+
+    //If the frame had data in it, save the data to the disk before
+    //overwriting it with new data and set the dirty flag to false.
+    FrameDesc fdesc = frametab[frame_num];
+    boolean written = false;
+    fdesc.awaitFlush();
+    if (fdesc.prefetched){
+      wasted_prefetches.incrementAndGet();
+    }
+    if (fdesc.valid && fdesc.dirty){
+      flushLog(fdesc);
+      Minibase.DiskManager.write_page(fdesc.pageno, buffer_pool[frame_num]);
+      fdesc.dirty = false;
+      fdesc.rec_lsn = LogMgr.NULL_LSN;
+      written = true;
+    }
+    if (frame_num < num_frames){
+      poolAt(frame_num).replacer.freePage(fdesc);
+    }
+    page_to_frame[stripe].remove(frame_to_page[frame_num]);
+    frame_to_page[frame_num] = INVALID_PAGEID;
+    fdesc.valid = false;
+    fdesc.version.incrementAndGet();
+    return written;
+
+  } //evict
+
+  /**
+   * releasePin
+   *
+   * Drops a pin of a frame holding a page.  The last pin of a frame a
+   * shrink is retiring is kept instead, as the buffer manager's hold on the
+   * emptied frame, and the page is evicted.  The caller holds the latch of
+   * the page, in the given stripe, and trims the arrays once it is released
+   * if trim_pending is set.
+   */
+  private void releasePin(int frame_num, int stripe){
+    FrameDesc fdesc = frametab[frame_num];
+    if (frame_num >= num_frames && fdesc.pin_count.get() == 1){
+      evict(frame_num, stripe);
+      if (retiring.decrementAndGet() == 0){
+        trim_pending = true;
+      }
+      return;
+    }
+    if (unpinFrame(fdesc) == 0){
+      // Set reference bit to true if pin_count is 0.
+      fdesc.refbit = true;
+    }
+    if (frame_num < num_frames){
+      poolAt(frame_num).replacer.unpinPage(fdesc);
+    }
+  } //releasePin
  
   /**
    * unpinPage
@@ -194,24 +1222,53 @@ public class BufMgr implements GlobalConst {
    *  or not pinned
    */
   public void unpinPage(PageId pageno, boolean dirty) {
+    unpinPage(pageno, dirty, NO_FRAME);
+  } //unpinPage
 
-    Integer frame_num = page_to_frame.get(pageno.pid);
-    if ((frame_num == null) || frametab[frame_num].pin_count == 0){
-      //Trying to unpin a page that doesn't exist, so error out
-      throw new IllegalArgumentException();      
-    }
-    else{
+  /**
+   * unpinPage
+   *
+   * Unpins a page as above, given the frame pinChild returned for it, so
+   * that the page table need not be searched.
+   *
+   * @param frame the frame holding the page, or NO_FRAME if not known
+   */
+  public void unpinPage(PageId pageno, boolean dirty, int frame) {
+
+    int stripe = stripeOf(pageno.pid);
+    latches[stripe].lock();
+    try {
+      int frame_num = lookup(stripe, pageno.pid, frame);
+      if ((frame_num == PageTable.NOT_FOUND) || frametab[frame_num].userPins() == 0){
+        //Trying to unpin a page that doesn't exist, so error out
+        throw new IllegalArgumentException();
+      }
+      FrameDesc fdesc = frametab[frame_num];
       if (dirty == true){
         //make sure the page stays dirty until saved to disk
-        frametab[frame_num].dirty = dirty;
+        fdesc.dirty = dirty;
+        if (log != null){
+          long lsn = log.logPage(pageno.pid, fdesc.shadow,
+              buffer_pool[frame_num], fdesc.formatted);
+          fdesc.formatted = false;
+          if (lsn != LogMgr.NULL_LSN){
+            fdesc.page_lsn = lsn;
+            if (fdesc.rec_lsn == LogMgr.NULL_LSN){
+              fdesc.rec_lsn = lsn;
+            }
+          }
+        }
+        //optimistic readers of the old contents must retry
+        fdesc.version.incrementAndGet();
       }
       
       // Update the pin count.
-      frametab[frame_num].pin_count--;
-      if (frametab[frame_num].pin_count == 0){
-        // Set reference bit to true if pin_count is 0.
-        frametab[frame_num].refbit = true;
-      }
+      releasePin(frame_num, stripe);
+    } finally {
+      latches[stripe].unlock();
+    }
+    if (trim_pending){
+      trim();
     }
   } //unpinPage
   
@@ -229,22 +1286,49 @@ public class BufMgr implements GlobalConst {
    * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
    */
   public PageId newPage(Page first_page, int run_size) {
+    return newPage(first_page, run_size, PIN_MEMCPY);
+  } //newPage
 
+  /**
+   * newPage
+   *
+   * Allocates a run of new disk pages and pins the first one in the buffer
+   * pool, as above.  With PIN_NOOP, the first page is not copied from
+   * firstpg but zeroed in its frame, and firstpg is only made to refer to it;
+   * a new page then costs no copy and no page-sized allocation.
+   * A copy of the first page left in the pool since it was last freed, by
+   * read-ahead for instance, is replaced rather than pinned.
+   *
+   * @param firstpg output, and input for PIN_MEMCPY: the first allocated page
+   * @param run_size input: number of pages to allocate
+   * @param contents PIN_MEMCPY or PIN_NOOP
+   * @return page id of the first allocated page
+   * @throws IllegalArgumentException if firstpg is already pinned, or
+   * contents is neither PIN_MEMCPY nor PIN_NOOP
+   * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
+   */
+  public PageId newPage(Page first_page, int run_size, int contents) {
+
+    if (contents != PIN_MEMCPY && contents != PIN_NOOP){
+      throw new IllegalArgumentException();
+    }
     if (getNumUnpinned() == 0){
       //Everything is already unpinned and the pool is clear, so error out.
     	throw new IllegalStateException();      
     }
     else{
       PageId pageno = Minibase.DiskManager.allocate_page(run_size);
-  	  Integer frame_num = page_to_frame.get(pageno.pid);
     
       // The first page is already mapped into the buffer pool and pinned
-  	  if ((frame_num != null) && (frametab[frame_num].pin_count > 0)){
+  	  if (isPinned(pageno.pid)){
         throw new IllegalArgumentException(); 
       }
       else{
         // Pin the first page and return its page id
-        pinPage(pageno, first_page, PIN_MEMCPY);
+        pin(pageno, first_page, contents, NO_FRAME, true);
+        if (contents == PIN_NOOP){
+          first_page.fillBytes(0, first_page.getSize(), (byte) 0);
+        }
         return pageno;
       }
     }
@@ -254,42 +1338,284 @@ public class BufMgr implements GlobalConst {
    * freePage
    * 
    * Deallocates a single page from disk, freeing it from the pool if needed.
+   * When logging, a transaction's frees wait for it to commit (see LogMgr),
+   * and the page is left as it is until then.
    * 
    * @param pageno identifies the page to remove
-   * @throws IllegalArgumentException if the page is pinned
+   * @throws IllegalArgumentException if the page is pinned, as for pinPage
    */
   public void freePage(PageId pageno) {
 
-    Integer frame_num = page_to_frame.get(pageno.pid);
-    
-    //Frame number is assigned already and pinned, so error out
-    if (frame_num != null && frametab[frame_num].pin_count >0){
-    	throw new IllegalArgumentException();
+    if (log != null && !isPinned(pageno.pid) && log.deferFree(pageno.pid)){
+      return;
     }
-    else{
-    	Minibase.DiskManager.deallocate_page(pageno);
+
+    int stripe = stripeOf(pageno.pid);
+    latches[stripe].lock();
+    try {
+      int frame_num = page_to_frame[stripe].get(pageno.pid);
+      if (frame_num != PageTable.NOT_FOUND){
+        FrameDesc fdesc = frametab[frame_num];
+    
+        //Frame number is assigned already and pinned, so error out
+        if (!lockFrame(fdesc)){
+          throw new IllegalArgumentException();
+        }
+
+        //drop the frame without writing it; the page is going away
+        fdesc.awaitFlush();
+        poolAt(frame_num).replacer.freePage(fdesc);
+        page_to_frame[stripe].remove(pageno.pid);
+        frame_to_page[frame_num] = INVALID_PAGEID;
+        fdesc.valid = false;
+        fdesc.dirty = false;
+        fdesc.version.incrementAndGet();
+        fdesc.rec_lsn = LogMgr.NULL_LSN;
+        unpinFrame(fdesc);
+        poolAt(frame_num).pushFree(frame_num);
+      }
+    } finally {
+      latches[stripe].unlock();
     }
+
+    //deallocate outside the latch, since it pins the space map
+    Minibase.DiskManager.deallocate_page(pageno);
     
   } //freePage
 
   /**
    * flushAllPages
    * 
-   * Write all valid and dirty frames to disk.
+   * Write all valid and dirty frames to disk, and force them to the device.
    * Note flushing involves only writing, not unpinning or freeing
-   * or the like.
+   * or the like.  This is a checkpoint that writes as fast as it can; pins
+   * go on meanwhile.
    * 
    */
   public void flushAllPages() {
+    checkpoint(0);
+  } //flushAllPages
+
+  /**
+   * checkpoint
+   *
+   * Writes every page that is dirty when called, in page order, spread over
+   * the given time, and forces them to the device.  Pins and unpins go on
+   * meanwhile: each batch of pages is copied under the latches, which are
+   * released before the batch is written, and a pinned page is written as it
+   * is, or if logging, from its copy as of its last log record.
+   * <br><br>
+   * When logging, the pages dirtied since are then listed with the first
+   * record each is missing on disk, and the list is logged with the running
+   * transactions; the disk manager records the checkpoint, and restart need
+   * not redo what the list shows is on disk.
+   *
+   * @param window_ms how long to spread the writes over, in milliseconds; 0
+   * writes them as fast as possible
+   */
+  public void checkpoint(long window_ms) {
+
+    //list the dirty frames by page number; rechecked under the latches
+    FrameDesc[] tab = frametab;
+    int[] pages = frame_to_page;
+    int numframes = Math.min(tab.length, pages.length);
+    long[] candidates = new long[numframes];
+    int dirty = 0;
+    for (int i = 0; i < numframes; i++){
+      int pid = pages[i];
+      if (pid != INVALID_PAGEID && tab[i].dirty && tab[i].valid){
+        candidates[dirty++] = ((long) pid << 32) | i;
+      }
+    }
+    Arrays.sort(candidates, 0, dirty);
+
+    //copy and write them a batch at a time, pacing the batches to the window
+    Page[] copies = new Page[Math.min(CHECKPOINT_BATCH, Math.max(dirty, 1))];
+    for (int i = 0; i < copies.length; i++){
+      copies[i] = new Page();
+    }
+    int[] pids = new int[copies.length];
+    int[] frames = new int[copies.length];
+    long start = System.nanoTime();
+    for (int next = 0; next < dirty; ){
+      int count = 0;
+      long batch_lsn = LogMgr.NULL_LSN;
+      while (count < copies.length && next < dirty){
+        int pid = (int) (candidates[next] >>> 32);
+        int frame_num = (int) candidates[next];
+        //only the first page of a batch may wait: a thread holding another
+        //page's latch may be waiting for this batch to be written
+        int copied = copyFrame(pid, frame_num, copies[count], count == 0);
+        if (copied == COPY_BUSY){
+          break;
+        }
+        next++;
+        if (copied == COPY_DONE){
+          pids[count] = pid;
+          frames[count] = frame_num;
+          batch_lsn = Math.max(batch_lsn, tab[frame_num].page_lsn);
+          count++;
+        }
+      }
+      writeBatch(copies, pids, frames, count, batch_lsn);
 
-    for (int i = 0; i < frametab.length; i++){
-       	if ((frametab[i].dirty == true) && (frametab[i].valid == true)){
-       		flushPage(frametab[i].pageno);
-    		frametab[i].dirty = false;
-    	}
+      if (window_ms > 0){
+        long due = start + window_ms * 1000000L * next / dirty;
+        long wait = due - System.nanoTime();
+        if (wait > 0){
+          try {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+          } catch (InterruptedException exc){
+            Thread.currentThread().interrupt();
+            window_ms = 0;
+          }
+        }
+      }
+    }
+
+    //wait out the page writer's writes, then list what is still dirty
+    for (int i = 0; i < numframes; i++){
+      tab[i].awaitFlush();
+    }
+    long dpt_lsn = LogMgr.NULL_LSN;
+    int[] dpt_pids = null;
+    long[] dpt_lsns = null;
+    int dpt_size = 0;
+    if (log != null){
+      dpt_lsn = log.getEndLSN();
+      dpt_pids = new int[numframes];
+      dpt_lsns = new long[numframes];
+      for (int i = 0; i < numframes; i++){
+        int pid = pages[i];
+        if (pid == INVALID_PAGEID){
+          continue;
+        }
+        int stripe = stripeOf(pid);
+        latches[stripe].lock();
+        try {
+          FrameDesc fdesc = tab[i];
+          long rec_lsn = minLSN(fdesc.rec_lsn, fdesc.flush_rec_lsn);
+          if (holds(i, pid) && rec_lsn != LogMgr.NULL_LSN){
+            dpt_pids[dpt_size] = pid;
+            dpt_lsns[dpt_size] = rec_lsn;
+            dpt_size++;
+          }
+        } finally {
+          latches[stripe].unlock();
+        }
+      }
+    }
+
+    //make the writes durable, then record the checkpoint
+    Minibase.DiskManager.sync();
+    if (log != null){
+      long lsn = log.checkpoint(dpt_lsn, dpt_pids, dpt_lsns, dpt_size);
+      Minibase.DiskManager.setCheckpointLSN(lsn);
+    }
+
+  } //checkpoint
+
+  /**
+   * copyFrame
+   *
+   * Copies a frame's page for writing if it still holds the given page and
+   * is dirty, and marks it clean and flushing.
+   *
+   * @param wait whether to wait for the page's latch, and for a write of the
+   * page already under way; if not, the page is reported busy instead
+   * @return COPY_DONE, COPY_SKIPPED if the page is no longer dirty or no
+   * longer in the frame, or COPY_BUSY
+   */
+  private int copyFrame(int pid, int frame_num, Page copy, boolean wait) {
+    int stripe = stripeOf(pid);
+    if (wait){
+      latches[stripe].lock();
+    }
+    else if (!latches[stripe].tryLock()){
+      return COPY_BUSY;
+    }
+    try {
+      if (frame_num >= frametab.length){
+        //cut by a shrink since it was listed
+        return COPY_SKIPPED;
+      }
+      FrameDesc fdesc = frametab[frame_num];
+      if (fdesc.flushing){
+        if (!wait){
+          return COPY_BUSY;
+        }
+        fdesc.awaitFlush();
+      }
+      if (frame_to_page[frame_num] != pid || !fdesc.valid || !fdesc.dirty){
+        return COPY_SKIPPED;
+      }
+      if (log != null && fdesc.pin_count.get() != 0){
+        copy.setBytes(0, fdesc.shadow, 0, fdesc.shadow.length);
+      }
+      else {
+        copy.copyPage(buffer_pool[frame_num]);
+      }
+      startFlush(fdesc);
+      return COPY_DONE;
+    } finally {
+      latches[stripe].unlock();
+    }
+  } //copyFrame
+
+  /**
+   * startFlush
+   *
+   * Marks a frame whose page has just been copied for writing as clean and
+   * flushing.  The caller holds the page's latch.
+   */
+  void startFlush(FrameDesc fdesc) {
+    fdesc.flushing = true;
+    fdesc.dirty = false;
+    fdesc.flush_rec_lsn = fdesc.rec_lsn;
+    fdesc.rec_lsn = LogMgr.NULL_LSN;
+  } //startFlush
+
+  /**
+   * writeBatch
+   *
+   * Writes the first count copies, of pages marked flushing by startFlush,
+   * one disk manager call per run of adjacent pages, once the log is on disk
+   * up to batch_lsn; then ends the flushes.
+   */
+  void writeBatch(Page[] copies, int[] pids, int[] frames, int count, long batch_lsn) {
+    try {
+      if (log != null && batch_lsn != LogMgr.NULL_LSN){
+        log.flushTo(batch_lsn);
+      }
+      for (int start = 0; start < count; ){
+        int end = start + 1;
+        while (end < count && pids[end] == pids[end - 1] + 1){
+          end++;
+        }
+        Minibase.DiskManager.write_pages(new PageId(pids[start]), copies,
+            start, end - start);
+        start = end;
+      }
+    } finally {
+      for (int i = 0; i < count; i++){
+        FrameDesc fdesc = frametab[frames[i]];
+        fdesc.flush_rec_lsn = LogMgr.NULL_LSN;
+        fdesc.endFlush();
+      }
     }
+  } //writeBatch
 
-  } //flushAllFrames
+  /**
+   * minLSN
+   *
+   * Gets the lower of two LSNs, either of which may be NULL_LSN.
+   */
+  private static long minLSN(long a, long b) {
+    if (a == LogMgr.NULL_LSN){
+      return b;
+    }
+    return (b == LogMgr.NULL_LSN) ? a : Math.min(a, b);
+  } //minLSN
 
   /**
    * flushPage
@@ -299,39 +1625,273 @@ public class BufMgr implements GlobalConst {
    * @throws IllegalArgumentException if the page is not in the buffer pool
    */
   public void flushPage(PageId pageno) {
-	Integer frame_num = page_to_frame.get(pageno.pid);
+	int stripe = stripeOf(pageno.pid);
+	latches[stripe].lock();
+	try {
+	  int frame_num = page_to_frame[stripe].get(pageno.pid);
 
-	if(frame_num != null){
-	  Minibase.DiskManager.write_page(pageno, buffer_pool[frame_num]);
-	}
-	else{
-	  throw new IllegalArgumentException();  
+	  if(frame_num != PageTable.NOT_FOUND){
+		frametab[frame_num].awaitFlush();
+		Minibase.DiskManager.write_page(pageno, logged(frame_num));
+	  }
+	  else{
+		throw new IllegalArgumentException();
+	  }
+	} finally {
+	  latches[stripe].unlock();
 	}    
   } //flushPage
 
+  /**
+   * startPageWriter
+   *
+   * Starts a background thread that writes dirty frames ahead of eviction,
+   * replacing any that is already running.  Whenever fewer than low_water of
+   * the frames are clean and unpinned, it writes dirty pages in page order
+   * until high_water of them are.
+   *
+   * @param low_water fraction of the pool at which writing starts
+   * @param high_water fraction of the pool at which writing stops
+   * @throws IllegalArgumentException unless 0 <= low_water <= high_water <= 1
+   */
+  public synchronized void startPageWriter(double low_water, double high_water) {
+    if (!(low_water >= 0 && low_water <= high_water && high_water <= 1)){
+      throw new IllegalArgumentException("Invalid page writer watermarks");
+    }
+    stopPageWriter();
+    page_writer = new PageWriter(this, low_water, high_water);
+    page_writer.start();
+  } //startPageWriter
+
+  /**
+   * stopPageWriter
+   *
+   * Stops the background page writer, if running, once its current batch is
+   * on disk.  Dirty frames it has not reached stay dirty.
+   */
+  public synchronized void stopPageWriter() {
+    if (page_writer != null){
+      page_writer.shutdown();
+      page_writer = null;
+    }
+  } //stopPageWriter
+
   /**
    * getNumBuffers
    * 
-   * Gets the total number of buffer frames.
+   * Gets the total number of buffer frames, not counting any that a shrink
+   * is still retiring.
    */
   public int getNumBuffers() {
-    return frametab.length;
+    return num_frames;
   } //getNumBuffers
 
   /**
    * getNumUnpinned
    * 
-   * Gets the total number of unpinned buffer frames.
+   * Gets the total number of unpinned buffer frames.  Retiring frames count
+   * as pinned until they are cut.
    */
   public int getNumUnpinned() {
-    int total_unpinned = 0;
+    int unpinned = 0;
+    for (SubPool pool : pools){
+      unpinned += pool.getNumUnpinned();
+    }
+    return unpinned;
+  } //getNumUnpinned
+
+  /**
+   * countUnpinned
+   *
+   * Counts the unpinned frames by going through the frame table, as a check
+   * on getNumUnpinned; it takes time in proportion to the pool.  Retiring
+   * frames count as pinned.
+   */
+  public int countUnpinned() {
+    FrameDesc[] tab = frametab;
+    int unpinned = 0;
+    for (int i = 0; i < num_frames && i < tab.length; i++){
+      if (tab[i].pin_count.get() == 0){
+        unpinned++;
+      }
+    }
+    return unpinned;
+  } //countUnpinned
     
-    for (int i = 0; i < frametab.length; i++){
-      if (frametab[i].pin_count == 0){
-      	total_unpinned++;
+  /**
+   * getNumPartitions
+   *
+   * Gets the number of partitions the frames are split into.
+   */
+  public int getNumPartitions() {
+    return pools.length;
+  } //getNumPartitions
+
+  /**
+   * claimFrame
+   *
+   * Takes an unpinned frame's pin count from zero to one.
+   *
+   * @return false if the frame is already pinned
+   */
+  private boolean claimFrame(FrameDesc fdesc) {
+    if (fdesc.pin_count.compareAndSet(0, 1)){
+      poolAt(fdesc.index).num_pinned.incrementAndGet();
+      return true;
+    }
+    return false;
+  } //claimFrame
+
+  /**
+   * pinFrame
+   *
+   * Adds a pin to a frame, counting it as pinned if it was not already.
+   */
+  private void pinFrame(FrameDesc fdesc) {
+    if (fdesc.pin_count.incrementAndGet() == 1){
+      poolAt(fdesc.index).num_pinned.incrementAndGet();
+    }
+  } //pinFrame
+
+  /**
+   * unpinFrame
+   *
+   * Removes a pin from a frame, counting it as unpinned if that was the last.
+   *
+   * @return the new pin count
+   */
+  private int unpinFrame(FrameDesc fdesc) {
+    int count = fdesc.pin_count.decrementAndGet();
+    if (count == 0){
+      poolAt(fdesc.index).num_pinned.decrementAndGet();
+    }
+    return count;
+  } //unpinFrame
+
+  /**
+   * dropClaim
+   *
+   * Gives up a replacer's claim on a victim before it became a pin.
+   */
+  private void dropClaim(FrameDesc fdesc) {
+    if (fdesc.pin_count.addAndGet(-FrameDesc.CLAIM) == 0){
+      poolAt(fdesc.index).num_pinned.decrementAndGet();
+    }
+  } //dropClaim
+
+  /**
+   * lockFrame
+   *
+   * Takes an unpinned frame's pin count from zero to one, so that it can be
+   * changed without a replacer claiming it.  The caller holds the latch of the
+   * frame's page, so the pins of callers are known exactly and cannot go
+   * away; anything else on the count is a replacer's claim, which must back
+   * off without that latch, and is waited out however long it takes.
+   *
+   * @return false if a caller holds a pin on the frame
+   */
+  private boolean lockFrame(FrameDesc fdesc) {
+    while (!claimFrame(fdesc)){
+      if (fdesc.userPins() != 0){
+        return false;
       }
-    } 
-    return total_unpinned;
-  } //getNumUnpinned
+      Thread.yield();
+    }
+    return true;
+  } //lockFrame
+
+  /**
+   * isPinned
+   *
+   * Checks under the page's latch whether it is in the pool and pinned.
+   */
+  private boolean isPinned(int pid) {
+    int stripe = stripeOf(pid);
+    latches[stripe].lock();
+    try {
+      int frame_num = page_to_frame[stripe].get(pid);
+      return (frame_num != PageTable.NOT_FOUND) && (frametab[frame_num].userPins() > 0);
+    } finally {
+      latches[stripe].unlock();
+    }
+  } //isPinned
+
+  /**
+   * flushLog
+   *
+   * Forces the log up to the frame's last record, if logging, so that the
+   * page may be written.
+   */
+  void flushLog(FrameDesc fdesc) {
+    if (log != null && fdesc.page_lsn != LogMgr.NULL_LSN){
+      log.flushTo(fdesc.page_lsn);
+    }
+  } //flushLog
+
+  /**
+   * logged
+   *
+   * Gets the image of a frame's page that may be written to disk, after
+   * forcing the log as far as it needs: the page itself, or if logging and
+   * the page is pinned, its copy as of its last record.  The caller holds the
+   * page's latch.
+   */
+  private Page logged(int frame_num) {
+    FrameDesc fdesc = frametab[frame_num];
+    if (log == null){
+      return buffer_pool[frame_num];
+    }
+    flushLog(fdesc);
+    if (fdesc.pin_count.get() == 0){
+      return buffer_pool[frame_num];
+    }
+    return new Page(fdesc.shadow.clone());
+  } //logged
+
+  /**
+   * stripeOf
+   *
+   * Gets the page table stripe (and latch) responsible for the given page.
+   */
+  int stripeOf(int pid) {
+    return PageTable.hash(pid) >>> stripe_shift;
+  } //stripeOf
+
+  /**
+   * stripeOf
+   *
+   * Gets which of the given power of two number of page table stripes the
+   * given page falls in.  The stripe is taken from the high bits of the
+   * page's hash, since each stripe's table takes home slots from the low
+   * bits; were they the same bits, a stripe's pages would crowd into a
+   * fraction of its table's slots.
+   */
+  public static int stripeOf(int pid, int stripes) {
+    return PageTable.hash(pid) >>> (Integer.numberOfLeadingZeros(stripes) + 1);
+  } //stripeOf
+
+  /**
+   * poolOf
+   *
+   * Gets the partition whose frames the given page may occupy.  It is taken
+   * from the bits of the page's hash below those any stripe is taken from,
+   * scaled to the number of partitions, so that it depends mostly on the
+   * high ones; the home slot in a stripe's table comes from the low ones.
+   * The pages of a partition thus spread over every stripe, and over all of
+   * each stripe table's slots.
+   */
+  SubPool poolOf(int pid) {
+    long bits = PageTable.hash(pid) & PARTITION_MASK;
+    return pools[(int) ((bits * pools.length) >>> PARTITION_BITS)];
+  } //poolOf
+
+  /**
+   * poolAt
+   *
+   * Gets the partition the given frame belongs to.
+   */
+  SubPool poolAt(int frame_num) {
+    return pools[frame_num % pools.length];
+  } //poolAt
 
 } //BufMgr
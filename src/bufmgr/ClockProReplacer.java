@@ -0,0 +1,202 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+/**
+ * CLOCK-Pro replacement policy (Jiang, Chen and Zhang).  Resident pages are
+ * either hot or cold, and only cold pages are evicted.  A newly loaded page is
+ * cold and in its test period; if it is referenced again during the test
+ * period it becomes hot.  The ids of cold pages evicted during their test
+ * period are kept as non-resident test pages, and reloading one makes it hot
+ * at once and grows the cold target.  The cold hand finds victims, and the hot
+ * hand demotes unreferenced hot pages and ends test periods whenever there are
+ * too many hot pages.  Pages touched once by a scan stay cold and leave first.
+ */
+class ClockProReplacer extends Replacer {
+
+	//Frames holding no page
+	FrameList free;
+
+	//Per-frame page state
+	boolean[] hot;
+	boolean[] test;
+	boolean[] ref;
+
+	//Ids of cold pages evicted during their test period, oldest first
+	LinkedHashSet<Integer> nonresident;
+
+	//Clock hands over the frame numbers
+	int hand_cold;
+	int hand_hot;
+
+	//Number of hot pages, and target number of cold frames
+	int hot_count;
+	int cold_target;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool
+	 */
+	protected ClockProReplacer(SubPool pool) {
+		this.frametab = pool.frametab;
+		int c = frametab.length;
+		free = new FrameList(c);
+		hot = new boolean[c];
+		test = new boolean[c];
+		ref = new boolean[c];
+		nonresident = new LinkedHashSet<Integer>();
+		hand_cold = 0;
+		hand_hot = 0;
+		hot_count = 0;
+		cold_target = Math.max(1, c / 10);
+		for (int i = 0; i < c; i++) {
+			free.addLast(i);
+		}
+	}
+
+	public synchronized void newPage(FrameDesc fdesc) {
+		int f = fdesc.slot;
+		free.remove(f);
+		ref[f] = false;
+		if (nonresident.remove(fdesc.pageno.pid)) {
+			//reused within its test period: hot, and make room for more cold pages
+			hot[f] = true;
+			test[f] = false;
+			hot_count++;
+			cold_target = Math.min(frametab.length - 1, cold_target + 1);
+			runHotHand(false);
+		} else {
+			hot[f] = false;
+			test[f] = true;
+		}
+	}
+
+	public synchronized void pinPage(FrameDesc fdesc) {
+		ref[fdesc.slot] = true;
+	}
+
+	public void unpinPage(FrameDesc fdesc) {
+		//references are taken at pin time
+	}
+
+	public synchronized void resize(FrameDesc[] frametab) {
+		int old = this.frametab.length;
+		super.resize(frametab);
+		int c = frametab.length;
+		for (int f = c; f < old; f++) {
+			if (hot[f]) {
+				hot_count--;
+			}
+		}
+		free.resize(c);
+		hot = Arrays.copyOf(hot, c);
+		test = Arrays.copyOf(test, c);
+		ref = Arrays.copyOf(ref, c);
+		for (int i = old; i < c; i++) {
+			free.addLast(i);
+		}
+		hand_cold = hand_cold % c;
+		hand_hot = hand_hot % c;
+		cold_target = Math.max(1, Math.min(c - 1, cold_target));
+		while (nonresident.size() > c) {
+			nonresident.remove(nonresident.iterator().next());
+		}
+	}
+
+	public synchronized void freePage(FrameDesc fdesc) {
+		int f = fdesc.slot;
+		if (hot[f]) {
+			hot_count--;
+		} else if (test[f]) {
+			nonresident.add(fdesc.pageno.pid);
+			if (nonresident.size() > frametab.length) {
+				//the oldest test period ends without a reuse
+				nonresident.remove(nonresident.iterator().next());
+				cold_target = Math.max(1, cold_target - 1);
+			}
+		}
+		hot[f] = false;
+		test[f] = false;
+		ref[f] = false;
+		free.addLast(f);
+	}
+
+	/**
+	 * pickVictim
+	 * 
+	 * Returns a free frame if there is one, otherwise runs the cold hand to the
+	 * next unreferenced, unpinned cold page.  If every cold page is pinned the
+	 * hot hand is forced to demote a hot page first.  Returns -1 if every frame
+	 * is pinned.
+	 */
+	public synchronized int pickVictim() {
+		int victim = firstUnpinned(free);
+		if (victim != -1) {
+			return victim;
+		}
+		victim = runColdHand();
+		if (victim == -1) {
+			runHotHand(true);
+			victim = runColdHand();
+		}
+		return victim;
+	}
+
+	/**
+	 * Advances the cold hand to the next victim, promoting referenced test pages
+	 * and starting a new test period for other referenced cold pages.
+	 */
+	private int runColdHand() {
+		int c = frametab.length;
+		for (int steps = 0; steps < 2 * c; steps++) {
+			int f = hand_cold;
+			hand_cold = (hand_cold + 1) % c;
+			if (free.contains(f) || hot[f] || frametab[f].pin_count.get() != 0) {
+				continue;
+			}
+			if (!ref[f]) {
+				return f;
+			}
+			ref[f] = false;
+			if (test[f]) {
+				hot[f] = true;
+				test[f] = false;
+				hot_count++;
+				runHotHand(false);
+			} else {
+				test[f] = true;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Advances the hot hand while there are too many hot pages (or, if forced,
+	 * until one hot page is demoted), clearing references of hot pages, demoting
+	 * unreferenced ones, and ending the test periods of cold pages it passes.
+	 */
+	private void runHotHand(boolean force) {
+		int c = frametab.length;
+		for (int steps = 0; steps < 2 * c && (force || hot_count > c - cold_target); steps++) {
+			int f = hand_hot;
+			hand_hot = (hand_hot + 1) % c;
+			if (free.contains(f) || frametab[f].pin_count.get() != 0) {
+				continue;
+			}
+			if (hot[f]) {
+				if (ref[f]) {
+					ref[f] = false;
+				} else {
+					hot[f] = false;
+					hot_count--;
+					force = false;
+				}
+			} else if (test[f] && !ref[f]) {
+				test[f] = false;
+				cold_target = Math.max(1, cold_target - 1);
+			}
+		}
+	}
+}
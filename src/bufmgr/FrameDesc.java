@@ -1,6 +1,10 @@
 package bufmgr;
 
 import global.PageId;
+import logmgr.LogMgr;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The FrameDesc class contains fields that describe the states of individual frames.  
@@ -11,25 +15,103 @@ import global.PageId;
 public class FrameDesc{
 
 	//Whether the page has been modified since it was brought into the buffer pool
-	protected boolean dirty;
+	protected volatile boolean dirty;
 	//The number of times that the page currently in a given frame has 
-	//been requested but not released
-    protected int pin_count;
+	//been requested but not released; updated atomically so that frames
+	//can be claimed and pinned from several threads
+    protected final AtomicInteger pin_count;
+    //What a replacer's claim on a victim adds to pin_count until the claimer
+    //holds the latch of the frame's page.  Pins of callers are only taken
+    //under that latch, so under it they can be told from a passing claim.
+    protected static final int CLAIM = 1 << 30;
     //Whether the frame contains data which reflects the data in a disk page
-    protected boolean valid;
+    protected volatile boolean valid;
     //Reference bit for keeping track of page access
-    protected boolean refbit;
+    protected volatile boolean refbit;
     //Disk Page Number
     protected PageId pageno;
+    //Index of this frame in the buffer pool
+    protected final int index;
+    //Index of this frame within its partition, as its replacer numbers it
+    protected final int slot;
+    //Whether the page writer holds a copy of the page that is not yet on disk
+    protected volatile boolean flushing;
+    //Whether the page was read ahead and has not been pinned since
+    protected volatile boolean prefetched;
+    //When logging, the page as of its last log record, and that record's LSN
+    protected byte[] shadow;
+    protected volatile long page_lsn;
+    //Whether the page was brought in new, from memory, since its last log
+    //record
+    protected boolean formatted;
+    //When logging, the first record the page on disk may be missing, or
+    //NULL_LSN if it is clean; and the same for the copy being written
+    protected volatile long rec_lsn;
+    protected volatile long flush_rec_lsn;
+    //Count of changes to the frame's page or contents, for optimistic
+    //readers; each change is made while the frame is pinned, and counted
+    //before the pin is dropped
+    protected final AtomicLong version;
+    //Frame hints for the page's references: by slot, the frame each page it
+    //refers to was last pinned in, plus one, or 0; checked under the latch
+    protected volatile int[] children;
 	
-	public FrameDesc(){
+	public FrameDesc(int index){
+		this(index, index);
+	}
+		
+	public FrameDesc(int index, int slot){
 		
+        this.index = index;
+        this.slot = slot;
         dirty = false;
 		valid = false;
         pageno = null;
-        pin_count = 0;
+        pin_count = new AtomicInteger(0);
         refbit = false;
+        flushing = false;
+        prefetched = false;
+        shadow = null;
+        page_lsn = LogMgr.NULL_LSN;
+        formatted = false;
+        rec_lsn = LogMgr.NULL_LSN;
+        flush_rec_lsn = LogMgr.NULL_LSN;
+        version = new AtomicLong(0);
+
+	}
+
+	/**
+	 * Gets the number of pins held by callers, leaving out a replacer's claim
+	 * in progress.  Exact while the latch of the frame's page is held.
+	 */
+	protected int userPins(){
+		return pin_count.get() & (CLAIM - 1);
+	}
+
+	/**
+	 * Waits until the page writer has written its copy of the page, so that
+	 * an older image cannot land on disk after a newer one.
+	 */
+	protected synchronized void awaitFlush(){
+		boolean interrupted = false;
+		while (flushing){
+			try {
+				wait();
+			} catch (InterruptedException exc){
+				interrupted = true;
+			}
+		}
+		if (interrupted){
+			Thread.currentThread().interrupt();
+		}
+	}
 
+	/**
+	 * Marks the page writer's copy as written and wakes any waiters.
+	 */
+	protected synchronized void endFlush(){
+		flushing = false;
+		notifyAll();
 	}
 
-}
\ No newline at end of file
+}
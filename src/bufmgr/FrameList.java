@@ -0,0 +1,135 @@
+package bufmgr;
+
+import java.util.Arrays;
+
+/**
+ * The FrameList class is a doubly-linked list of frame numbers, used by the
+ * replacement policies to keep frames in recency or arrival order.  The links
+ * are stored in int arrays indexed by frame number, so a frame can be found,
+ * moved, or removed in constant time without allocating.
+ */
+class FrameList {
+
+  /** Link value marking the end of the list. */
+  protected static final int NONE = -1;
+
+  //Next and previous frame numbers, indexed by frame number
+  private int[] next;
+  private int[] prev;
+
+  //Whether each frame is currently on this list
+  private boolean[] member;
+
+  //First (oldest) and last (newest) frame numbers
+  private int head;
+  private int tail;
+
+  //Number of frames on the list
+  private int size;
+
+  /**
+   * Constructs an empty list able to hold the given number of frames.
+   */
+  protected FrameList(int numframes) {
+    next = new int[numframes];
+    prev = new int[numframes];
+    member = new boolean[numframes];
+    head = NONE;
+    tail = NONE;
+    size = 0;
+  }
+
+  /**
+   * Returns true if the frame is on the list.
+   */
+  protected boolean contains(int frame) {
+    return member[frame];
+  }
+
+  /**
+   * Gets the number of frames on the list.
+   */
+  protected int size() {
+    return size;
+  }
+
+  /**
+   * Gets the first (oldest) frame, or NONE if the list is empty.
+   */
+  protected int first() {
+    return head;
+  }
+
+  /**
+   * Gets the frame after the given one, or NONE at the end of the list.
+   */
+  protected int next(int frame) {
+    return next[frame];
+  }
+
+  /**
+   * Appends the frame to the end of the list, moving it there if it is
+   * already on the list.
+   */
+  protected void addLast(int frame) {
+    if (member[frame]) {
+      remove(frame);
+    }
+    member[frame] = true;
+    prev[frame] = tail;
+    next[frame] = NONE;
+    if (tail == NONE) {
+      head = frame;
+    } else {
+      next[tail] = frame;
+    }
+    tail = frame;
+    size++;
+  }
+
+  /**
+   * Removes the frame from the list, if it is on it.
+   */
+  protected void remove(int frame) {
+    if (!member[frame]) {
+      return;
+    }
+    if (prev[frame] == NONE) {
+      head = next[frame];
+    } else {
+      next[prev[frame]] = next[frame];
+    }
+    if (next[frame] == NONE) {
+      tail = prev[frame];
+    } else {
+      prev[next[frame]] = prev[frame];
+    }
+    member[frame] = false;
+    size--;
+  }
+
+  /**
+   * Changes the number of frames the list can hold; frames past the new
+   * number are taken off the list first.
+   */
+  protected void resize(int numframes) {
+    for (int frame = numframes; frame < member.length; frame++) {
+      remove(frame);
+    }
+    next = Arrays.copyOf(next, numframes);
+    prev = Arrays.copyOf(prev, numframes);
+    member = Arrays.copyOf(member, numframes);
+  }
+
+  /**
+   * Removes and returns the first frame, or NONE if the list is empty.
+   */
+  protected int poll() {
+    int frame = head;
+    if (frame != NONE) {
+      remove(frame);
+    }
+    return frame;
+  }
+
+} // class FrameList
@@ -0,0 +1,186 @@
+package bufmgr;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * LRU-K replacement policy.  Each page keeps the times of its last K pins, and
+ * the victim is the unpinned frame whose K-th most recent pin is oldest.  Pages
+ * pinned fewer than K times have an infinite backward distance and go first,
+ * least recently used among them, so pages touched once by a scan do not
+ * displace pages with a history of reuse.  The pin history of evicted pages is
+ * retained for as many pages as there are frames.  A page read ahead is not
+ * evicted before it is first pinned unless nothing else is unpinned, since as
+ * the newest page with a single reference it would otherwise go first.
+ * <br><br>
+ * The frames holding a page are kept in eviction order, so a victim is found
+ * in time logarithmic in the number of frames, plus the pinned and read-ahead
+ * frames passed over on the way.
+ */
+class LRUKReplacer extends Replacer {
+
+	//Number of pins tracked per page
+	final int k;
+
+	//Logical clock, advanced on every pin
+	long time;
+
+	//Pin times of each frame's page, most recent first; 0 means no pin
+	long[][] history;
+
+	//Frames holding no page
+	FrameList free;
+
+	//Eviction key of each frame holding a page: its last pin if it has had
+	//fewer than K, else FINITE plus its K-th most recent
+	long[] keys;
+
+	//Frames holding a page, by eviction key
+	TreeSet<Integer> order;
+
+	//Added to the keys of pages with K pins, so they sort after all others
+	static final long FINITE = 1L << 62;
+
+	//Retained pin histories of evicted pages, oldest first
+	LinkedHashMap<Integer, long[]> retained;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool
+	 * @param k number of pins to track per page
+	 */
+	protected LRUKReplacer(SubPool pool, int k) {
+		this.frametab = pool.frametab;
+		this.k = k;
+		time = 0;
+		history = new long[frametab.length][];
+		free = new FrameList(frametab.length);
+		keys = new long[frametab.length];
+		order = new TreeSet<Integer>(new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (keys[a] != keys[b]) ? Long.compare(keys[a], keys[b]) : Integer.compare(a, b);
+			}
+		});
+		for (int i = 0; i < frametab.length; i++) {
+			free.addLast(i);
+		}
+		retained = new LinkedHashMap<Integer, long[]>() {
+			protected boolean removeEldestEntry(Map.Entry<Integer, long[]> eldest) {
+				return size() > LRUKReplacer.this.frametab.length;
+			}
+		};
+	}
+
+	public synchronized void newPage(FrameDesc fdesc) {
+		long[] hist = retained.remove(fdesc.pageno.pid);
+		if (hist == null) {
+			hist = new long[k];
+		}
+		order.remove(fdesc.slot);
+		history[fdesc.slot] = hist;
+		record(hist);
+		keys[fdesc.slot] = keyOf(hist);
+		free.remove(fdesc.slot);
+		order.add(fdesc.slot);
+	}
+
+	public synchronized void pinPage(FrameDesc fdesc) {
+		long[] hist = history[fdesc.slot];
+		if (hist != null) {
+			//the key orders the frame in the set, so it moves out and back
+			order.remove(fdesc.slot);
+			record(hist);
+			keys[fdesc.slot] = keyOf(hist);
+			order.add(fdesc.slot);
+		}
+	}
+
+	public void unpinPage(FrameDesc fdesc) {
+		//history is taken at pin time
+	}
+
+	public synchronized void victimBusy(FrameDesc fdesc) {
+		//count it as referenced, so it is not the oldest any more
+		pinPage(fdesc);
+	}
+
+	public synchronized void resize(FrameDesc[] frametab) {
+		int old = this.frametab.length;
+		super.resize(frametab);
+		int c = frametab.length;
+		for (Iterator<Integer> it = order.iterator(); it.hasNext();) {
+			if (it.next() >= c) {
+				it.remove();
+			}
+		}
+		history = Arrays.copyOf(history, c);
+		keys = Arrays.copyOf(keys, c);
+		free.resize(c);
+		for (int i = old; i < c; i++) {
+			free.addLast(i);
+		}
+		Iterator<Integer> oldest = retained.keySet().iterator();
+		while (retained.size() > c) {
+			oldest.next();
+			oldest.remove();
+		}
+	}
+
+	public synchronized void freePage(FrameDesc fdesc) {
+		if (history[fdesc.slot] != null) {
+			order.remove(fdesc.slot);
+			retained.put(fdesc.pageno.pid, history[fdesc.slot]);
+			history[fdesc.slot] = null;
+		}
+		free.addLast(fdesc.slot);
+	}
+
+	/**
+	 * pickVictim
+	 * 
+	 * Returns a free frame if there is one, otherwise the unpinned frame with the
+	 * largest backward K-distance, or -1 if every frame is pinned.  Read-ahead
+	 * pages not yet pinned are only taken when there is no other choice.
+	 */
+	public synchronized int pickVictim() {
+		int victim = firstUnpinned(free);
+		if (victim != -1) {
+			return victim;
+		}
+		int unread = -1;
+		for (int frame : order) {
+			if (frametab[frame].pin_count.get() != 0) {
+				continue;
+			}
+			if (frametab[frame].prefetched) {
+				//still in its correlated reference period; last resort only
+				if (unread == -1) {
+					unread = frame;
+				}
+				continue;
+			}
+			return frame;
+		}
+		return unread;
+	}
+
+	/**
+	 * Gets the eviction key of a page with the given history.
+	 */
+	private long keyOf(long[] hist) {
+		return (hist[k - 1] == 0) ? hist[0] : FINITE + hist[k - 1];
+	}
+
+	/**
+	 * Shifts the history and records a pin at the current time.
+	 */
+	private void record(long[] hist) {
+		System.arraycopy(hist, 0, hist, 1, k - 1);
+		hist[0] = ++time;
+	}
+}
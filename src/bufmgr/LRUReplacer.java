@@ -0,0 +1,81 @@
+package bufmgr;
+
+/**
+ * Least recently used replacement policy.  Resident frames are kept in order
+ * of their last pin, and the victim is the least recently pinned frame that is
+ * not currently pinned.  Never-used and freed frames are always given out
+ * first.
+ */
+class LRUReplacer extends Replacer {
+
+	//Frames holding no page
+	FrameList free;
+
+	//Resident frames, least recently used first
+	FrameList lru;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool
+	 */
+	protected LRUReplacer(SubPool pool) {
+		this.frametab = pool.frametab;
+		free = new FrameList(frametab.length);
+		lru = new FrameList(frametab.length);
+		for (int i = 0; i < frametab.length; i++) {
+			free.addLast(i);
+		}
+	}
+
+	public synchronized void newPage(FrameDesc fdesc) {
+		free.remove(fdesc.slot);
+		lru.addLast(fdesc.slot);
+	}
+
+	public synchronized void pinPage(FrameDesc fdesc) {
+		if (lru.contains(fdesc.slot)) {
+			lru.addLast(fdesc.slot);
+		}
+	}
+
+	public void unpinPage(FrameDesc fdesc) {
+		//recency is taken at pin time
+	}
+
+	public synchronized void victimBusy(FrameDesc fdesc) {
+		//move it to the back of its queue
+		if (lru.contains(fdesc.slot)) {
+			lru.addLast(fdesc.slot);
+		}
+	}
+
+	public synchronized void resize(FrameDesc[] frametab) {
+		int old = this.frametab.length;
+		super.resize(frametab);
+		free.resize(frametab.length);
+		lru.resize(frametab.length);
+		for (int i = old; i < frametab.length; i++) {
+			free.addLast(i);
+		}
+	}
+
+	public synchronized void freePage(FrameDesc fdesc) {
+		lru.remove(fdesc.slot);
+		free.addLast(fdesc.slot);
+	}
+
+	/**
+	 * pickVictim
+	 * 
+	 * Returns a free frame if there is one, otherwise the least recently used
+	 * unpinned frame, or -1 if every frame is pinned.
+	 */
+	public synchronized int pickVictim() {
+		int victim = firstUnpinned(free);
+		if (victim != -1) {
+			return victim;
+		}
+		return firstUnpinned(lru);
+	}
+}
@@ -0,0 +1,19 @@
+package bufmgr;
+
+import global.Page;
+
+/**
+ * A read-only look at a page, for BufMgr.readPage.  The reader may be run on
+ * a frame that changes under it, in which case its result is thrown away and
+ * it is run again; so it must not change the page, nor anything else that a
+ * rerun would not set again, and must finish (or throw) whatever bytes it
+ * finds.
+ */
+public interface PageReader<T> {
+
+  /**
+   * Reads what is wanted from the page.
+   */
+  T read(Page page);
+
+} // public interface PageReader<T>
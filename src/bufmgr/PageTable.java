@@ -0,0 +1,211 @@
+package bufmgr;
+
+import global.GlobalConst;
+
+import java.util.Arrays;
+
+/**
+ * The PageTable class maps disk page numbers to buffer frame numbers.  It is
+ * an open-addressing hash table with linear probing; keys and values are kept
+ * in parallel int arrays, so lookups never box or allocate.  Changes must
+ * not race with each other; BufMgr makes them under its latches.  It is
+ * public so that the test drivers can check it against java.util.HashMap.
+ */
+public class PageTable implements GlobalConst {
+
+  /** Key marking an empty slot (page ids are never negative). */
+  private static final int EMPTY = INVALID_PAGEID;
+
+  /** Result of a lookup for a page that is not in the table. */
+  public static final int NOT_FOUND = -1;
+
+  //Page numbers, or EMPTY
+  private int[] keys;
+
+  //Frame numbers, parallel to keys
+  private int[] values;
+
+  //Number of occupied slots
+  private int size;
+
+  //keys.length - 1; the table length is always a power of two
+  private int mask;
+
+  /**
+   * Constructs a page table sized to hold the given number of entries
+   * without growing.
+   *
+   * @param capacity expected maximum number of entries
+   */
+  public PageTable(int capacity) {
+    allocate(tableSizeFor(capacity));
+  } // public PageTable(int capacity)
+
+  /**
+   * get
+   *
+   * Looks up the frame holding the given page.  A lookup that races with a
+   * change may fail or give a wrong frame, but always ends.
+   *
+   * @param pid the disk page number
+   * @return the frame number, or NOT_FOUND
+   */
+  public int get(int pid) {
+    int[] keys = this.keys;
+    int mask = keys.length - 1;
+    for (int slot = hash(pid) & mask, probes = 0; probes <= mask;
+        slot = (slot + 1) & mask, probes++) {
+      int key = keys[slot];
+      if (key == pid) {
+        return values[slot];
+      }
+      if (key == EMPTY) {
+        return NOT_FOUND;
+      }
+    }
+    return NOT_FOUND;
+  } //get
+
+  /**
+   * put
+   *
+   * Maps the given page to the given frame, replacing any existing mapping.
+   */
+  public void put(int pid, int frame) {
+    int slot = hash(pid) & mask;
+    while (keys[slot] != EMPTY) {
+      if (keys[slot] == pid) {
+        values[slot] = frame;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = pid;
+    values[slot] = frame;
+
+    //keep the load factor at or below one half
+    if (++size > (mask + 1) / 2) {
+      rehash((mask + 1) * 2);
+    }
+  } //put
+
+  /**
+   * remove
+   *
+   * Removes the mapping for the given page, if any.  Later entries in the
+   * probe sequence are shifted back so that no tombstones are needed.
+   */
+  public void remove(int pid) {
+    int slot = hash(pid) & mask;
+    while (keys[slot] != pid) {
+      if (keys[slot] == EMPTY) {
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    size--;
+
+    //backward-shift deletion
+    int hole = slot;
+    for (slot = (slot + 1) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+      int home = hash(keys[slot]) & mask;
+      //move the entry into the hole unless its home lies cyclically in (hole, slot]
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        keys[hole] = keys[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+    }
+    keys[hole] = EMPTY;
+  } //remove
+
+  /**
+   * resize
+   *
+   * Resizes the table to hold the given number of entries without growing,
+   * or the entries it has if more.
+   */
+  public void resize(int capacity) {
+    int length = tableSizeFor(Math.max(capacity, size));
+    if (length != keys.length) {
+      rehash(length);
+    }
+  } //resize
+
+  /**
+   * size
+   *
+   * Gets the number of pages in the table.
+   */
+  public int size() {
+    return size;
+  } //size
+
+  /**
+   * averageProbes
+   *
+   * Gets the mean number of slots a lookup of a page in the table looks at;
+   * about 1.5 for a table at half load whose pages spread evenly over their
+   * home slots, and more the more they crowd together.
+   */
+  public double averageProbes() {
+    if (size == 0) {
+      return 0;
+    }
+    long probes = 0;
+    for (int slot = 0; slot <= mask; slot++) {
+      if (keys[slot] != EMPTY) {
+        probes += ((slot - hash(keys[slot])) & mask) + 1;
+      }
+    }
+    return (double) probes / size;
+  } //averageProbes
+
+  /**
+   * hash
+   *
+   * Spreads the page number bits so that runs of consecutive pages do not
+   * cluster in the probe sequence.  A table takes the home slot of a page
+   * from the low bits.  The high bits are left as the multiply made them,
+   * which mixes them best, and BufMgr takes the stripe of a page from those,
+   * so the pages of one stripe still spread over all its table's slots.
+   */
+  public static int hash(int pid) {
+    int h = pid * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Gets the smallest power of two table length that keeps the given number
+   * of entries at or below half load.
+   */
+  private static int tableSizeFor(int capacity) {
+    int n = 2;
+    while (n < capacity * 2) {
+      n <<= 1;
+    }
+    return n;
+  }
+
+  private void allocate(int length) {
+    //fill the keys before publishing them, for lookups that race
+    int[] empty = new int[length];
+    Arrays.fill(empty, EMPTY);
+    values = new int[length];
+    keys = empty;
+    mask = length - 1;
+    size = 0;
+  }
+
+  private void rehash(int length) {
+    int[] old_keys = keys;
+    int[] old_values = values;
+    allocate(length);
+    for (int i = 0; i < old_keys.length; i++) {
+      if (old_keys[i] != EMPTY) {
+        put(old_keys[i], old_values[i]);
+      }
+    }
+  }
+
+} // class PageTable implements GlobalConst
@@ -0,0 +1,217 @@
+package bufmgr;
+
+import global.Page;
+import logmgr.LogMgr;
+
+import java.util.Arrays;
+
+/**
+ * The PageWriter class is a background thread that writes dirty frames ahead
+ * of eviction, so that a miss seldom has to write its victim before reading.
+ * It wakes up periodically, or when the buffer manager has just written a
+ * victim itself, and counts the clean unpinned frames.  If they are fewer than
+ * the low watermark, it writes unpinned dirty frames in page order until the
+ * high watermark is reached; runs of adjacent pages go to disk in one call.
+ * <br><br>
+ * Pages are copied under their latch and written after the latch is released.
+ * Until the copy is on disk the frame is marked as flushing, and anything that
+ * would write the page or let it leave the pool waits for that first.
+ */
+class PageWriter extends Thread {
+
+  /** Longest time between passes, in milliseconds. */
+  protected static final long SLEEP_MS = 50;
+
+  /** Most pages copied and written in one batch. */
+  protected static final int MAX_BATCH = 32;
+
+  //The buffer manager being cleaned
+  private final BufMgr bufmgr;
+
+  //Fractions of the pool that should be clean and unpinned
+  private final double low_water;
+  private final double high_water;
+
+  //Cleared to stop the thread
+  private volatile boolean running;
+
+  //Set when a pass was asked for before the next periodic one
+  private boolean nudged;
+
+  //Copies of the pages in the current batch, with their frames and page ids
+  private final Page[] copies;
+  private final int[] batch_frames;
+  private final int[] batch_pids;
+
+  //Highest LSN of the pages in the current batch, when logging
+  private long batch_lsn;
+
+  //The dirty unpinned frames of a pass, kept between passes and reallocated
+  //only when the pool is resized
+  private long[] candidates;
+
+  /**
+   * Constructs a page writer for the given buffer manager; call start() to
+   * run it.
+   *
+   * @param low_water start writing when fewer than this fraction of the
+   * frames are clean and unpinned
+   * @param high_water stop writing once this fraction is reached
+   */
+  protected PageWriter(BufMgr bufmgr, double low_water, double high_water) {
+    super("PageWriter");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    this.low_water = low_water;
+    this.high_water = high_water;
+    running = true;
+    copies = new Page[MAX_BATCH];
+    for (int i = 0; i < MAX_BATCH; i++) {
+      copies[i] = new Page();
+    }
+    batch_frames = new int[MAX_BATCH];
+    batch_pids = new int[MAX_BATCH];
+    candidates = new long[0];
+  }
+
+  /**
+   * Asks for a pass now rather than at the next periodic wake-up.
+   */
+  protected synchronized void nudge() {
+    nudged = true;
+    notify();
+  }
+
+  /**
+   * Stops the thread and waits for it to finish its current batch.
+   */
+  protected void shutdown() {
+    running = false;
+    nudge();
+    boolean interrupted = false;
+    while (isAlive()) {
+      try {
+        join();
+      } catch (InterruptedException exc) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void run() {
+    while (running) {
+      synchronized (this) {
+        if (!nudged) {
+          try {
+            wait(SLEEP_MS);
+          } catch (InterruptedException exc) {
+            return;
+          }
+        }
+        nudged = false;
+      }
+      if (running) {
+        clean();
+      }
+    }
+  }
+
+  /**
+   * clean
+   *
+   * Makes one pass over the pool, writing dirty frames if the clean ones have
+   * fallen below the low watermark.
+   */
+  private void clean() {
+    FrameDesc[] frametab = bufmgr.frametab;
+    int[] pages = bufmgr.frame_to_page;
+    int numframes = bufmgr.getNumBuffers();
+
+    //count the clean unpinned frames, and collect the dirty unpinned ones by
+    //page number; the counts are only a snapshot, rechecked under the latch
+    int clean = 0;
+    int dirty = 0;
+    int scanned = Math.min(frametab.length, pages.length);
+    if (candidates.length != scanned) {
+      candidates = new long[scanned];
+    }
+    for (int i = 0; i < scanned; i++) {
+      FrameDesc fdesc = frametab[i];
+      if (fdesc.pin_count.get() != 0) {
+        continue;
+      }
+      int pid = pages[i];
+      if (!fdesc.valid || !fdesc.dirty || fdesc.flushing || pid == BufMgr.INVALID_PAGEID) {
+        clean++;
+      } else {
+        candidates[dirty++] = ((long) pid << 32) | i;
+      }
+    }
+    if (clean >= low_water * numframes) {
+      return;
+    }
+    int wanted = (int) Math.ceil(high_water * numframes) - clean;
+    Arrays.sort(candidates, 0, dirty);
+
+    for (int next = 0; running && wanted > 0 && next < dirty; ) {
+
+      //copy a batch of pages, skipping any that are busy or changed
+      int count = 0;
+      batch_lsn = LogMgr.NULL_LSN;
+      while (count < MAX_BATCH && count < wanted && next < dirty) {
+        int pid = (int) (candidates[next] >>> 32);
+        int frame_num = (int) candidates[next];
+        next++;
+        if (copyFrame(pid, frame_num, copies[count])) {
+          batch_pids[count] = pid;
+          batch_frames[count] = frame_num;
+          count++;
+        }
+      }
+
+      //write the batch, one call per run of adjacent pages, once the log
+      //is on disk as far as the pages need
+      bufmgr.writeBatch(copies, batch_pids, batch_frames, count, batch_lsn);
+      wanted -= count;
+    }
+  } //clean
+
+  /**
+   * copyFrame
+   *
+   * Copies the frame's page if it still holds the given page and is dirty and
+   * unpinned.  The latch is only tried: a thread holding it may be waiting for
+   * this writer, and skipping the page is harmless.
+   *
+   * @return true if the page was copied and the frame marked as flushing
+   */
+  private boolean copyFrame(int pid, int frame_num, Page copy) {
+    int stripe = bufmgr.stripeOf(pid);
+    if (!bufmgr.latches[stripe].tryLock()) {
+      return false;
+    }
+    try {
+      //nobody can pin the page while the latch is held, so an unpinned frame
+      //stays unpinned until the copy is made; a shrink may have cut it since
+      //it was listed
+      if (frame_num >= bufmgr.frametab.length) {
+        return false;
+      }
+      FrameDesc fdesc = bufmgr.frametab[frame_num];
+      if (bufmgr.frame_to_page[frame_num] != pid || !fdesc.valid || !fdesc.dirty
+          || fdesc.flushing || fdesc.pin_count.get() != 0) {
+        return false;
+      }
+      copy.copyPage(bufmgr.buffer_pool[frame_num]);
+      batch_lsn = Math.max(batch_lsn, fdesc.page_lsn);
+      bufmgr.startFlush(fdesc);
+      return true;
+    } finally {
+      bufmgr.latches[stripe].unlock();
+    }
+  } //copyFrame
+
+} // class PageWriter extends Thread
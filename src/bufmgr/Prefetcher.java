@@ -0,0 +1,185 @@
+package bufmgr;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * The Prefetcher class is a background thread that reads pages into the
+ * buffer pool ahead of need.  Requests are lists of page numbers, queued by
+ * BufMgr.prefetch; runs of adjacent pages in a request are read with one
+ * disk manager call.  The queue is bounded, and requests that do not fit are
+ * dropped, since they are only hints.  A request may name the stream it
+ * belongs to, such as a scan; a newer request from the same stream replaces
+ * one still waiting, which the stream has most likely read past already.
+ */
+class Prefetcher extends Thread {
+
+  /** Most requests waiting at once. */
+  protected static final int MAX_REQUESTS = 64;
+
+  //The buffer manager being filled
+  private final BufMgr bufmgr;
+
+  //Waiting requests, oldest first; guarded by this
+  private final ArrayDeque<Request> requests;
+
+  //Whether a request is being read, and the stream it belongs to; guarded
+  //by this
+  private boolean busy;
+  private Object current;
+
+  //Cleared to stop the thread
+  private volatile boolean running;
+
+  /**
+   * Constructs a prefetcher for the given buffer manager; call start() to
+   * run it.
+   */
+  protected Prefetcher(BufMgr bufmgr) {
+    super("Prefetcher");
+    setDaemon(true);
+    this.bufmgr = bufmgr;
+    requests = new ArrayDeque<Request>();
+    running = true;
+  }
+
+  /**
+   * Queues a request, replacing any waiting one from the same stream, unless
+   * too many are already waiting.
+   *
+   * @param stream the stream the request belongs to, or null for none
+   * @return false if the request was dropped
+   */
+  protected synchronized boolean offer(int[] pids, Object stream) {
+    if (stream != null) {
+      for (Iterator<Request> it = requests.iterator(); it.hasNext(); ) {
+        if (it.next().stream == stream) {
+          it.remove();
+        }
+      }
+    }
+    if (requests.size() >= MAX_REQUESTS) {
+      return false;
+    }
+    requests.addLast(new Request(pids, stream));
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Drops the waiting requests of the given stream, and waits for the one
+   * being read if it belongs to that stream.  Other streams' requests are
+   * left alone.
+   *
+   * @param stream the stream to cancel, or null for every request
+   */
+  protected synchronized void cancel(Object stream) {
+    if (stream == null) {
+      requests.clear();
+    } else {
+      for (Iterator<Request> it = requests.iterator(); it.hasNext(); ) {
+        if (it.next().stream == stream) {
+          it.remove();
+        }
+      }
+    }
+    boolean interrupted = false;
+    while (busy && (stream == null || current == stream)) {
+      try {
+        wait();
+      } catch (InterruptedException exc) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stops the thread once the request being read, if any, is done.
+   */
+  protected void shutdown() {
+    synchronized (this) {
+      running = false;
+      requests.clear();
+      notifyAll();
+    }
+    boolean interrupted = false;
+    while (isAlive()) {
+      try {
+        join();
+      } catch (InterruptedException exc) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void run() {
+    while (true) {
+      int[] pids;
+      synchronized (this) {
+        while (running && requests.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException exc) {
+            return;
+          }
+        }
+        if (!running) {
+          return;
+        }
+        Request request = requests.pollFirst();
+        pids = request.pids;
+        current = request.stream;
+        busy = true;
+      }
+      try {
+        load(pids);
+      } catch (RuntimeException exc) {
+        //a failed read-ahead is harmless; the page is read again on demand
+      } finally {
+        synchronized (this) {
+          busy = false;
+          current = null;
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * load
+   *
+   * Reads the pages of one request, a run of adjacent pages at a time.
+   */
+  private void load(int[] pids) {
+    for (int start = 0; running && start < pids.length; ) {
+      int end = start + 1;
+      while (end < pids.length && pids[end] == pids[end - 1] + 1) {
+        end++;
+      }
+      bufmgr.loadRun(pids[start], end - start);
+      start = end;
+    }
+  } //load
+
+  /**
+   * A waiting request: the pages, and the stream that asked for them.
+   */
+  private static class Request {
+
+    final int[] pids;
+    final Object stream;
+
+    Request(int[] pids, Object stream) {
+      this.pids = pids;
+      this.stream = stream;
+    }
+
+  } // private static class Request
+
+} // class Prefetcher extends Thread
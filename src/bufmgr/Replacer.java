@@ -3,42 +3,106 @@ package bufmgr;
 import global.GlobalConst;
 
 /**
- * Base class for buffer pool replacement policies.
+ * Base class for buffer pool replacement policies.  The buffer manager calls
+ * the notification methods while holding the latch of the page involved, and
+ * may call them from several threads at once; subclasses synchronize their
+ * own state.
  */
 abstract class Replacer implements GlobalConst {
 
-  /** Reference back to the buffer manager's frame table. */
+  /** The frames of the partition the replacer serves, by slot. */
   protected FrameDesc[] frametab;
 
   // --------------------------------------------------------------------------
    protected Replacer(){
    }
  
+  /**
+   * Creates the replacer for the given policy name, as passed to
+   * Minibase.init, for one partition of the pool.  Names are not case
+   * sensitive.  A replacer knows frames by their slot in the partition
+   * (FrameDesc.slot), and pickVictim returns a slot.
+   *
+   * @throws IllegalArgumentException if the policy is unknown
+   */
+  public static Replacer create(String policy, SubPool pool) {
+    String name = policy.toUpperCase().replace("-", "").replace("_", "");
+    if (name.equals("CLOCK")) {
+      return new ReplacerImpl(pool);
+    } else if (name.equals("LRU")) {
+      return new LRUReplacer(pool);
+    } else if (name.equals("LRUK") || name.equals("LRU2")) {
+      return new LRUKReplacer(pool, 2);
+    } else if (name.equals("2Q") || name.equals("TWOQ")) {
+      return new TwoQReplacer(pool);
+    } else if (name.equals("ARC")) {
+      return new ARCReplacer(pool);
+    } else if (name.equals("CLOCKPRO")) {
+      return new ClockProReplacer(pool);
+    }
+    throw new IllegalArgumentException("Unknown replacement policy: " + policy);
+  }
+
    /**
-   * Notifies the replacer of a new page.
+   * Notifies the replacer of a new page, i.e. the frame has just been loaded
+   * with fdesc.pageno and holds its first pin.
    */
   public abstract void newPage(FrameDesc fdesc);
 
   /**
-   * Notifies the replacer of a free page.
+   * Notifies the replacer of a free page, i.e. fdesc.pageno is leaving the
+   * frame because it was evicted or deallocated.
    */
   public abstract void freePage(FrameDesc fdesc);
 
   /**
-   * Notifies the replacer of a pined page.
+   * Notifies the replacer of a pined page, i.e. a hit on a resident page.
    */
   public abstract void pinPage(FrameDesc fdesc);
 
   /**
-   * Notifies the replacer of an unpinned page.
+   * Notifies the replacer of an unpinned page; the pin count has already
+   * been decremented.
    */
   public abstract void unpinPage(FrameDesc fdesc);
 
   /**
-   * Selects the best frame to use for pinning a new page.
+   * Selects the best frame to use for pinning a new page.  The frame is only
+   * a candidate: the buffer manager may fail to claim it and ask again.
    * 
-   * @return victim frame number, or -1 if none available
+   * @return victim slot, or -1 if none available
    */
   public abstract int pickVictim();
 
+  /**
+   * Notifies the replacer that its partition was resized to the given
+   * frames.  Frames past the old number are new and hold no page; frames
+   * past the new number were freed first, and are forgotten.  Called with
+   * every page latched; subclasses keeping per-frame state resize it too.
+   */
+  public void resize(FrameDesc[] frametab) {
+    this.frametab = frametab;
+  }
+
+  /**
+   * Notifies the replacer that the frame it picked could not be claimed
+   * because another thread holds the latch of its page; the next pickVictim
+   * should prefer a different frame.
+   */
+  public void victimBusy(FrameDesc fdesc) {
+  }
+
+  /**
+   * Gets the first frame on the list that is not pinned, or -1 if there is
+   * none.
+   */
+  protected int firstUnpinned(FrameList list) {
+    for (int frame = list.first(); frame != FrameList.NONE; frame = list.next(frame)) {
+      if (frametab[frame].pin_count.get() == 0) {
+        return frame;
+      }
+    }
+    return -1;
+  }
+
 } // abstract class Replacer implements GlobalConst
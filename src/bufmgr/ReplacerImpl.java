@@ -12,13 +12,18 @@ import bufmgr.Replacer;
 class ReplacerImpl extends Replacer {
 	
 	int counter;
+
+	//Partition served, for its count of unpinned frames
+	SubPool pool;
+
 	/**
 	 * Constructor
 	 * 
-	 * @param bufmgr
+	 * @param pool
 	 */
-	protected ReplacerImpl(BufMgr bufmgr) {
-		this.frametab = bufmgr.frametab;
+	protected ReplacerImpl(SubPool pool) {
+		this.frametab = pool.frametab;
+		this.pool = pool;
 		counter = 0;
     }
 
@@ -27,16 +32,26 @@ class ReplacerImpl extends Replacer {
 	 * 
 	 * The pickVictim class iterates through the frametab array, looking for a 
 	 * valid place to to insert the page data.  If no valid spot is found, return -1
-	 * and force an error.
+	 * and force an error.  The clock hand is shared, so callers are serialized; the
+	 * returned frame is only a candidate until the buffer manager claims it.
+	 * When every frame is pinned there is nothing to sweep for, so that case
+	 * returns at once.
 	 */
-	public int pickVictim(){
+	public synchronized int pickVictim(){
 		int return_value = -1;
+		if (pool.getNumUnpinned() == 0){
+			return return_value;
+		}
 		
 		for( int current = 0; current < (frametab.length*2); current++ ){
 			if (!frametab[counter].valid){			
-				return_value = counter;					
+				//an empty frame is always the best choice, unless another thread is loading it
+				if (frametab[counter].pin_count.get() == 0){
+					return_value = counter;
+					break;
+				}
 			}
-			else if(frametab[counter].pin_count == 0){
+			else if(frametab[counter].pin_count.get() == 0){
               if(frametab[counter].refbit){
 				frametab[counter].refbit = false;
 		      }
@@ -51,9 +66,29 @@ class ReplacerImpl extends Replacer {
 	  }
 	
 	/**
-	 * Currently the four functions below are not used, but they are a 
-	 * part of the provided base class that this class extends, so they are included 
-	 * here for possible later use. 
+	 * victimBusy
+	 * 
+	 * The hand stops on the frame it returns, so move it past the busy frame.
+	 */
+	public synchronized void victimBusy(FrameDesc fdesc){
+		if (counter == fdesc.slot){
+			counter = (counter + 1)%frametab.length;
+		}
+	}
+
+	/**
+	 * resize
+	 * 
+	 * Keeps the hand on the clock face.
+	 */
+	public synchronized void resize(FrameDesc[] frametab){
+		super.resize(frametab);
+		counter = counter % frametab.length;
+	}
+
+	/**
+	 * The clock works from the reference bits the buffer manager keeps in the
+	 * frame descriptions, so it has nothing to do on these notifications.
 	 */
 	public void pinPage(FrameDesc fdesc){}
 	public void unpinPage(FrameDesc fdesc){}
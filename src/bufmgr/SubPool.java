@@ -0,0 +1,125 @@
+package bufmgr;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The SubPool class is one partition of the buffer pool.  With n partitions,
+ * partition p holds the frames whose numbers are p modulo n, and each page
+ * number is hashed to the one partition whose frames it may occupy.  A
+ * partition has its own replacer and free list over its frames, which it
+ * numbers by slot (frame p + n * slot), and its own count of pinned frames,
+ * so that misses and pins of pages in different partitions share no state
+ * beyond the frame arrays.  The page table is split into stripes by other
+ * bits of the same hash, so a partition's pages fall in every stripe.
+ */
+class SubPool {
+
+  //Index of this partition, and the number of partitions
+  final int index;
+  final int count;
+
+  //The partition's frames in use, by slot
+  FrameDesc[] frametab;
+
+  //Number of the partition's frames in the pool arrays, including any a
+  //shrink is still retiring
+  volatile int length;
+
+  //Slots holding no page and no pin, given out before asking the replacer
+  final FrameList free_frames;
+
+  //Number of the partition's frames with a nonzero pin count
+  final AtomicInteger num_pinned;
+
+  Replacer replacer;
+
+  /**
+   * Constructs the given partition of the first numframes frames, with every
+   * frame free.
+   *
+   * @throws IllegalArgumentException if the policy is unknown
+   */
+  protected SubPool(int index, int count, FrameDesc[] all, int numframes,
+      String replacement_policy) {
+    this.index = index;
+    this.count = count;
+    frametab = view(all, numframes);
+    length = frametab.length;
+    free_frames = new FrameList(frametab.length);
+    for (int slot = 0; slot < frametab.length; slot++) {
+      free_frames.addLast(slot);
+    }
+    num_pinned = new AtomicInteger(0);
+    replacer = Replacer.create(replacement_policy, this);
+  }
+
+  /**
+   * Gets the frame number of the given slot.
+   */
+  protected int frame(int slot) {
+    return slot * count + index;
+  }
+
+  /**
+   * Gets the number of the partition's frames among the first numframes.
+   */
+  protected int framesIn(int numframes) {
+    return (numframes - index + count - 1) / count;
+  }
+
+  /**
+   * Gets the number of unpinned frames in the partition.  Retiring frames
+   * count as pinned.
+   */
+  protected int getNumUnpinned() {
+    return length - num_pinned.get();
+  }
+
+  /**
+   * Takes the oldest frame off the free list.
+   *
+   * @return the frame number, or FrameList.NONE if the list is empty
+   */
+  protected int popFree() {
+    int slot;
+    synchronized (free_frames) {
+      slot = free_frames.poll();
+    }
+    return (slot == FrameList.NONE) ? FrameList.NONE : frame(slot);
+  }
+
+  /**
+   * Puts one of the partition's frames that no longer holds a page back on
+   * the free list.
+   */
+  protected void pushFree(int frame_num) {
+    synchronized (free_frames) {
+      free_frames.addLast(frame_num / count);
+    }
+  }
+
+  /**
+   * Makes the partition's frames in use those among the first numframes of
+   * the given ones, resizing the free list and the replacer to match; frames
+   * no longer in use must have been freed.  The caller holds every latch.
+   */
+  protected void resize(FrameDesc[] all, int numframes) {
+    frametab = view(all, numframes);
+    synchronized (free_frames) {
+      free_frames.resize(frametab.length);
+    }
+    replacer.resize(frametab);
+  }
+
+  /**
+   * Gets the partition's frames among the first numframes, by slot.
+   */
+  private FrameDesc[] view(FrameDesc[] all, int numframes) {
+    FrameDesc[] frames = new FrameDesc[framesIn(numframes)];
+    for (int slot = 0; slot < frames.length; slot++) {
+      frames[slot] = all[frame(slot)];
+    }
+    return frames;
+  }
+
+} // class SubPool
@@ -0,0 +1,138 @@
+package bufmgr;
+
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q replacement policy (Johnson and Shasha).  Pages enter a FIFO queue, A1in,
+ * and are evicted from it in arrival order; the ids of pages evicted from A1in
+ * are remembered in a ghost queue, A1out.  Only a page loaded again while its
+ * id is in A1out is admitted to the main LRU queue, Am.  A sequential scan
+ * therefore cycles through A1in without disturbing the pages in Am, such as
+ * heap file directory pages.
+ */
+class TwoQReplacer extends Replacer {
+
+	//Target size of A1in, as a fraction of the pool
+	static final double IN_FRACTION = 0.25;
+
+	//Size of A1out, as a fraction of the pool
+	static final double OUT_FRACTION = 0.5;
+
+	//Frames holding no page
+	FrameList free;
+
+	//Resident queues: first-time pages in arrival order, and reused pages in LRU order
+	FrameList a1in;
+	FrameList am;
+
+	//Ids of pages recently evicted from A1in, oldest first
+	LinkedHashSet<Integer> a1out;
+
+	//Queue size limits, in pages
+	int kin;
+	int kout;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool
+	 */
+	protected TwoQReplacer(SubPool pool) {
+		this.frametab = pool.frametab;
+		free = new FrameList(frametab.length);
+		a1in = new FrameList(frametab.length);
+		am = new FrameList(frametab.length);
+		a1out = new LinkedHashSet<Integer>();
+		kin = Math.max(1, (int) (frametab.length * IN_FRACTION));
+		kout = Math.max(1, (int) (frametab.length * OUT_FRACTION));
+		for (int i = 0; i < frametab.length; i++) {
+			free.addLast(i);
+		}
+	}
+
+	public synchronized void newPage(FrameDesc fdesc) {
+		free.remove(fdesc.slot);
+		if (a1out.remove(fdesc.pageno.pid)) {
+			//seen again after leaving A1in, so it is reused
+			am.addLast(fdesc.slot);
+		} else {
+			a1in.addLast(fdesc.slot);
+		}
+	}
+
+	public synchronized void pinPage(FrameDesc fdesc) {
+		//hits in A1in are deliberately ignored (correlated references)
+		if (am.contains(fdesc.slot)) {
+			am.addLast(fdesc.slot);
+		}
+	}
+
+	public void unpinPage(FrameDesc fdesc) {
+		//queue positions are taken at pin time
+	}
+
+	public synchronized void victimBusy(FrameDesc fdesc) {
+		//move it to the back of its queue
+		if (a1in.contains(fdesc.slot)) {
+			a1in.addLast(fdesc.slot);
+		}
+		if (am.contains(fdesc.slot)) {
+			am.addLast(fdesc.slot);
+		}
+	}
+
+	public synchronized void resize(FrameDesc[] frametab) {
+		int old = this.frametab.length;
+		super.resize(frametab);
+		int c = frametab.length;
+		free.resize(c);
+		a1in.resize(c);
+		am.resize(c);
+		for (int i = old; i < c; i++) {
+			free.addLast(i);
+		}
+		kin = Math.max(1, (int) (c * IN_FRACTION));
+		kout = Math.max(1, (int) (c * OUT_FRACTION));
+		while (a1out.size() > kout) {
+			a1out.remove(a1out.iterator().next());
+		}
+	}
+
+	public synchronized void freePage(FrameDesc fdesc) {
+		if (a1in.contains(fdesc.slot)) {
+			a1in.remove(fdesc.slot);
+			a1out.add(fdesc.pageno.pid);
+			if (a1out.size() > kout) {
+				a1out.remove(a1out.iterator().next());
+			}
+		}
+		am.remove(fdesc.slot);
+		free.addLast(fdesc.slot);
+	}
+
+	/**
+	 * pickVictim
+	 * 
+	 * Returns a free frame if there is one.  Otherwise evicts from A1in while it
+	 * is over its target size, else from Am, falling back to the other queue if
+	 * every frame in the preferred one is pinned.
+	 */
+	public synchronized int pickVictim() {
+		int victim = firstUnpinned(free);
+		if (victim != -1) {
+			return victim;
+		}
+		if (a1in.size() > kin) {
+			victim = firstUnpinned(a1in);
+			if (victim == -1) {
+				victim = firstUnpinned(am);
+			}
+		} else {
+			victim = firstUnpinned(am);
+			if (victim == -1) {
+				victim = firstUnpinned(a1in);
+			}
+		}
+		return victim;
+	}
+}
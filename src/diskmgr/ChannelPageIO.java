@@ -0,0 +1,88 @@
+package diskmgr;
+
+import global.Page;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Page I/O through positional FileChannel calls.  Each transfer names its own
+ * file offset, so there is no shared file pointer and threads do page I/O at
+ * the same time without a lock.  Runs of pages are moved with one scattering
+ * or gathering call; those work from the channel's position, so they hold the
+ * channel's lock, but single-page transfers never wait for them.
+ */
+class ChannelPageIO extends PageIO {
+
+  /** The database file's channel. */
+  protected final FileChannel channel;
+
+  protected ChannelPageIO(RandomAccessFile file, int page_size) {
+    super(file, page_size);
+    channel = file.getChannel();
+  }
+
+  protected int read(int pid, Page page) throws IOException {
+    ByteBuffer buf = page.getBuffer();
+    long position = (long) pid * page_size;
+
+    //a read may return fewer bytes than asked for
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) {
+        throw new EOFException("Unexpected end of file reading page " + pid);
+      }
+    }
+    return page_size;
+  }
+
+  protected int write(int pid, Page page) throws IOException {
+    ByteBuffer buf = page.getBuffer();
+    long position = (long) pid * page_size;
+    while (buf.hasRemaining()) {
+      channel.write(buf, position + buf.position());
+    }
+    return page_size;
+  }
+
+  protected int read(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    ByteBuffer[] bufs = buffers(pages, off, len);
+    synchronized (channel) {
+      channel.position((long) pid * page_size);
+      while (bufs[len - 1].hasRemaining()) {
+        if (channel.read(bufs) < 0) {
+          throw new EOFException("Unexpected end of file reading page run "
+              + pid);
+        }
+      }
+    }
+    return len * page_size;
+  }
+
+  protected int write(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    ByteBuffer[] bufs = buffers(pages, off, len);
+    synchronized (channel) {
+      channel.position((long) pid * page_size);
+      while (bufs[len - 1].hasRemaining()) {
+        channel.write(bufs);
+      }
+    }
+    return len * page_size;
+  }
+
+  /**
+   * Gets the buffers of the given pages, ready for a transfer.
+   */
+  private static ByteBuffer[] buffers(Page[] pages, int off, int len) {
+    ByteBuffer[] bufs = new ByteBuffer[len];
+    for (int i = 0; i < len; i++) {
+      bufs[i] = pages[off + i].getBuffer();
+    }
+    return bufs;
+  }
+
+} // class ChannelPageIO extends PageIO
@@ -0,0 +1,488 @@
+package diskmgr;
+
+import global.Page;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Page I/O that compresses each page (see PageCodec) before writing it, so
+ * that pages of padding and repeated values take less of the disk and less
+ * I/O to read.  Compressed pages vary in size, so they cannot stay at pid *
+ * page_size; instead the file is divided into sectors of SECTOR_SIZE bytes,
+ * after the first page, and each page is stored in a run of them.  Where each
+ * page is stored goes in a page map, a second file named after the database
+ * with DiskMgr.MAP_SUFFIX, holding for every page number its first sector and stored
+ * length (0 if it was never written, and reads as zeroes).
+ * <br><br>
+ * A page that does not shrink by at least a sector is stored as it is.  The
+ * first page is always stored as it is, at the start of the file, so that
+ * the page size can be read from it without the map.
+ * <br><br>
+ * A page is never overwritten in place: a write puts the new copy in free
+ * sectors, then points the map at it.  The old copy's sectors are only
+ * reused once force has made both the new copy and the map entry durable,
+ * so that a crash before then finds the map pointing at a copy that was
+ * not written over.  Deallocating a page clears its map entry, and frees its
+ * copy the same way.  The pages of a run written together are put next to
+ * each other, and a run whose pages are next to each other is read in one
+ * transfer.  Free sectors are indexed like free pages, with FreeExtents;
+ * when no free run is long enough, the file grows at its end.  The map is
+ * read when the file is opened, and each change to it is written through.
+ */
+class CompressedPageIO extends PageIO {
+
+  /** Unit of storage for compressed pages, in bytes. */
+  protected static final int SECTOR_SIZE = 128;
+
+  /** Size of a page map entry: the first sector, then the stored length. */
+  private static final int ENTRY_SIZE = 8;
+
+  /** The database file's channel. */
+  protected final FileChannel channel;
+
+  /** The page map file. */
+  protected final RandomAccessFile map_file;
+
+  /** The page map file's channel. */
+  protected final FileChannel map_channel;
+
+  //First sector of each page, by page number; guarded by this
+  private int[] first_sector;
+
+  //Stored length of each page, 0 if never written; guarded by this
+  private int[] stored_len;
+
+  //Free sectors before end_sector; guarded by this
+  private final FreeExtents free_sectors;
+
+  //Sectors of the copies replaced since the last force, each as its first
+  //sector and count, as in loadMap; guarded by this
+  private long[] pending;
+  private int num_pending;
+
+  //Number of sectors in use or free, up to the end of the file
+  private int end_sector;
+
+  //Compressed copy of one page, for each thread
+  private final ThreadLocal<byte[]> packed;
+
+  //Plain copy of one page in direct memory, for each thread
+  private final ThreadLocal<byte[]> plain;
+
+  //Transfer buffer of each thread, grown as needed
+  private final ThreadLocal<ByteBuffer> staging;
+
+  /**
+   * Opens the named database file and its page map, creating an empty map if
+   * there is none.
+   */
+  protected CompressedPageIO(RandomAccessFile file, int page_size, String fname)
+      throws IOException {
+    super(file, page_size);
+    channel = file.getChannel();
+    map_file = new RandomAccessFile(fname + DiskMgr.MAP_SUFFIX, "rw");
+    map_channel = map_file.getChannel();
+    free_sectors = new FreeExtents();
+    pending = new long[64];
+    packed = new ThreadLocal<byte[]>();
+    plain = new ThreadLocal<byte[]>();
+    staging = new ThreadLocal<ByteBuffer>();
+    loadMap();
+  }
+
+  protected int read(int pid, Page page) throws IOException {
+    return read(pid, new Page[] { page }, 0, 1);
+  }
+
+  protected int read(int pid, Page[] pages, int off, int len)
+      throws IOException {
+
+    long[] pos = new long[len];
+    int[] lens = new int[len];
+    int bytes;
+    do {
+
+      // read each group of pages stored back to back in one transfer
+      locate(pid, pos, lens);
+      bytes = 0;
+      for (int i = 0; i < len; ) {
+        if (lens[i] == 0) {
+          pages[off + i].fillBytes(0, page_size, (byte) 0);
+          i++;
+          continue;
+        }
+        int j = i + 1;
+        while (j < len && lens[j] > 0
+            && pos[j] == pos[j - 1] + span(lens[j - 1])) {
+          j++;
+        }
+        int size = (int) (pos[j - 1] + lens[j - 1] - pos[i]);
+        ByteBuffer buf = buffer(size);
+        readFully(buf, pos[i]);
+        bytes += size;
+        try {
+          for (int k = i; k < j; k++) {
+            unpack(buf.array(), (int) (pos[k] - pos[i]), lens[k],
+                pages[off + k]);
+          }
+        } catch (IOException exc) {
+          //only data that was moved and overwritten meanwhile is forgiven
+          if (located(pid, pos, lens)) {
+            throw exc;
+          }
+          break;
+        }
+        i = j;
+      }
+
+      //a write may have moved a page meanwhile, and its sectors been reused
+    } while (!located(pid, pos, lens));
+    return bytes;
+
+  } // protected int read(int pid, Page[] pages, int off, int len)
+
+  protected int write(int pid, Page page) throws IOException {
+    return write(pid, new Page[] { page }, 0, 1);
+  }
+
+  protected int write(int pid, Page[] pages, int off, int len)
+      throws IOException {
+
+    // the first page stays where it is
+    int bytes = 0;
+    if (pid == 0) {
+      ByteBuffer buf = pages[off].getBuffer();
+      while (buf.hasRemaining()) {
+        channel.write(buf, buf.position());
+      }
+      bytes += page_size;
+      pid++;
+      off++;
+      len--;
+      if (len == 0) {
+        return bytes;
+      }
+    }
+
+    // pack the pages one after another, each on a sector boundary
+    ByteBuffer buf = buffer(len * page_size);
+    int[] lens = new int[len];
+    int at = 0;
+    for (int i = 0; i < len; i++) {
+      lens[i] = pack(pages[off + i], buf.array(), at);
+      at += span(lens[i]);
+    }
+    int size = at - span(lens[len - 1]) + lens[len - 1];
+
+    // write them to free sectors, then point the map at them
+    int first = allocate(at / SECTOR_SIZE);
+    buf.limit(size);
+    while (buf.hasRemaining()) {
+      channel.write(buf, position(first) + buf.position());
+    }
+    bytes += size;
+    bytes += remap(pid, first, lens);
+    return bytes;
+
+  } // protected int write(int pid, Page[] pages, int off, int len)
+
+  /**
+   * Leaves the file as it is: pages past its end read as zeroes until they
+   * are written.
+   */
+  protected void extend(long length) {
+  }
+
+  /**
+   * Clears the map entries of a run of deallocated pages, so that they read
+   * as zeroes, and frees their copies at the next force.
+   */
+  protected synchronized void deallocate(int pid, int run_size)
+      throws IOException {
+    int end = Math.min(pid + run_size, stored_len.length);
+    for (int p = Math.max(pid, 1); p < end; p++) {
+      if (stored_len[p] > 0) {
+        replaced(p);
+        first_sector[p] = 0;
+        stored_len[p] = 0;
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        while (entry.hasRemaining()) {
+          map_channel.write(entry, (long) p * ENTRY_SIZE + entry.position());
+        }
+      }
+    }
+  }
+
+  /**
+   * Forces every page written so far, and the page map, to the storage
+   * device, then frees the sectors of the copies replaced before the call.
+   */
+  protected void force() throws IOException {
+    long[] done;
+    int count;
+    synchronized (this) {
+      done = pending;
+      count = num_pending;
+      pending = new long[64];
+      num_pending = 0;
+    }
+    channel.force(false);
+    map_channel.force(false);
+    synchronized (this) {
+      for (int i = 0; i < count; i++) {
+        free_sectors.markFree((int) (done[i] >>> 32), (int) done[i]);
+      }
+    }
+  }
+
+  /**
+   * Closes the page map and the database file.
+   */
+  protected void close() throws IOException {
+    map_file.close();
+    super.close();
+  }
+
+  /**
+   * loadMap
+   *
+   * Reads the page map and finds the free sectors: those before the end of
+   * the last stored page that no page uses.
+   */
+  private synchronized void loadMap() throws IOException {
+
+    int count = (int) (map_channel.size() / ENTRY_SIZE);
+    ByteBuffer buf = ByteBuffer.allocate(count * ENTRY_SIZE);
+    while (buf.hasRemaining()) {
+      if (map_channel.read(buf, buf.position()) < 0) {
+        throw new EOFException("Unexpected end of the page map");
+      }
+    }
+    first_sector = new int[count];
+    stored_len = new int[count];
+
+    // sort the stored pages by sector, each as its first sector and length
+    long[] runs = new long[count];
+    int num_runs = 0;
+    for (int pid = 0; pid < count; pid++) {
+      first_sector[pid] = buf.getInt(pid * ENTRY_SIZE);
+      stored_len[pid] = buf.getInt(pid * ENTRY_SIZE + 4);
+      if (stored_len[pid] > 0) {
+        runs[num_runs++] = ((long) first_sector[pid] << 32)
+            | (span(stored_len[pid]) / SECTOR_SIZE);
+      }
+    }
+    Arrays.sort(runs, 0, num_runs);
+
+    // the gaps between them are free
+    end_sector = 0;
+    for (int i = 0; i < num_runs; i++) {
+      int start = (int) (runs[i] >>> 32);
+      if (start > end_sector) {
+        free_sectors.markFree(end_sector, start - end_sector);
+      }
+      end_sector = Math.max(end_sector, start + (int) runs[i]);
+    }
+
+  } //loadMap
+
+  /**
+   * Finds where the given pages are stored: their file positions, and their
+   * stored lengths (0 for pages never written).
+   */
+  private synchronized void locate(int pid, long[] pos, int[] lens) {
+    for (int i = 0; i < pos.length; i++) {
+      int p = pid + i;
+      if (p == 0) {
+        pos[i] = 0;
+        lens[i] = page_size;
+      } else if (p < stored_len.length && stored_len[p] > 0) {
+        pos[i] = position(first_sector[p]);
+        lens[i] = stored_len[p];
+      } else {
+        pos[i] = 0;
+        lens[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * Checks that the given pages are still stored where locate found them.
+   */
+  private synchronized boolean located(int pid, long[] pos, int[] lens) {
+    long[] now_pos = new long[pos.length];
+    int[] now_lens = new int[lens.length];
+    locate(pid, now_pos, now_lens);
+    return Arrays.equals(pos, now_pos) && Arrays.equals(lens, now_lens);
+  }
+
+  /**
+   * Takes a run of free sectors, growing the file if none is long enough.
+   *
+   * @return the first sector of the run
+   */
+  private synchronized int allocate(int sectors) {
+    int first = free_sectors.allocate(sectors);
+    if (first < 0) {
+      first = end_sector;
+      end_sector += sectors;
+    }
+    return first;
+  }
+
+  /**
+   * remap
+   *
+   * Points the map at the new copies of a run of pages, starting at pid and
+   * stored back to back from sector first, writes the changed entries
+   * through to the map file, and leaves the old copies to be freed by the
+   * next force.
+   *
+   * @return the number of bytes written to the map file
+   */
+  private synchronized int remap(int pid, int first, int[] lens)
+      throws IOException {
+
+    // grow the map to cover the run
+    int needed = pid + lens.length;
+    if (needed > stored_len.length) {
+      int size = Math.max(needed, stored_len.length * 2);
+      first_sector = Arrays.copyOf(first_sector, size);
+      stored_len = Arrays.copyOf(stored_len, size);
+    }
+
+    ByteBuffer entries = ByteBuffer.allocate(lens.length * ENTRY_SIZE);
+    for (int i = 0; i < lens.length; i++) {
+      int p = pid + i;
+      if (stored_len[p] > 0) {
+        replaced(p);
+      }
+      first_sector[p] = first;
+      stored_len[p] = lens[i];
+      entries.putInt(first).putInt(lens[i]);
+      first += span(lens[i]) / SECTOR_SIZE;
+    }
+
+    entries.flip();
+    while (entries.hasRemaining()) {
+      map_channel.write(entries, (long) pid * ENTRY_SIZE + entries.position());
+    }
+    return lens.length * ENTRY_SIZE;
+
+  } //remap
+
+  /**
+   * Adds the sectors of the given page's stored copy to those freed by the
+   * next force.  The caller holds this object's lock.
+   */
+  private void replaced(int pid) {
+    if (num_pending == pending.length) {
+      pending = Arrays.copyOf(pending, num_pending * 2);
+    }
+    pending[num_pending++] = ((long) first_sector[pid] << 32)
+        | (span(stored_len[pid]) / SECTOR_SIZE);
+  }
+
+  /**
+   * Compresses a page into dst at the given offset, or copies it there if
+   * compressing does not save a sector.
+   *
+   * @return the stored length
+   */
+  private int pack(Page page, byte[] dst, int at) {
+    byte[] data = arrayOf(page);
+    if (!page.hasArray()) {
+      page.getBytes(0, data, 0, page_size);
+    }
+    byte[] out = packed.get();
+    if (out == null) {
+      out = new byte[page_size - SECTOR_SIZE];
+      packed.set(out);
+    }
+    int len = PageCodec.compress(data, page_size, out);
+    if (len < 0) {
+      System.arraycopy(data, 0, dst, at, page_size);
+      return page_size;
+    }
+    System.arraycopy(out, 0, dst, at, len);
+    return len;
+  }
+
+  /**
+   * Restores a page from its stored copy at the given offset in src.
+   */
+  private void unpack(byte[] src, int at, int len, Page page)
+      throws IOException {
+    if (len == page_size) {
+      page.setBytes(0, src, at, page_size);
+      return;
+    }
+    byte[] data = arrayOf(page);
+    PageCodec.decompress(src, at, len, data);
+    if (!page.hasArray()) {
+      page.setBytes(0, data, 0, page_size);
+    }
+  }
+
+  /**
+   * Gets the page's data array, or for a page in direct memory the thread's
+   * array to compress from or decompress into, since the codec works on
+   * arrays.
+   */
+  private byte[] arrayOf(Page page) {
+    if (page.hasArray()) {
+      return page.getData();
+    }
+    byte[] data = plain.get();
+    if (data == null) {
+      data = new byte[page_size];
+      plain.set(data);
+    }
+    return data;
+  }
+
+  /**
+   * Reads from the file at the given position until the buffer is full.
+   */
+  private void readFully(ByteBuffer buf, long position) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) {
+        throw new EOFException("Unexpected end of file reading at " + position);
+      }
+    }
+  }
+
+  /**
+   * Gets this thread's transfer buffer, cleared for a transfer of the given
+   * size.
+   */
+  private ByteBuffer buffer(int size) {
+    ByteBuffer buf = staging.get();
+    if (buf == null || buf.capacity() < size) {
+      buf = ByteBuffer.allocate(size);
+      staging.set(buf);
+    }
+    buf.clear().limit(size);
+    return buf;
+  }
+
+  /**
+   * Gets the file position of the given sector.
+   */
+  private long position(int sector) {
+    return page_size + (long) sector * SECTOR_SIZE;
+  }
+
+  /**
+   * Gets the space a stored length takes, in whole sectors, in bytes.
+   */
+  private static int span(int len) {
+    return (len + SECTOR_SIZE - 1) / SECTOR_SIZE * SECTOR_SIZE;
+  }
+
+} // class CompressedPageIO extends PageIO
@@ -1,14 +1,41 @@
 package diskmgr;
 
+import global.Convert;
 import global.Page;
 
 /**
- * First page and starting point of the database file.
+ * First page and starting point of the database file.  The last twenty bytes
+ * hold the number of space-map pages made with the database, the number of
+ * allocated pages, the format header (a magic number and the page size) and
+ * the number of pages, so they can be found knowing only the page size.  The
+ * eight before them hold the LSN of the last checkpoint, in the space the
+ * file entries leave over.
  */
 class DBFirstPage extends DBHeaderPage {
 
-  /** Offest for the total number of pages. */
-  protected static final int NUM_DB_PAGE = PAGE_SIZE - 4;
+  /** Offset for the total number of pages, from the end of the page. */
+  protected static final int NUM_DB_PAGE = 4;
+
+  /** Offset of the format header, from the end of the page. */
+  protected static final int FORMAT_OFFSET = 12;
+
+  /** Size of the format header (in bytes). */
+  protected static final int FORMAT_SIZE = 8;
+
+  /** Offset for the number of allocated pages, from the end of the page;
+   * 0 if it was never recorded. */
+  protected static final int ALLOC_CNT = 16;
+
+  /** Offset for the number of space-map pages made with the database, from
+   * the end of the page; 0 if it was never recorded. */
+  protected static final int MAP_PAGES = 20;
+
+  /** Offset for the LSN of the last checkpoint, from the end of the page;
+   * 0 if none was recorded. */
+  protected static final int CHECKPOINT_LSN = 28;
+
+  /** Marks a first page that has a format header. */
+  protected static final int FORMAT_MAGIC = 0x4d42444d;
 
   // --------------------------------------------------------------------------
 
@@ -30,14 +57,96 @@ class DBFirstPage extends DBHeaderPage {
    * Sets the number of pages in the DB.
    */
   public void setNumDBPages(int num) {
-    setIntValue(num, NUM_DB_PAGE);
+    setIntValue(num, getSize() - NUM_DB_PAGE);
   }
 
   /**
    * Gets the number of pages in the DB.
    */
   public int getNumDBPages() {
-    return getIntValue(NUM_DB_PAGE);
+    return getIntValue(getSize() - NUM_DB_PAGE);
+  }
+
+  /**
+   * Sets the number of allocated pages in the DB.
+   */
+  public void setAllocCount(int count) {
+    setIntValue(count, getSize() - ALLOC_CNT);
+  }
+
+  /**
+   * Gets the number of allocated pages in the DB, or 0 if the database was
+   * created before the count was kept.
+   */
+  public int getAllocCount() {
+    return hasFormat() ? getIntValue(getSize() - ALLOC_CNT) : 0;
+  }
+
+  /**
+   * Sets the number of space-map pages made with the DB.
+   */
+  public void setMapPages(int count) {
+    setIntValue(count, getSize() - MAP_PAGES);
+  }
+
+  /**
+   * Gets the number of space-map pages made with the DB, or 0 if the
+   * database was created before it was kept (and so has never grown).
+   */
+  public int getMapPages() {
+    return hasFormat() ? getIntValue(getSize() - MAP_PAGES) : 0;
+  }
+
+  /**
+   * Sets the LSN of the last checkpoint.
+   */
+  public void setCheckpointLSN(long lsn) {
+    setIntValue((int) (lsn >>> 32), getSize() - CHECKPOINT_LSN);
+    setIntValue((int) lsn, getSize() - CHECKPOINT_LSN + 4);
+  }
+
+  /**
+   * Gets the LSN of the last checkpoint, or 0 if none was recorded.
+   */
+  public long getCheckpointLSN() {
+    if (!hasFormat()) {
+      return 0;
+    }
+    long high = getIntValue(getSize() - CHECKPOINT_LSN);
+    long low = getIntValue(getSize() - CHECKPOINT_LSN + 4);
+    return (high << 32) | (low & 0xffffffffL);
+  }
+
+  /**
+   * Writes the format header for the page's size.
+   */
+  public void setFormat() {
+    setIntValue(FORMAT_MAGIC, getSize() - FORMAT_OFFSET);
+    setIntValue(getSize(), getSize() - FORMAT_OFFSET + 4);
+  }
+
+  /**
+   * Tells whether the page has a format header; databases created before
+   * the header existed do not.
+   */
+  public boolean hasFormat() {
+    return getIntValue(getSize() - FORMAT_OFFSET) == FORMAT_MAGIC;
+  }
+
+  /**
+   * Gets the page size recorded in the format header.
+   */
+  public int getPageSize() {
+    return getIntValue(getSize() - FORMAT_OFFSET + 4);
+  }
+
+  /**
+   * Tells whether the given bytes, read at FORMAT_OFFSET from the end of a
+   * page of the given size, are the format header of such a page.
+   */
+  protected static boolean isFormat(byte[] header, int page_size) {
+    return Convert.getIntValue(0, header) == FORMAT_MAGIC
+        && Convert.getIntValue(4, header) == page_size;
   }
 
 } // class DBFirstPage extends DBHeaderPage
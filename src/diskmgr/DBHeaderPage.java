@@ -3,6 +3,7 @@ package diskmgr;
 import global.Page;
 import global.PageId;
 
+
 /**
  * Header pages contain the space map, the file library, and
  * assorted metadata.
@@ -26,8 +27,9 @@ class DBHeaderPage extends Page {
   /** Amount of additional bytes used by directory pages. */
   protected static final int DIR_PAGE_USED_BYTES = 8 + 8;
 
-  /** Amount of additional bytes used by the first page. */
-  protected static final int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4;
+  /** Amount of additional bytes used by the first page: the number of pages,
+   * the format header, and the numbers of allocated and space-map pages. */
+  protected static final int FIRST_PAGE_USED_BYTES = DIR_PAGE_USED_BYTES + 4 + 8 + 4 + 4;
 
   // --------------------------------------------------------------------------
 
@@ -43,7 +45,7 @@ class DBHeaderPage extends Page {
    * Constructor that wraps an existing header page.
    */
   public DBHeaderPage(Page page) {
-    super(page.getData());
+    super(page);
   }
 
   /**
@@ -60,7 +62,7 @@ class DBHeaderPage extends Page {
     if (this instanceof DBFirstPage) {
       pageusedbytes = FIRST_PAGE_USED_BYTES;
     }
-    int num_entries = (PAGE_SIZE - pageusedbytes) / SIZE_OF_FILE_ENTRY;
+    int num_entries = (getSize() - pageusedbytes) / SIZE_OF_FILE_ENTRY;
     setNumOfEntries(num_entries);
 
     // initialize the page entries
@@ -116,6 +118,8 @@ class DBHeaderPage extends Page {
   public void setFileEntry(String fname, PageId pageNo, int entryNo) {
     int position = START_FILE_ENTRIES + entryNo * SIZE_OF_FILE_ENTRY;
     setIntValue(pageNo.pid, position);
+    // clear the whole name field, so a shorter name leaves nothing behind
+    fillBytes(position + 4, NAME_MAXLEN + 2, (byte) 0);
     setStringValue(fname, position + 4);
   }
 
@@ -0,0 +1,197 @@
+package diskmgr;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import global.Page;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Page I/O that bypasses the operating system's page cache (O_DIRECT), since
+ * the buffer pool already caches pages.  Direct transfers must start and end
+ * on file-system block boundaries and use block-aligned memory, so pages go
+ * through an aligned direct buffer kept by each thread.  When pages are
+ * smaller than a block, a write reads the blocks around the pages, changes
+ * them, and writes them back; such writes hold a lock so that two of them
+ * cannot undo each other's pages.
+ * <br><br>
+ * Only some file systems support direct I/O; opening the backend fails with
+ * an IOException on the others.
+ */
+class DirectPageIO extends PageIO {
+
+  /** The database file's channel, opened for direct I/O. */
+  protected final FileChannel channel;
+
+  /** Size and alignment of a direct transfer, in bytes. */
+  protected final int block_size;
+
+  //Whether every page covers whole blocks, so writes need no read first
+  private final boolean aligned;
+
+  //Held by writes that read the blocks around their pages first
+  private final Object rmw_lock;
+
+  //Aligned transfer buffer of each thread, grown as needed
+  private final ThreadLocal<ByteBuffer> bounce;
+
+  /**
+   * Opens the named database file for direct I/O.
+   *
+   * @throws IOException if the file system does not support it
+   */
+  protected DirectPageIO(RandomAccessFile file, int page_size, String fname)
+      throws IOException {
+    super(file, page_size);
+    Path path = Paths.get(fname);
+    block_size = (int) Files.getFileStore(path).getBlockSize();
+    try {
+      channel = FileChannel.open(path, StandardOpenOption.READ,
+          StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT);
+    } catch (UnsupportedOperationException exc) {
+      throw new IOException("Direct I/O is not supported for " + fname, exc);
+    }
+    aligned = (page_size % block_size == 0);
+    rmw_lock = new Object();
+    bounce = new ThreadLocal<ByteBuffer>();
+  }
+
+  protected int read(int pid, Page page) throws IOException {
+    long start = (long) pid * page_size;
+    ByteBuffer buf = readBlocks(start, start + page_size);
+    page.copyFrom(buf, (int) (start % block_size));
+    return page_size;
+  }
+
+  protected int read(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    long start = (long) pid * page_size;
+    ByteBuffer buf = readBlocks(start, start + (long) len * page_size);
+    int index = (int) (start % block_size);
+    for (int i = 0; i < len; i++, index += page_size) {
+      pages[off + i].copyFrom(buf, index);
+    }
+    return len * page_size;
+  }
+
+  protected int write(int pid, Page page) throws IOException {
+    return write(pid, new Page[] { page }, 0, 1);
+  }
+
+  protected int write(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    long start = (long) pid * page_size;
+    long end = start + (long) len * page_size;
+    if (aligned) {
+      ByteBuffer buf = buffer((int) (end - start));
+      for (int i = 0; i < len; i++) {
+        pages[off + i].copyTo(buf, i * page_size);
+      }
+      writeBlocks(buf, start, end);
+      return len * page_size;
+    }
+    synchronized (rmw_lock) {
+      ByteBuffer buf = readBlocks(start, end);
+      int index = (int) (start % block_size);
+      for (int i = 0; i < len; i++, index += page_size) {
+        pages[off + i].copyTo(buf, index);
+      }
+      writeBlocks(buf, floor(start), floor(start) + buf.limit());
+    }
+    return len * page_size;
+  }
+
+  /**
+   * Forces every page written so far to the storage device.
+   */
+  protected void force() throws IOException {
+    channel.force(false);
+  }
+
+  /**
+   * Closes the direct channel and the database file.
+   */
+  protected void close() throws IOException {
+    channel.close();
+    super.close();
+  }
+
+  /**
+   * readBlocks
+   *
+   * Reads the blocks holding bytes start to end of the file into this
+   * thread's buffer.  The last block may be cut short by the end of the file.
+   *
+   * @return the buffer, holding the blocks from the one containing start
+   * @throws EOFException if the file ends before end
+   */
+  private ByteBuffer readBlocks(long start, long end) throws IOException {
+    long first = floor(start);
+    long last = floor(end + block_size - 1);
+    ByteBuffer buf = buffer((int) (last - first));
+    while (buf.hasRemaining()) {
+      //only the end of the file cuts a read short of a block boundary
+      int count = channel.read(buf, first + buf.position());
+      if (count < 0 || buf.position() % block_size != 0) {
+        break;
+      }
+    }
+    if (first + buf.position() < end) {
+      throw new EOFException("Unexpected end of file reading at " + start);
+    }
+
+    //the file may end part-way through the last block; zero the rest of it,
+    //in case the block is written back
+    int read = buf.position();
+    buf.limit(block_size * ((read + block_size - 1) / block_size));
+    while (buf.hasRemaining()) {
+      buf.put((byte) 0);
+    }
+    return buf;
+  } //readBlocks
+
+  /**
+   * Writes whole blocks from the start of the buffer to the file, covering
+   * bytes start to end.
+   */
+  private void writeBlocks(ByteBuffer buf, long start, long end)
+      throws IOException {
+    buf.position(0).limit((int) (end - start));
+    while (buf.hasRemaining()) {
+      channel.write(buf, start + buf.position());
+    }
+  }
+
+  /**
+   * buffer
+   *
+   * Gets this thread's aligned buffer, at least the given number of bytes
+   * long (rounded up to whole blocks), cleared for a transfer of that size.
+   */
+  private ByteBuffer buffer(int size) {
+    int blocks = (size + block_size - 1) / block_size * block_size;
+    ByteBuffer buf = bounce.get();
+    if (buf == null || buf.capacity() < blocks) {
+      buf = ByteBuffer.allocateDirect(blocks + block_size).alignedSlice(
+          block_size);
+      bounce.set(buf);
+    }
+    buf.clear().limit(blocks);
+    return buf;
+  } //buffer
+
+  /**
+   * Rounds a file offset down to a block boundary.
+   */
+  private long floor(long offset) {
+    return offset - offset % block_size;
+  }
+
+} // class DirectPageIO extends PageIO
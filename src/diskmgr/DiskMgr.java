@@ -4,10 +4,15 @@ import global.GlobalConst;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import logmgr.LogMgr;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * <h3>Minibase Disk Manager</h3>
@@ -19,138 +24,426 @@ import java.io.RandomAccessFile;
  */
 public class DiskMgr implements GlobalConst {
 
-  /** Number of actual bits per page. */
-  protected static final int BITS_PER_PAGE = PAGE_SIZE * 8;
+  /** Page sizes a database can be created with, in bytes. */
+  public static final int[] PAGE_SIZES = { PAGE_SIZE, 4096, 8192, 16384 };
+
+  /**
+   * Views a space-map page as little-endian 64-bit words, so that bit b of
+   * word w is the bit for page w * 64 + b, as it is with bytes.  The view is
+   * of the page's buffer, so it works on pages in direct memory too.
+   */
+  private static final VarHandle MAP_WORDS = MethodHandles
+      .byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /** Page I/O by seeking the file pointer; one transfer at a time. */
+  public static final int IO_STREAM = 0;
+
+  /** Page I/O by positional FileChannel calls; transfers run concurrently. */
+  public static final int IO_CHANNEL = 1;
+
+  /**
+   * Page I/O by copying to and from a memory mapping of the file; suits
+   * read-mostly databases that fit in memory.
+   */
+  public static final int IO_MAPPED = 2;
+
+  /**
+   * Page I/O that bypasses the operating system's page cache, where the file
+   * system supports it; elsewhere the disk manager falls back to IO_CHANNEL.
+   */
+  public static final int IO_DIRECT = 3;
+
+  /**
+   * Page I/O that stores pages compressed, in variable-size slots found
+   * through a page map kept next to the database file; trades CPU for disk
+   * space and I/O volume.  A database created in this mode must be opened in
+   * it.
+   */
+  public static final int IO_COMPRESSED = 4;
+
+  /** Suffix of the name of a compressed database's page map file. */
+  public static final String MAP_SUFFIX = ".pmap";
 
   // --------------------------------------------------------------------------
 
   /** Database file name. */
   protected String name;
 
-  /** Database file size, in pages. */
-  protected int num_pages;
+  /** Number of pages the file grows by when it is full, unless told
+   * otherwise. */
+  public static final int DEFAULT_EXTENT_SIZE = 1024;
+
+  /** Database file size, in pages; grows as pages are allocated. */
+  protected volatile int num_pages;
+
+  /** Number of space-map pages made with the database, from page 1 on;
+   * later ones each start the range of pages they map. */
+  protected int base_map_pages;
+
+  /** Number of pages to grow the file by when it is full; 0 if it must not
+   * grow. */
+  protected int extent_size = DEFAULT_EXTENT_SIZE;
+
+  /** Size of the database's pages, in bytes. */
+  protected int page_size;
+
+  /** Number of actual bits per space-map page. */
+  protected int bits_per_page;
 
   /** Actual reference to the Minibase file. */
   protected RandomAccessFile fp;
 
-  /** Number of disk reads since construction. */
-  protected int read_cnt;
+  /** How pages are transferred; one of the IO_ constants. */
+  protected int io_mode;
+
+  /** Backend doing the page transfers on fp. */
+  protected PageIO io;
+
+  /** Number of allocated pages, kept in step with the space map. */
+  protected volatile int alloc_cnt;
+
+  /** Index of the free runs in the space map; built when first needed. */
+  protected FreeExtents extents;
+
+  /** Cache of the file entries on the header pages; built when first
+   * needed. */
+  protected FileCatalog catalog;
 
-  /** Number of disk writes since construction. */
-  protected int write_cnt;
+  /** Performance counters of the page operations since construction;
+   * published over JMX while a database is open. */
+  protected final DiskStats stats = new DiskStats();
 
   // --------------------------------------------------------------------------
 
+  /**
+   * Constructs a disk manager using positional channel I/O.
+   */
+  public DiskMgr() {
+    this(IO_CHANNEL);
+  }
+
+  /**
+   * Constructs a disk manager using the given page I/O mode.
+   *
+   * @param io_mode IO_STREAM, IO_CHANNEL, IO_MAPPED, IO_DIRECT or
+   *          IO_COMPRESSED
+   * @throws IllegalArgumentException if the mode is unknown
+   */
+  public DiskMgr(int io_mode) {
+    checkMode(io_mode);
+    this.io_mode = io_mode;
+  }
+
+  /**
+   * Validates a page I/O mode.
+   *
+   * @throws IllegalArgumentException if the mode is unknown
+   */
+  private static void checkMode(int io_mode) {
+    if (io_mode < IO_STREAM || io_mode > IO_COMPRESSED) {
+      throw new IllegalArgumentException("Unknown I/O mode: " + io_mode);
+    }
+  }
+
+  /**
+   * Validates a page size.
+   *
+   * @throws IllegalArgumentException if the size is not one of PAGE_SIZES
+   */
+  public static void checkPageSize(int page_size) {
+    for (int size : PAGE_SIZES) {
+      if (size == page_size) {
+        return;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported page size: " + page_size);
+  }
+
+  /**
+   * Reads the page size of an existing database from the format header on
+   * its first page, without opening it.  Files written before the header
+   * existed have none, and use the default page size.
+   *
+   * @throws IllegalArgumentException if the file cannot be read
+   */
+  public static int peekPageSize(String fname) {
+    try (RandomAccessFile file = new RandomAccessFile(fname, "r")) {
+      byte[] footer = new byte[DBFirstPage.FORMAT_SIZE];
+      for (int size : PAGE_SIZES) {
+        if (file.length() < size) {
+          break;
+        }
+        file.seek(size - DBFirstPage.FORMAT_OFFSET);
+        file.readFully(footer);
+        if (DBFirstPage.isFormat(footer, size)) {
+          return size;
+        }
+      }
+    } catch (IOException exc) {
+      throw new IllegalArgumentException("Cannot read " + fname, exc);
+    }
+    return PAGE_SIZE;
+  } // public static int peekPageSize(String fname)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the page I/O mode in use, one of the IO_ constants.
+   */
+  public int getIOMode() {
+    return io_mode;
+  }
+
+  /**
+   * Gets the current size of the database file, in pages.
+   */
+  public int getNumPages() {
+    return num_pages;
+  }
+
+  /**
+   * Gets the number of pages the file grows by when it is full.
+   */
+  public int getExtentSize() {
+    return extent_size;
+  }
+
+  /**
+   * Sets the number of pages the file grows by when it is full; 0 keeps it
+   * at its current size, so that allocations fail instead.
+   *
+   * @throws IllegalArgumentException if the size is negative
+   */
+  public void setExtentSize(int extent_size) {
+    if (extent_size < 0) {
+      throw new IllegalArgumentException("Invalid extent size: " + extent_size);
+    }
+    this.extent_size = extent_size;
+  }
+
+  /**
+   * Gets the size of the database's pages, in bytes.
+   */
+  public int getPageSize() {
+    return page_size;
+  }
+
   /**
    * Gets the number of disk reads since construction.
    */
-  public int getReadCount() {
-    return read_cnt;
+  public long getReadCount() {
+    return stats.getPagesRead();
   }
 
   /**
    * Gets the number of disk writes since construction.
    */
-  public int getWriteCount() {
-    return write_cnt;
+  public long getWriteCount() {
+    return stats.getPagesWritten();
+  }
+
+  /**
+   * Gets the number of bytes read from disk since construction; less than
+   * the pages read when they are stored compressed.
+   */
+  public long getBytesRead() {
+    return stats.getBytesRead();
+  }
+
+  /**
+   * Gets the number of bytes written to disk since construction, including
+   * any page map entries.
+   */
+  public long getBytesWritten() {
+    return stats.getBytesWritten();
+  }
+
+  /**
+   * Gets the performance counters: latencies, bytes, and sequential and
+   * random access for each kind of page operation.
+   */
+  public DiskStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Gets the number of allocated disk pages.  The count is kept as pages are
+   * allocated and freed, and recorded on the first page.
+   */
+  public int getAllocCount() {
+    return alloc_cnt;
   }
 
   /**
-   * Gets the number of allocated disk pages.
+   * Counts the allocated pages by reading the whole space map, for databases
+   * created before the count was recorded.
    */
-  public int getAllocCount() { // TODO: maintain and return "protected int alloc_cnt"
+  protected int countAllocated() {
 
-    // initialize reused variables
     int count = 0;
-    int bit_number = 0;
     PageId pgid = new PageId();
     Page apage = new Page();
 
     // iterate each page in the space map
-    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
     for (int i = 0; i < num_map_pages; i++) {
 
       // pin the space-map page
-      pgid.pid = 1 + i;
+      pgid.pid = mapPageOf(i);
       Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
 
       // how many bits should we examine on this page?
-      int num_bits_this_page = num_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE) {
-        num_bits_this_page = BITS_PER_PAGE;
+      int num_bits_this_page = num_pages - i * bits_per_page;
+      if (num_bits_this_page > bits_per_page) {
+        num_bits_this_page = bits_per_page;
       }
 
-      // walk the page looking for 1 bits
-      byte[] pagebuf = apage.getData();
-      for (int pgptr = 0; num_bits_this_page > 0; pgptr++) { // start forloop02
-        for (int mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
-          int bit = pagebuf[pgptr] & mask;
-          if (bit != 0) {
-            count++;
-          }
-        }
+      // count the 1 bits a word at a time
+      ByteBuffer pagebuf = apage.getBuffer();
+      for (int w = 0; w * 64 < num_bits_this_page; w++) {
+        count += Long.bitCount(getWord(pagebuf, w)
+            & lowBits(num_bits_this_page - w * 64));
       }
 
       // unpin the space-map page
       Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
 
-    } // end of forloop01
-
-    // return the resulting count
+    }
     return count;
 
-  } // public int getAllocCount()
+  } // protected int countAllocated()
+
+  /**
+   * Creates and opens a new database with the given file name and specified
+   * number of pages, in the given page I/O mode.
+   *
+   * @throws IllegalArgumentException if the mode is unknown
+   */
+  public void createDB(String fname, int num_pgs, int io_mode) {
+    checkMode(io_mode);
+    this.io_mode = io_mode;
+    createDB(fname, num_pgs);
+  }
 
   /**
    * Creates and opens a new database with the given file name and specified
-   * number of pages.
+   * number of pages.  The pages are Minibase.PageSize bytes long, and the size
+   * is recorded on the first page for openDB.
+   *
+   * @throws IllegalArgumentException if the page size is not supported
    */
   public void createDB(String fname, int num_pgs) {
 
     // save the parameters locally
+    checkPageSize(Minibase.PageSize);
     name = fname;
     num_pages = (num_pgs > 2) ? num_pgs : 2;
+    alloc_cnt = 0;
+    extents = null;
+    catalog = null;
+    setPageSize(Minibase.PageSize);
 
     // overwrite an existing file
     File DBfile = new File(name);
     DBfile.delete();
+    new File(name + MAP_SUFFIX).delete();
 
-    // create the database file, num_pages pages long, filled with zeroes
+    // create the database file, num_pages pages long, filled with zeroes; a
+    // compressed one holds only the pages written, so it starts empty
     try {
       fp = new RandomAccessFile(fname, "rw");
-      fp.seek((long) (num_pages * PAGE_SIZE - 1));
-      fp.writeByte(0);
+      if (io_mode != IO_COMPRESSED) {
+        fp.seek((long) num_pages * page_size - 1);
+        fp.writeByte(0);
+      }
+      openIO();
+      stats.register(name);
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
+    // a log left by an earlier database of the same name is void
+    if (Minibase.LogManager != null) {
+      Minibase.LogManager.truncate();
+    }
+
     // create and initialize the first DB page
     PageId pageId = new PageId(FIRST_PAGEID);
     DBFirstPage firstpg = new DBFirstPage();
     Minibase.BufferManager.pinPage(pageId, firstpg, PIN_MEMCPY);
-    firstpg.setNumDBPages(num_pages);
-    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
-
     // calculate how many pages are needed for the space map; reserve
     // pages 0 and 1 and as many additional pages as are needed
-    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    set_bits(pageId, 1 + num_map_pages, 1);
+    base_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+    firstpg.setNumDBPages(num_pages);
+    firstpg.setMapPages(base_map_pages);
+    firstpg.setFormat();
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+    set_bits(pageId, 1 + base_map_pages, 1);
 
   } // public void createDB(String fname, int num_pgs)
 
   /**
-   * Open the database with the given file name.
+   * Open the database with the given file name, in the given page I/O mode.
+   *
+   * @throws IllegalArgumentException if the mode is unknown
+   */
+  public void openDB(String fname, int io_mode) {
+    checkMode(io_mode);
+    this.io_mode = io_mode;
+    openDB(fname);
+  }
+
+  /**
+   * Open the database with the given file name.  Its pages must be
+   * Minibase.PageSize bytes long; see peekPageSize.
+   *
+   * @throws IllegalStateException if the first page records another size,
+   *           or the file is compressed and the mode is not IO_COMPRESSED or
+   *           the other way round
    */
   public void openDB(String fname) {
 
+    // a compressed database has a page map; it cannot be read without one
+    boolean compressed = new File(fname + MAP_SUFFIX).exists();
+    if (compressed != (io_mode == IO_COMPRESSED)) {
+      throw new IllegalStateException(fname + (compressed ? " is" : " is not")
+          + " compressed; open it in that mode");
+    }
+
     // save the name and open the database file
     name = fname;
+    extents = null;
+    catalog = null;
+    setPageSize(Minibase.PageSize);
     try {
       fp = new RandomAccessFile(fname, "rw");
+      openIO();
+      stats.register(name);
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
+    // bring the pages up to date with the log, from the last checkpoint.
+    // The size recorded on the first page may be older than the log, which
+    // raises it through redoneFirstPage as it replays the file's growth;
+    // undo deallocates pages, and needs the map and the count too.
+    if (Minibase.LogManager != null) {
+      num_pages = 2; // temp default
+      PageId pageId = new PageId(FIRST_PAGEID);
+      Page apage = new Page();
+      Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
+      DBFirstPage firstpg = new DBFirstPage(apage);
+      long ckpt_lsn = firstpg.getCheckpointLSN();
+      num_pages = firstpg.getNumDBPages();
+      base_map_pages = firstpg.getMapPages();
+      alloc_cnt = firstpg.getAllocCount();
+      Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+      if (base_map_pages == 0) {
+        base_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+      }
+      Minibase.LogManager.recover(ckpt_lsn);
+    }
+
     // read the first page
     num_pages = 2; // temp default
     PageId pageId = new PageId(FIRST_PAGEID);
@@ -160,17 +453,134 @@ public class DiskMgr implements GlobalConst {
     // get the total number of pages
     DBFirstPage firstpg = new DBFirstPage(apage);
     num_pages = firstpg.getNumDBPages();
+    base_map_pages = firstpg.getMapPages();
+    alloc_cnt = firstpg.getAllocCount();
+    int stored = firstpg.hasFormat() ? firstpg.getPageSize() : PAGE_SIZE;
     Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    if (stored != page_size) {
+      throw new IllegalStateException(fname + " has " + stored
+          + "-byte pages, not " + page_size);
+    }
+
+    // databases that kept neither count never grew
+    if (base_map_pages == 0) {
+      base_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+    }
+
+    // pages 0 and 1 are always allocated, so 0 means the count was never kept
+    if (alloc_cnt == 0) {
+      alloc_cnt = countAllocated();
+    }
 
   } // public void openDB(String fname)
 
+  /**
+   * Rereads what the disk manager keeps from its pages: the file size and
+   * allocation count from the first page, and the free runs and file entries
+   * when next needed.  The log manager calls this after rolling back a
+   * transaction, which may have changed them.
+   */
+  public synchronized void reload() {
+    PageId pageId = new PageId(FIRST_PAGEID);
+    Page apage = new Page();
+    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
+    DBFirstPage firstpg = new DBFirstPage(apage);
+    num_pages = firstpg.getNumDBPages();
+    alloc_cnt = firstpg.getAllocCount();
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    extents = null;
+    catalog = null;
+  }
+
+  /**
+   * Raises the file size to the one the first page now records, if that is
+   * larger, and takes up the allocation count it records.  The log manager
+   * calls this during recovery each time it redoes a change to the first
+   * page, so that the growth the log replays lets redo reach the pages it
+   * added; the file already holds them, since it is lengthened before its
+   * new size is logged.  The size is never lowered here, as pages past it
+   * may still be written back; openDB rereads the final size once recovery
+   * is done.
+   */
+  public synchronized void redoneFirstPage() {
+    PageId pageId = new PageId(FIRST_PAGEID);
+    Page apage = new Page();
+    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
+    DBFirstPage firstpg = new DBFirstPage(apage);
+    int recorded = firstpg.getNumDBPages();
+    alloc_cnt = firstpg.getAllocCount();
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    if (recorded > num_pages) {
+      num_pages = recorded;
+    }
+  }
+
+  /**
+   * Creates the page I/O backend for the open file.  If the file system does
+   * not support direct I/O, channel I/O is used instead.
+   */
+  private void openIO() throws IOException {
+    try {
+      io = PageIO.create(io_mode, fp, page_size, name);
+    } catch (IOException exc) {
+      if (io_mode != IO_DIRECT) {
+        throw exc;
+      }
+      System.err.println("Direct I/O is not available for " + name
+          + "; using channel I/O");
+      io_mode = IO_CHANNEL;
+      io = PageIO.create(io_mode, fp, page_size, name);
+    }
+  }
+
+  /**
+   * Sets the page size and the quantities derived from it.
+   */
+  private void setPageSize(int page_size) {
+    this.page_size = page_size;
+    bits_per_page = page_size * 8;
+  }
+
+  /**
+   * Forces every page written so far to the storage device.  The buffer
+   * manager calls this after flushing the pool.
+   */
+  public void sync() {
+    try {
+      io.force();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Records the LSN of the buffer manager's latest checkpoint on the first
+   * page, and forces the page to disk, for recovery to start from.
+   */
+  public void setCheckpointLSN(long lsn) {
+    PageId pageId = new PageId(FIRST_PAGEID);
+    Page apage = new Page();
+    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
+    new DBFirstPage(apage).setCheckpointLSN(lsn);
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+    Minibase.BufferManager.flushPage(pageId);
+    sync();
+  }
+
   /**
    * Closes the database file.
    */
   public void closeDB() {
     try {
+      Minibase.BufferManager.stopPrefetcher();
+      Minibase.BufferManager.stopPageWriter();
       Minibase.BufferManager.flushAllPages();
-      fp.close();
+      if (Minibase.LogManager != null) {
+        Minibase.LogManager.truncate();
+        Minibase.LogManager.close();
+      }
+      io.close();
+      stats.unregister();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
@@ -183,6 +593,8 @@ public class DiskMgr implements GlobalConst {
     closeDB();
     File DBfile = new File(name);
     DBfile.delete();
+    new File(name + MAP_SUFFIX).delete();
+    new File(name + LogMgr.LOG_SUFFIX).delete();
   }
 
   /**
@@ -196,86 +608,105 @@ public class DiskMgr implements GlobalConst {
   }
 
   /**
-   * Allocates a set of pages on disk, given the run size.
+   * Allocates a set of pages on disk, given the run size.  If no free run is
+   * long enough, the file grows by whole extents (see setExtentSize).  When
+   * logging, the space map and the first page are changed in a top action,
+   * since other transactions go on to allocate from them; a transaction
+   * then logs the run as its own, for an abort to deallocate.
    *
    * @return The new page's id
    * @throws IllegalArgumentException if run_size is invalid
-   * @throws IllegalStateException if the database is full
+   * @throws IllegalStateException if the database is full and cannot grow
    */
-  public PageId allocate_page(int run_size) {
+  public synchronized PageId allocate_page(int run_size) {
+
+    long start = System.nanoTime();
 
     // validate the run size
-    if ((run_size < 1) || (run_size > num_pages)) {
+    if ((run_size < 1) || (extent_size == 0 && run_size > num_pages)) {
       throw new IllegalArgumentException("Invalid run size; allocate aborted");
     }
 
-    // calculate the run in the space map
-    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
-    int current_run_start = 0;
-    int current_run_length = 0;
-
-    // this loop goes over each page in the space map
-    PageId pgid = new PageId();
-    Page apage = new Page();
-    for (int i = 0; i < num_map_pages; ++i) {
-
-      // pin the space-map page
-      pgid.pid = i + 1;
-      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
-
-      // get the num of bits on current page
-      int num_bits_this_page = num_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE)
-        num_bits_this_page = BITS_PER_PAGE;
-
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length. The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      byte[] pagebuf = apage.getData();
-      for (int byteptr = 0; num_bits_this_page > 0
-          && current_run_length < run_size; byteptr++) {
-
-        // initialize bit mask
-        Byte mask = new Byte(new Integer(1).byteValue());
-        byte tmpmask = mask.byteValue();
-
-        // search the page for an empty run
-        while (mask.intValue() != 0 && (num_bits_this_page > 0)
-            && (current_run_length < run_size)) {
-
-          // if a non-empty page is found
-          if ((pagebuf[byteptr] & tmpmask) != 0) {
-            current_run_start += current_run_length + 1;
-            current_run_length = 0;
-          } else {
-            current_run_length++;
-          }
+    // take a free run from the index, growing the file once if none fits;
+    // a run cannot span the space-map pages that growth puts in its way, so
+    // leave room for those too
+    LogMgr log = Minibase.LogManager;
+    if (log != null) {
+      log.beginTopAction();
+    }
+    PageId firstpg;
+    try {
+      int first = freeExtents().allocate(run_size);
+      if (first < 0 && extent_size > 0) {
+        int needed = run_size + run_size / bits_per_page + 1;
+        grow((needed + extent_size - 1) / extent_size * extent_size);
+        first = extents.allocate(run_size);
+      }
+      if (first < 0) {
+        throw new IllegalStateException(
+            "Not enough space left; allocate aborted");
+      }
 
-          // advance to the next page
-          tmpmask <<= 1;
-          mask = new Byte(tmpmask);
-          num_bits_this_page--;
+      // update the space map
+      firstpg = new PageId(first);
+      set_bits(firstpg, run_size, 1);
+    } finally {
+      if (log != null) {
+        log.endTopAction();
+      }
+    }
 
-        } // while
+    // log the run for the transaction and return the resulting page id
+    if (log != null) {
+      log.logAlloc(firstpg.pid, run_size);
+    }
+    stats.record(DiskStats.ALLOCATE, firstpg.pid, run_size, 0, start);
+    return firstpg;
 
-      } // inner loop
+  } // public PageId allocate_page(int run_size)
 
-      // unpin the current space-map page
-      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+  /**
+   * grow
+   *
+   * Extends the database file by the given number of pages and adds them to
+   * the free runs.  Space-map pages for the new pages come first in the range
+   * each one maps, and are allocated.  Readers of existing pages are not held
+   * up: the file only gets longer, and num_pages is raised before any of the
+   * new pages can be allocated.
+   *
+   * @throws IllegalStateException if the file would have too many pages
+   */
+  protected void grow(int more_pages) {
 
-    } // outer loop
+    long total = (long) num_pages + more_pages;
+    if (total > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Database is too large to grow");
+    }
+    int old_pages = num_pages;
+    int new_pages = (int) total;
 
-    // check for disk full exception
-    if (current_run_length < run_size) {
-      throw new IllegalStateException("Not enough space left; allocate aborted");
+    // lengthen the file; the new pages read as zeroes
+    try {
+      io.extend((long) new_pages * page_size);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
     }
 
-    // update the space map and return the resulting page id
-    PageId firstpg = new PageId(current_run_start);
-    set_bits(firstpg, run_size, 1);
-    return firstpg;
+    // record the new size, then free the new pages and take the map pages
+    num_pages = new_pages;
+    PageId pageId = new PageId(FIRST_PAGEID);
+    Page apage = new Page();
+    Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
+    new DBFirstPage(apage).setNumDBPages(num_pages);
+    Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+    freeExtents().markFree(old_pages, new_pages - old_pages);
+    int old_maps = (old_pages + bits_per_page - 1) / bits_per_page;
+    int new_maps = (new_pages + bits_per_page - 1) / bits_per_page;
+    for (int i = old_maps; i < new_maps; i++) {
+      set_bits(new PageId(mapPageOf(i)), 1, 1);
+    }
 
-  } // public PageId allocate_page(int run_size)
+  } // protected void grow(int more_pages)
 
   /**
    * Deallocates a single page (i.e. run size 1) on disk.
@@ -288,13 +719,17 @@ public class DiskMgr implements GlobalConst {
   }
 
   /**
-   * Deallocates a set of pages on disk, given the run size.
+   * Deallocates a set of pages on disk, given the run size.  When logging,
+   * the change is logged outside any transaction, as for allocate_page; the
+   * buffer manager puts a transaction's frees off until it commits.
    *
    * @param firstid identifies the first page to deallocate
    * @param run_size number of pages to deallocate
    * @throws IllegalArgumentException if firstid or run_size is invalid
    */
-  public void deallocate_page(PageId firstid, int run_size) {
+  public synchronized void deallocate_page(PageId firstid, int run_size) {
+
+    long start = System.nanoTime();
 
     // validate the page id
     if ((firstid.pid < 0) || (firstid.pid >= num_pages)) {
@@ -308,7 +743,25 @@ public class DiskMgr implements GlobalConst {
     }
 
     // update the space map
-    set_bits(firstid, run_size, 0);
+    LogMgr log = Minibase.LogManager;
+    if (log != null) {
+      log.beginTopAction();
+    }
+    try {
+      set_bits(firstid, run_size, 0);
+    } finally {
+      if (log != null) {
+        log.endTopAction();
+      }
+    }
+
+    // let the backend give back the space the pages took
+    try {
+      io.deallocate(firstid.pid, run_size);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    stats.record(DiskStats.DEALLOCATE, firstid.pid, run_size, 0, start);
 
   } // public void deallocate_page(PageId firstid, int run_size)
 
@@ -326,17 +779,48 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; read aborted");
     }
 
-    // seek to the correct page on disk and read it
+    // read the page through the I/O backend
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.read(page.getData());
-      read_cnt++;
+      long start = System.nanoTime();
+      int nbytes = io.read(pageno.pid, page);
+      stats.record(DiskStats.READ, pageno.pid, 1, nbytes, start);
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
   } // public void read_page(PageId pageno, Page page)
 
+  /**
+   * Reads the contents of a run of consecutive pages from disk, starting with
+   * first, in one I/O call where the mode allows it.
+   *
+   * @param first identifies the first page of the run
+   * @param n number of pages to read
+   * @param dst output param to hold the contents of the pages, in order
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public void read_pages(PageId first, int n, Page[] dst) {
+
+    // validate the run
+    if ((first.pid < 0) || (n < 0) || (first.pid + n > num_pages)
+        || (n > dst.length)) {
+      throw new IllegalArgumentException("Invalid page run; read aborted");
+    }
+    if (n == 0) {
+      return;
+    }
+
+    // read the run through the I/O backend
+    try {
+      long start = System.nanoTime();
+      int nbytes = io.read(first.pid, dst, 0, n);
+      stats.record(DiskStats.READ, first.pid, n, nbytes, start);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void read_pages(PageId first, int n, Page[] dst)
+
   /**
    * Writes the contents of the given page to disk.
    *
@@ -351,24 +835,56 @@ public class DiskMgr implements GlobalConst {
       throw new IllegalArgumentException("Invalid page number; write aborted");
     }
 
-    // seek to the correct page on disk and write it
+    // write the page through the I/O backend
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.write(page.getData());
-      write_cnt++;
+      long start = System.nanoTime();
+      int nbytes = io.write(pageno.pid, page);
+      stats.record(DiskStats.WRITE, pageno.pid, 1, nbytes, start);
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
   } // public void write_page(PageId pageno, Page page)
 
+  /**
+   * Writes the contents of a run of consecutive pages to disk, starting with
+   * firstid, in one I/O call where the mode allows it.
+   *
+   * @param firstid identifies the first page of the run
+   * @param pages holds the contents of the pages
+   * @param off index in pages of the first page to write
+   * @param len number of pages to write
+   * @throws IllegalArgumentException if the run is invalid
+   */
+  public void write_pages(PageId firstid, Page[] pages, int off, int len) {
+
+    // validate the run
+    if ((firstid.pid < 0) || (len < 0) || (firstid.pid + len > num_pages)
+        || (off < 0) || (off + len > pages.length)) {
+      throw new IllegalArgumentException("Invalid page run; write aborted");
+    }
+    if (len == 0) {
+      return;
+    }
+
+    // write the run back to back through the I/O backend
+    try {
+      long start = System.nanoTime();
+      int nbytes = io.write(firstid.pid, pages, off, len);
+      stats.record(DiskStats.WRITE, firstid.pid, len, nbytes, start);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void write_pages(PageId firstid, Page[] pages, int off, int len)
+
   /**
    * Adds a file entry to the header page(s); each entry contains the name of
    * the file and the PageId of the file's first page.
    *
    * @throws IllegalArgumentException if fname or start_pageno is invalid
    */
-  public void add_file_entry(String fname, PageId start_pageno) {
+  public synchronized void add_file_entry(String fname, PageId start_pageno) {
 
     // validate the arguments
     if (fname.length() > NAME_MAXLEN) {
@@ -380,69 +896,64 @@ public class DiskMgr implements GlobalConst {
     }
 
     // does the file already exist?
-    if (get_file_entry(fname) != null) {
+    FileCatalog files = fileCatalog();
+    if (files.get(fname) != null) {
       throw new IllegalArgumentException(
           "File entry already exists; add entry aborted");
     }
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int free_slot = 0;
+    // take an empty slot, or add a header page if there is none
+    FileCatalog.Slot slot = files.takeFreeSlot();
     DBHeaderPage hpage = new DBHeaderPage();
     PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(FIRST_PAGEID);
-    do {
-
-      // pin the next header page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
+    if (slot == null) {
 
-      // search the header page for an empty entry
-      int entry = 0;
-      while (entry < hpage.getNumOfEntries()) {
-        hpage.getFileEntry(tmppid, entry);
-        if (tmppid.pid == INVALID_PAGEID) {
-          break;
+      // the header chain is shared, so it grows in a top action, which an
+      // abort of this entry's transaction leaves alone
+      LogMgr log = Minibase.LogManager;
+      if (log != null) {
+        log.beginTopAction();
+      }
+      int num_entries;
+      try {
+
+        // allocate the new header page
+        PageId nexthpid = allocate_page();
+
+        // set the next-page pointer on the previous directory page
+        hpid.pid = files.getLastPage();
+        Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+        hpage.setNextPage(nexthpid);
+        Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+
+        // initialize the newly-allocated directory page
+        hpid.pid = nexthpid.pid;
+        Minibase.BufferManager.pinPage(hpid, hpage, PIN_MEMCPY);
+        hpage.initDefaults();
+        num_entries = hpage.getNumOfEntries();
+        Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+
+      } finally {
+        if (log != null) {
+          log.endTopAction();
         }
-        entry++;
       }
 
-      // verify an empty slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        free_slot = entry;
-        found = true;
-      } else if (nexthpid.pid != INVALID_PAGEID) {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
+      // its other slots are free
+      files.setLastPage(hpid.pid);
+      for (int entry = 1; entry < num_entries; entry++) {
+        files.addFreeSlot(hpid.pid, entry);
       }
+      slot = new FileCatalog.Slot(hpid.pid, 0, INVALID_PAGEID);
+    }
+    hpid.pid = slot.hpid;
+    Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
 
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // if necessary (and possible), add a new header page
-    if (!found) {
-
-      // allocate the new header page
-      nexthpid = allocate_page();
-
-      // set the next-page pointer on the previous directory page
-      hpage.setNextPage(nexthpid);
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
-
-      // pin the newly-allocated directory page
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_MEMCPY);
-      hpage.initDefaults();
-      free_slot = 0;
-
-    } // if new header page
-
-    // At this point, "hpid" has the page id of the header page with the free
-    // slot; "hpage" has the directory_page pointer; "free_slot" is the entry
-    // number in the directory where we're going to put the new file entry.
-    hpage.setFileEntry(fname, start_pageno, free_slot);
+    // write the entry through to its header page
+    hpage.setFileEntry(fname, start_pageno, slot.entry);
     Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    slot.start_pid = start_pageno.pid;
+    files.put(fname, slot);
 
   } // public void add_file_entry(String fname, PageId start_pageno)
 
@@ -451,54 +962,20 @@ public class DiskMgr implements GlobalConst {
    *
    * @throws IllegalArgumentException if fname is invalid
    */
-  public void delete_file_entry(String fname) {
+  public synchronized void delete_file_entry(String fname) {
 
     // does the file really exist?
-    if (get_file_entry(fname) == null) {
+    FileCatalog.Slot slot = fileCatalog().remove(fname);
+    if (slot == null) {
       throw new IllegalArgumentException(
           "File entry not found; delete entry aborted");
     }
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int slot = 0;
+    // clear its slot on the header page
     DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next header page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the header page for an the entry
-      int entry = 0;
-      String tmpname = null;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      } else {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGEID;
-    hpage.setFileEntry("\0", tmppid, slot);
+    PageId hpid = new PageId(slot.hpid);
+    Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+    hpage.setFileEntry("\0", new PageId(), slot.entry);
     Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
 
   } // public void delete_file_entry(String fname)
@@ -508,56 +985,57 @@ public class DiskMgr implements GlobalConst {
    *
    * @return PageId of the file's first page, or null if the file doesn't exist
    */
-  public PageId get_file_entry(String fname) {
+  public synchronized PageId get_file_entry(String fname) {
+    FileCatalog.Slot slot = fileCatalog().get(fname);
+    return (slot == null) ? null : new PageId(slot.start_pid);
+  }
+
+  /**
+   * Gets the file catalog, building it from the header pages the first time.
+   * The header chain is read once; after that the file-entry methods keep
+   * the catalog and the pages in step.
+   */
+  protected FileCatalog fileCatalog() {
+
+    if (catalog != null) {
+      return catalog;
+    }
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int slot = 0;
+    // walk the header chain, noting every entry and every empty slot
+    FileCatalog files = null;
     DBHeaderPage hpage = new DBHeaderPage();
     PageId hpid = new PageId();
     PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
+    PageId nexthpid = new PageId(FIRST_PAGEID);
     do {
 
       // pin the next header page and get its next
       hpid.pid = nexthpid.pid;
       Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
       nexthpid = hpage.getNextPage();
-
-      // search the header page for an the entry
-      int entry = 0;
-      String tmpname;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
+      if (files == null) {
+        files = new FileCatalog(hpid.pid);
       }
+      files.setLastPage(hpid.pid);
 
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
+      for (int entry = 0; entry < hpage.getNumOfEntries(); entry++) {
+        String tmpname = hpage.getFileEntry(tmppid, entry);
+        if (tmppid.pid == INVALID_PAGEID) {
+          files.addFreeSlot(hpid.pid, entry);
+        } else {
+          files.put(tmpname, new FileCatalog.Slot(hpid.pid, entry, tmppid.pid));
+        }
       }
 
       // unpin the page before continuing or exiting loop
       Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
 
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // return null if not found
-    if (!found) {
-      return null;
-    }
+    } while (nexthpid.pid != INVALID_PAGEID);
 
-    // otherwise, return the first page id
-    PageId startpid = new PageId();
-    hpage.getFileEntry(startpid, slot);
-    return startpid;
+    catalog = files;
+    return catalog;
 
-  } // public PageId get_file_entry(String fname)
+  } // protected FileCatalog fileCatalog()
 
   /**
    * Print out the database's space map, a bitmap showing which pages are
@@ -565,7 +1043,7 @@ public class DiskMgr implements GlobalConst {
    */
   public void print_space_map() {
 
-    int num_map_pages = (num_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
     int bit_number = 0;
 
     // this loop goes over each page in the space map
@@ -575,50 +1053,40 @@ public class DiskMgr implements GlobalConst {
     for (int i = 0; i < num_map_pages; i++) { // start forloop01
 
       // pin the space-map page
-      pgid.pid = 1 + i; // space map starts at page1
+      pgid.pid = mapPageOf(i);
       Page apage = new Page();
       Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
 
       // how many bits should we examine on this page?
-      int num_bits_this_page = num_pages - i * BITS_PER_PAGE;
-      if (num_bits_this_page > BITS_PER_PAGE) {
-        num_bits_this_page = BITS_PER_PAGE;
+      int num_bits_this_page = num_pages - i * bits_per_page;
+      if (num_bits_this_page > bits_per_page) {
+        num_bits_this_page = bits_per_page;
       }
       System.out.println("\n\nnum_bits_this_page = " + num_bits_this_page
           + "\n");
       if (i > 0)
         System.out.print("\t");
 
-      // Walk the page looking for a sequence of 0 bits of the appropriate
-      // length. The outer loop steps through the page's bytes, the inner
-      // one steps through each byte's bits.
-      int pgptr = 0;
-      byte[] pagebuf = apage.getData();
-      int mask;
-      for (; num_bits_this_page > 0; pgptr++) { // start forloop02
-
-        for (mask = 1; mask < 256 && num_bits_this_page > 0; mask = (mask << 1), --num_bits_this_page, ++bit_number) {
-          // start forloop03
-
-          int bit = pagebuf[pgptr] & mask;
-          if ((bit_number % 10) == 0) {
-            if ((bit_number % 50) == 0) {
-              if (bit_number > 0) {
-                System.out.println("\n");
-              }
-              System.out.print("\t" + bit_number + ": ");
-            } else {
-              System.out.print(' ');
-            }
-          }
+      // print the page's bits, reading them a word at a time
+      ByteBuffer pagebuf = apage.getBuffer();
+      long word = 0;
+      for (int bit_no = 0; bit_no < num_bits_this_page; bit_no++, bit_number++) {
+        // start forloop02
 
-          if (bit != 0) {
-            System.out.print("1");
+        if ((bit_no & 63) == 0) {
+          word = getWord(pagebuf, bit_no >>> 6);
+        }
+        if ((bit_number % 10) == 0) {
+          if ((bit_number % 50) == 0) {
+            if (bit_number > 0) {
+              System.out.println("\n");
+            }
+            System.out.print("\t" + bit_number + ": ");
           } else {
-            System.out.print("0");
+            System.out.print(' ');
           }
-
-        } // end of forloop03
+        }
+        System.out.print((word >>> (bit_no & 63)) & 1);
 
       } // end of forloop02
 
@@ -630,71 +1098,169 @@ public class DiskMgr implements GlobalConst {
 
   } // public void print_space_map()
 
+  /**
+   * Gets the index of free runs, building it from the space map the first
+   * time.  The map is read once; after that set_bits keeps the index in step
+   * with it.
+   */
+  protected FreeExtents freeExtents() {
+
+    if (extents != null) {
+      return extents;
+    }
+    FreeExtents index = new FreeExtents();
+    int run_start = 0;
+    boolean in_run = false;
+
+    // this loop goes over each page in the space map
+    int num_map_pages = (num_pages + bits_per_page - 1) / bits_per_page;
+    PageId pgid = new PageId();
+    Page apage = new Page();
+    for (int i = 0; i < num_map_pages; i++) {
+
+      // pin the space-map page
+      pgid.pid = mapPageOf(i);
+      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+
+      // how many bits should we examine on this page?
+      int num_bits_this_page = num_pages - i * bits_per_page;
+      if (num_bits_this_page > bits_per_page) {
+        num_bits_this_page = bits_per_page;
+      }
+
+      // walk the page a word at a time, jumping from each 0 bit to the next
+      // 1 bit and back with numberOfTrailingZeros
+      ByteBuffer pagebuf = apage.getBuffer();
+      int base = i * bits_per_page;
+      for (int w = 0; w * 64 < num_bits_this_page; w++) {
+        int bits = Math.min(64, num_bits_this_page - w * 64);
+        long used = getWord(pagebuf, w);
+        for (int b = 0; b < bits; ) {
+          long rest = (in_run ? used : ~used) >>> b;
+          b = (rest == 0) ? bits : Math.min(bits, b + Long.numberOfTrailingZeros(rest));
+          if (b < bits) {
+            if (in_run) {
+              index.markFree(run_start, base + w * 64 + b - run_start);
+            } else {
+              run_start = base + w * 64 + b;
+            }
+            in_run = !in_run;
+          }
+        }
+      }
+
+      // unpin the space-map page
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+
+    }
+    if (in_run) {
+      index.markFree(run_start, num_pages - run_start);
+    }
+
+    extents = index;
+    return extents;
+
+  } // protected FreeExtents freeExtents()
+
   /**
    * Sets 'run_size' bits in the space map to the given value, starting from
-   * 'start_page'.
+   * 'start_page', and updates the index of free runs if it has been built.
    */
   protected void set_bits(PageId start_page, int run_size, int bit) {
 
+    // keep the free-run index in step with the map
+    if (extents != null) {
+      int in_file = Math.min(run_size, num_pages - start_page.pid);
+      if (bit == 1) {
+        extents.markUsed(start_page.pid, in_file);
+      } else {
+        extents.markFree(start_page.pid, in_file);
+      }
+    }
+
     // locate the run within the space map
-    int first_map_page = start_page.pid / BITS_PER_PAGE + 1;
-    int last_map_page = (start_page.pid + run_size - 1) / BITS_PER_PAGE + 1;
-    int first_bit_no = start_page.pid % BITS_PER_PAGE;
+    int first_map_page = start_page.pid / bits_per_page;
+    int last_map_page = (start_page.pid + run_size - 1) / bits_per_page;
+    int first_bit_no = start_page.pid % bits_per_page;
+    int changed = 0;
 
     // the outer loop goes over all space-map pages we need to touch
-    for (PageId pgid = new PageId(first_map_page); pgid.pid <= last_map_page; pgid.pid = pgid.pid + 1, first_bit_no = 0) {
+    Page pg = new Page();
+    PageId pgid = new PageId();
+    for (int map_page = first_map_page; map_page <= last_map_page; map_page++, first_bit_no = 0) {
       // Start forloop01
 
       // pin the space-map page
-      Page pg = new Page();
+      pgid.pid = mapPageOf(map_page);
       Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
-      byte[] pgbuf = pg.getData();
+      ByteBuffer pgbuf = pg.getBuffer();
 
       // locate the piece of the run that fits on this page
-      int first_byte_no = first_bit_no / 8;
-      int first_bit_offset = first_bit_no % 8;
       int last_bit_no = first_bit_no + run_size - 1;
-
-      if (last_bit_no >= BITS_PER_PAGE) {
-        last_bit_no = BITS_PER_PAGE - 1;
+      if (last_bit_no >= bits_per_page) {
+        last_bit_no = bits_per_page - 1;
       }
 
-      int last_byte_no = last_bit_no / 8;
-
-      // this loop actually flips the bits on the current page
-      int cur_posi = first_byte_no;
-      for (; cur_posi <= last_byte_no; ++cur_posi, first_bit_offset = 0) {
+      // this loop flips the bits a word at a time, counting the ones that
+      // actually changed
+      for (int w = first_bit_no >>> 6; w <= last_bit_no >>> 6; w++) {
         // start forloop02
 
-        int max_bits_this_byte = 8 - first_bit_offset;
-        int num_bits_this_byte = (run_size > max_bits_this_byte ? max_bits_this_byte
-            : run_size);
-
-        int imask = 1;
-        int temp;
-        imask = ((imask << num_bits_this_byte) - 1) << first_bit_offset;
-        Integer intmask = new Integer(imask);
-        Byte mask = new Byte(intmask.byteValue());
-        byte bytemask = mask.byteValue();
-
-        if (bit == 1) {
-          temp = (pgbuf[cur_posi] | bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
-        } else {
-          temp = pgbuf[cur_posi] & (255 ^ bytemask);
-          intmask = new Integer(temp);
-          pgbuf[cur_posi] = intmask.byteValue();
-        }
-        run_size -= num_bits_this_byte;
+        int lo = Math.max(first_bit_no, w * 64) - w * 64;
+        int hi = Math.min(last_bit_no, w * 64 + 63) - w * 64;
+        long mask = lowBits(hi + 1) & ~lowBits(lo);
+        long old = getWord(pgbuf, w);
+        long word = (bit == 1) ? (old | mask) : (old & ~mask);
+        changed += Long.bitCount(word) - Long.bitCount(old);
+        setWord(pgbuf, w, word);
 
       } // end of forloop02
+      run_size -= last_bit_no - first_bit_no + 1;
 
       // unpin the space-map page
       Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
 
     } // end of forloop01
 
+    // record the new count of allocated pages on the first page
+    if (changed != 0) {
+      alloc_cnt += changed;
+      PageId pageId = new PageId(FIRST_PAGEID);
+      Minibase.BufferManager.pinPage(pageId, pg, PIN_DISKIO);
+      new DBFirstPage(pg).setAllocCount(alloc_cnt);
+      Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
+    }
+
   } // protected void set_bits(PageId start_page, int run_size, int bit)
 
+  /**
+   * Gets the page id of the given space-map page, counting from 0.  The map
+   * pages made with the database follow the first page; each one added as
+   * the file grew is the first of the pages it maps.
+   */
+  protected int mapPageOf(int map_page) {
+    return (map_page < base_map_pages) ? 1 + map_page : map_page * bits_per_page;
+  }
+
+  /**
+   * Gets the given 64-bit word of a space-map page.
+   */
+  private static long getWord(ByteBuffer pagebuf, int wordno) {
+    return (long) MAP_WORDS.get(pagebuf, wordno * 8);
+  }
+
+  /**
+   * Sets the given 64-bit word of a space-map page.
+   */
+  private static void setWord(ByteBuffer pagebuf, int wordno, long word) {
+    MAP_WORDS.set(pagebuf, wordno * 8, word);
+  }
+
+  /**
+   * Gets a mask of the lowest n bits of a word, for n up to 64 (or more).
+   */
+  private static long lowBits(int n) {
+    return (n >= 64) ? -1L : (1L << n) - 1;
+  }
+
 } // public class DiskMgr implements GlobalConst
@@ -0,0 +1,412 @@
+package diskmgr;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The DiskStats class keeps the disk manager's performance counters, for each
+ * kind of operation: the pages and bytes it moved, how many calls continued
+ * where the previous one of the same kind ended (sequential) and how many did
+ * not (random), and a histogram of the calls' latencies.  Counters are
+ * LongAdders and histogram buckets atomic longs, so recording costs a few
+ * uncontended additions and two clock reads.
+ * <br><br>
+ * The histogram buckets are log-linear, like an HDR histogram's: each power
+ * of two is split into SUB_BUCKETS equal buckets, so a latency is known to
+ * within 1 / SUB_BUCKETS of its value at every scale.
+ * <br><br>
+ * The counters can be read as a consistent-enough Snapshot, which can be
+ * subtracted from a later one to get the figures for an interval, and are
+ * published over JMX as a DiskStatsMBean once register is called.
+ */
+public class DiskStats implements DiskStatsMBean {
+
+  /** Operation kind: pages read. */
+  public static final int READ = 0;
+
+  /** Operation kind: pages written. */
+  public static final int WRITE = 1;
+
+  /** Operation kind: pages allocated. */
+  public static final int ALLOCATE = 2;
+
+  /** Operation kind: pages deallocated. */
+  public static final int DEALLOCATE = 3;
+
+  /** Number of operation kinds. */
+  public static final int NUM_OPS = 4;
+
+  /** Number of bits of each latency kept in its histogram bucket. */
+  protected static final int SUB_BITS = 3;
+
+  /** Number of histogram buckets per power of two. */
+  protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  /** Number of histogram buckets, enough for any nonnegative long. */
+  protected static final int NUM_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+  //Counters of each operation kind
+  private final LongAdder[] pages;
+  private final LongAdder[] calls;
+  private final LongAdder[] bytes;
+  private final LongAdder[] sequential;
+  private final LongAdder[] nanos;
+  private final LongAccumulator[] max_nanos;
+  private final AtomicLongArray[] histograms;
+
+  //Page after the last one each kind of operation touched
+  private final int[] next_pid;
+
+  //Name this object is registered under with JMX, or null
+  private ObjectName mbean_name;
+
+  /**
+   * Constructs a set of counters, all zero.
+   */
+  public DiskStats() {
+    pages = adders();
+    calls = adders();
+    bytes = adders();
+    sequential = adders();
+    nanos = adders();
+    max_nanos = new LongAccumulator[NUM_OPS];
+    histograms = new AtomicLongArray[NUM_OPS];
+    for (int op = 0; op < NUM_OPS; op++) {
+      max_nanos[op] = new LongAccumulator(Math::max, 0);
+      histograms[op] = new AtomicLongArray(NUM_BUCKETS);
+    }
+    next_pid = new int[NUM_OPS];
+  }
+
+  /**
+   * record
+   *
+   * Counts one call of the given kind, covering a run of pages.
+   *
+   * @param op READ, WRITE, ALLOCATE or DEALLOCATE
+   * @param pid the first page of the run
+   * @param run_size number of pages in the run
+   * @param nbytes number of bytes moved to or from the file
+   * @param start System.nanoTime() when the call started
+   */
+  public void record(int op, int pid, int run_size, long nbytes, long start) {
+
+    long elapsed = Math.max(0, System.nanoTime() - start);
+    pages[op].add(run_size);
+    calls[op].increment();
+    bytes[op].add(nbytes);
+    nanos[op].add(elapsed);
+    max_nanos[op].accumulate(elapsed);
+    histograms[op].incrementAndGet(bucketOf(elapsed));
+
+    // a racy check, but a miscount under contention is harmless
+    if (next_pid[op] == pid) {
+      sequential[op].increment();
+    }
+    next_pid[op] = pid + run_size;
+
+  } // public void record(int op, int pid, int run_size, long nbytes, long start)
+
+  /**
+   * Gets a copy of the counters as they are now.
+   */
+  public Snapshot snapshot() {
+    Snapshot snap = new Snapshot();
+    for (int op = 0; op < NUM_OPS; op++) {
+      snap.pages[op] = pages[op].sum();
+      snap.calls[op] = calls[op].sum();
+      snap.bytes[op] = bytes[op].sum();
+      snap.sequential[op] = sequential[op].sum();
+      snap.nanos[op] = nanos[op].sum();
+      snap.max_nanos[op] = max_nanos[op].get();
+      for (int b = 0; b < NUM_BUCKETS; b++) {
+        snap.histograms[op][b] = histograms[op].get(b);
+      }
+    }
+    return snap;
+  } // public Snapshot snapshot()
+
+  /**
+   * Sets every counter back to zero.
+   */
+  public void reset() {
+    for (int op = 0; op < NUM_OPS; op++) {
+      pages[op].reset();
+      calls[op].reset();
+      bytes[op].reset();
+      sequential[op].reset();
+      nanos[op].reset();
+      max_nanos[op].reset();
+      for (int b = 0; b < NUM_BUCKETS; b++) {
+        histograms[op].set(b, 0);
+      }
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * register
+   *
+   * Publishes the counters over JMX, as minibase:type=DiskStats,name=
+   * followed by the given name, replacing anything published there before.
+   * JMX errors are reported, but do not stop the database.
+   */
+  public synchronized void register(String name) {
+    unregister();
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objname = new ObjectName("minibase:type=DiskStats,name="
+          + ObjectName.quote(name));
+      if (server.isRegistered(objname)) {
+        server.unregisterMBean(objname);
+      }
+      server.registerMBean(this, objname);
+      mbean_name = objname;
+    } catch (JMException exc) {
+      System.err.println("Cannot publish the disk statistics: " + exc);
+    }
+  } // public synchronized void register(String name)
+
+  /**
+   * Withdraws the counters from JMX, if register published them.
+   */
+  public synchronized void unregister() {
+    if (mbean_name == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean_name);
+    } catch (JMException exc) {
+      //another DiskStats has replaced this one
+    }
+    mbean_name = null;
+  }
+
+  // --------------------------------------------------------------------------
+
+  public long getPagesRead() {
+    return pages[READ].sum();
+  }
+
+  public long getPagesWritten() {
+    return pages[WRITE].sum();
+  }
+
+  public long getPagesAllocated() {
+    return pages[ALLOCATE].sum();
+  }
+
+  public long getPagesDeallocated() {
+    return pages[DEALLOCATE].sum();
+  }
+
+  public long getBytesRead() {
+    return bytes[READ].sum();
+  }
+
+  public long getBytesWritten() {
+    return bytes[WRITE].sum();
+  }
+
+  public long getSequentialReads() {
+    return sequential[READ].sum();
+  }
+
+  public long getRandomReads() {
+    return calls[READ].sum() - sequential[READ].sum();
+  }
+
+  public long getSequentialWrites() {
+    return sequential[WRITE].sum();
+  }
+
+  public long getRandomWrites() {
+    return calls[WRITE].sum() - sequential[WRITE].sum();
+  }
+
+  public long getReadMicrosP50() {
+    return snapshot().getPercentile(READ, 0.5) / 1000;
+  }
+
+  public long getReadMicrosP99() {
+    return snapshot().getPercentile(READ, 0.99) / 1000;
+  }
+
+  public long getReadMicrosMax() {
+    return max_nanos[READ].get() / 1000;
+  }
+
+  public long getWriteMicrosP50() {
+    return snapshot().getPercentile(WRITE, 0.5) / 1000;
+  }
+
+  public long getWriteMicrosP99() {
+    return snapshot().getPercentile(WRITE, 0.99) / 1000;
+  }
+
+  public long getWriteMicrosMax() {
+    return max_nanos[WRITE].get() / 1000;
+  }
+
+  public long getAllocateMicrosP99() {
+    return snapshot().getPercentile(ALLOCATE, 0.99) / 1000;
+  }
+
+  public long getDeallocateMicrosP99() {
+    return snapshot().getPercentile(DEALLOCATE, 0.99) / 1000;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the histogram bucket of the given latency.
+   */
+  protected static int bucketOf(long value) {
+    int shift = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKETS) - SUB_BITS;
+    return (shift << SUB_BITS) + (int) (value >>> shift);
+  }
+
+  /**
+   * Gets the highest latency that falls in the given histogram bucket.
+   */
+  protected static long highestIn(int bucket) {
+    int shift = Math.max(0, (bucket >> SUB_BITS) - 1);
+    long lowest = (long) (bucket - (shift << SUB_BITS)) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * Makes a LongAdder for each operation kind.
+   */
+  private static LongAdder[] adders() {
+    LongAdder[] adders = new LongAdder[NUM_OPS];
+    for (int op = 0; op < NUM_OPS; op++) {
+      adders[op] = new LongAdder();
+    }
+    return adders;
+  }
+
+  /**
+   * A copy of the counters at one time, or the difference of two copies.
+   */
+  public static class Snapshot {
+
+    final long[] pages = new long[NUM_OPS];
+    final long[] calls = new long[NUM_OPS];
+    final long[] bytes = new long[NUM_OPS];
+    final long[] sequential = new long[NUM_OPS];
+    final long[] nanos = new long[NUM_OPS];
+    final long[] max_nanos = new long[NUM_OPS];
+    final long[][] histograms = new long[NUM_OPS][NUM_BUCKETS];
+
+    /**
+     * Gets the number of pages the operations covered.
+     */
+    public long getPages(int op) {
+      return pages[op];
+    }
+
+    /**
+     * Gets the number of calls.
+     */
+    public long getCalls(int op) {
+      return calls[op];
+    }
+
+    /**
+     * Gets the number of bytes moved to or from the file.
+     */
+    public long getBytes(int op) {
+      return bytes[op];
+    }
+
+    /**
+     * Gets the number of calls that started where the previous one ended.
+     */
+    public long getSequential(int op) {
+      return sequential[op];
+    }
+
+    /**
+     * Gets the number of calls that did not.
+     */
+    public long getRandom(int op) {
+      return calls[op] - sequential[op];
+    }
+
+    /**
+     * Gets the total time spent in the calls, in nanoseconds.
+     */
+    public long getTotalNanos(int op) {
+      return nanos[op];
+    }
+
+    /**
+     * Gets the mean latency of the calls, in nanoseconds.
+     */
+    public long getMeanNanos(int op) {
+      return calls[op] == 0 ? 0 : nanos[op] / calls[op];
+    }
+
+    /**
+     * Gets the longest latency, in nanoseconds.  Of a difference, this is the
+     * longest up to the later snapshot.
+     */
+    public long getMaxNanos(int op) {
+      return max_nanos[op];
+    }
+
+    /**
+     * getPercentile
+     *
+     * Gets the latency that the given fraction of the calls did not exceed,
+     * in nanoseconds, to within the histogram's precision.
+     *
+     * @param fraction between 0 and 1, e.g. 0.99
+     */
+    public long getPercentile(int op, double fraction) {
+      long total = 0;
+      for (long count : histograms[op]) {
+        total += count;
+      }
+      long wanted = Math.max(1, (long) Math.ceil(fraction * total));
+      long seen = 0;
+      for (int b = 0; b < NUM_BUCKETS; b++) {
+        seen += histograms[op][b];
+        if (seen >= wanted) {
+          return Math.min(highestIn(b), max_nanos[op]);
+        }
+      }
+      return 0;
+    } //getPercentile
+
+    /**
+     * Gets the counters for the interval from an earlier snapshot to this
+     * one.
+     */
+    public Snapshot minus(Snapshot before) {
+      Snapshot diff = new Snapshot();
+      for (int op = 0; op < NUM_OPS; op++) {
+        diff.pages[op] = pages[op] - before.pages[op];
+        diff.calls[op] = calls[op] - before.calls[op];
+        diff.bytes[op] = bytes[op] - before.bytes[op];
+        diff.sequential[op] = sequential[op] - before.sequential[op];
+        diff.nanos[op] = nanos[op] - before.nanos[op];
+        diff.max_nanos[op] = max_nanos[op];
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+          diff.histograms[op][b] = histograms[op][b] - before.histograms[op][b];
+        }
+      }
+      return diff;
+    } // public Snapshot minus(Snapshot before)
+
+  } // public static class Snapshot
+
+} // public class DiskStats implements DiskStatsMBean
@@ -0,0 +1,51 @@
+package diskmgr;
+
+/**
+ * The disk manager's performance counters as published over JMX; see
+ * DiskStats.  Counts are since the disk manager was constructed or the
+ * counters were last reset, and latencies are in microseconds.
+ */
+public interface DiskStatsMBean {
+
+  long getPagesRead();
+
+  long getPagesWritten();
+
+  long getPagesAllocated();
+
+  long getPagesDeallocated();
+
+  long getBytesRead();
+
+  long getBytesWritten();
+
+  long getSequentialReads();
+
+  long getRandomReads();
+
+  long getSequentialWrites();
+
+  long getRandomWrites();
+
+  long getReadMicrosP50();
+
+  long getReadMicrosP99();
+
+  long getReadMicrosMax();
+
+  long getWriteMicrosP50();
+
+  long getWriteMicrosP99();
+
+  long getWriteMicrosMax();
+
+  long getAllocateMicrosP99();
+
+  long getDeallocateMicrosP99();
+
+  /**
+   * Sets every counter back to zero.
+   */
+  void reset();
+
+} // public interface DiskStatsMBean
@@ -0,0 +1,121 @@
+package diskmgr;
+
+import global.GlobalConst;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The FileCatalog class caches the file entries kept on the header pages, so
+ * that looking up, adding, or deleting a file does not walk the header chain.
+ * Names are matched without regard to case, like the header pages do, through
+ * a hash map; the empty slots are kept on a list, so an entry can be added
+ * without searching for one.
+ * <br><br>
+ * The disk manager builds the catalog from the header pages when it is first
+ * needed, and writes every change through to the pages as it makes it here;
+ * callers synchronize.
+ */
+class FileCatalog implements GlobalConst {
+
+  //Entries by normalized file name
+  private final HashMap<String, Slot> files;
+
+  //Empty slots, the next one to use first
+  private final ArrayDeque<Slot> free_slots;
+
+  //Last header page in the chain, where a new one is linked
+  private int last_page;
+
+  /**
+   * Constructs an empty catalog whose header chain ends at the given page.
+   */
+  protected FileCatalog(int last_page) {
+    files = new HashMap<String, Slot>();
+    free_slots = new ArrayDeque<Slot>();
+    this.last_page = last_page;
+  }
+
+  /**
+   * Gets the entry for the given file name, or null if there is none.
+   */
+  protected Slot get(String fname) {
+    return files.get(key(fname));
+  }
+
+  /**
+   * Adds the entry for a file, in a slot taken with takeFreeSlot.
+   */
+  protected void put(String fname, Slot slot) {
+    files.put(key(fname), slot);
+  }
+
+  /**
+   * Removes the entry for the given file name and returns its slot to the
+   * free list.
+   *
+   * @return the removed entry, or null if there is none
+   */
+  protected Slot remove(String fname) {
+    Slot slot = files.remove(key(fname));
+    if (slot != null) {
+      addFreeSlot(slot.hpid, slot.entry);
+    }
+    return slot;
+  }
+
+  /**
+   * Takes the next empty slot, or returns null if every header page is full.
+   */
+  protected Slot takeFreeSlot() {
+    return free_slots.pollFirst();
+  }
+
+  /**
+   * Adds an empty slot, after any already known.
+   */
+  protected void addFreeSlot(int hpid, int entry) {
+    free_slots.addLast(new Slot(hpid, entry, INVALID_PAGEID));
+  }
+
+  /**
+   * Gets the last header page in the chain.
+   */
+  protected int getLastPage() {
+    return last_page;
+  }
+
+  /**
+   * Sets the last header page in the chain, after linking a new one.
+   */
+  protected void setLastPage(int last_page) {
+    this.last_page = last_page;
+  }
+
+  /**
+   * Gets the key for a file name, the same for names equal but for case.
+   */
+  private static String key(String fname) {
+    return fname.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * A slot on a header page: where it is, and the first page of the file it
+   * holds.
+   */
+  protected static class Slot {
+
+    final int hpid;
+    final int entry;
+    int start_pid;
+
+    Slot(int hpid, int entry, int start_pid) {
+      this.hpid = hpid;
+      this.entry = entry;
+      this.start_pid = start_pid;
+    }
+
+  } // protected static class Slot
+
+} // class FileCatalog implements GlobalConst
@@ -0,0 +1,165 @@
+package diskmgr;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The FreeExtents class indexes the free runs of pages in the database, so
+ * that allocation does not have to search the space map.  Each run is kept
+ * twice: by first page, to merge and split runs, and in a bucket by length,
+ * to find one that is long enough.  An allocation takes the shortest run that
+ * fits, and among runs of that length the first at or after the end of the
+ * previous allocation (next fit), so that pages allocated one after another
+ * tend to be adjacent on disk.  Every operation is O(log n) in the number of
+ * free runs.
+ * <br><br>
+ * The disk manager builds the index from the space map when it is first
+ * needed and updates it whenever it changes the map; callers synchronize.
+ */
+class FreeExtents {
+
+  //Length of each free run, by first page
+  private final TreeMap<Integer, Integer> by_start;
+
+  //First pages of the free runs, by run length
+  private final TreeMap<Integer, TreeSet<Integer>> by_length;
+
+  //Page after the last allocation, where the next search starts
+  private int hint;
+
+  //Total number of free pages
+  private int free_pages;
+
+  /**
+   * Constructs an empty index, as if every page were allocated.
+   */
+  protected FreeExtents() {
+    by_start = new TreeMap<Integer, Integer>();
+    by_length = new TreeMap<Integer, TreeSet<Integer>>();
+    hint = 0;
+    free_pages = 0;
+  }
+
+  /**
+   * Gets the number of free pages.
+   */
+  protected int getFreeCount() {
+    return free_pages;
+  }
+
+  /**
+   * allocate
+   *
+   * Finds a free run of the given length and marks it allocated.
+   *
+   * @return the first page of the run, or -1 if no free run is long enough
+   */
+  protected int allocate(int run_size) {
+
+    Map.Entry<Integer, TreeSet<Integer>> bucket = by_length.ceilingEntry(run_size);
+    if (bucket == null) {
+      return -1;
+    }
+    TreeSet<Integer> starts = bucket.getValue();
+    Integer start = starts.ceiling(hint);
+    if (start == null) {
+      start = starts.first();
+    }
+
+    int first = start;
+    markUsed(first, run_size);
+    hint = first + run_size;
+    return first;
+
+  } //allocate
+
+  /**
+   * markUsed
+   *
+   * Removes the given pages from the free runs; pages that are not free are
+   * ignored.
+   */
+  protected void markUsed(int first, int run_size) {
+
+    int end = first + run_size;
+    Map.Entry<Integer, Integer> run = by_start.floorEntry(first);
+    if (run == null || run.getKey() + run.getValue() <= first) {
+      run = by_start.higherEntry(first);
+    }
+
+    //trim every run that overlaps [first, end), keeping the pieces outside
+    while (run != null && run.getKey() < end) {
+      int start = run.getKey();
+      int stop = start + run.getValue();
+      remove(start, stop - start);
+      if (start < first) {
+        add(start, first - start);
+      }
+      if (stop > end) {
+        add(end, stop - end);
+      }
+      run = by_start.higherEntry(start);
+    }
+
+  } //markUsed
+
+  /**
+   * markFree
+   *
+   * Adds the given pages to the free runs, merging them with any free run
+   * they overlap or touch.
+   */
+  protected void markFree(int first, int run_size) {
+
+    int start = first;
+    int end = first + run_size;
+
+    //absorb a run starting before the pages and reaching them
+    Map.Entry<Integer, Integer> run = by_start.floorEntry(first);
+    if (run != null && run.getKey() + run.getValue() >= first) {
+      start = run.getKey();
+      end = Math.max(end, start + run.getValue());
+      remove(run.getKey(), run.getValue());
+    }
+
+    //absorb the runs starting within or right after them
+    run = by_start.ceilingEntry(start);
+    while (run != null && run.getKey() <= end) {
+      end = Math.max(end, run.getKey() + run.getValue());
+      remove(run.getKey(), run.getValue());
+      run = by_start.ceilingEntry(start);
+    }
+
+    add(start, end - start);
+
+  } //markFree
+
+  /**
+   * Adds a free run, which must not overlap another.
+   */
+  private void add(int start, int length) {
+    by_start.put(start, length);
+    TreeSet<Integer> starts = by_length.get(length);
+    if (starts == null) {
+      starts = new TreeSet<Integer>();
+      by_length.put(length, starts);
+    }
+    starts.add(start);
+    free_pages += length;
+  }
+
+  /**
+   * Removes a free run, given exactly.
+   */
+  private void remove(int start, int length) {
+    by_start.remove(start);
+    TreeSet<Integer> starts = by_length.get(length);
+    starts.remove(start);
+    if (starts.isEmpty()) {
+      by_length.remove(length);
+    }
+    free_pages -= length;
+  }
+
+} // class FreeExtents
@@ -0,0 +1,133 @@
+package diskmgr;
+
+import global.Page;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Page I/O by copying to and from memory mappings of the database file.  The
+ * file is mapped in fixed-size chunks, each on first use; a chunk at the end
+ * of the file covers only what exists and is mapped again, larger, once the
+ * file has grown.  Written pages reach the disk when the operating system
+ * chooses, or at the latest on force().
+ */
+class MappedPageIO extends PageIO {
+
+  /** Size of each mapped chunk, in pages. */
+  protected static final int CHUNK_PAGES = 1024;
+
+  /** The database file's channel, used to map it. */
+  protected final FileChannel channel;
+
+  //Mapped chunks, indexed by page number / CHUNK_PAGES; null until used.
+  //Replaced as a whole when it grows, so readers need no lock.
+  private volatile MappedByteBuffer[] chunks;
+
+  protected MappedPageIO(RandomAccessFile file, int page_size) {
+    super(file, page_size);
+    channel = file.getChannel();
+    chunks = new MappedByteBuffer[0];
+  }
+
+  protected int read(int pid, Page page) throws IOException {
+    page.copyFrom(chunkOf(pid), offsetOf(pid));
+    return page_size;
+  }
+
+  protected int read(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    for (int i = 0; i < len; i++) {
+      read(pid + i, pages[off + i]);
+    }
+    return len * page_size;
+  }
+
+  protected int write(int pid, Page page) throws IOException {
+    page.copyTo(chunkOf(pid), offsetOf(pid));
+    return page_size;
+  }
+
+  protected int write(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    for (int i = 0; i < len; i++) {
+      write(pid + i, pages[off + i]);
+    }
+    return len * page_size;
+  }
+
+  /**
+   * Forces every mapped chunk to the storage device.
+   */
+  protected void force() throws IOException {
+    MappedByteBuffer[] mapped = chunks;
+    for (int i = 0; i < mapped.length; i++) {
+      if (mapped[i] != null) {
+        mapped[i].force();
+      }
+    }
+  }
+
+  /**
+   * Gets the byte offset of the page within its chunk.
+   */
+  private int offsetOf(int pid) {
+    return (pid % CHUNK_PAGES) * page_size;
+  }
+
+  /**
+   * chunkOf
+   *
+   * Gets the chunk holding the given page, mapping it if it is not mapped or
+   * does not reach that far yet.
+   */
+  private MappedByteBuffer chunkOf(int pid) throws IOException {
+    int index = pid / CHUNK_PAGES;
+    int needed = offsetOf(pid) + page_size;
+    MappedByteBuffer[] mapped = chunks;
+    if (index < mapped.length && mapped[index] != null
+        && mapped[index].capacity() >= needed) {
+      return mapped[index];
+    }
+    return map(index, needed);
+  } //chunkOf
+
+  /**
+   * map
+   *
+   * Maps chunk number index, as far as the file goes, and publishes it.
+   *
+   * @param needed number of bytes the chunk must cover
+   * @throws EOFException if the file is too short
+   */
+  private synchronized MappedByteBuffer map(int index, int needed)
+      throws IOException {
+
+    //another thread may have mapped it in the meantime
+    MappedByteBuffer[] mapped = chunks;
+    if (index < mapped.length && mapped[index] != null
+        && mapped[index].capacity() >= needed) {
+      return mapped[index];
+    }
+
+    long start = (long) index * CHUNK_PAGES * page_size;
+    long size = Math.min((long) CHUNK_PAGES * page_size, channel.size() - start);
+    if (size < needed) {
+      throw new EOFException("Page is past the end of the database file");
+    }
+    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, start,
+        size);
+
+    MappedByteBuffer[] grown = new MappedByteBuffer[Math.max(mapped.length,
+        index + 1)];
+    System.arraycopy(mapped, 0, grown, 0, mapped.length);
+    grown[index] = chunk;
+    chunks = grown;
+    return chunk;
+
+  } //map
+
+} // class MappedPageIO extends PageIO
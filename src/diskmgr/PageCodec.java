@@ -0,0 +1,219 @@
+package diskmgr;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The PageCodec class compresses pages with a fast LZ77 codec in the LZ4
+ * block format: a sequence of literal runs, each followed by a match that
+ * copies earlier output.  A sequence starts with a token byte holding the
+ * literal length in its high four bits and the match length minus four in its
+ * low four; a nibble of 15 continues in following bytes, each added until one
+ * is under 255.  Then come the literals and a two-byte little-endian match
+ * offset.  The last sequence has literals only.
+ * <br><br>
+ * Matches are found through a hash table of four-byte sequences, so
+ * compression makes one pass with no searching; pages full of padding and
+ * repeated strings shrink several times over.  The table is reused by each
+ * thread.
+ */
+final class PageCodec {
+
+  /** Shortest match worth encoding. */
+  private static final int MIN_MATCH = 4;
+
+  /** Bytes at the end of the input always left as literals. */
+  private static final int LAST_LITERALS = 5;
+
+  /** Matches must start this far before the end of the input. */
+  private static final int MATCH_LIMIT = 12;
+
+  /** Longest offset a match can refer back. */
+  private static final int MAX_OFFSET = 65535;
+
+  /** Number of bits in a hash table index. */
+  private static final int HASH_BITS = 12;
+
+  //Positions of recent four-byte sequences, by hash, for each thread
+  private static final ThreadLocal<int[]> TABLES = new ThreadLocal<int[]>() {
+    protected int[] initialValue() {
+      return new int[1 << HASH_BITS];
+    }
+  };
+
+  private PageCodec() {
+  }
+
+  /**
+   * compress
+   *
+   * Compresses src[0..len) into dst.
+   *
+   * @return the compressed length, or -1 if it would not fit in dst
+   */
+  static int compress(byte[] src, int len, byte[] dst) {
+
+    int[] table = TABLES.get();
+    Arrays.fill(table, -1);
+    int op = 0;
+    int anchor = 0;
+    int limit = len - MATCH_LIMIT;
+
+    for (int ip = 0; ip < limit; ) {
+
+      // look for an earlier occurrence of the four bytes at ip
+      int seq = readInt(src, ip);
+      int h = hash(seq);
+      int ref = table[h];
+      table[h] = ip;
+      if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+        ip++;
+        continue;
+      }
+
+      // extend the match forward, stopping short of the last literals
+      int end = len - LAST_LITERALS;
+      int mlen = MIN_MATCH;
+      while (ip + mlen < end && src[ref + mlen] == src[ip + mlen]) {
+        mlen++;
+      }
+
+      // emit the literals since the anchor and the match
+      op = writeSequence(src, anchor, ip - anchor, ip - ref, mlen, dst, op);
+      if (op < 0) {
+        return -1;
+      }
+      ip += mlen;
+      anchor = ip;
+    }
+
+    // the rest of the input goes out as literals
+    return writeSequence(src, anchor, len - anchor, 0, 0, dst, op);
+
+  } //compress
+
+  /**
+   * decompress
+   *
+   * Decompresses src[off..off+len) into the whole of dst.
+   *
+   * @throws IOException if the data is corrupt or does not fill dst exactly
+   */
+  static void decompress(byte[] src, int off, int len, byte[] dst)
+      throws IOException {
+
+    int ip = off;
+    int end = off + len;
+    int op = 0;
+    try {
+      while (true) {
+
+        // the literals
+        int token = src[ip++] & 0xFF;
+        int lits = token >>> 4;
+        if (lits == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            lits += b;
+          } while (b == 255);
+        }
+        System.arraycopy(src, ip, dst, op, lits);
+        ip += lits;
+        op += lits;
+        if (ip >= end) {
+          break;
+        }
+
+        // the match, which may overlap its own output
+        int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+        ip += 2;
+        int mlen = token & 0x0F;
+        if (mlen == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xFF;
+            mlen += b;
+          } while (b == 255);
+        }
+        mlen += MIN_MATCH;
+        int ref = op - offset;
+        if (offset == 0 || ref < 0 || op + mlen > dst.length) {
+          throw new IOException("Corrupt compressed page");
+        }
+        for (int i = 0; i < mlen; i++) {
+          dst[op + i] = dst[ref + i];
+        }
+        op += mlen;
+      }
+    } catch (IndexOutOfBoundsException exc) {
+      throw new IOException("Corrupt compressed page", exc);
+    }
+    if (op != dst.length) {
+      throw new IOException("Compressed page has the wrong length");
+    }
+
+  } //decompress
+
+  /**
+   * Writes one sequence: a token, the literal length, the literals, and the
+   * match offset and length if mlen is not 0.
+   *
+   * @return the new output position, or -1 if dst is too short
+   */
+  private static int writeSequence(byte[] src, int lit_start, int lits,
+      int offset, int mlen, byte[] dst, int op) {
+
+    // worst case: token, lengths, literals, offset
+    if (op + 1 + lits / 255 + 1 + lits + 2 + mlen / 255 + 1 > dst.length) {
+      return -1;
+    }
+    int token_pos = op++;
+    int token = Math.min(lits, 15) << 4;
+    if (lits >= 15) {
+      op = writeLength(lits - 15, dst, op);
+    }
+    System.arraycopy(src, lit_start, dst, op, lits);
+    op += lits;
+    if (mlen > 0) {
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      int code = mlen - MIN_MATCH;
+      token |= Math.min(code, 15);
+      if (code >= 15) {
+        op = writeLength(code - 15, dst, op);
+      }
+    }
+    dst[token_pos] = (byte) token;
+    return op;
+
+  } //writeSequence
+
+  /**
+   * Writes the rest of a length that did not fit in its nibble.
+   */
+  private static int writeLength(int rest, byte[] dst, int op) {
+    while (rest >= 255) {
+      dst[op++] = (byte) 255;
+      rest -= 255;
+    }
+    dst[op++] = (byte) rest;
+    return op;
+  }
+
+  /**
+   * Reads four bytes as a little-endian int.
+   */
+  private static int readInt(byte[] buf, int pos) {
+    return (buf[pos] & 0xFF) | ((buf[pos + 1] & 0xFF) << 8)
+        | ((buf[pos + 2] & 0xFF) << 16) | (buf[pos + 3] << 24);
+  }
+
+  /**
+   * Hashes four bytes to a table index.
+   */
+  private static int hash(int seq) {
+    return (seq * -1640531535) >>> (32 - HASH_BITS);
+  }
+
+} // final class PageCodec
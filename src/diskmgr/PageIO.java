@@ -0,0 +1,121 @@
+package diskmgr;
+
+import global.GlobalConst;
+import global.Page;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The PageIO class moves whole pages between the database file and memory.
+ * The disk manager validates page numbers and counts the I/Os; subclasses
+ * only do the transfers, report how many bytes they moved, and may be called
+ * from several threads at once.
+ */
+abstract class PageIO implements GlobalConst {
+
+  /** The open database file. */
+  protected final RandomAccessFile file;
+
+  /** Size of the file's pages, in bytes. */
+  protected final int page_size;
+
+  /**
+   * Constructs the backend for an open database file.
+   */
+  protected PageIO(RandomAccessFile file, int page_size) {
+    this.file = file;
+    this.page_size = page_size;
+  }
+
+  /**
+   * Creates the backend for the given mode.
+   *
+   * @param mode one of the DiskMgr.IO_ constants
+   * @param fname the file's name, for backends that open it themselves
+   * @throws IllegalArgumentException if the mode is unknown
+   * @throws IOException if the backend cannot be used with the file
+   */
+  protected static PageIO create(int mode, RandomAccessFile file,
+      int page_size, String fname) throws IOException {
+    switch (mode) {
+      case DiskMgr.IO_STREAM:
+        return new StreamPageIO(file, page_size);
+      case DiskMgr.IO_CHANNEL:
+        return new ChannelPageIO(file, page_size);
+      case DiskMgr.IO_MAPPED:
+        return new MappedPageIO(file, page_size);
+      case DiskMgr.IO_DIRECT:
+        return new DirectPageIO(file, page_size, fname);
+      case DiskMgr.IO_COMPRESSED:
+        return new CompressedPageIO(file, page_size, fname);
+      default:
+        throw new IllegalArgumentException("Unknown I/O mode: " + mode);
+    }
+  }
+
+  /**
+   * Reads the given page from disk.
+   *
+   * @return the number of bytes read from the file
+   */
+  protected abstract int read(int pid, Page page) throws IOException;
+
+  /**
+   * Reads a run of consecutive pages from disk, starting at pid.
+   *
+   * @return the number of bytes read from the file
+   */
+  protected abstract int read(int pid, Page[] pages, int off, int len)
+      throws IOException;
+
+  /**
+   * Writes the given page to disk.
+   *
+   * @return the number of bytes written to the file
+   */
+  protected abstract int write(int pid, Page page) throws IOException;
+
+  /**
+   * Writes a run of consecutive pages to disk, starting at pid.
+   *
+   * @return the number of bytes written to the file
+   */
+  protected abstract int write(int pid, Page[] pages, int off, int len)
+      throws IOException;
+
+  /**
+   * Notes that a run of pages was deallocated; backends that keep where
+   * each page is stored may give its space back.  The pages are not
+   * transferred again until they are written.
+   */
+  protected void deallocate(int pid, int run_size) throws IOException {
+  }
+
+  /**
+   * Lengthens the file to the given number of bytes, if it is shorter.
+   * Transfers to the existing pages may go on meanwhile.
+   */
+  protected void extend(long length) throws IOException {
+    synchronized (file) {
+      if (file.length() < length) {
+        file.setLength(length);
+      }
+    }
+  }
+
+  /**
+   * Forces every page written so far to the storage device.
+   */
+  protected void force() throws IOException {
+    file.getChannel().force(false);
+  }
+
+  /**
+   * Closes the database file.
+   */
+  protected void close() throws IOException {
+    file.close();
+  }
+
+} // abstract class PageIO implements GlobalConst
@@ -0,0 +1,90 @@
+package diskmgr;
+
+import global.Page;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Page I/O through the RandomAccessFile's own file pointer.  A seek and the
+ * transfer that follows it must not interleave with another thread's, so
+ * every call holds the file's lock.
+ */
+class StreamPageIO extends PageIO {
+
+  protected StreamPageIO(RandomAccessFile file, int page_size) {
+    super(file, page_size);
+  }
+
+  protected int read(int pid, Page page) throws IOException {
+    synchronized (file) {
+      file.seek((long) pid * page_size);
+      readPage(page);
+    }
+    return page_size;
+  }
+
+  protected int read(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    synchronized (file) {
+      file.seek((long) pid * page_size);
+      for (int i = off; i < off + len; i++) {
+        readPage(pages[i]);
+      }
+    }
+    return len * page_size;
+  }
+
+  protected int write(int pid, Page page) throws IOException {
+    synchronized (file) {
+      file.seek((long) pid * page_size);
+      writePage(page);
+    }
+    return page_size;
+  }
+
+  protected int write(int pid, Page[] pages, int off, int len)
+      throws IOException {
+    synchronized (file) {
+      file.seek((long) pid * page_size);
+      for (int i = off; i < off + len; i++) {
+        writePage(pages[i]);
+      }
+    }
+    return len * page_size;
+  }
+
+  /**
+   * Reads a page at the file pointer.  A page in direct memory is read
+   * through the file's channel, which shares the file pointer.
+   */
+  private void readPage(Page page) throws IOException {
+    if (page.hasArray()) {
+      file.readFully(page.getData());
+      return;
+    }
+    ByteBuffer buf = page.getBuffer();
+    while (buf.hasRemaining()) {
+      if (file.getChannel().read(buf) < 0) {
+        throw new EOFException("Unexpected end of file reading a page");
+      }
+    }
+  }
+
+  /**
+   * Writes a page at the file pointer, as readPage reads one.
+   */
+  private void writePage(Page page) throws IOException {
+    if (page.hasArray()) {
+      file.write(page.getData());
+      return;
+    }
+    ByteBuffer buf = page.getBuffer();
+    while (buf.hasRemaining()) {
+      file.getChannel().write(buf);
+    }
+  }
+
+} // class StreamPageIO extends PageIO
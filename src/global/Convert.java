@@ -1,7 +1,10 @@
 package global;
 
+import java.nio.ByteBuffer;
+
 /**
- * Provides conversion routines for getting and setting data in byte arrays.
+ * Provides conversion routines for getting and setting data in byte arrays,
+ * and in buffers such as slices of direct memory.
  */
 public class Convert {
 
@@ -119,4 +122,113 @@ public class Convert {
 
   } // public static void setStringValue(String value, int pos, byte[] data)
 
+  // --------------------------------------------------------------------------
+
+  /**
+   * Reads from the given buffer at the specified position, and converts it
+   * into a unicode character.  The buffer's own position is not used.
+   */
+  public static char getCharValue(int pos, ByteBuffer data) {
+
+    // ignoring that UTF-8 could be up to six bytes
+    return (char) data.get(pos);
+
+  } // public static char getCharValue(int pos, ByteBuffer data)
+
+  /**
+   * Writes a unicode character into the given buffer at the specified
+   * position.
+   */
+  public static void setCharValue(char value, int pos, ByteBuffer data) {
+
+    // ignoring that UTF-8 could be up to six bytes
+    data.put(pos, (byte) value);
+
+  } // public static void setCharValue(char value, int pos, ByteBuffer data)
+
+  /**
+   * Reads from the given buffer at the specified position, and converts it
+   * into a short; the buffer must be big-endian, as buffers are by default.
+   */
+  public static short getShortValue(int pos, ByteBuffer data) {
+
+    return data.getShort(pos);
+
+  } // public static short getShortValue(int pos, ByteBuffer data)
+
+  /**
+   * Writes a short into the given buffer at the specified position.
+   */
+  public static void setShortValue(short value, int pos, ByteBuffer data) {
+
+    data.putShort(pos, value);
+
+  } // public static void setShortValue(short value, int pos, ByteBuffer data)
+
+  /**
+   * Reads from the given buffer at the specified position, and converts it
+   * into an integer.
+   */
+  public static int getIntValue(int pos, ByteBuffer data) {
+
+    return data.getInt(pos);
+
+  } // public static int getIntValue(int pos, ByteBuffer data)
+
+  /**
+   * Writes an integer into the given buffer at the specified position.
+   */
+  public static void setIntValue(int value, int pos, ByteBuffer data) {
+
+    data.putInt(pos, value);
+
+  } // public static void setIntValue(int value, int pos, ByteBuffer data)
+
+  /**
+   * Reads from the given buffer at the specified position, and converts it
+   * to a float.
+   */
+  public static float getFloatValue(int pos, ByteBuffer data) {
+
+    return data.getFloat(pos);
+
+  } // public static float getFloatValue(int pos, ByteBuffer data)
+
+  /**
+   * Writes a float into the given buffer at the specified position.
+   */
+  public static void setFloatValue(float value, int pos, ByteBuffer data) {
+
+    data.putFloat(pos, value);
+
+  } // public static void setFloatValue(float value, int pos, ByteBuffer data)
+
+  /**
+   * Reads from the given buffer at the specified position, and converts it
+   * to a string of given length.
+   */
+  public static String getStringValue(int pos, ByteBuffer data, int length) {
+
+    // validate the maximum length
+    int buflen = data.capacity() - pos;
+    if (buflen < length) {
+      length = buflen;
+    }
+
+    // the bytes must come onto the heap for the string anyway
+    byte[] ba = new byte[length];
+    data.get(pos, ba);
+    return new String(ba).trim();
+
+  } // public static String getStringValue(int pos, ByteBuffer data, int length)
+
+  /**
+   * Writes a string into the given buffer at the specified position.
+   */
+  public static void setStringValue(String value, int pos, ByteBuffer data) {
+
+    data.put(pos, value.getBytes());
+
+  } // public static void setStringValue(String value, int pos, ByteBuffer data)
+
 } // public class Convert
@@ -9,8 +9,9 @@ public interface GlobalConst {
   // Disk Manager Constants
   //
 
-  /** Size of a page, in bytes. 1024 is artificially small 
-   * so we can get lots of I/Os with small data files */
+  /** Default size of a page, in bytes. 1024 is artificially small 
+   * so we can get lots of I/Os with small data files; each database may
+   * choose its own size (see Minibase.PageSize) */
   public static final int PAGE_SIZE = 1024;
 
   /** Page number of an invalid page (i.e. null pointer). */
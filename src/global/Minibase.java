@@ -3,6 +3,7 @@ package global;
 //import query.Catalog;
 import bufmgr.BufMgr;
 import diskmgr.DiskMgr;
+import logmgr.LogMgr;
 
 /**
  * Definitions for the running Minibase system, including references to static
@@ -10,7 +11,7 @@ import diskmgr.DiskMgr;
  * 
  * @author Zachary Adam
  */
-public class Minibase {
+public class Minibase implements GlobalConst {
 
   /** Name of the data file. */
   public static String DatabaseName;
@@ -21,6 +22,41 @@ public class Minibase {
   /** The Minibase Buffer Manager. */
   public static BufMgr BufferManager;
 
+  /** The Minibase Log Manager, or null if logging is off. */
+  public static LogMgr LogManager;
+
+  /** Page I/O mode for the disk manager, read by init. */
+  public static int IOMode = DiskMgr.IO_CHANNEL;
+
+  /**
+   * Size of a page, in bytes.  Set it before init to choose the page size of
+   * a new database (see DiskMgr.PAGE_SIZES); init sets it to the page size of
+   * an existing database as it opens it.
+   */
+  public static int PageSize = PAGE_SIZE;
+
+  /**
+   * Whether to keep a write-ahead log of page changes, read by init.  With a
+   * log, transactions commit without writing their pages, and an existing
+   * database is recovered as it is opened.
+   */
+  public static boolean Logging = false;
+
+  /**
+   * Whether the buffer pool keeps its frames in direct memory, outside the
+   * Java heap, read by init.  Pages pinned from such a pool have no data
+   * array, so they must be used through their accessors.
+   */
+  public static boolean OffHeap = false;
+
+  /**
+   * Number of partitions the buffer pool is split into, read by init.  Each
+   * has its own replacer over its share of the frames, and pages are spread
+   * over them by a hash of their number, so that threads pinning different
+   * pages rarely meet; but a partition is full when its own frames are.
+   */
+  public static int BufPartitions = 1;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -55,10 +91,18 @@ public class Minibase {
     // save the file name
     DatabaseName = dbname;
 
-    // load the static layers
+    // load the static layers; the frames must match the page size, so an
+    // existing database is asked for its size first
     try {
-      DiskManager = new DiskMgr();
-      BufferManager = new BufMgr(bufpoolsize);
+      if (exists) {
+        PageSize = DiskMgr.peekPageSize(dbname);
+      } else {
+        DiskMgr.checkPageSize(PageSize);
+      }
+      DiskManager = new DiskMgr(IOMode);
+      LogManager = Logging ? new LogMgr(dbname + LogMgr.LOG_SUFFIX) : null;
+      BufferManager = new BufMgr(bufpoolsize, replacement_policy,
+          BufPartitions);
     } catch (Exception exc) {
       haltSystem(exc);
     }
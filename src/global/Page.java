@@ -1,20 +1,32 @@
 package global;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
- * Image of a disk page in memory.
+ * Image of a disk page in memory.  A page is usually a byte array of its
+ * own, but may instead be a view of a slice of direct memory, such as a frame
+ * of an off-heap buffer pool; such a page has no array, and is read and
+ * changed through its accessors and buffer alone.
  */
 public class Page implements GlobalConst {
 
-  /** The actual byte array for the page. */
+  /** The actual byte array for the page; null for a view of direct memory. */
   protected byte[] data;
 
+  /** The slice of direct memory the page views; null for a byte array. */
+  protected ByteBuffer buffer;
+
+  /** The buffer getBuffer hands out, made on first use; null until then. */
+  protected ByteBuffer io;
+
   // --------------------------------------------------------------------------
 
   /**
-   * Default constructor; creates a blank page.
+   * Default constructor; creates a blank page of the current page size.
    */
   public Page() {
-    data = new byte[PAGE_SIZE];
+    data = new byte[Minibase.PageSize];
   }
 
   /**
@@ -24,38 +36,189 @@ public class Page implements GlobalConst {
     setData(data);
   }
 
+  /**
+   * Constructor that views the given slice of direct memory.
+   *
+   * @throws IllegalArgumentException if the slice is not direct or its size
+   * is invalid
+   */
+  public Page(ByteBuffer slice) {
+    if (!slice.isDirect() || slice.capacity() != Minibase.PageSize) {
+      Minibase.haltSystem(new IllegalArgumentException(
+          "Invalid page buffer slice"));
+    }
+    buffer = slice;
+  }
+
+  /**
+   * Constructor that shares the given page's memory, as setPage does.
+   */
+  public Page(Page page) {
+    setPage(page);
+  }
+
   /**
    * Get accessor for the data byte array.
+   *
+   * @throws IllegalStateException if the page is a view of direct memory
    */
   public byte[] getData() {
+    if (data == null) {
+      throw new IllegalStateException("Page in direct memory has no array");
+    }
     return data;
   }
 
+  /**
+   * Tells whether the page has a data byte array, rather than being a view of
+   * direct memory.
+   */
+  public boolean hasArray() {
+    return data != null;
+  }
+
+  /**
+   * Gets the size of the page, in bytes.
+   */
+  public int getSize() {
+    return data != null ? data.length : buffer.capacity();
+  }
+
+  /**
+   * Gets a buffer over the page, positioned at the start of the page with the
+   * whole page remaining.  The buffer is made once and cleared on each call,
+   * so I/O on the same Page object must not overlap; the buffer manager does
+   * I/O on a frame only while it holds the page's latch or has claimed the
+   * frame, and writes a copy otherwise.  Pages sharing memory through
+   * setPage each have a buffer of their own.
+   */
+  public ByteBuffer getBuffer() {
+    ByteBuffer buf = io;
+    if (buf == null) {
+      buf = (data == null) ? buffer.duplicate() : ByteBuffer.wrap(data);
+      io = buf;
+    }
+    buf.clear();
+    return buf;
+  }
+
   /**
    * Set accessor for the data byte array.
    * 
    * @throws IllegalArgumentException if the data array size is invalid
    */
   public void setData(byte[] data) {
-    if (data.length != PAGE_SIZE) {
+    if (data.length != Minibase.PageSize) {
       Minibase.haltSystem(new IllegalArgumentException(
           "Invalid page buffer size"));
     }
     this.data = data;
+    this.buffer = null;
+    this.io = null;
   }
 
   /**
-   * Sets this page's data array to share the given page's data array.
+   * Sets this page's data array to share the given page's data array, or its
+   * slice of direct memory.
    */
   public void setPage(Page page) {
     this.data = page.data;
+    this.buffer = page.buffer;
+    this.io = null;
   }
 
   /**
    * Copies the contents of the given page's buffer into this page's buffer.
    */
   public void copyPage(Page page) {
-    System.arraycopy(page.data, 0, this.data, 0, PAGE_SIZE);
+    if (data != null && page.data != null) {
+      System.arraycopy(page.data, 0, this.data, 0, data.length);
+    } else if (data != null) {
+      page.buffer.get(0, data);
+    } else if (page.data != null) {
+      buffer.put(0, page.data);
+    } else {
+      buffer.put(0, page.buffer, 0, buffer.capacity());
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Copies bytes from the given page offset into the given array.
+   */
+  public void getBytes(int offset, byte[] dst, int dst_off, int length) {
+    if (data != null) {
+      System.arraycopy(data, offset, dst, dst_off, length);
+    } else {
+      buffer.get(offset, dst, dst_off, length);
+    }
+  }
+
+  /**
+   * Copies bytes from the given array to the given page offset.
+   */
+  public void setBytes(int offset, byte[] src, int src_off, int length) {
+    if (data != null) {
+      System.arraycopy(src, src_off, data, offset, length);
+    } else {
+      buffer.put(offset, src, src_off, length);
+    }
+  }
+
+  /**
+   * Copies the whole page from the given buffer, starting at the given index
+   * of it; the buffer's own position is not used.
+   */
+  public void copyFrom(ByteBuffer src, int index) {
+    if (data != null) {
+      src.get(index, data);
+    } else {
+      buffer.put(0, src, index, buffer.capacity());
+    }
+  }
+
+  /**
+   * Copies the whole page into the given buffer, starting at the given index
+   * of it; the buffer's own position is not used.
+   */
+  public void copyTo(ByteBuffer dst, int index) {
+    if (data != null) {
+      dst.put(index, data);
+    } else {
+      dst.put(index, buffer, 0, buffer.capacity());
+    }
+  }
+
+  /**
+   * Moves bytes within the page; the ranges may overlap.
+   */
+  public void moveBytes(int from, int to, int length) {
+    if (data != null) {
+      System.arraycopy(data, from, data, to, length);
+    } else {
+      buffer.put(to, buffer, from, length);
+    }
+  }
+
+  /**
+   * Sets bytes at the given page offset to the given value.
+   */
+  public void fillBytes(int offset, int length, byte value) {
+    if (data != null) {
+      Arrays.fill(data, offset, offset + length, value);
+    } else {
+      // a word at a time, then the bytes left over
+      long word = (value & 0xffL) * 0x0101010101010101L;
+      int end = offset + length;
+      int i = offset;
+      for (; i + 8 <= end; i += 8) {
+        buffer.putLong(i, word);
+      }
+      for (; i < end; i++) {
+        buffer.put(i, value);
+      }
+    }
   }
 
   // --------------------------------------------------------------------------
@@ -64,70 +227,95 @@ public class Page implements GlobalConst {
    * Gets a char at the given page offset.
    */
   public char getCharValue(int offset) {
-    return Convert.getCharValue(offset, data);
+    return data != null ? Convert.getCharValue(offset, data)
+        : Convert.getCharValue(offset, buffer);
   }
 
   /**
    * Sets a char at the given page offset.
    */
   public void setCharValue(char value, int offset) {
-    Convert.setCharValue(value, offset, data);
+    if (data != null) {
+      Convert.setCharValue(value, offset, data);
+    } else {
+      Convert.setCharValue(value, offset, buffer);
+    }
   }
 
   /**
    * Gets a short at the given page offset.
    */
   public short getShortValue(int offset) {
-    return Convert.getShortValue(offset, data);
+    return data != null ? Convert.getShortValue(offset, data)
+        : Convert.getShortValue(offset, buffer);
   }
 
   /**
    * Sets a short at the given page offset.
    */
   public void setShortValue(short value, int offset) {
-    Convert.setShortValue(value, offset, data);
+    if (data != null) {
+      Convert.setShortValue(value, offset, data);
+    } else {
+      Convert.setShortValue(value, offset, buffer);
+    }
   }
 
   /**
    * Gets an int at the given page offset.
    */
   public int getIntValue(int offset) {
-    return Convert.getIntValue(offset, data);
+    return data != null ? Convert.getIntValue(offset, data)
+        : Convert.getIntValue(offset, buffer);
   }
 
   /**
    * Sets an int at the given page offset.
    */
   public void setIntValue(int value, int offset) {
-    Convert.setIntValue(value, offset, data);
+    if (data != null) {
+      Convert.setIntValue(value, offset, data);
+    } else {
+      Convert.setIntValue(value, offset, buffer);
+    }
   }
 
   /**
    * Gets a float at the given page offset.
    */
   public float getFloatValue(int offset) {
-    return Convert.getFloatValue(offset, data);
+    return data != null ? Convert.getFloatValue(offset, data)
+        : Convert.getFloatValue(offset, buffer);
   }
 
   /**
    * Sets a float at the given page offset.
    */
   public void setFloatValue(float value, int offset) {
-    Convert.setFloatValue(value, offset, data);
+    if (data != null) {
+      Convert.setFloatValue(value, offset, data);
+    } else {
+      Convert.setFloatValue(value, offset, buffer);
+    }
   }
 
   /**
    * Gets a string at the given page offset, given the maximum length.
    */
   public String getStringValue(int offset, int length) {
-    return Convert.getStringValue(offset, data, length);
+    return data != null ? Convert.getStringValue(offset, data, length)
+        : Convert.getStringValue(offset, buffer, length);
   }
 
   /**
    * Sets a string at the given page offset.
    */
   public void setStringValue(String value, int offset) {
-    Convert.setStringValue(value, offset, data);
+    if (data != null) {
+      Convert.setStringValue(value, offset, data);
+    } else {
+      Convert.setStringValue(value, offset, buffer);
+    }
   }
 
 } // public class Page implements GlobalConst
@@ -21,15 +21,27 @@ class DirPage extends HFPage {
 
   // --------------------------------------------------------------------------
 
-  /** The size of the footer data (in bytes). */
+  /** The size of the footer data (in bytes); the total number of entries
+   * is kept in the last two bytes of the page. */
   protected static final int FOOTER_SIZE = 2;
 
-  /** Page offest for the total number of entries. */
-  protected static final int ENTRY_COUNT = PAGE_SIZE - 2;
+  /**
+   * Gets the maximum number of entries in a directory page of the given size.
+   */
+  protected static int maxEntries(int page_size) {
+    return (page_size - HEADER_SIZE - FOOTER_SIZE) / ENTRY_SIZE;
+  }
+
+  /** The BufMgr.pinChild slot of the next directory page; the data page of
+   * each entry follows. */
+  protected static final int NEXT_SLOT = 0;
 
-  /** Maximum number of entries in a directory page. */
-  protected static final int MAX_ENTRIES = (PAGE_SIZE - HEADER_SIZE - FOOTER_SIZE)
-      / ENTRY_SIZE;
+  /**
+   * Gets the BufMgr.pinChild slot of the data page of the given entry.
+   */
+  protected static int entrySlot(int index) {
+    return NEXT_SLOT + 1 + index;
+  }
 
   // --------------------------------------------------------------------------
 
@@ -46,14 +58,14 @@ class DirPage extends HFPage {
    * Gets the number of directory entries on the page.
    */
   public short getEntryCnt() {
-    return getShortValue(ENTRY_COUNT);
+    return getShortValue(getSize() - FOOTER_SIZE);
   }
 
   /**
    * Sets the number of directory entries on the page.
    */
   public void setEntryCnt(short entryCnt) {
-    setShortValue(entryCnt, ENTRY_COUNT);
+    setShortValue(entryCnt, getSize() - FOOTER_SIZE);
   }
 
   /**
@@ -107,8 +119,8 @@ class DirPage extends HFPage {
 
     // shift all bytes to the left
     int entryPos = HEADER_SIZE + slotno * ENTRY_SIZE;
-    int succLen = PAGE_SIZE - FOOTER_SIZE - entryPos - ENTRY_SIZE;
-    System.arraycopy(data, entryPos + ENTRY_SIZE, data, entryPos, succLen);
+    int succLen = getSize() - FOOTER_SIZE - entryPos - ENTRY_SIZE;
+    moveBytes(entryPos + ENTRY_SIZE, entryPos, succLen);
 
   } // public void compact(int slotno)
 
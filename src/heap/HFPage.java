@@ -56,7 +56,7 @@ class HFPage extends Page {
    * Constructor that wraps an existing heap file page.
    */
   public HFPage(Page page) {
-    super(page.getData());
+    super(page);
   }
 
   /**
@@ -68,10 +68,10 @@ class HFPage extends Page {
     setShortValue((short) 0, SLOT_CNT);
 
     // used offset grows backwards
-    setShortValue((short) PAGE_SIZE, USED_PTR);
+    setShortValue((short) getSize(), USED_PTR);
 
     // free space doesn't count headers
-    setShortValue((short) (PAGE_SIZE - HEADER_SIZE), FREE_SPACE);
+    setShortValue((short) (getSize() - HEADER_SIZE), FREE_SPACE);
 
     // optional type field may be used by sub classes
     setShortValue((short) 0, PAGE_TYPE);
@@ -218,7 +218,7 @@ class HFPage extends Page {
     int slotpos = HEADER_SIZE + i * SLOT_SIZE;
     setShortValue(recLength, slotpos);
     setShortValue(usedPtr, slotpos + 2);
-    System.arraycopy(record, 0, data, usedPtr, recLength);
+    setBytes(usedPtr, record, 0, recLength);
     return new RID(new PageId(getIntValue(CUR_PAGE)), i);
 
   } // public RID insertRecord(byte[] record)
@@ -236,7 +236,7 @@ class HFPage extends Page {
 
     // finally, get and return the record
     byte[] record = new byte[length];
-    System.arraycopy(data, offset, record, 0, length);
+    getBytes(offset, record, 0, length);
     return record;
 
   } // public byte[] selectRecord(RID rid)
@@ -255,7 +255,7 @@ class HFPage extends Page {
 
     // finally, update the record in place
     short offset = getSlotOffset(rid.slotno);
-    System.arraycopy(record, 0, data, offset, length);
+    setBytes(offset, record, 0, length);
 
   } // public void updateRecord(RID rid, byte[] record)
 
@@ -277,7 +277,7 @@ class HFPage extends Page {
     short size = (short) (offset - usedPtr);
 
     // shift all bytes to the right
-    System.arraycopy(data, usedPtr, data, newSpot, size);
+    moveBytes(usedPtr, newSpot, size);
 
     // adjust offsets of all valid slots that refer
     // to the left of the record being removed
@@ -1,6 +1,9 @@
 package heap;
 
+import bufmgr.BufMgr;
+import bufmgr.PageReader;
 import global.GlobalConst;
+import global.Page;
 import global.RID;
 import global.Minibase;
 import global.PageId;
@@ -117,9 +120,9 @@ public class HeapFile implements GlobalConst {
    */
   public RID insertRecord(byte[] record) throws IllegalArgumentException{
 	
-	if(record.length > (PAGE_SIZE - DataPage.HEADER_SIZE - DataPage.SLOT_SIZE)){
+	if(record.length > (Minibase.PageSize - DataPage.HEADER_SIZE - DataPage.SLOT_SIZE)){
 		// If the record size is too big to fit we need to throw an error.
-		// Max Length is currently 1000 bytes for a data page record.
+		// Max Length is 1000 bytes for a data page record with 1 KB pages.
 		throw new IllegalArgumentException();
 	}
 	
@@ -128,12 +131,15 @@ public class HeapFile implements GlobalConst {
 	DirPage dirPage = new DirPage();
 	PageId currentPageId;
 	RID rid = null;
+	int dirFrame = BufMgr.NO_FRAME;
 		
 	do
 	{
-		// Pin the current directory and advance to the next page.
+		// Pin the current directory, with the previous one's hint as to
+		// its frame, and advance to the next page.
 		currentPageId = new PageId(dirId.pid);
-		Minibase.BufferManager.pinPage(currentPageId, dirPage, PIN_DISKIO);
+		dirFrame = Minibase.BufferManager.pinChild(dirFrame, DirPage.NEXT_SLOT,
+				currentPageId, dirPage, PIN_DISKIO);
 		dirId = dirPage.getNextPage();
 		
 		// Loop thru each directory entry on the dir page.
@@ -145,26 +151,27 @@ public class HeapFile implements GlobalConst {
 				// Found space for the record to be inserted
 				PageId dataId = dirPage.getPageId(i);
 				DataPage dataPage = new DataPage();
-				Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+				int dataFrame = Minibase.BufferManager.pinChild(dirFrame,
+						DirPage.entrySlot(i), dataId, dataPage, PIN_DISKIO);
 				rid = dataPage.insertRecord(record);
 				
 				// Update the record count and free space count
 				// and then unpin the data page
 				dirPage.setRecCnt(i, dataPage.getSlotCount());
 				dirPage.setFreeCnt(i, dataPage.getFreeSpace());
-				Minibase.BufferManager.unpinPage(dataId, UNPIN_DIRTY);
+				Minibase.BufferManager.unpinPage(dataId, UNPIN_DIRTY, dataFrame);
 				break;
 			}
 		}
 		
 		if(rid != null){
 			// The record is inserted and updated so we need to unpin.
-			Minibase.BufferManager.unpinPage(currentPageId, UNPIN_DIRTY);
+			Minibase.BufferManager.unpinPage(currentPageId, UNPIN_DIRTY, dirFrame);
 			break;
 		}
 		
 		// Haven't found space on this dir so unpin and keep looping
-		Minibase.BufferManager.unpinPage(currentPageId, UNPIN_CLEAN);
+		Minibase.BufferManager.unpinPage(currentPageId, UNPIN_CLEAN, dirFrame);
 	} while(dirId.pid != INVALID_PAGEID);
 	
 	if(rid == null){
@@ -196,7 +203,7 @@ public class HeapFile implements GlobalConst {
 			dirId = dirPage.getNextPage();
 			short entryCount = dirPage.getEntryCnt();
 			
-			if(entryCount < DirPage.MAX_ENTRIES){
+			if(entryCount < DirPage.maxEntries(Minibase.PageSize)){
 				// Found a page with room for an entry
 				// Enter the entry and unpin.
 				dirPage.setPageId(entryCount, dataId);
@@ -247,26 +254,24 @@ public class HeapFile implements GlobalConst {
    * 
    * @throws IllegalArgumentException if the rid is invalid
    */
-  public byte[] selectRecord(RID rid) throws IllegalArgumentException {
+  public byte[] selectRecord(final RID rid) throws IllegalArgumentException {
 	
-    byte[] record;
-    DataPage dataPage = new DataPage();
-    Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
-    
+    // Read the record optimistically, without pinning the page.
+    final DataPage dataPage = new DataPage();
     try
     {
-      record = dataPage.selectRecord(rid);
+      return Minibase.BufferManager.readPage(rid.pageno, dataPage,
+          new PageReader<byte[]>() {
+            public byte[] read(Page page) {
+              return dataPage.selectRecord(rid);
+            }
+          });
     }
     catch (Exception e)
     {
-		// Invalid rid, unpin and throw exception.
-      Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
+		// Invalid rid, so throw exception.
       throw new IllegalArgumentException();            
     }
-    
-	// Valid rid, unpin and return the record.
-    Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_CLEAN);
-    return record;
 	
   }
 
@@ -425,25 +430,28 @@ public class HeapFile implements GlobalConst {
   public int getRecCnt() {
       
 	int count = 0;
-    DirPage dirPage = new DirPage();
-    PageId dirId = new PageId(headId.pid);
+    final DirPage dirPage = new DirPage();
+    final PageId dirId = new PageId(headId.pid);
+    PageReader<Integer> reader = new PageReader<Integer>() {
+      public Integer read(Page page) {
+        // Note the next directory page; a retry sets it again
+        dirId.pid = dirPage.getNextPage().pid;
+        int entries = 0;
+        for (short i=0; i < dirPage.getEntryCnt(); i++)
+        {
+          entries = entries + dirPage.getRecCnt(i);
+        }
+        return entries;
+      }
+    };
 	
-	// loop thru each directory page in the heap file
+	// loop thru each directory page in the heap file, reading each
+	// optimistically, without pinning it
 	do
     {
-	  // Pin current directory page
       PageId curPageId = new PageId(dirId.pid);
-      Minibase.BufferManager.pinPage(curPageId, dirPage, PIN_DISKIO);
-      dirId = dirPage.getNextPage();
-	  
-	  //Loop thru each entry and increment count
-      for (short i=0; i < dirPage.getEntryCnt(); i++)
-      {
-        count = count + dirPage.getRecCnt(i);
-      }
-	    
-		//unpin and free the current page
-      Minibase.BufferManager.unpinPage(curPageId, UNPIN_CLEAN);
+      count = count + Minibase.BufferManager.readPage(curPageId, dirPage,
+          reader);
     } while (dirId.pid != INVALID_PAGEID);
 
     return count;
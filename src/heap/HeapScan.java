@@ -1,5 +1,6 @@
 package heap;
 
+import bufmgr.BufMgr;
 import global.GlobalConst;
 import global.Minibase;
 import global.PageId;
@@ -9,12 +10,26 @@ import global.RID;
  * A HeapScan object is created only through the function openScan() in the
  * HeapFile class. It supports the getNext interface which will simply retrieve
  * the next record in the file.
+ * <br><br>
+ * The scan reads data pages ahead of itself in the background.  The window
+ * doubles each time the scan catches up with it, up to MAX_READ_AHEAD pages,
+ * and halves whenever the buffer manager has had to evict read-ahead pages
+ * before they were used.  It never exceeds a quarter of the unpinned frames.
+ * When the window reaches the end of a directory page, the next directory
+ * page is read ahead too.
  */
 public class HeapScan implements GlobalConst {
 
+  /** Initial and largest read-ahead window sizes, in data pages. */
+  protected static final int MIN_READ_AHEAD = 4;
+  protected static final int MAX_READ_AHEAD = 64;
+
   /** Currently pinned directory page (outer loop). */
   protected DirPage dirPage;
 
+  /** Frame of the directory page, for the frame hints it keeps. */
+  protected int dirFrame;
+
   /** Number of entries on the directory page. */
   protected int count;
 
@@ -24,9 +39,21 @@ public class HeapScan implements GlobalConst {
   /** Currently pinned data page (inner loop). */
   protected DataPage dataPage;
 
+  /** Frame of the data page. */
+  protected int dataFrame;
+
   /** RID of the current record on the data page. */
   protected RID curRid;
 
+  /** Current read-ahead window size. */
+  protected int depth;
+
+  /** Index of the first entry on the directory page not yet read ahead. */
+  protected int ahead;
+
+  /** The buffer manager's count of wasted prefetches at the last window. */
+  protected int wasted;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -37,7 +64,8 @@ public class HeapScan implements GlobalConst {
 
     // pin the head page and get the count
     dirPage = new DirPage();
-    Minibase.BufferManager.pinPage(hf.headId, dirPage, PIN_DISKIO);
+    dirFrame = Minibase.BufferManager.pinChild(BufMgr.NO_FRAME, 0, hf.headId,
+        dirPage, PIN_DISKIO);
     count = dirPage.getEntryCnt();
 
     // initialize other data fields
@@ -45,6 +73,12 @@ public class HeapScan implements GlobalConst {
     dataPage = null;
     curRid = null;
 
+    // start reading the first data pages
+    depth = MIN_READ_AHEAD;
+    ahead = 0;
+    wasted = Minibase.BufferManager.getWastedPrefetches();
+    readAhead();
+
   } // protected HeapScan(HeapFile hf)
 
   /**
@@ -65,13 +99,18 @@ public class HeapScan implements GlobalConst {
    */
   public void close() {
 
+    // make sure none of this scan's read-ahead is still holding frames
+    Minibase.BufferManager.cancelPrefetch(this);
+
     // unpin the pages where applicable
     if (dataPage != null) {
-      Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+      Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN,
+          dataFrame);
       dataPage = null;
     }
     if (dirPage != null) {
-      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
+      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN,
+          dirFrame);
       dirPage = null;
     }
 
@@ -131,7 +170,8 @@ public class HeapScan implements GlobalConst {
       } else {
 
         // all done with the current data page
-        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN,
+            dataFrame);
 
       } // else
 
@@ -145,9 +185,11 @@ public class HeapScan implements GlobalConst {
         dataPage = new DataPage();
       }
 
-      // pin the next data page
+      // pin the next data page, with the directory's hint as to its frame
       index++;
-      Minibase.BufferManager.pinPage(dirPage.getPageId(index), dataPage,
+      readAhead();
+      dataFrame = Minibase.BufferManager.pinChild(dirFrame,
+          DirPage.entrySlot(index), dirPage.getPageId(index), dataPage,
           PIN_DISKIO);
 
       // reset the counter and get the first record
@@ -162,15 +204,21 @@ public class HeapScan implements GlobalConst {
     // move on to the next directory page
     if (dirPage.getNextPage().pid != INVALID_PAGEID) {
 
-      // unpin the current dir page, pin the next dir page
+      // pin the next dir page with the current one's hint as to its
+      // frame, then unpin the current one
       PageId nextId = dirPage.getNextPage();
-      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
-      Minibase.BufferManager.pinPage(nextId, dirPage, PIN_DISKIO);
+      PageId curId = dirPage.getCurPage();
+      int curFrame = dirFrame;
+      dirFrame = Minibase.BufferManager.pinChild(curFrame, DirPage.NEXT_SLOT,
+          nextId, dirPage, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(curId, UNPIN_CLEAN, curFrame);
 
       // reset the counters and try again
       count = dirPage.getEntryCnt();
       index = -1;
       curRid = null;
+      ahead = 0;
+      readAhead();
       return getNext(rid);
 
     } // if more dir pages
@@ -180,4 +228,44 @@ public class HeapScan implements GlobalConst {
 
   } // public byte[] getNext(RID rid)
 
+  /**
+   * Issues the next read-ahead window once the scan is within half a window
+   * of the pages already asked for.
+   */
+  protected void readAhead() {
+
+    if (ahead - index > depth / 2 || ahead >= count) {
+      return;
+    }
+
+    // narrow the window if read-ahead pages were evicted unused; otherwise
+    // the scan has caught up, so widen it
+    int now_wasted = Minibase.BufferManager.getWastedPrefetches();
+    if (now_wasted != wasted) {
+      depth = Math.max(1, depth / 2);
+      wasted = now_wasted;
+    } else if (ahead > 0) {
+      depth = Math.min(depth * 2, MAX_READ_AHEAD);
+    }
+    int window = Math.min(depth, Minibase.BufferManager.getNumUnpinned() / 4);
+    if (window < 1) {
+      return;
+    }
+
+    // the data pages, then the next directory page if the window reaches it
+    int start = Math.max(ahead, index + 1);
+    int end = Math.min(count, start + window);
+    PageId[] pageids = new PageId[end - start + 1];
+    int n = 0;
+    for (int i = start; i < end; i++) {
+      pageids[n++] = dirPage.getPageId(i);
+    }
+    if (end == count && dirPage.getNextPage().pid != INVALID_PAGEID) {
+      pageids[n++] = dirPage.getNextPage();
+    }
+    Minibase.BufferManager.prefetch(pageids, n, this);
+    ahead = end;
+
+  } // protected void readAhead()
+
 } // public class HeapScan implements GlobalConst
@@ -0,0 +1,909 @@
+package logmgr;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h3>Minibase Log Manager</h3>
+ * The log manager keeps a write-ahead log of the changes made to pages in the
+ * buffer pool, so that a transaction can be made durable by appending to the
+ * log instead of writing the pages it changed, and so that the database can
+ * be brought back to a consistent state after a crash.
+ * <br><br>
+ * The buffer manager keeps a copy of each page as of its last log record;
+ * when a page is unpinned dirty, the bytes that differ from the copy are
+ * logged with their old and new values (see LogRecord).  Every page change
+ * is thus logged, whichever layer made it: heap file records and directories,
+ * the space map and the file entries.  A page is only written to disk once
+ * the log is on disk up to the page's last record, so dirty pages may be
+ * written at any time, committed or not (steal), and need not be written at
+ * commit (no force).
+ * <br><br>
+ * A thread starts a transaction with begin and ends it with commit or abort;
+ * changes made outside a transaction are never undone, and become durable
+ * with the next log flush.  Commits share log flushes: while one commit
+ * forces the log, the others queue behind it, and the next force covers all
+ * of them (group commit).  Undo is physical, so transactions that change the
+ * same bytes must not run at the same time.
+ * <br><br>
+ * Allocation is the exception: every transaction allocates from the same
+ * space map and count.  The disk manager changes them in a nested top
+ * action, logged outside the transaction and never undone, and then logs
+ * the run it allocated as the transaction's; undoing that record
+ * deallocates the run.  Pages a transaction frees are only deallocated once
+ * it commits, so that an abort never has to take back a page someone else
+ * has allocated since; a crash before that leaves them allocated, which
+ * costs space but nothing else.
+ * <br><br>
+ * When a database is opened, recover replays the log in three passes, like
+ * ARIES: analysis finds the transactions that did not finish, redo reapplies
+ * every change in order, and undo rolls back the unfinished transactions,
+ * logging compensation records as it goes, so that a crash during recovery
+ * loses nothing.  The log is emptied whenever every page is on disk and no
+ * transaction is running.
+ * <br><br>
+ * The buffer manager's checkpoints write a CHECKPOINT record listing the
+ * running transactions and the dirty pages, and the disk manager keeps its
+ * LSN on the first page.  Recovery then starts at the oldest change that
+ * might be missing from disk, rather than at the start of the log, and does
+ * not redo what the dirty page table shows is already on disk.
+ * <br><br>
+ * LSNs grow for as long as the database exists: the log file starts with
+ * the LSN of its first byte, which emptying the log moves up to the end.
+ */
+public class LogMgr implements GlobalConst {
+
+  /** LSN of no record. */
+  public static final long NULL_LSN = -1;
+
+  /** Suffix of the name of a database's log file. */
+  public static final String LOG_SUFFIX = ".log";
+
+  /** Initial size of the in-memory log tail, in bytes. */
+  protected static final int TAIL_SIZE = 64 * 1024;
+
+  /** Size of the log file header, which holds the LSN of the file's first
+   * byte. */
+  protected static final int LOG_HEADER = 8;
+
+  //The log file and its channel
+  private final String fname;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  //LSN of the first byte of the log file; guarded by this
+  private long base_lsn;
+
+  //Records appended but not yet written, starting at LSN tail_lsn; guarded
+  //by this
+  private byte[] tail;
+  private int tail_len;
+  private long tail_lsn;
+
+  //Spare buffer swapped with the tail by a flush; guarded by flush_lock
+  private byte[] spare;
+
+  //Held while writing and forcing the log, one flush at a time
+  private final Object flush_lock;
+
+  //End of the part of the log known to be on disk
+  private volatile long flushed_lsn;
+
+  //Next transaction id
+  private final AtomicInteger next_txn;
+
+  //Running transactions, by id
+  private final ConcurrentHashMap<Integer, Txn> active;
+
+  //The transaction of each thread, if any
+  private final ThreadLocal<Txn> current;
+
+  //LSN of the record being applied by this thread during undo or recovery,
+  //so that the page change it causes is not logged again
+  private final ThreadLocal<Long> applying;
+
+  //Copy of a page in direct memory being logged, for each thread
+  private final ThreadLocal<byte[]> image;
+
+  //Depth of the nested top actions each thread is in, if any
+  private final ThreadLocal<Integer> top_actions;
+
+  //Counters of commits, log forces, and records and bytes appended
+  private final AtomicLong commit_cnt;
+  private final AtomicLong flush_cnt;
+  private final AtomicLong record_cnt;
+  private final AtomicLong bytes_logged;
+
+  //Number of records the last recovery redid
+  private volatile long redo_cnt;
+
+  /**
+   * Opens or creates the log file with the given name.
+   */
+  public LogMgr(String fname) {
+    this.fname = fname;
+    try {
+      file = new RandomAccessFile(fname, "rw");
+      channel = file.getChannel();
+    } catch (IOException exc) {
+      throw new IllegalArgumentException("Cannot open log " + fname, exc);
+    }
+    tail = new byte[TAIL_SIZE];
+    spare = new byte[TAIL_SIZE];
+    flush_lock = new Object();
+    next_txn = new AtomicInteger(1);
+    active = new ConcurrentHashMap<Integer, Txn>();
+    current = new ThreadLocal<Txn>();
+    applying = new ThreadLocal<Long>();
+    image = new ThreadLocal<byte[]>();
+    top_actions = new ThreadLocal<Integer>();
+    commit_cnt = new AtomicLong();
+    flush_cnt = new AtomicLong();
+    record_cnt = new AtomicLong();
+    bytes_logged = new AtomicLong();
+    try {
+      ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+      if (channel.size() < LOG_HEADER) {
+        writeHeader(0);
+      } else {
+        channel.read(header, 0);
+        base_lsn = header.getLong(0);
+      }
+      tail_lsn = base_lsn + channel.size();
+    } catch (IOException exc) {
+      throw new IllegalArgumentException("Cannot read log " + fname, exc);
+    }
+    flushed_lsn = tail_lsn;
+  } // public LogMgr(String fname)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * begin
+   *
+   * Starts a transaction for the calling thread; the pages it changes are
+   * logged as its own until it commits or aborts.
+   *
+   * @return the transaction id
+   * @throws IllegalStateException if the thread is already in a transaction
+   */
+  public int begin() {
+    if (current.get() != null) {
+      throw new IllegalStateException("Transaction already running");
+    }
+    Txn txn = new Txn(next_txn.getAndIncrement());
+    active.put(txn.id, txn);
+    current.set(txn);
+    return txn.id;
+  } //begin
+
+  /**
+   * commit
+   *
+   * Commits the calling thread's transaction: logs the commit and waits until
+   * it is on disk, sharing the log force with any other commits under way.
+   * The pages the transaction freed are then deallocated.
+   *
+   * @throws IllegalStateException if the thread is not in a transaction
+   */
+  public void commit() {
+    Txn txn = currentTxn();
+    long lsn = append(new LogRecord(LogRecord.COMMIT, txn.id, txn.last_lsn,
+        INVALID_PAGEID));
+    flushTo(lsn);
+    append(new LogRecord(LogRecord.END, txn.id, lsn, INVALID_PAGEID));
+    end(txn);
+    commit_cnt.incrementAndGet();
+    for (int pid : txn.frees) {
+      Minibase.BufferManager.freePage(new PageId(pid));
+    }
+  } //commit
+
+  /**
+   * abort
+   *
+   * Rolls back the calling thread's transaction, restoring every page it
+   * changed, deallocating the pages it allocated and logging compensation
+   * records for both; the pages it freed stay allocated.  The disk manager
+   * then reloads what it caches from its pages.
+   *
+   * @throws IllegalStateException if the thread is not in a transaction
+   */
+  public void abort() {
+    Txn txn = currentTxn();
+    txn.last_lsn = append(new LogRecord(LogRecord.ABORT, txn.id, txn.last_lsn,
+        INVALID_PAGEID));
+    try {
+      rollback(txn, txn.last_lsn);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    append(new LogRecord(LogRecord.END, txn.id, txn.last_lsn, INVALID_PAGEID));
+    end(txn);
+    Minibase.DiskManager.reload();
+  } //abort
+
+  /**
+   * beginTopAction
+   *
+   * Starts a nested top action for the calling thread: until the matching
+   * endTopAction, the pages it changes are logged outside its transaction,
+   * if it is in one, and are not undone if the transaction aborts.  Top
+   * actions may nest.
+   */
+  public void beginTopAction() {
+    Integer depth = top_actions.get();
+    top_actions.set(depth == null ? 1 : depth + 1);
+  } //beginTopAction
+
+  /**
+   * endTopAction
+   *
+   * Ends the calling thread's innermost nested top action.
+   *
+   * @throws IllegalStateException if the thread is not in one
+   */
+  public void endTopAction() {
+    Integer depth = top_actions.get();
+    if (depth == null) {
+      throw new IllegalStateException("No top action running");
+    }
+    if (depth == 1) {
+      top_actions.remove();
+    } else {
+      top_actions.set(depth - 1);
+    }
+  } //endTopAction
+
+  /**
+   * logAlloc
+   *
+   * Logs that the calling thread's transaction allocated a run of pages, so
+   * that rolling it back deallocates them.  The disk manager calls this once
+   * the allocation itself is logged, in a top action.  Outside a transaction,
+   * or within a top action, there is nothing to undo.
+   *
+   * @param pid the first page of the run
+   * @param run_size the number of pages
+   */
+  public void logAlloc(int pid, int run_size) {
+    Txn txn = current.get();
+    if (txn == null || top_actions.get() != null) {
+      return;
+    }
+    LogRecord rec = new LogRecord(LogRecord.ALLOC, txn.id, txn.last_lsn, pid);
+    rec.run_size = run_size;
+    txn.last_lsn = append(rec);
+  } //logAlloc
+
+  /**
+   * deferFree
+   *
+   * Puts off freeing a page until the calling thread's transaction commits,
+   * if it is in one and not within a top action.  The buffer manager calls
+   * this before freeing a page, which stays allocated, and in the pool,
+   * until then; an abort keeps it.
+   *
+   * @return whether the free was put off
+   */
+  public boolean deferFree(int pid) {
+    Txn txn = current.get();
+    if (txn == null || top_actions.get() != null) {
+      return false;
+    }
+    txn.frees.add(pid);
+    return true;
+  } //deferFree
+
+  /**
+   * Gets the id of the calling thread's transaction, or 0 if there is none.
+   */
+  public int getTransaction() {
+    Txn txn = current.get();
+    return txn == null ? 0 : txn.id;
+  }
+
+  /**
+   * Gets the number of running transactions.
+   */
+  public int getActiveCount() {
+    return active.size();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * logPage
+   *
+   * Logs the change to a page since its copy was taken, and brings the copy
+   * up to date.  The buffer manager calls this when a page is unpinned dirty.
+   *
+   * @param pid the page
+   * @param copy the page as of its last log record; updated
+   * @param page the page now; the frame itself, which may be in direct
+   * memory
+   * @param formatted whether the page was brought into the pool from memory,
+   * not read from disk, since the copy was taken; it is then taken to be a
+   * new page and logged whole, and an abort leaves it as it is
+   * @return the LSN of the record, or NULL_LSN if nothing changed
+   */
+  public long logPage(int pid, byte[] copy, Page page, boolean formatted) {
+
+    // a change made by undo or recovery is already logged
+    Long lsn = applying.get();
+    if (lsn != null) {
+      page.getBytes(0, copy, 0, copy.length);
+      return lsn;
+    }
+
+    // the page is compared as an array; one in direct memory is copied out
+    byte[] data;
+    if (page.hasArray()) {
+      data = page.getData();
+    } else {
+      data = image.get();
+      if (data == null) {
+        data = new byte[copy.length];
+        image.set(data);
+      }
+      page.getBytes(0, data, 0, data.length);
+    }
+
+    // a top action's changes are not the transaction's to undo
+    Txn txn = top_actions.get() == null ? current.get() : null;
+    int id = txn == null ? 0 : txn.id;
+    long prev_lsn = txn == null ? NULL_LSN : txn.last_lsn;
+    LogRecord rec;
+    if (formatted) {
+      rec = new LogRecord(LogRecord.FORMAT, id, prev_lsn, pid);
+      rec.page = data.clone();
+    } else {
+      rec = LogRecord.diff(id, prev_lsn, pid, copy, data);
+      if (rec == null) {
+        return NULL_LSN;
+      }
+    }
+    System.arraycopy(data, 0, copy, 0, data.length);
+    long rec_lsn = append(rec);
+    if (txn != null) {
+      txn.last_lsn = rec_lsn;
+    }
+    return rec_lsn;
+
+  } // public long logPage(int pid, byte[] copy, Page page, boolean formatted)
+
+  /**
+   * append
+   *
+   * Adds a record to the end of the log, in memory.
+   *
+   * @return the record's LSN
+   */
+  protected synchronized long append(LogRecord rec) {
+    byte[] bytes = rec.toBytes();
+    if (tail_len + bytes.length > tail.length) {
+      byte[] grown = new byte[Math.max(tail.length * 2, tail_len + bytes.length)];
+      System.arraycopy(tail, 0, grown, 0, tail_len);
+      tail = grown;
+    }
+    System.arraycopy(bytes, 0, tail, tail_len, bytes.length);
+    long lsn = tail_lsn + tail_len;
+    tail_len += bytes.length;
+    record_cnt.incrementAndGet();
+    bytes_logged.addAndGet(bytes.length);
+    rec.lsn = lsn;
+    return lsn;
+  } //append
+
+  /**
+   * flushTo
+   *
+   * Makes sure the log is on disk up to and including the record at the
+   * given LSN.  Threads that arrive while a flush is under way wait for it,
+   * and the next flush writes everything appended meanwhile, for all of them
+   * at once.
+   */
+  public void flushTo(long lsn) {
+
+    if (lsn < flushed_lsn) {
+      return;
+    }
+    synchronized (flush_lock) {
+
+      // the flush we waited for may have covered us
+      if (lsn < flushed_lsn) {
+        return;
+      }
+
+      // take the tail, leaving an empty one for appends to go on
+      byte[] chunk;
+      int len;
+      long start;
+      synchronized (this) {
+        chunk = tail;
+        len = tail_len;
+        start = tail_lsn;
+        tail = spare.length >= TAIL_SIZE ? spare : new byte[TAIL_SIZE];
+        tail_len = 0;
+        tail_lsn = start + len;
+      }
+
+      try {
+        ByteBuffer buf = ByteBuffer.wrap(chunk, 0, len);
+        long position = positionOf(start);
+        while (buf.hasRemaining()) {
+          channel.write(buf, position + buf.position());
+        }
+        channel.force(false);
+      } catch (IOException exc) {
+        Minibase.haltSystem(exc);
+      }
+      spare = chunk;
+      flushed_lsn = start + len;
+      flush_cnt.incrementAndGet();
+    }
+
+  } //flushTo
+
+  /**
+   * Makes sure everything logged so far is on disk.
+   */
+  public void flush() {
+    long end;
+    synchronized (this) {
+      end = tail_lsn + tail_len;
+    }
+    flushTo(end - 1);
+  }
+
+  /**
+   * truncate
+   *
+   * Empties the log if no transaction is running; the next record gets the
+   * LSN the log ended at.  The caller must have written every dirty page to
+   * disk first.
+   *
+   * @return whether the log was emptied
+   */
+  public boolean truncate() {
+    synchronized (flush_lock) {
+      synchronized (this) {
+        if (!active.isEmpty()) {
+          return false;
+        }
+        long end = tail_lsn + tail_len;
+        try {
+          channel.truncate(0);
+          writeHeader(end - LOG_HEADER);
+        } catch (IOException exc) {
+          Minibase.haltSystem(exc);
+        }
+        tail_len = 0;
+        tail_lsn = end;
+        flushed_lsn = end;
+        return true;
+      }
+    }
+  } //truncate
+
+  /**
+   * checkpoint
+   *
+   * Logs a checkpoint and forces it to disk.  The buffer manager calls this
+   * once the pages are on disk, except those in the dirty page table.
+   *
+   * @param dpt_lsn the end of the log before the dirty pages were listed
+   * @param pids the dirty pages
+   * @param rec_lsns for each dirty page, the first record it may be missing
+   * @param n number of dirty pages
+   * @return the checkpoint's LSN
+   */
+  public long checkpoint(long dpt_lsn, int[] pids, long[] rec_lsns, int n) {
+
+    // redo starts at the oldest change that may be missing
+    LogRecord rec = new LogRecord(LogRecord.CHECKPOINT, 0, NULL_LSN,
+        INVALID_PAGEID);
+    rec.dpt_lsn = dpt_lsn;
+    rec.redo_lsn = dpt_lsn;
+    rec.dpt_pids = Arrays.copyOf(pids, n);
+    rec.dpt_lsns = Arrays.copyOf(rec_lsns, n);
+    for (int i = 0; i < n; i++) {
+      rec.redo_lsn = Math.min(rec.redo_lsn, rec_lsns[i]);
+    }
+
+    // running transactions are listed by their latest record, which may
+    // come after the checkpoint; analysis keeps the latest it sees
+    Map<Integer, Long> txns = activeTransactions();
+    rec.txn_ids = new int[txns.size()];
+    rec.txn_lsns = new long[txns.size()];
+    int t = 0;
+    for (Map.Entry<Integer, Long> entry : txns.entrySet()) {
+      rec.txn_ids[t] = entry.getKey();
+      rec.txn_lsns[t] = entry.getValue();
+      t++;
+    }
+    rec.next_txn = next_txn.get();
+
+    long lsn = append(rec);
+    flushTo(lsn);
+    return lsn;
+
+  } // public long checkpoint(long dpt_lsn, int[] pids, long[] rec_lsns, int n)
+
+  /**
+   * Closes the log file.
+   */
+  public void close() {
+    try {
+      file.close();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Closes and deletes the log file.
+   */
+  public void delete() {
+    close();
+    new File(fname).delete();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the number of commits.
+   */
+  public long getCommitCount() {
+    return commit_cnt.get();
+  }
+
+  /**
+   * Gets the number of times the log was forced to disk; with group commit,
+   * fewer than the commits when they overlap.
+   */
+  public long getFlushCount() {
+    return flush_cnt.get();
+  }
+
+  /**
+   * Gets the number of records appended to the log.
+   */
+  public long getRecordCount() {
+    return record_cnt.get();
+  }
+
+  /**
+   * Gets the number of records the last recovery redid; with a checkpoint,
+   * fewer than the log holds.
+   */
+  public long getRedoCount() {
+    return redo_cnt;
+  }
+
+  /**
+   * Gets the number of bytes appended to the log.
+   */
+  public long getBytesLogged() {
+    return bytes_logged.get();
+  }
+
+  /**
+   * Gets the LSN the next record will have, i.e. the end of the log.
+   */
+  public synchronized long getEndLSN() {
+    return tail_lsn + tail_len;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * recover
+   *
+   * Brings the pages back to the state the log describes: every change
+   * redone, and the changes of every unfinished transaction undone.  The
+   * disk manager calls this when opening a database, before reading its own
+   * pages.  Afterwards every page is written and the log emptied.
+   *
+   * @param ckpt_lsn LSN of the last checkpoint the disk manager recorded, or
+   * NULL_LSN; one that is not in the log is ignored
+   */
+  public void recover(long ckpt_lsn) {
+    try {
+
+      // start from the checkpoint if there is one, else from the beginning
+      HashMap<Integer, Txn> losers = new HashMap<Integer, Txn>();
+      HashMap<Integer, Long> dirty = null;
+      long start = base_lsn + LOG_HEADER;
+      long dpt_lsn = start;
+      int max_txn = 0;
+      LogRecord ckpt = readRecord(ckpt_lsn);
+      if (ckpt != null && ckpt.type == LogRecord.CHECKPOINT) {
+        start = ckpt.redo_lsn;
+        dpt_lsn = ckpt.dpt_lsn;
+        max_txn = ckpt.next_txn - 1;
+        for (int t = 0; t < ckpt.txn_ids.length; t++) {
+          Txn txn = new Txn(ckpt.txn_ids[t]);
+          txn.last_lsn = ckpt.txn_lsns[t];
+          losers.put(txn.id, txn);
+        }
+        dirty = new HashMap<Integer, Long>();
+        for (int p = 0; p < ckpt.dpt_pids.length; p++) {
+          dirty.put(ckpt.dpt_pids[p], ckpt.dpt_lsns[p]);
+        }
+      }
+
+      // analysis: find the end of the log, and the unfinished transactions
+      long end = start;
+      for (LogRecord rec = readRecord(end); rec != null; rec = readRecord(end)) {
+        end = rec.lsn + rec.length;
+        max_txn = Math.max(max_txn, rec.txn);
+        if (rec.txn == 0) {
+          continue;
+        }
+        if (rec.type == LogRecord.END || rec.type == LogRecord.COMMIT) {
+          losers.remove(rec.txn);
+        } else if (rec.type != LogRecord.CHECKPOINT) {
+          Txn txn = losers.get(rec.txn);
+          if (txn == null) {
+            txn = new Txn(rec.txn);
+            losers.put(rec.txn, txn);
+          }
+          txn.last_lsn = Math.max(txn.last_lsn, rec.lsn);
+        }
+      }
+
+      // anything after the last whole record was torn by the crash
+      synchronized (this) {
+        channel.truncate(positionOf(end));
+        tail_lsn = end;
+        tail_len = 0;
+        flushed_lsn = end;
+      }
+      next_txn.set(max_txn + 1);
+
+      // redo: reapply every change in order, except those that the dirty
+      // page table shows were already on disk at the checkpoint
+      redo_cnt = 0;
+      for (long lsn = start; lsn < end; ) {
+        LogRecord rec = readRecord(lsn);
+        lsn += rec.length;
+        if (!rec.isRedoable()) {
+          continue;
+        }
+        if (dirty != null && rec.lsn < dpt_lsn) {
+          Long rec_lsn = dirty.get(rec.pid);
+          if (rec_lsn == null || rec.lsn < rec_lsn) {
+            continue;
+          }
+        }
+        applyRecord(rec);
+        redo_cnt++;
+        if (rec.pid == FIRST_PAGEID) {
+          // the file may have grown
+          Minibase.DiskManager.redoneFirstPage();
+        }
+      }
+
+      // undo: roll the losers back together, latest record first
+      PriorityQueue<long[]> todo = new PriorityQueue<long[]>(11,
+          (a, b) -> Long.compare(b[0], a[0]));
+      for (Txn txn : losers.values()) {
+        todo.add(new long[] { txn.last_lsn, txn.id });
+      }
+      while (!todo.isEmpty()) {
+        long[] next = todo.poll();
+        Txn txn = losers.get((int) next[1]);
+        long lsn = next[0] == NULL_LSN ? NULL_LSN : undoStep(txn, next[0]);
+        if (lsn == NULL_LSN) {
+          append(new LogRecord(LogRecord.END, txn.id, txn.last_lsn,
+              INVALID_PAGEID));
+        } else {
+          todo.add(new long[] { lsn, txn.id });
+        }
+      }
+
+      // make the result durable, and start a fresh log
+      flush();
+      Minibase.BufferManager.flushAllPages();
+      truncate();
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  } // public void recover(long ckpt_lsn)
+
+  /**
+   * rollback
+   *
+   * Undoes the given transaction's changes, from the record at lsn back.
+   */
+  private void rollback(Txn txn, long lsn) throws IOException {
+    flushTo(lsn);
+    while (lsn != NULL_LSN) {
+      lsn = undoStep(txn, lsn);
+    }
+  } //rollback
+
+  /**
+   * undoStep
+   *
+   * Undoes the record at the given LSN if it is an UPDATE or ALLOC, logging a
+   * compensation record for it.
+   *
+   * @return the LSN of the transaction's next record to undo
+   */
+  private long undoStep(Txn txn, long lsn) throws IOException {
+    LogRecord rec = readRecord(lsn);
+    if (rec == null) {
+      throw new IOException("Missing log record at " + lsn);
+    }
+    switch (rec.type) {
+      case LogRecord.UPDATE:
+        LogRecord clr = rec.compensation(txn.last_lsn);
+        txn.last_lsn = append(clr);
+        applyRecord(clr);
+        return rec.prev_lsn;
+      case LogRecord.ALLOC:
+        // logged first, so that a crash cannot free the run twice, once it
+        // may have gone to someone else
+        txn.last_lsn = append(rec.compensation(txn.last_lsn));
+        release(rec.pid, rec.run_size);
+        return rec.prev_lsn;
+      case LogRecord.CLR:
+        return rec.undo_next;
+      default:
+        return rec.prev_lsn;
+    }
+  } //undoStep
+
+  /**
+   * applyRecord
+   *
+   * Applies a record's after image to its page in the buffer pool, without
+   * logging the change again.
+   */
+  private void applyRecord(LogRecord rec) {
+    PageId pageno = new PageId(rec.pid);
+    Page page = new Page();
+    if (rec.type == LogRecord.FORMAT) {
+      // the page may be in the pool already, where a copy in would not reach
+      Minibase.BufferManager.pinPage(pageno, page, PIN_NOOP);
+      page.setBytes(0, rec.page, 0, rec.page.length);
+    } else {
+      Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+      rec.redo(page);
+    }
+    applying.set(rec.lsn);
+    try {
+      Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+    } finally {
+      applying.remove();
+    }
+  } //applyRecord
+
+  /**
+   * release
+   *
+   * Deallocates a run of pages, as a top action, dropping them from the
+   * buffer pool.  A page still pinned, which a rolled back transaction
+   * should not leave, stays allocated.
+   */
+  private void release(int pid, int run_size) {
+    beginTopAction();
+    try {
+      for (int i = 0; i < run_size; i++) {
+        try {
+          Minibase.BufferManager.freePage(new PageId(pid + i));
+        } catch (IllegalArgumentException exc) {
+          // leaked, rather than freed under its user
+        }
+      }
+    } finally {
+      endTopAction();
+    }
+  } //release
+
+  /**
+   * Reads the record with the given LSN from the log file.
+   *
+   * @return the record, or null if there is none there
+   */
+  private LogRecord readRecord(long lsn) throws IOException {
+    long position;
+    synchronized (this) {
+      position = positionOf(lsn);
+    }
+    if (lsn == NULL_LSN || position < LOG_HEADER) {
+      return null;
+    }
+    return LogRecord.read(channel, position, lsn);
+  }
+
+  /**
+   * Gets the position in the log file of the given LSN.  The caller holds
+   * this object's lock or the flush lock.
+   */
+  private long positionOf(long lsn) {
+    return lsn - base_lsn;
+  }
+
+  /**
+   * Writes the log file header, giving the LSN of the file's first byte, and
+   * forces it to disk.
+   */
+  private void writeHeader(long lsn) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+    header.putLong(0, lsn);
+    channel.write(header, 0);
+    channel.force(false);
+    base_lsn = lsn;
+  }
+
+  /**
+   * Gets the calling thread's transaction.
+   *
+   * @throws IllegalStateException if there is none
+   */
+  private Txn currentTxn() {
+    Txn txn = current.get();
+    if (txn == null) {
+      throw new IllegalStateException("No transaction running");
+    }
+    return txn;
+  }
+
+  /**
+   * Forgets a finished transaction.
+   */
+  private void end(Txn txn) {
+    active.remove(txn.id);
+    current.remove();
+  }
+
+  /**
+   * Gets the running transactions and their last LSNs.
+   */
+  protected Map<Integer, Long> activeTransactions() {
+    HashMap<Integer, Long> txns = new HashMap<Integer, Long>();
+    for (Txn txn : active.values()) {
+      txns.put(txn.id, txn.last_lsn);
+    }
+    return txns;
+  }
+
+  /**
+   * A running transaction: its id, the LSN of its latest record, and the
+   * pages it freed, to deallocate when it commits.
+   */
+  protected static class Txn {
+
+    final int id;
+    volatile long last_lsn;
+    final ArrayList<Integer> frees;
+
+    Txn(int id) {
+      this.id = id;
+      this.last_lsn = NULL_LSN;
+      this.frees = new ArrayList<Integer>();
+    }
+
+  } // protected static class Txn
+
+} // public class LogMgr implements GlobalConst
@@ -0,0 +1,411 @@
+package logmgr;
+
+import global.Page;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A record in the write-ahead log.  Every record has a header: its total
+ * length, its type, the transaction it belongs to (0 for changes made outside
+ * a transaction), the LSN of that transaction's previous record, the page it
+ * changes, and for compensation records the LSN of the next record to undo.
+ * A CRC of the rest follows the body, so that a record torn by a crash is
+ * recognized as the end of the log.
+ * <br><br>
+ * Changes to a page are logged as the ranges of bytes that differ, with the
+ * bytes before and after (UPDATE); undoing one logs the restored bytes alone
+ * (CLR).  A new page, brought into the pool from memory rather than read
+ * from disk, is logged whole (FORMAT), since its old contents are unknown
+ * and do not matter; it is not undone.  Undo puts back only the bytes an
+ * UPDATE changed, not those merged in between them, which others may have
+ * changed since.
+ * <br><br>
+ * Pages allocated in a transaction are logged as a run (ALLOC), after the
+ * space-map changes themselves, which are logged outside the transaction.
+ * Undoing it logs a CLR without ranges, then deallocates the run.
+ * <br><br>
+ * A CHECKPOINT records where restart may begin: the running transactions
+ * with their last LSNs, and the dirty pages with the LSN of the first record
+ * each is missing on disk.
+ */
+class LogRecord {
+
+  /** A change to a page: byte ranges with before and after images. */
+  protected static final byte UPDATE = 1;
+
+  /** A compensation record: the bytes restored by undoing an UPDATE. */
+  protected static final byte CLR = 2;
+
+  /** A whole page image, written over whatever the page held. */
+  protected static final byte FORMAT = 3;
+
+  /** A transaction committed. */
+  protected static final byte COMMIT = 4;
+
+  /** A transaction started rolling back. */
+  protected static final byte ABORT = 5;
+
+  /** A transaction finished; nothing more will be logged for it. */
+  protected static final byte END = 6;
+
+  /** A checkpoint: the transaction table and the dirty page table. */
+  protected static final byte CHECKPOINT = 7;
+
+  /** A run of pages allocated by a transaction. */
+  protected static final byte ALLOC = 8;
+
+  /** Size of the header: length, type, txn, prev_lsn, pid, undo_next. */
+  protected static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 4 + 8;
+
+  /** Size of the CRC after the body. */
+  protected static final int CRC_SIZE = 4;
+
+  /** Changed ranges less than this many bytes apart are logged as one. */
+  protected static final int MERGE_GAP = 8;
+
+  // --------------------------------------------------------------------------
+
+  /** Position of the record in the log, and its length when read from it;
+   * not stored in it. */
+  long lsn;
+  int length;
+
+  byte type;
+
+  int txn;
+
+  long prev_lsn;
+
+  int pid;
+
+  long undo_next;
+
+  /** Start and length of each changed range, for UPDATE and CLR. */
+  int[] offsets;
+  int[] lengths;
+
+  /** The bytes of every range, one after another; before is null for CLR. */
+  byte[] before;
+  byte[] after;
+
+  /** The page image, for FORMAT. */
+  byte[] page;
+
+  /** For ALLOC: the number of pages allocated, from pid on. */
+  int run_size;
+
+  /** For CHECKPOINT: where redo starts, the end of the log when the dirty
+   * pages were listed, and the next transaction id. */
+  long redo_lsn;
+  long dpt_lsn;
+  int next_txn;
+
+  /** For CHECKPOINT: the running transactions and their last LSNs. */
+  int[] txn_ids;
+  long[] txn_lsns;
+
+  /** For CHECKPOINT: the dirty pages and their first missing LSNs. */
+  int[] dpt_pids;
+  long[] dpt_lsns;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a record without a body.
+   */
+  protected LogRecord(byte type, int txn, long prev_lsn, int pid) {
+    this.type = type;
+    this.txn = txn;
+    this.prev_lsn = prev_lsn;
+    this.pid = pid;
+    this.undo_next = LogMgr.NULL_LSN;
+  }
+
+  /**
+   * diff
+   *
+   * Makes an UPDATE record from the bytes that differ between two images of
+   * a page.
+   *
+   * @return the record, or null if the images are the same
+   */
+  protected static LogRecord diff(int txn, long prev_lsn, int pid,
+      byte[] old_data, byte[] new_data) {
+
+    int n = new_data.length;
+    int i = Arrays.mismatch(old_data, new_data);
+    if (i < 0) {
+      return null;
+    }
+
+    // find each run of changed bytes, bridging short gaps
+    int[] starts = new int[8];
+    int[] ends = new int[8];
+    int count = 0;
+    int total = 0;
+    while (i >= 0) {
+      int end = i + 1;
+      int k = end;
+      for (; k < n && k - end < MERGE_GAP; k++) {
+        if (old_data[k] != new_data[k]) {
+          end = k + 1;
+        }
+      }
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+        ends = Arrays.copyOf(ends, count * 2);
+      }
+      starts[count] = i;
+      ends[count] = end;
+      count++;
+      total += end - i;
+      int next = k < n ? Arrays.mismatch(old_data, k, n, new_data, k, n) : -1;
+      i = next < 0 ? -1 : k + next;
+    }
+
+    LogRecord rec = new LogRecord(UPDATE, txn, prev_lsn, pid);
+    rec.offsets = Arrays.copyOf(starts, count);
+    rec.lengths = new int[count];
+    rec.before = new byte[total];
+    rec.after = new byte[total];
+    for (int r = 0, at = 0; r < count; r++) {
+      int len = ends[r] - starts[r];
+      rec.lengths[r] = len;
+      System.arraycopy(old_data, starts[r], rec.before, at, len);
+      System.arraycopy(new_data, starts[r], rec.after, at, len);
+      at += len;
+    }
+    return rec;
+
+  } // protected static LogRecord diff(...)
+
+  /**
+   * Makes the compensation record that undoes this UPDATE or ALLOC.  For an
+   * UPDATE, it restores the bytes that changed, and none of those in between
+   * that were logged with them; for an ALLOC, it has no ranges, and only
+   * marks the run as deallocated.
+   */
+  protected LogRecord compensation(long clr_prev_lsn) {
+    LogRecord clr = new LogRecord(CLR, txn, clr_prev_lsn, pid);
+    clr.undo_next = prev_lsn;
+    int n = (type == UPDATE) ? before.length : 0;
+    int[] starts = new int[n];
+    int[] lens = new int[n];
+    byte[] image = new byte[n];
+    int count = 0;
+    int total = 0;
+    for (int r = 0, at = 0; at < n; at += lengths[r++]) {
+      for (int i = 0; i < lengths[r]; ) {
+        if (before[at + i] == after[at + i]) {
+          i++;
+          continue;
+        }
+        int end = i + 1;
+        while (end < lengths[r] && before[at + end] != after[at + end]) {
+          end++;
+        }
+        starts[count] = offsets[r] + i;
+        lens[count] = end - i;
+        System.arraycopy(before, at + i, image, total, end - i);
+        total += end - i;
+        count++;
+        i = end;
+      }
+    }
+    clr.offsets = Arrays.copyOf(starts, count);
+    clr.lengths = Arrays.copyOf(lens, count);
+    clr.after = Arrays.copyOf(image, total);
+    return clr;
+  }
+
+  /**
+   * Applies the record's after image to the page.
+   */
+  protected void redo(Page data) {
+    if (type == FORMAT) {
+      data.setBytes(0, page, 0, page.length);
+    } else if (type == UPDATE || type == CLR) {
+      apply(after, data);
+    }
+  }
+
+  /**
+   * Applies an UPDATE's before image to the page.
+   */
+  protected void undo(Page data) {
+    apply(before, data);
+  }
+
+  /**
+   * Tells whether the record changes a page.
+   */
+  protected boolean isRedoable() {
+    return type == UPDATE || type == FORMAT
+        || (type == CLR && offsets.length > 0);
+  }
+
+  /**
+   * Copies the ranges of the given image into the page.
+   */
+  private void apply(byte[] image, Page data) {
+    for (int r = 0, at = 0; r < offsets.length; r++) {
+      data.setBytes(offsets[r], image, at, lengths[r]);
+      at += lengths[r];
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Serializes the record, with its length and CRC.
+   */
+  protected byte[] toBytes() {
+
+    int body = 0;
+    if (type == FORMAT) {
+      body = 4 + page.length;
+    } else if (type == UPDATE || type == CLR) {
+      body = 4 + offsets.length * 8 + after.length
+          + (before == null ? 0 : before.length);
+    } else if (type == CHECKPOINT) {
+      body = 8 + 8 + 4 + 4 + txn_ids.length * 12 + 4 + dpt_pids.length * 12;
+    } else if (type == ALLOC) {
+      body = 4;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + body + CRC_SIZE);
+    buf.putInt(buf.capacity()).put(type).putInt(txn).putLong(prev_lsn)
+        .putInt(pid).putLong(undo_next);
+
+    if (type == FORMAT) {
+      buf.putInt(page.length).put(page);
+    } else if (type == UPDATE || type == CLR) {
+      buf.putInt(offsets.length);
+      for (int r = 0; r < offsets.length; r++) {
+        buf.putInt(offsets[r]).putInt(lengths[r]);
+      }
+      if (type == UPDATE) {
+        buf.put(before);
+      }
+      buf.put(after);
+    } else if (type == CHECKPOINT) {
+      buf.putLong(redo_lsn).putLong(dpt_lsn).putInt(next_txn);
+      buf.putInt(txn_ids.length);
+      for (int t = 0; t < txn_ids.length; t++) {
+        buf.putInt(txn_ids[t]).putLong(txn_lsns[t]);
+      }
+      buf.putInt(dpt_pids.length);
+      for (int p = 0; p < dpt_pids.length; p++) {
+        buf.putInt(dpt_pids[p]).putLong(dpt_lsns[p]);
+      }
+    } else if (type == ALLOC) {
+      buf.putInt(run_size);
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), 4, buf.position() - 4);
+    buf.putInt((int) crc.getValue());
+    return buf.array();
+
+  } // protected byte[] toBytes()
+
+  /**
+   * read
+   *
+   * Reads the record at the given position of the log file, and sets its
+   * LSN.
+   *
+   * @return the record, or null if the log ends there or the record is torn
+   */
+  protected static LogRecord read(FileChannel channel, long position, long lsn)
+      throws IOException {
+
+    // the length, then the rest
+    ByteBuffer len_buf = ByteBuffer.allocate(4);
+    if (!readFully(channel, len_buf, position)) {
+      return null;
+    }
+    int length = len_buf.getInt(0);
+    if (length < HEADER_SIZE + CRC_SIZE || position + length > channel.size()) {
+      return null;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(length);
+    if (!readFully(channel, buf, position)) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), 4, length - 4 - CRC_SIZE);
+    if ((int) crc.getValue() != buf.getInt(length - CRC_SIZE)) {
+      return null;
+    }
+
+    // parse the header and the body
+    buf.position(4);
+    LogRecord rec = new LogRecord(buf.get(), buf.getInt(), buf.getLong(),
+        buf.getInt());
+    rec.undo_next = buf.getLong();
+    rec.lsn = lsn;
+    if (rec.type == FORMAT) {
+      rec.page = new byte[buf.getInt()];
+      buf.get(rec.page);
+    } else if (rec.type == UPDATE || rec.type == CLR) {
+      int count = buf.getInt();
+      rec.offsets = new int[count];
+      rec.lengths = new int[count];
+      int total = 0;
+      for (int r = 0; r < count; r++) {
+        rec.offsets[r] = buf.getInt();
+        rec.lengths[r] = buf.getInt();
+        total += rec.lengths[r];
+      }
+      if (rec.type == UPDATE) {
+        rec.before = new byte[total];
+        buf.get(rec.before);
+      }
+      rec.after = new byte[total];
+      buf.get(rec.after);
+    } else if (rec.type == CHECKPOINT) {
+      rec.redo_lsn = buf.getLong();
+      rec.dpt_lsn = buf.getLong();
+      rec.next_txn = buf.getInt();
+      int count = buf.getInt();
+      rec.txn_ids = new int[count];
+      rec.txn_lsns = new long[count];
+      for (int t = 0; t < count; t++) {
+        rec.txn_ids[t] = buf.getInt();
+        rec.txn_lsns[t] = buf.getLong();
+      }
+      count = buf.getInt();
+      rec.dpt_pids = new int[count];
+      rec.dpt_lsns = new long[count];
+      for (int p = 0; p < count; p++) {
+        rec.dpt_pids[p] = buf.getInt();
+        rec.dpt_lsns[p] = buf.getLong();
+      }
+    } else if (rec.type == ALLOC) {
+      rec.run_size = buf.getInt();
+    }
+    rec.length = length;
+    return rec;
+
+  } // protected static LogRecord read(...)
+
+  /**
+   * Reads from the channel at the given position until the buffer is full.
+   *
+   * @return false if the file ends first
+   */
+  private static boolean readFully(FileChannel channel, ByteBuffer buf,
+      long position) throws IOException {
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, position + buf.position()) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+} // class LogRecord
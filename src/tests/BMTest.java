@@ -1,10 +1,15 @@
 package tests;
 
-import global.Convert;
 import global.Minibase;
 import global.Page;
+import bufmgr.BufMgr;
+import bufmgr.PageReader;
+import global.Convert;
 import global.PageId;
 
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
 /**
  * Test suite for the bufmgr layer.
  */
@@ -13,21 +18,47 @@ class BMTest extends TestDriver {
   /** The display name of the test suite. */
   private static final String TEST_NAME = "buffer manager tests";
 
+  /** Hot pages in test 12, as a fraction of the pool. */
+  private static final double HOT_FRACTION = 0.4;
+
+  /** Pages scanned once in test 12, as a multiple of the pool. */
+  private static final int SCAN_MULTIPLE = 10;
+
+  /** Policies test 12 expects to keep the hot pages through a scan. */
+  private static final String[] SCAN_RESISTANT = { "LRU-K", "2Q", "ARC" };
+
   /**
-   * Test application entry point; runs all tests.
+   * Test application entry point; runs all tests under each replacement
+   * policy given, or under all of them.
    */
   public static void main(String argv[]) {
 
-    // create a clean Minibase instance
-    BMTest bmt = new BMTest();
-    bmt.create_minibase();
-
-    // run all the test cases
-    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    String[] policies = (argv.length > 0) ? argv : POLICIES;
     boolean status = PASS;
-    status &= bmt.test1();
-    status &= bmt.test2();
-    status &= bmt.test3();
+    for (String policy : policies) {
+
+      // create a clean Minibase instance
+      BMTest bmt = new BMTest();
+      bmt.BUF_POLICY = policy;
+      bmt.create_minibase();
+
+      // run all the test cases
+      System.out.println("\n" + "Running " + TEST_NAME + "...");
+      status &= bmt.test1();
+      status &= bmt.test2();
+      status &= bmt.test3();
+      status &= bmt.test4();
+      status &= bmt.test5();
+      status &= bmt.test6();
+      status &= bmt.test7();
+      status &= bmt.test8();
+      status &= bmt.test9();
+      status &= bmt.test10();
+      status &= bmt.test11();
+      status &= bmt.test13();
+      Minibase.DiskManager.destroyDB();
+    }
+    status &= new BMTest().test12(policies);
 
     // display the final results
     System.out.println();
@@ -96,7 +127,7 @@ class BMTest extends TestDriver {
         // unlikely that this bit pattern would show up there by
         // coincidence.
         int data = pid.pid + 99999;
-        Convert.setIntValue(data, 0, pg.getData());
+        pg.setIntValue(data, 0);
 
         if (status == PASS) {
           try {
@@ -129,7 +160,7 @@ class BMTest extends TestDriver {
       if (status == PASS) {
 
         int data = 0;
-        data = Convert.getIntValue(0, pg.getData());
+        data = pg.getIntValue(0);
 
         if (status == PASS) {
           if (data != (pid.pid) + 99999) {
@@ -356,7 +387,7 @@ class BMTest extends TestDriver {
         // coincidence.
         int data = pid.pid + 99999;
 
-        Convert.setIntValue(data, 0, pg.getData());
+        pg.setIntValue(data, 0);
 
         // Leave the page pinned if it equals 12 mod 20. This is a
         // random number based loosely on a bug report.
@@ -390,7 +421,7 @@ class BMTest extends TestDriver {
         if (status == PASS) {
 
           int data = 0;
-          data = Convert.getIntValue(0, pg.getData());
+          data = pg.getIntValue(0);
 
           if (data != pid.pid + 99999) {
             status = FAIL;
@@ -429,4 +460,1380 @@ class BMTest extends TestDriver {
 
   } // protected boolean test3 ()
 
+  /**
+   * 
+   */
+  protected boolean test4() {
+
+    System.out.print("\n  Test 4 pins pages from several threads at once\n");
+
+    // twice as many pages as frames, so that the threads also contend on
+    // replacement and on misses of the same pages
+    final int numPages = BUF_SIZE * 2;
+    final int numPins = 20000;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    final PageId[] pids = new PageId[numPages];
+    boolean status = PASS;
+
+    System.out.print("  - Allocate and write " + numPages + " new pages\n");
+    for (int index = 0; status == PASS && index < numPages; ++index) {
+      try {
+        pid = Minibase.BufferManager.newPage(pg, 1);
+        pids[index] = pid;
+        pg.setIntValue(pid.pid + 99999, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not allocate new page number " + index
+            + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    for (int numThreads = 1; status == PASS && numThreads <= 8; numThreads *= 2) {
+
+      System.out.print("  - Pin and check random pages from " + numThreads
+          + " thread(s)\n");
+      final boolean[] results = new boolean[numThreads];
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final int id = t;
+        threads[t] = new Thread() {
+          public void run() {
+            java.util.Random rand = new java.util.Random(74 + id);
+            Page page = new Page();
+            PageId tpid = new PageId();
+            results[id] = PASS;
+            try {
+              for (int i = 0; i < numPins; i++) {
+                tpid.pid = pids[rand.nextInt(numPages)].pid;
+                Minibase.BufferManager.pinPage(tpid, page, PIN_DISKIO);
+                int data = page.getIntValue(0);
+                Minibase.BufferManager.unpinPage(tpid, UNPIN_CLEAN);
+                if (data != tpid.pid + 99999) {
+                  results[id] = FAIL;
+                  System.err.print("*** Read wrong data back from page "
+                      + tpid.pid + "\n");
+                  return;
+                }
+              }
+            } catch (Exception e) {
+              results[id] = FAIL;
+              System.err.print("*** Thread " + id + " failed\n");
+              e.printStackTrace();
+            }
+          }
+        };
+      }
+
+      long start = System.nanoTime();
+      for (int t = 0; t < numThreads; t++) {
+        threads[t].start();
+      }
+      for (int t = 0; t < numThreads; t++) {
+        try {
+          threads[t].join();
+        } catch (InterruptedException e) {
+          status = FAIL;
+        }
+        status &= results[t];
+      }
+      long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+      System.out.print("    " + (numThreads * (long) numPins * 1000 / millis)
+          + " pins/sec\n");
+    }
+
+    if (status == PASS
+        && Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager
+            .getNumBuffers()) {
+      status = FAIL;
+      System.err.print("*** The threads have left pages pinned\n");
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      for (int index = 0; index < numPages; ++index) {
+        try {
+          Minibase.BufferManager.freePage(pids[index]);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pids[index].pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 4 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test4 ()
+
+  /**
+   * 
+   */
+  protected boolean test5() {
+
+    System.out.print("\n  Test 5 cleans dirty pages with the background "
+        + "page writer\n");
+
+    // enough pages to fill the pool, plus as many again to force eviction
+    int numPages = BUF_SIZE * 2;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId[] pids = new PageId[numPages];
+    boolean status = PASS;
+
+    System.out.print("  - Start the page writer\n");
+    try {
+      Minibase.BufferManager.startPageWriter(0.5, 0.75);
+    } catch (Exception e) {
+      System.err.print("*** Could not start the page writer\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    // the writer may start before the pool is full, so count from here
+    long writes = Minibase.DiskManager.getWriteCount();
+    System.out.print("  - Fill the pool with dirty pages\n");
+    for (int index = 0; status == PASS && index < BUF_SIZE; ++index) {
+      try {
+        pid = Minibase.BufferManager.newPage(pg, 1);
+        pids[index] = pid;
+        pg.setIntValue(pid.pid + 99999, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not allocate new page number " + index
+            + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Wait for the writer to clean them\n");
+      long deadline = System.currentTimeMillis() + 5000;
+      while (Minibase.DiskManager.getWriteCount() - writes < BUF_SIZE / 2
+          && System.currentTimeMillis() < deadline) {
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+      if (Minibase.DiskManager.getWriteCount() - writes < BUF_SIZE / 2) {
+        status = FAIL;
+        System.err.print("*** The page writer did not write the dirty pages\n");
+      }
+    }
+
+    System.out.print("  - Allocate and write more pages than fit\n");
+    for (int index = BUF_SIZE; status == PASS && index < numPages; ++index) {
+      try {
+        pid = Minibase.BufferManager.newPage(pg, 1);
+        pids[index] = pid;
+        pg.setIntValue(pid.pid + 99999, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not allocate new page number " + index
+            + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read every page back\n");
+      for (int index = 0; status == PASS && index < numPages; ++index) {
+        try {
+          Minibase.BufferManager.pinPage(pids[index], pg, PIN_DISKIO);
+          int data = pg.getIntValue(0);
+          Minibase.BufferManager.unpinPage(pids[index], UNPIN_CLEAN);
+          if (data != pids[index].pid + 99999) {
+            status = FAIL;
+            System.err.print("*** Read wrong data back from page "
+                + pids[index].pid + "\n");
+          }
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not pin page " + pids[index].pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    Minibase.BufferManager.stopPageWriter();
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      for (int index = 0; index < numPages; ++index) {
+        try {
+          Minibase.BufferManager.freePage(pids[index]);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pids[index].pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 5 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test5 ()
+
+  /**
+   * 
+   */
+  protected boolean test6() {
+
+    System.out.print("\n  Test 6 pins runs of consecutive pages\n");
+
+    // more pages than frames, so that most runs are read from disk
+    int numPages = BUF_SIZE * 3;
+    int runSize = 16;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    boolean status = PASS;
+
+    System.out.print("  - Allocate and write a run of " + numPages
+        + " pages\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages
+          + " new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+    for (int index = 0; status == PASS && index < numPages; ++index) {
+      pid.pid = firstPid.pid + index;
+      try {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        pg.setIntValue(pid.pid + 99999, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not write page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Pin and check them " + runSize + " at a time\n");
+      Page[] pages = new Page[runSize];
+      for (int i = 0; i < runSize; i++) {
+        pages[i] = new Page();
+      }
+      for (int index = 0; status == PASS && index < numPages; index += runSize) {
+        int n = Math.min(runSize, numPages - index);
+        pid.pid = firstPid.pid + index;
+        try {
+          Minibase.BufferManager.pinRun(pid, n, pages);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not pin the run at page " + pid.pid
+              + "\n");
+          e.printStackTrace();
+          break;
+        }
+        for (int i = 0; i < n; i++) {
+          PageId tpid = new PageId(pid.pid + i);
+          if (pages[i].getIntValue(0) != tpid.pid + 99999) {
+            status = FAIL;
+            System.err.print("*** Read wrong data back from page " + tpid.pid
+                + "\n");
+          }
+          try {
+            Minibase.BufferManager.unpinPage(tpid, UNPIN_CLEAN);
+          } catch (Exception e) {
+            status = FAIL;
+            System.err.print("*** Could not unpin page " + tpid.pid + "\n");
+            e.printStackTrace();
+          }
+        }
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Try to pin a run longer than the pool\n");
+      Page[] pages = new Page[BUF_SIZE + 1];
+      for (int i = 0; i < pages.length; i++) {
+        pages[i] = new Page();
+      }
+      try {
+        Minibase.BufferManager.pinRun(firstPid, pages.length, pages);
+        status = FAIL;
+        System.err.print("*** Pinned a run longer than the pool\n");
+      } catch (IllegalStateException e) {
+        System.out.print("  --> Failed as expected \n");
+      }
+      if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager
+          .getNumBuffers()) {
+        status = FAIL;
+        System.err.print("*** The failed run left pages pinned\n");
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        try {
+          Minibase.BufferManager.freePage(pid);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 6 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test6 ()
+
+  /**
+   * 
+   */
+  protected boolean test7() {
+
+    System.out.print("\n  Test 7 pins without copies: new pages zeroed in "
+        + "place, PIN_NOOP, and misses read straight into the frame\n");
+
+    // more pages than frames, so that the reads all miss
+    int numPages = BUF_SIZE * 3;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    boolean status = PASS;
+
+    System.out.print("  - Allocate " + numPages + " pages, the first zeroed "
+        + "in place\n");
+    try {
+      pg.setIntValue(-1, 0);
+      firstPid = Minibase.BufferManager.newPage(pg, numPages, PIN_NOOP);
+      for (int offset = 0; offset < pg.getSize(); offset += 4) {
+        if (pg.getIntValue(offset) != 0) {
+          status = FAIL;
+          System.err.print("*** New page is not zeroed at " + offset + "\n");
+          break;
+        }
+      }
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate " + numPages
+          + " new pages in the database.\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    System.out.print("  - Fill the pages through PIN_NOOP\n");
+    for (int index = 0; status == PASS && index < numPages; ++index) {
+      pid.pid = firstPid.pid + index;
+      try {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        pg.setIntValue(pid.pid + 99999, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not write page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Read them back, counting the bytes allocated\n");
+      com.sun.management.ThreadMXBean threads = null;
+      if (ManagementFactory.getThreadMXBean()
+          instanceof com.sun.management.ThreadMXBean) {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+      }
+      long tid = Thread.currentThread().getId();
+      long allocated = threads == null ? 0
+          : threads.getThreadAllocatedBytes(tid);
+      long reads = Minibase.DiskManager.getReadCount();
+      for (int index = 0; status == PASS && index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        try {
+          Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+          if (pg.getIntValue(0) != pid.pid + 99999) {
+            status = FAIL;
+            System.err.print("*** Read wrong data back from page " + pid.pid
+                + "\n");
+          }
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not read page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+      reads = Minibase.DiskManager.getReadCount() - reads;
+      if (threads != null && status == PASS) {
+        allocated = threads.getThreadAllocatedBytes(tid) - allocated;
+        System.out.print("  - " + reads + " reads, " + allocated / numPages
+            + " bytes allocated per pin\n");
+        // a miss allocates only bookkeeping: 16 bytes under Clock and LRU,
+        // and up to about 150 where the replacer keeps entries of its own
+        if (allocated / numPages >= Minibase.PageSize / 4) {
+          status = FAIL;
+          System.err.print("*** Misses allocate page-sized buffers\n");
+        }
+      }
+      if (reads < numPages / 2) {
+        status = FAIL;
+        System.err.print("*** Only " + reads + " of " + numPages
+            + " pins read from disk\n");
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        try {
+          Minibase.BufferManager.freePage(pid);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 7 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test7 ()
+
+  /**
+   * 
+   */
+  protected boolean test8() {
+
+    System.out.print("\n  Test 8 reads pages optimistically while other "
+        + "threads change and evict them\n");
+
+    // twice as many pages as frames, so that frames are remapped meanwhile
+    final int numPages = BUF_SIZE * 2;
+    final int numThreads = 4;
+    final long runMillis = 1000;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    boolean status = PASS;
+
+    System.out.print("  - Allocate and write " + numPages + " pages\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages, PIN_NOOP);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        pg.fillBytes(0, pg.getSize(), (byte) 0);
+        pg.setIntValue(pid.pid, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+    } catch (Exception e) {
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    // each page holds its id, then a value repeated; writers copy in whole
+    // new pages, which the buffer manager does a word at a time, and only
+    // while no one has the page pinned; readers check that they only see
+    // whole pages
+    System.out.print("  - Run " + numThreads + " writers and " + numThreads
+        + " optimistic readers for " + runMillis + " ms\n");
+    final PageId first = firstPid;
+    final boolean[] running = { true };
+    final int[] errors = new int[1];
+    final long[] reads = new long[numThreads];
+    Thread[] threads = new Thread[numThreads * 2];
+    for (int t = 0; t < threads.length; t++) {
+      final int id = t;
+      final boolean writer = (t % 2 == 0);
+      threads[t] = new Thread() {
+        public void run() {
+          java.util.Random random = new java.util.Random(id);
+          final Page page = new Page();
+          byte[] image = new byte[page.getSize()];
+          final PageId tpid = new PageId();
+          PageReader<Boolean> check = new PageReader<Boolean>() {
+            public Boolean read(Page p) {
+              if (page.getIntValue(0) != tpid.pid) {
+                return false;
+              }
+              int value = page.getIntValue(4);
+              for (int offset = 8; offset < page.getSize(); offset += 4) {
+                if (page.getIntValue(offset) != value) {
+                  return false;
+                }
+              }
+              return true;
+            }
+          };
+          try {
+            while (running[0]) {
+              tpid.pid = first.pid + random.nextInt(numPages);
+              if (writer) {
+                int value = random.nextInt();
+                Convert.setIntValue(tpid.pid, 0, image);
+                for (int offset = 4; offset < image.length; offset += 4) {
+                  Convert.setIntValue(value, offset, image);
+                }
+                page.setData(image);
+                try {
+                  Minibase.BufferManager.pinPage(tpid, page, PIN_MEMCPY);
+                } catch (IllegalArgumentException e) {
+                  // someone has it pinned; pick another
+                  continue;
+                }
+                Minibase.BufferManager.unpinPage(tpid, UNPIN_DIRTY);
+              } else {
+                if (!Minibase.BufferManager.readPage(tpid, page, check)) {
+                  synchronized (errors) {
+                    errors[0]++;
+                  }
+                }
+                reads[id / 2]++;
+              }
+            }
+          } catch (IllegalStateException e) {
+            // the pool was momentarily full of pins; just stop
+          } catch (RuntimeException e) {
+            e.printStackTrace();
+            synchronized (errors) {
+              errors[0]++;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    try {
+      Thread.sleep(runMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    running[0] = false;
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        status = FAIL;
+      }
+    }
+    long total = 0;
+    for (long count : reads) {
+      total += count;
+    }
+    System.out.print("  - " + total + " reads, " + errors[0] + " torn\n");
+    if (errors[0] != 0 || total == 0) {
+      status = FAIL;
+      System.err.print("*** Optimistic reads saw pages being changed\n");
+    }
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager
+        .getNumBuffers()) {
+      status = FAIL;
+      System.err.print("*** The threads left pages pinned\n");
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        try {
+          Minibase.BufferManager.freePage(pid);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 8 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test8 ()
+
+  /**
+   * 
+   */
+  protected boolean test9() {
+
+    System.out.print("\n  Test 9 follows frame hints from a pinned page, "
+        + "before and after the pages they refer to are evicted\n");
+
+    // children and other pages enough to push the children out
+    int numChildren = BUF_SIZE / 2;
+    int numOthers = BUF_SIZE * 2;
+    Page parent = new Page();
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId parentPid = null;
+    PageId firstPid = null;
+    int parentFrame = BufMgr.NO_FRAME;
+    boolean status = PASS;
+
+    System.out.print("  - Allocate a parent and " + (numChildren + numOthers)
+        + " more pages\n");
+    try {
+      parentPid = Minibase.BufferManager.newPage(parent, 1, PIN_NOOP);
+      Minibase.BufferManager.unpinPage(parentPid, UNPIN_DIRTY);
+      firstPid = Minibase.BufferManager.newPage(pg, numChildren + numOthers,
+          PIN_NOOP);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+      parentFrame = Minibase.BufferManager.pinChild(BufMgr.NO_FRAME, 0,
+          parentPid, parent, PIN_DISKIO);
+    } catch (Exception e) {
+      System.err.print("*** Could not allocate the pages\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    System.out.print("  - Write the children through the parent\n");
+    for (int index = 0; status == PASS && index < numChildren; ++index) {
+      pid.pid = firstPid.pid + index;
+      try {
+        int frame = Minibase.BufferManager.pinChild(parentFrame, index, pid,
+            pg, PIN_NOOP);
+        pg.setIntValue(pid.pid + 99999, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY, frame);
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Could not write page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+    }
+
+    // the first pass finds the children where the references point, the
+    // others after the frames have been given to other pages
+    for (int pass = 1; status == PASS && pass <= 2; pass++) {
+      System.out.print("  - Read the children back through the parent"
+          + (pass == 1 ? "" : ", after evicting them") + "\n");
+      for (int index = 0; status == PASS && index < numChildren; ++index) {
+        pid.pid = firstPid.pid + index;
+        try {
+          int frame = Minibase.BufferManager.pinChild(parentFrame, index,
+              pid, pg, PIN_DISKIO);
+          if (pg.getIntValue(0) != pid.pid + 99999) {
+            status = FAIL;
+            System.err.print("*** Read wrong data back from page " + pid.pid
+                + "\n");
+          }
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN, frame);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not read page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+      for (int index = 0; status == PASS && index < numOthers; ++index) {
+        pid.pid = firstPid.pid + numChildren + index;
+        try {
+          Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+          pg.setIntValue(-1, 0);
+          Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Could not write page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      try {
+        Minibase.BufferManager.unpinPage(parentPid, UNPIN_CLEAN, parentFrame);
+        Minibase.BufferManager.freePage(parentPid);
+        for (int index = 0; index < numChildren + numOthers; ++index) {
+          pid.pid = firstPid.pid + index;
+          Minibase.BufferManager.freePage(pid);
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error freeing the pages\n");
+        e.printStackTrace();
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 9 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test9 ()
+
+  /**
+   * 
+   */
+  protected boolean test10() {
+
+    System.out.print("\n  Test 10 grows and shrinks the pool while other "
+        + "threads pin pages\n");
+
+    // three times as many pages as frames, and sizes either side of that
+    final int numPages = BUF_SIZE * 3;
+    final int numThreads = 4;
+    final int smallest = 16;
+    int[] sizes = { BUF_SIZE * 2, BUF_SIZE / 2, BUF_SIZE * 3 / 2, smallest,
+        BUF_SIZE * 4, smallest, BUF_SIZE };
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    boolean status = PASS;
+
+    System.out.print("  - Allocate and write " + numPages + " pages\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages, PIN_NOOP);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        pg.fillBytes(0, pg.getSize(), (byte) 0);
+        pg.setIntValue(pid.pid, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+    } catch (Exception e) {
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    // each thread writes a count of its own into each page it pins, and
+    // checks that the page still holds its id and the last count written,
+    // wherever the page has been since
+    System.out.print("  - Run " + numThreads + " threads while resizing the "
+        + "pool to " + java.util.Arrays.toString(sizes) + " frames\n");
+    final PageId first = firstPid;
+    final boolean[] running = { true };
+    final int[] errors = new int[1];
+    final long[] pins = new long[numThreads];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        public void run() {
+          java.util.Random random = new java.util.Random(id);
+          Page page = new Page();
+          PageId tpid = new PageId();
+          int[] written = new int[numPages];
+          int offset = 4 * (id + 1);
+          try {
+            while (running[0]) {
+              int index = random.nextInt(numPages);
+              tpid.pid = first.pid + index;
+              try {
+                Minibase.BufferManager.pinPage(tpid, page, PIN_DISKIO);
+              } catch (IllegalStateException e) {
+                // the pool is momentarily full of pins; try again
+                Thread.yield();
+                continue;
+              }
+              if (page.getIntValue(0) != tpid.pid
+                  || page.getIntValue(offset) != written[index]) {
+                synchronized (errors) {
+                  errors[0]++;
+                }
+              }
+              written[index]++;
+              page.setIntValue(written[index], offset);
+              Minibase.BufferManager.unpinPage(tpid, UNPIN_DIRTY);
+              pins[id]++;
+            }
+          } catch (RuntimeException e) {
+            e.printStackTrace();
+            synchronized (errors) {
+              errors[0]++;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    for (int size : sizes) {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      // before shrinking to the smallest size, hold a page in a frame that
+      // is going away; it must stay usable until let go
+      int held = BufMgr.NO_FRAME;
+      PageId heldPid = new PageId();
+      Page heldPage = new Page();
+      if (size == smallest) {
+        for (int index = 0; held == BufMgr.NO_FRAME && index < numPages;
+            ++index) {
+          heldPid.pid = firstPid.pid + index;
+          try {
+            int frame = Minibase.BufferManager.pinChild(BufMgr.NO_FRAME, 0,
+                heldPid, heldPage, PIN_DISKIO);
+            if (frame >= size) {
+              held = frame;
+            } else {
+              Minibase.BufferManager.unpinPage(heldPid, UNPIN_CLEAN, frame);
+            }
+          } catch (IllegalStateException e) {
+            // full for the moment
+          }
+        }
+      }
+
+      Minibase.BufferManager.resize(size);
+      if (Minibase.BufferManager.getNumBuffers() != size) {
+        status = FAIL;
+        System.err.print("*** The pool has "
+            + Minibase.BufferManager.getNumBuffers() + " frames, not " + size
+            + "\n");
+      }
+
+      if (held != BufMgr.NO_FRAME) {
+        try {
+          if (heldPage.getIntValue(0) != heldPid.pid) {
+            status = FAIL;
+            System.err.print("*** The held page changed in the shrink\n");
+          }
+          Minibase.BufferManager.pinPage(heldPid, pg, PIN_DISKIO);
+          if (pg.getIntValue(0) != heldPid.pid) {
+            status = FAIL;
+            System.err.print("*** The held page could not be pinned again\n");
+          }
+          Minibase.BufferManager.unpinPage(heldPid, UNPIN_CLEAN);
+          Minibase.BufferManager.unpinPage(heldPid, UNPIN_CLEAN, held);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error using the held page\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    running[0] = false;
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        status = FAIL;
+      }
+    }
+    long total = 0;
+    for (long count : pins) {
+      total += count;
+    }
+    System.out.print("  - " + total + " pins, " + errors[0] + " errors\n");
+    if (errors[0] != 0 || total == 0) {
+      status = FAIL;
+      System.err.print("*** The threads saw pages lose their contents\n");
+    }
+    if (Minibase.BufferManager.getNumBuffers() != BUF_SIZE
+        || Minibase.BufferManager.getNumUnpinned() != BUF_SIZE) {
+      status = FAIL;
+      System.err.print("*** The pool has "
+          + Minibase.BufferManager.getNumUnpinned() + " of "
+          + Minibase.BufferManager.getNumBuffers() + " frames unpinned, not "
+          + BUF_SIZE + "\n");
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        try {
+          Minibase.BufferManager.freePage(pid);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 10 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test10 ()
+
+  /**
+   * 
+   */
+  protected boolean test11() {
+
+    System.out.print("\n  Test 11 allocates and frees pages while other "
+        + "threads replace pages\n");
+
+    // the other threads miss all the time, so the replacer keeps claiming
+    // frames, including those of this thread's unpinned pages
+    final int numPages = BUF_SIZE * 3;
+    final int numThreads = 3;
+    final int rounds = 2000;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    boolean status = PASS;
+
+    System.out.print("  - Allocate " + numPages + " shared pages\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages,
+          PIN_NOOP);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        pg.fillBytes(0, pg.getSize(), (byte) 0);
+        pg.setIntValue(pid.pid, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+    } catch (Exception e) {
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    final PageId first = firstPid;
+    final boolean[] running = { true };
+    final int[] errors = new int[1];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        public void run() {
+          java.util.Random random = new java.util.Random(id);
+          Page page = new Page();
+          PageId tpid = new PageId();
+          try {
+            while (running[0]) {
+              tpid.pid = first.pid + random.nextInt(numPages);
+              Minibase.BufferManager.pinPage(tpid, page, PIN_DISKIO);
+              if (page.getIntValue(0) != tpid.pid) {
+                synchronized (errors) {
+                  errors[0]++;
+                }
+              }
+              Minibase.BufferManager.unpinPage(tpid, UNPIN_CLEAN);
+            }
+          } catch (RuntimeException e) {
+            e.printStackTrace();
+            synchronized (errors) {
+              errors[0]++;
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    // allocate and free pages, reading each freed page back into the pool
+    // so that the next new page is likely to find a stale copy of itself
+    // there; none of these may fail
+    System.out.print("  - Allocate, free and read back pages "
+        + rounds + " times with " + numThreads + " threads missing\n");
+    byte[] data = new byte[pg.getSize()];
+    int failures = 0;
+    for (int round = 0; round < rounds; round++) {
+      try {
+        Convert.setIntValue(round, 4, data);
+        pg.setData(data.clone());
+        PageId newPid = Minibase.BufferManager.newPage(pg, 1);
+        if (pg.getIntValue(4) != round) {
+          status = FAIL;
+          System.err.print("*** New page " + newPid.pid + " missed its copy\n");
+        }
+        Minibase.BufferManager.unpinPage(newPid, UNPIN_DIRTY);
+        Minibase.BufferManager.freePage(newPid);
+        Minibase.BufferManager.pinPage(newPid, pg, PIN_DISKIO);
+        Minibase.BufferManager.unpinPage(newPid, UNPIN_CLEAN);
+      } catch (IllegalArgumentException e) {
+        failures++;
+      } catch (IllegalStateException e) {
+        // the pool is momentarily full of pins
+      }
+    }
+
+    running[0] = false;
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        status = FAIL;
+      }
+    }
+    System.out.print("  - " + failures + " calls took an unpinned page for "
+        + "a pinned one, " + errors[0] + " errors\n");
+    if (failures != 0 || errors[0] != 0) {
+      status = FAIL;
+      System.err.print("*** Calls on unpinned pages failed\n");
+    }
+
+    // a copy into a page already in the pool only pins it, and a page that
+    // is not pinned still refuses an unpin
+    pid.pid = firstPid.pid;
+    try {
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      Convert.setIntValue(-1, 0, data);
+      Minibase.BufferManager.pinPage(pid, new Page(data.clone()), PIN_MEMCPY);
+      if (pg.getIntValue(0) != pid.pid) {
+        status = FAIL;
+        System.err.print("*** A copy went over a page in the pool\n");
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      boolean refused = false;
+      try {
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      } catch (IllegalArgumentException e) {
+        refused = true;
+      }
+      if (!refused) {
+        status = FAIL;
+        System.err.print("*** An unpinned page was unpinned\n");
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Error checking a pinned page\n");
+      e.printStackTrace();
+    }
+
+    // a new page replaces a stale copy of itself that is still in the pool
+    System.out.print("  - Reallocate a freed page that was read back\n");
+    try {
+      Convert.setIntValue(1, 4, data);
+      pg.setData(data.clone());
+      PageId oldPid = Minibase.BufferManager.newPage(pg, 1);
+      Minibase.BufferManager.unpinPage(oldPid, UNPIN_DIRTY);
+      Minibase.BufferManager.freePage(oldPid);
+      Minibase.BufferManager.pinPage(oldPid, pg, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(oldPid, UNPIN_CLEAN);
+      Convert.setIntValue(2, 4, data);
+      pg.setData(data.clone());
+      PageId newPid = Minibase.BufferManager.newPage(pg, 1);
+      Minibase.BufferManager.unpinPage(newPid, UNPIN_DIRTY);
+      Minibase.BufferManager.pinPage(newPid, pg, PIN_DISKIO);
+      if (newPid.pid != oldPid.pid || pg.getIntValue(4) != 2) {
+        status = FAIL;
+        System.err.print("*** Page " + newPid.pid + " kept its stale copy\n");
+      }
+      Minibase.BufferManager.unpinPage(newPid, UNPIN_CLEAN);
+      Minibase.BufferManager.freePage(newPid);
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Error reallocating a freed page\n");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.print("  - Free the pages again\n");
+      for (int index = 0; index < numPages; ++index) {
+        pid.pid = firstPid.pid + index;
+        try {
+          Minibase.BufferManager.freePage(pid);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 11 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test11 ()
+
+  /**
+   * Measures how many hits on a small hot set each policy keeps while a scan
+   * goes through many times as many pages, once each.
+   */
+  protected boolean test12(String[] policies) {
+
+    System.out.print("\n  Test 12 checks which policies keep a hot set "
+        + "through a scan\n");
+
+    final int numHot = (int) (BUF_SIZE * HOT_FRACTION);
+    final int numCold = BUF_SIZE * SCAN_MULTIPLE;
+    boolean status = PASS;
+    double clock = Double.NaN;
+    double[] ratios = new double[policies.length];
+
+    for (int p = 0; p < policies.length && status == PASS; p++) {
+      BUF_POLICY = policies[p];
+      create_minibase();
+      Page pg = new Page();
+      PageId pid = new PageId();
+      try {
+
+        // the hot pages come first, then the scanned ones
+        PageId firstPid = Minibase.BufferManager.newPage(pg, numHot + numCold,
+            PIN_NOOP);
+        Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+        for (int round = 0; round < 5; round++) {
+          for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numHot;
+              pid.pid++) {
+            Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+            Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+          }
+        }
+
+        // scan the cold pages, touching a hot page after every other one
+        int hotPins = 0;
+        long hotReads = 0;
+        for (int index = 0; index < numCold; index++) {
+          pid.pid = firstPid.pid + numHot + index;
+          Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+          if (index % 2 == 1) {
+            pid.pid = firstPid.pid + hotPins++ % numHot;
+            long reads = Minibase.DiskManager.getReadCount();
+            Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+            hotReads += Minibase.DiskManager.getReadCount() - reads;
+            Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+          }
+        }
+        ratios[p] = 1.0 - (double) hotReads / hotPins;
+        System.out.printf("  - %s keeps %.2f of the hot pins as hits\n",
+            BUF_POLICY, ratios[p]);
+      } catch (Exception e) {
+        System.err.print("*** Error scanning under " + BUF_POLICY + "\n");
+        e.printStackTrace();
+        status = FAIL;
+      }
+      Minibase.DiskManager.destroyDB();
+      if (BUF_POLICY.equalsIgnoreCase("Clock")) {
+        clock = ratios[p];
+      }
+    }
+
+    // a scan-resistant policy should keep most of what Clock loses
+    for (int p = 0; p < policies.length && status == PASS
+        && !Double.isNaN(clock);
+        p++) {
+      for (String resistant : SCAN_RESISTANT) {
+        if (policies[p].equalsIgnoreCase(resistant)
+            && ratios[p] < clock + 0.25) {
+          System.err.printf("*** %s kept %.2f of the hot pins as hits, "
+              + "against %.2f under Clock\n", policies[p], ratios[p], clock);
+          status = FAIL;
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 12 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test12 (String[] policies)
+
+  /**
+   * Checks the count of unpinned frames against the frame table through
+   * pins, unpins, frees and evictions, and through resizes, and checks that
+   * frames freed by freePage are used before any page is evicted.
+   */
+  protected boolean test13() {
+
+    System.out.print("\n  Test 13 checks the unpinned count and the free "
+        + "list\n");
+
+    final int numPages = BUF_SIZE * 2;
+    final int ops = 5000;
+    Page pg = new Page();
+    PageId pid = new PageId();
+    PageId firstPid = null;
+    boolean status = PASS;
+    initRandom();
+
+    System.out.print("  - Allocate and write " + numPages + " pages\n");
+    try {
+      firstPid = Minibase.BufferManager.newPage(pg, numPages, PIN_NOOP);
+      Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+      for (pid.pid = firstPid.pid; pid.pid < firstPid.pid + numPages;
+          pid.pid++) {
+        Minibase.BufferManager.pinPage(pid, pg, PIN_NOOP);
+        pg.setIntValue(pid.pid, 0);
+        Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      }
+    } catch (Exception e) {
+      System.err.print("*** Could not write the pages\n");
+      e.printStackTrace();
+      return false;
+    }
+
+    // pins held on each page; the page at an index may be a replacement
+    // for the one freed there
+    System.out.print("  - Pin, unpin, free and replace pages at random, "
+        + ops + " times\n");
+    HashMap<Integer, Integer> held = new HashMap<Integer, Integer>();
+    int[] pages = new int[numPages];
+    for (int index = 0; index < numPages; index++) {
+      pages[index] = firstPid.pid + index;
+    }
+    try {
+      for (int op = 0; op < ops && status == PASS; op++) {
+        int index = random.nextInt(numPages);
+        pid.pid = pages[index];
+        Integer pins = held.get(pid.pid);
+        int choice = random.nextInt(8);
+        if (choice < 4 && held.size() < BUF_SIZE / 2) {
+          // pinning a page not in the pool evicts another
+          Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+          held.put(pid.pid, (pins == null) ? 1 : pins + 1);
+        } else if (choice < 7 && pins != null) {
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+          if (pins == 1) {
+            held.remove(pid.pid);
+          } else {
+            held.put(pid.pid, pins - 1);
+          }
+        } else if (pins == null) {
+          Minibase.BufferManager.freePage(pid);
+          PageId fresh = Minibase.BufferManager.newPage(pg, 1, PIN_NOOP);
+          pg.setIntValue(fresh.pid, 0);
+          Minibase.BufferManager.unpinPage(fresh, UNPIN_DIRTY);
+          pages[index] = fresh.pid;
+        }
+        if (op % 100 == 0) {
+          status &= checkUnpinned(Minibase.BufferManager.getNumBuffers()
+              - held.size());
+        }
+      }
+
+      System.out.print("  - Resize the pool with " + held.size()
+          + " pages pinned\n");
+      int[] sizes = { BUF_SIZE / 2, BUF_SIZE * 2, BUF_SIZE / 4, BUF_SIZE };
+      for (int i = 0; i < sizes.length && status == PASS; i++) {
+        Minibase.BufferManager.resize(sizes[i]);
+        status &= checkUnpinned(-1);
+      }
+      for (Integer page : held.keySet()) {
+        pid.pid = page;
+        for (int pins = held.get(page); pins > 0; pins--) {
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        }
+      }
+      held.clear();
+      status &= checkUnpinned(Minibase.BufferManager.getNumBuffers());
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.print("*** Error at page " + pid.pid + "\n");
+      e.printStackTrace();
+    }
+
+    // partitions each have their own free list, so pages loaded afterwards
+    // need not land in the partitions of the freed ones
+    if (status == PASS && Minibase.BufferManager.getNumPartitions() == 1) {
+      System.out.print("  - Fill the pool, free a quarter of it, and load "
+          + "half as many other pages\n");
+      int[] resident = new int[BUF_SIZE];
+      System.arraycopy(pages, 0, resident, 0, BUF_SIZE);
+      try {
+        // holding every frame at once leaves exactly these pages resident
+        for (int index = 0; index < BUF_SIZE; index++) {
+          pid.pid = resident[index];
+          Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        }
+        for (int index = 0; index < BUF_SIZE; index++) {
+          pid.pid = resident[index];
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        }
+        // freeing reads in disk manager pages, which may take frames from
+        // the pages kept as well as freed ones, so only half as many pages
+        // are loaded as were freed
+        long loaded = Minibase.DiskManager.getReadCount();
+        for (int index = 0; index < BUF_SIZE; index += 4) {
+          pid.pid = resident[index];
+          Minibase.BufferManager.freePage(pid);
+        }
+        loaded = Minibase.DiskManager.getReadCount() - loaded;
+        for (int index = BUF_SIZE; index < BUF_SIZE + BUF_SIZE / 8; index++) {
+          pid.pid = pages[index];
+          Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+          Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+        }
+        long reads = Minibase.DiskManager.getReadCount();
+        for (int index = 0; index < BUF_SIZE; index++) {
+          if (index % 4 != 0) {
+            pid.pid = resident[index];
+            Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+            Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+          }
+        }
+        reads = Minibase.DiskManager.getReadCount() - reads;
+        if (reads > loaded) {
+          System.err.print("*** " + (reads - loaded) + " pages were evicted "
+              + "while freed frames were left\n");
+          status = FAIL;
+        }
+      } catch (Exception e) {
+        status = FAIL;
+        System.err.print("*** Error at page " + pid.pid + "\n");
+        e.printStackTrace();
+      }
+      for (int index = 0; index < BUF_SIZE; index += 4) {
+        pages[index] = INVALID_PAGEID;
+      }
+    }
+
+    System.out.print("  - Free the pages\n");
+    for (int index = 0; index < numPages; index++) {
+      if (pages[index] != INVALID_PAGEID) {
+        pid.pid = pages[index];
+        try {
+          Minibase.BufferManager.freePage(pid);
+        } catch (Exception e) {
+          status = FAIL;
+          System.err.print("*** Error freeing page " + pid.pid + "\n");
+          e.printStackTrace();
+        }
+      }
+    }
+
+    if (status == PASS)
+      System.out.print("  Test 13 completed successfully.\n");
+
+    return status;
+
+  } // protected boolean test13 ()
+
+  /**
+   * Checks that the pool's count of unpinned frames matches the frame
+   * table, and the given number unless it is -1.
+   */
+  private boolean checkUnpinned(int expected) {
+    int count = Minibase.BufferManager.getNumUnpinned();
+    int actual = Minibase.BufferManager.countUnpinned();
+    if (count != actual || (expected != -1 && count != expected)) {
+      System.err.print("*** The pool counts " + count + " frames unpinned; "
+          + "the frame table has " + actual
+          + (expected != -1 ? ", and " + expected + " were expected" : "")
+          + "\n");
+      return FAIL;
+    }
+    return PASS;
+  }
+
 } // class BMTest extends TestDriver
@@ -0,0 +1,188 @@
+package tests;
+
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of checkpoints under a pin-heavy load.  Several threads pin pages
+ * of a pool-sized working set at random, change them and unpin them dirty,
+ * while the main thread takes no checkpoints, back-to-back checkpoints that
+ * write as fast as they can, or checkpoints spread over a window.  It reports
+ * the pin-to-unpin latencies the threads saw.  Run it on its own:
+ * java tests.CheckpointBench
+ */
+class CheckpointBench extends TestDriver {
+
+  /** The display name of the benchmark. */
+  private static final String TEST_NAME = "checkpoint benchmark";
+
+  /** Number of pages in the working set; all fit in the pool. */
+  private static final int NUM_PAGES = 2000;
+
+  /** Number of threads pinning pages. */
+  private static final int NUM_THREADS = 4;
+
+  /** Time each configuration runs for, in milliseconds. */
+  private static final long RUN_MS = 2000;
+
+  /** Checkpoint windows to compare, in milliseconds; -1 takes none. */
+  private static final long[] WINDOWS = { -1, 0, 500 };
+
+  /** Most latencies kept per thread. */
+  private static final int MAX_SAMPLES = 1000000;
+
+  /** Number of times through all the configurations; the first warms up
+   * the JIT. */
+  private static final int ROUNDS = 2;
+
+  /**
+   * Benchmark entry point; runs every configuration in turn, with logging.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    Minibase.Logging = true;
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+      for (long window : WINDOWS) {
+        CheckpointBench bench = new CheckpointBench();
+        bench.BUF_SIZE = NUM_PAGES + 100;
+        bench.create_minibase();
+        status &= bench.run(window);
+        Minibase.DiskManager.destroyDB();
+      }
+    }
+    Minibase.Logging = false;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " runs completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Runs the load for RUN_MS, taking checkpoints with the given window.
+   */
+  protected boolean run(final long window) {
+
+    System.out.print("\n  Checkpoints: " + (window < 0 ? "none"
+        : window == 0 ? "back to back" : window + " ms window") + "\n");
+
+    // load the working set into the pool
+    Page page = new Page();
+    final PageId first = Minibase.BufferManager.newPage(page, NUM_PAGES);
+    Minibase.BufferManager.unpinPage(first, UNPIN_DIRTY);
+    for (int i = 1; i < NUM_PAGES; i++) {
+      PageId pid = new PageId(first.pid + i);
+      Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    Minibase.BufferManager.flushAllPages();
+
+    // start the threads, each keeping its latencies
+    final long[][] samples = new long[NUM_THREADS][MAX_SAMPLES];
+    final int[] counts = new int[NUM_THREADS];
+    final boolean[] running = { true };
+    final boolean[] failed = new boolean[1];
+    Thread[] threads = new Thread[NUM_THREADS];
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final int id = t;
+      threads[t] = new Thread() {
+        public void run() {
+          Random random = new Random(id);
+          Page mine = new Page();
+          PageId pid = new PageId();
+          try {
+            while (running[0] && counts[id] < MAX_SAMPLES) {
+              pid.pid = first.pid + random.nextInt(NUM_PAGES);
+              long start = System.nanoTime();
+              Minibase.BufferManager.pinPage(pid, mine, PIN_DISKIO);
+              mine.setIntValue(mine.getIntValue(4 * id) + 1, 4 * id);
+              Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+              samples[id][counts[id]++] = System.nanoTime() - start;
+            }
+          } catch (RuntimeException exc) {
+            exc.printStackTrace();
+            failed[0] = true;
+          }
+        }
+      };
+      threads[t].start();
+    }
+
+    // checkpoint until the time is up
+    int checkpoints = 0;
+    long end = System.currentTimeMillis() + RUN_MS;
+    while (System.currentTimeMillis() < end) {
+      if (window < 0) {
+        sleep(end - System.currentTimeMillis());
+      } else {
+        Minibase.BufferManager.checkpoint(window);
+        checkpoints++;
+      }
+    }
+    running[0] = false;
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException exc) {
+        failed[0] = true;
+      }
+    }
+
+    // merge and report the latencies
+    int total = 0;
+    for (int count : counts) {
+      total += count;
+    }
+    long[] all = new long[total];
+    for (int t = 0, at = 0; t < NUM_THREADS; t++) {
+      System.arraycopy(samples[t], 0, all, at, counts[t]);
+      at += counts[t];
+    }
+    Arrays.sort(all);
+    System.out.print("  - " + (long) total * 1000 / RUN_MS + " pins/sec, "
+        + checkpoints + " checkpoints, latency p50 " + percentile(all, 0.5)
+        + " us, p99 " + percentile(all, 0.99) + " us, p99.9 "
+        + percentile(all, 0.999) + " us, max "
+        + (total == 0 ? 0 : all[total - 1] / 1000) + " us\n");
+
+    return failed[0] ? FAIL : PASS;
+
+  } // protected boolean run (long window)
+
+  /**
+   * Gets the given fraction's latency from sorted samples, in microseconds.
+   */
+  private static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.min(sorted.length - 1,
+        Math.ceil(fraction * sorted.length) - 1);
+    return sorted[Math.max(0, index)] / 1000;
+  }
+
+  /**
+   * Sleeps for the given time, if positive.
+   */
+  private static void sleep(long ms) {
+    if (ms > 0) {
+      try {
+        Thread.sleep(ms);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+} // class CheckpointBench extends TestDriver
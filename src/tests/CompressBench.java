@@ -0,0 +1,129 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.Minibase;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapScan;
+
+import java.io.File;
+
+/**
+ * Benchmark of compressed page storage.  In channel and compressed mode it
+ * inserts records like HFTest's, a number and a short name padded out to a
+ * fixed length, into a heap file, then scans them through a buffer pool much
+ * smaller than the file, and reports the disk space and the bytes read per
+ * page.  Run it on its own: java tests.CompressBench
+ */
+class CompressBench extends TestDriver {
+
+  /** The display name of the benchmark. */
+  private static final String TEST_NAME = "compression benchmark";
+
+  /** Number of records inserted and scanned. */
+  private static final int NUM_RECS = 50000;
+
+  /** Size of each record, in bytes. */
+  private static final int REC_SIZE = 60;
+
+  /** The modes to compare, and their names. */
+  private static final int[] MODES = { DiskMgr.IO_CHANNEL,
+      DiskMgr.IO_COMPRESSED };
+  private static final String[] MODE_NAMES = { "channel", "compressed" };
+
+  /** Number of times through all the modes; the first warms up the JIT. */
+  private static final int ROUNDS = 2;
+
+  /**
+   * Benchmark entry point; runs every mode in turn.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+      for (int i = 0; i < MODES.length; i++) {
+        CompressBench bench = new CompressBench();
+        Minibase.IOMode = MODES[i];
+        bench.create_minibase();
+        status &= bench.run(MODE_NAMES[i]);
+        Minibase.DiskManager.destroyDB();
+      }
+    }
+    Minibase.IOMode = DiskMgr.IO_CHANNEL;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " runs completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Loads and scans the heap file in the current mode.
+   */
+  protected boolean run(String mode) {
+
+    System.out.print("\n  Mode: " + mode + "\n");
+    boolean status = PASS;
+    DiskMgr disk = Minibase.DiskManager;
+    HeapFile file = new HeapFile("bench_file");
+
+    // insert the records, each a number, a float, and a padded name
+    long start = System.nanoTime();
+    for (int i = 0; i < NUM_RECS; i++) {
+      byte[] record = new byte[REC_SIZE];
+      Convert.setIntValue(i, 0, record);
+      Convert.setFloatValue((float) (i * 2.5), 4, record);
+      Convert.setStringValue("record" + i, 8, record);
+      file.insertRecord(record);
+    }
+    Minibase.BufferManager.flushAllPages();
+    long size = new File(DB_PATH).length()
+        + new File(DB_PATH + DiskMgr.MAP_SUFFIX).length();
+    System.out.print("  - " + rate(NUM_RECS, start) + " inserts/sec, "
+        + size / 1024 + " KB on disk\n");
+
+    // scan them back, checking the count and the numbers
+    long reads = disk.getReadCount();
+    long bytes = disk.getBytesRead();
+    start = System.nanoTime();
+    HeapScan scan = file.openScan();
+    RID rid = new RID();
+    long sum = 0;
+    int count = 0;
+    while (scan.hasNext()) {
+      sum += Convert.getIntValue(0, scan.getNext(rid));
+      count++;
+    }
+    scan.close();
+    reads = disk.getReadCount() - reads;
+    bytes = disk.getBytesRead() - bytes;
+    System.out.print("  - " + rate(count, start) + " records/sec scanned, "
+        + reads + " pages read, " + bytes / Math.max(1, reads)
+        + " bytes per page\n");
+    if (count != NUM_RECS || sum != (long) NUM_RECS * (NUM_RECS - 1) / 2) {
+      System.err.print("*** Scanned " + count + " records, expected "
+          + NUM_RECS + "\n");
+      status = FAIL;
+    }
+
+    file.deleteFile();
+    return status;
+
+  } // protected boolean run (String mode)
+
+  /**
+   * Gets the number of operations per second since the given start time.
+   */
+  private static long rate(long ops, long start) {
+    long micros = Math.max(1, (System.nanoTime() - start) / 1000);
+    return ops * 1000000 / micros;
+  }
+
+} // class CompressBench extends TestDriver
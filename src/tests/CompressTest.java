@@ -0,0 +1,257 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test suite for compressed page storage.  Pages are written with contents
+ * that compress well and badly by turns, so that each write moves a page to
+ * a copy of another size, and the database is closed and opened again
+ * before every check, so that the page map is read back from its file.
+ */
+class CompressTest extends TestDriver {
+
+  /** The display name of the test suite. */
+  private static final String TEST_NAME = "compressed storage tests";
+
+  /** Number of pages written in each test; several times the pool. */
+  private static final int NUM_PAGES = 500;
+
+  /** Number of times test 3 overwrites the pages. */
+  private static final int ROUNDS = 10;
+
+  /**
+   * Test application entry point; runs all tests.
+   */
+  public static void main(String argv[]) {
+
+    // create a clean Minibase instance, storing pages compressed
+    Minibase.IOMode = DiskMgr.IO_COMPRESSED;
+    CompressTest ct = new CompressTest();
+    ct.delete_minibase();
+    ct.create_minibase();
+
+    // run all the test cases
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    PageId first = Minibase.BufferManager.newPage(new Page(), NUM_PAGES,
+        PIN_NOOP);
+    Minibase.BufferManager.unpinPage(first, UNPIN_DIRTY);
+    status &= ct.test1(first.pid);
+    status &= ct.test2(first.pid);
+    status &= ct.test3(first.pid);
+    Minibase.DiskManager.destroyDB();
+    Minibase.IOMode = DiskMgr.IO_CHANNEL;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Overwritten pages read back as last written once the database is
+   * reopened.
+   */
+  protected boolean test1(int first) {
+
+    System.out.print("\n  Test 1: Overwrite pages and reopen\n");
+    boolean status = PASS;
+
+    System.out.print("  - Write " + NUM_PAGES + " pages three times, "
+        + "forcing each time\n");
+    for (int round = 0; round < 3; round++) {
+      for (int pid = first; pid < first + NUM_PAGES; pid++) {
+        writePage(pid, round);
+      }
+      Minibase.BufferManager.flushAllPages();
+    }
+
+    System.out.print("  - Reopen and check the last writes\n");
+    reopen();
+    for (int pid = first; pid < first + NUM_PAGES && status == PASS; pid++) {
+      status &= checkPage(pid, 2);
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 1 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test1(int first)
+
+  /**
+   * Deallocated pages read as zeroes, and their space goes to the pages
+   * written after them, without disturbing the others.
+   */
+  protected boolean test2(int first) {
+
+    System.out.print("\n  Test 2: Deallocate pages, reuse them, and reopen\n");
+    boolean status = PASS;
+
+    System.out.print("  - Free every other page, overwrite the rest, and "
+        + "reopen\n");
+    for (int pid = first; pid < first + NUM_PAGES; pid += 2) {
+      Minibase.BufferManager.freePage(new PageId(pid));
+    }
+    for (int pid = first + 1; pid < first + NUM_PAGES; pid += 2) {
+      writePage(pid, 3);
+    }
+    Minibase.BufferManager.flushAllPages();
+    reopen();
+    for (int pid = first; pid < first + NUM_PAGES && status == PASS; pid++) {
+      status &= checkPage(pid, (pid - first) % 2 == 0 ? -1 : 3);
+    }
+
+    System.out.print("  - Allocate the freed pages again, write them, and "
+        + "reopen\n");
+    long length = fileLength();
+    for (int i = 0; i < NUM_PAGES / 2; i++) {
+      PageId pid = Minibase.BufferManager.newPage(new Page(), 1, PIN_NOOP);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+      if (pid.pid >= first + NUM_PAGES || (pid.pid - first) % 2 != 0) {
+        System.err.print("*** Page " + pid.pid + " was allocated, not a "
+            + "freed one\n");
+        status = FAIL;
+      }
+    }
+    for (int pid = first; pid < first + NUM_PAGES; pid += 2) {
+      writePage(pid, 4);
+    }
+    Minibase.BufferManager.flushAllPages();
+    reopen();
+    for (int pid = first; pid < first + NUM_PAGES && status == PASS; pid++) {
+      status &= checkPage(pid, (pid - first) % 2 == 0 ? 4 : 3);
+    }
+    if (fileLength() > length + length / 4) {
+      System.err.print("*** The files grew from " + length + " to "
+          + fileLength() + " bytes\n");
+      status = FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 2 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test2(int first)
+
+  /**
+   * Space freed by overwrites is reused once forced, so that the file stops
+   * growing.
+   */
+  protected boolean test3(int first) {
+
+    System.out.print("\n  Test 3: Overwrite pages " + ROUNDS
+        + " times, forcing each time\n");
+    boolean status = PASS;
+
+    long length = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int pid = first; pid < first + NUM_PAGES; pid++) {
+        writePage(pid, 5 + round);
+      }
+      Minibase.BufferManager.flushAllPages();
+      if (round == 1) {
+        length = fileLength();
+      }
+    }
+    System.out.print("  - The files went from " + length + " bytes after "
+        + "two rounds to " + fileLength() + "\n");
+    if (fileLength() > length + length / 4) {
+      System.err.print("*** The files kept growing\n");
+      status = FAIL;
+    }
+    reopen();
+    for (int pid = first; pid < first + NUM_PAGES && status == PASS; pid++) {
+      status &= checkPage(pid, 4 + ROUNDS);
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 3 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test3(int first)
+
+  /**
+   * Closes the database and opens it again.
+   */
+  private void reopen() {
+    Minibase.DiskManager.closeDB();
+    load_minibase();
+  }
+
+  /**
+   * Gets the size of the database file and its page map, in bytes.
+   */
+  private long fileLength() {
+    return new File(DB_PATH).length()
+        + new File(DB_PATH + DiskMgr.MAP_SUFFIX).length();
+  }
+
+  /**
+   * Writes the given round's contents to the given page.
+   */
+  private static void writePage(int pid, int round) {
+    PageId pageno = new PageId(pid);
+    Page page = new Page();
+    Minibase.BufferManager.pinPage(pageno, page, PIN_NOOP);
+    byte[] data = makePage(pid, round, page.getSize());
+    page.setBytes(0, data, 0, data.length);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+  }
+
+  /**
+   * Checks that the given page holds the given round's contents, or zeroes
+   * if the round is -1.
+   */
+  private static boolean checkPage(int pid, int round) {
+    PageId pageno = new PageId(pid);
+    Page page = new Page();
+    Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+    byte[] data = new byte[page.getSize()];
+    page.getBytes(0, data, 0, data.length);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_CLEAN);
+    byte[] expected = round < 0 ? new byte[data.length]
+        : makePage(pid, round, data.length);
+    if (!Arrays.equals(data, expected)) {
+      System.err.print("*** Page " + pid + " does not hold "
+          + (round < 0 ? "zeroes" : "round " + round) + "\n");
+      return FAIL;
+    }
+    return PASS;
+  }
+
+  /**
+   * Makes the contents of a page for a round: in even rounds a few values
+   * on zeroes, which compress well, and in odd rounds random bytes in a
+   * varying part of the page, which do not.
+   */
+  private static byte[] makePage(int pid, int round, int size) {
+    byte[] data = new byte[size];
+    Random random = new Random(pid * 31L + round);
+    if (round % 2 == 0) {
+      for (int i = 0; i < size; i += 64) {
+        data[i] = (byte) (pid + round);
+      }
+    } else {
+      int len = size / 4 + random.nextInt(size / 2);
+      for (int i = 0; i < len; i++) {
+        data[i] = (byte) random.nextInt();
+      }
+    }
+    return data;
+  }
+
+} // class CompressTest extends TestDriver
@@ -1,11 +1,16 @@
 package tests;
 
+import diskmgr.DiskMgr;
 import global.Convert;
 import global.Minibase;
+import global.Page;
+import global.PageId;
 import global.RID;
 import heap.HeapFile;
 import heap.HeapScan;
 
+import java.util.ArrayList;
+
 /**
  * Test suite for the heap layer.
  */
@@ -20,22 +25,33 @@ class HFTest extends TestDriver {
    */
   private static final int FILE_SIZE = 6500;
 
+  /** Number of pages per run allocated in test 5. */
+  private static final int RUN_SIZE = 1000;
+
   /**
-   * Test application entry point; runs all tests.
+   * Test application entry point; runs all tests under each replacement
+   * policy given, or under all of them.
    */
   public static void main(String argv[]) {
 
-    // create a clean Minibase instance
-    HFTest hft = new HFTest();
-    hft.create_minibase();
-
-    // run all the test cases
-    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    String[] policies = (argv.length > 0) ? argv : POLICIES;
     boolean status = PASS;
-    status &= hft.test1();
-    status &= hft.test2();
-    status &= hft.test3();
-    status &= hft.test4();
+    for (String policy : policies) {
+
+      // create a clean Minibase instance
+      HFTest hft = new HFTest();
+      hft.BUF_POLICY = policy;
+      hft.create_minibase();
+
+      // run all the test cases
+      System.out.println("\n" + "Running " + TEST_NAME + "...");
+      status &= hft.test1();
+      status &= hft.test2();
+      status &= hft.test3();
+      status &= hft.test4();
+      status &= hft.test5();
+      Minibase.DiskManager.destroyDB();
+    }
 
     // display the final results
     System.out.println();
@@ -671,7 +687,7 @@ class HFTest extends TestDriver {
 
     if (status == PASS) {
       System.out.println("  - Try to insert a record that's too long");
-      byte[] record = new byte[PAGE_SIZE + 4];
+      byte[] record = new byte[Minibase.PageSize + 4];
       try {
         rid = f.insertRecord(record);
         status = PASS;
@@ -701,6 +717,68 @@ class HFTest extends TestDriver {
 
   } // protected boolean test4()
 
+  /**
+   * Fills the database past its original size, so that the file grows.
+   */
+  protected boolean test5() {
+
+    System.out.println("\n  Test 5: Grow the database file\n");
+    boolean status = PASS;
+    DiskMgr dm = Minibase.DiskManager;
+    int start_pages = dm.getNumPages();
+    int start_allocs = dm.getAllocCount();
+    ArrayList<PageId> runs = new ArrayList<PageId>();
+    Page page = new Page();
+
+    System.out.println("  - Allocate runs of " + RUN_SIZE
+        + " pages until the file grows");
+    try {
+      while (dm.getNumPages() == start_pages
+          || runs.size() * RUN_SIZE < start_pages) {
+        PageId first = dm.allocate_page(RUN_SIZE);
+        PageId last = new PageId(first.pid + RUN_SIZE - 1);
+        page.setIntValue(last.pid, 0);
+        dm.write_page(last, page);
+        runs.add(first);
+      }
+    } catch (Exception e) {
+      status = FAIL;
+      System.err.println("*** Could not allocate past the end of the file\n");
+      e.printStackTrace();
+    }
+
+    if (status == PASS) {
+      System.out.println("  - Read the last page of each run back");
+      for (PageId first : runs) {
+        PageId last = new PageId(first.pid + RUN_SIZE - 1);
+        dm.read_page(last, page);
+        if (page.getIntValue(0) != last.pid) {
+          status = FAIL;
+          System.err.println("*** Read wrong data back from page " + last.pid
+              + "\n");
+          break;
+        }
+      }
+    }
+
+    System.out.println("  - Free the runs again");
+    for (PageId first : runs) {
+      dm.deallocate_page(first, RUN_SIZE);
+    }
+    if (status == PASS && dm.getAllocCount() > start_allocs
+        + dm.getNumPages() / (dm.getPageSize() * 8) + 1) {
+      status = FAIL;
+      System.err.println("*** Pages are still allocated: "
+          + (dm.getAllocCount() - start_allocs) + "\n");
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 5 completed successfully.\n");
+
+    return (status == PASS);
+
+  } // protected boolean test5()
+
   /**
    * Used in fixed-length record test cases.
    */
@@ -0,0 +1,202 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the disk manager's page I/O modes.  For each mode it writes a
+ * run of pages and then reads them back at random from a growing number of
+ * threads, going straight to the disk manager so that the buffer pool does
+ * not hide the I/O.  Then it compares buffered and direct I/O under buffer
+ * pools of several sizes, pinning pages at random.  Run it on its own:
+ * java tests.IOBench
+ */
+class IOBench extends TestDriver {
+
+  /** The display name of the benchmark. */
+  private static final String TEST_NAME = "disk I/O benchmark";
+
+  /** Number of pages written and read in each mode. */
+  private static final int NUM_PAGES = 4000;
+
+  /** Number of random reads per thread. */
+  private static final int NUM_READS = 20000;
+
+  /** The modes to compare, and their names. */
+  private static final int[] MODES = { DiskMgr.IO_STREAM, DiskMgr.IO_CHANNEL,
+      DiskMgr.IO_MAPPED, DiskMgr.IO_DIRECT };
+  private static final String[] MODE_NAMES = { "stream", "channel", "mapped",
+      "direct" };
+
+  /** Buffer pool sizes for comparing buffered and direct I/O, in frames. */
+  private static final int[] POOL_SIZES = { 50, 400, 3200 };
+
+  /** Number of random pins at each pool size. */
+  private static final int NUM_PINS = 40000;
+
+  /** Number of times through all the modes; the first warms up the JIT. */
+  private static final int ROUNDS = 2;
+
+  /**
+   * Benchmark entry point; runs every mode in turn.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+      for (int i = 0; i < MODES.length; i++) {
+        IOBench bench = new IOBench();
+        Minibase.IOMode = MODES[i];
+        bench.create_minibase();
+        status &= bench.run(MODE_NAMES[i]);
+        Minibase.DiskManager.destroyDB();
+      }
+    }
+
+    // buffered against direct I/O, under the buffer pool
+    System.out.println("\nBuffered and direct I/O by pool size");
+    for (int size : POOL_SIZES) {
+      for (int mode : new int[] { DiskMgr.IO_CHANNEL, DiskMgr.IO_DIRECT }) {
+        IOBench bench = new IOBench();
+        bench.BUF_SIZE = size;
+        Minibase.IOMode = mode;
+        bench.create_minibase();
+        status &= bench.runPool(mode == DiskMgr.IO_DIRECT ? "direct" : "buffered");
+        Minibase.DiskManager.destroyDB();
+      }
+    }
+    Minibase.IOMode = DiskMgr.IO_CHANNEL;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " runs completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Times the writes and the random reads in the current mode.
+   */
+  protected boolean run(String mode) {
+
+    System.out.print("\n  Mode: " + mode + "\n");
+    boolean status = PASS;
+    final PageId first = Minibase.DiskManager.allocate_page(NUM_PAGES);
+
+    // write every page once, tagged with its page number
+    Page pg = new Page();
+    PageId pid = new PageId();
+    long start = System.nanoTime();
+    for (int i = 0; i < NUM_PAGES; i++) {
+      pid.pid = first.pid + i;
+      pg.setIntValue(pid.pid + 99999, 0);
+      Minibase.DiskManager.write_page(pid, pg);
+    }
+    System.out.print("  - " + rate(NUM_PAGES, start)
+        + " sequential writes/sec\n");
+
+    // read them back at random from more and more threads
+    for (int numThreads = 1; status == PASS && numThreads <= 8; numThreads *= 2) {
+      final boolean[] results = new boolean[numThreads];
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final int id = t;
+        threads[t] = new Thread() {
+          public void run() {
+            Random rand = new Random(74 + id);
+            Page page = new Page();
+            PageId tpid = new PageId();
+            results[id] = PASS;
+            for (int i = 0; i < NUM_READS; i++) {
+              tpid.pid = first.pid + rand.nextInt(NUM_PAGES);
+              Minibase.DiskManager.read_page(tpid, page);
+              if (page.getIntValue(0) != tpid.pid + 99999) {
+                results[id] = FAIL;
+                System.err.print("*** Read wrong data back from page "
+                    + tpid.pid + "\n");
+                return;
+              }
+            }
+          }
+        };
+      }
+      start = System.nanoTime();
+      for (int t = 0; t < numThreads; t++) {
+        threads[t].start();
+      }
+      for (int t = 0; t < numThreads; t++) {
+        try {
+          threads[t].join();
+        } catch (InterruptedException e) {
+          status = FAIL;
+        }
+        status &= results[t];
+      }
+      System.out.print("  - " + rate(numThreads * NUM_READS, start)
+          + " random reads/sec from " + numThreads + " thread(s)\n");
+    }
+
+    Minibase.DiskManager.deallocate_page(first, NUM_PAGES);
+    return status;
+
+  } // protected boolean run (String mode)
+
+  /**
+   * Times random pins through the buffer pool in the current mode.
+   */
+  protected boolean runPool(String mode) {
+
+    System.out.print("\n  Pool of " + BUF_SIZE + " frames, " + mode + " I/O\n");
+    boolean status = PASS;
+    PageId first = Minibase.DiskManager.allocate_page(NUM_PAGES);
+
+    // write every page once, tagged with its page number
+    Page pg = new Page();
+    PageId pid = new PageId();
+    for (int i = 0; i < NUM_PAGES; i++) {
+      pid.pid = first.pid + i;
+      pg.setIntValue(pid.pid + 99999, 0);
+      Minibase.DiskManager.write_page(pid, pg);
+    }
+
+    // pin them at random, a few at a time from a hot tenth of the pages
+    Random rand = new Random(74);
+    long reads = Minibase.DiskManager.getReadCount();
+    long start = System.nanoTime();
+    for (int i = 0; status == PASS && i < NUM_PINS; i++) {
+      int range = (i % 4 == 0) ? NUM_PAGES : NUM_PAGES / 10;
+      pid.pid = first.pid + rand.nextInt(range);
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      if (pg.getIntValue(0) != pid.pid + 99999) {
+        status = FAIL;
+        System.err.print("*** Read wrong data back from page " + pid.pid
+            + "\n");
+      }
+      Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    }
+    System.out.print("  - " + rate(NUM_PINS, start) + " pins/sec, "
+        + (Minibase.DiskManager.getReadCount() - reads) + " reads\n");
+
+    Minibase.DiskManager.deallocate_page(first, NUM_PAGES);
+    return status;
+
+  } // protected boolean runPool (String mode)
+
+  /**
+   * Gets the number of operations per second since the given start time.
+   */
+  private static long rate(long ops, long start) {
+    long micros = Math.max(1, (System.nanoTime() - start) / 1000);
+    return ops * 1000000 / micros;
+  }
+
+} // class IOBench extends TestDriver
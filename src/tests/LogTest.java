@@ -0,0 +1,625 @@
+package tests;
+
+import global.Convert;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapScan;
+import logmgr.LogMgr;
+
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Test suite for the log manager.  A crash is simulated by opening the
+ * database again without closing it, so that the buffer pool and the part of
+ * the log not yet forced are lost.
+ */
+class LogTest extends TestDriver {
+
+  /** The display name of the test suite. */
+  private static final String TEST_NAME = "log manager tests";
+
+  /** Number of records in the committed file; many more than fit in the
+   * pool, so that pages are written before commit. */
+  private static final int FILE_SIZE = 5000;
+
+  /** Number of threads committing at once in test 4. */
+  private static final int NUM_THREADS = 8;
+
+  /** Number of transactions each thread commits in test 4. */
+  private static final int TXNS_PER_THREAD = 50;
+
+  /** Time the checkpoint in test 5 spreads its writes over, in ms. */
+  private static final long CHECKPOINT_WINDOW = 200;
+
+  /** Number of threads allocating at once in test 7, one of which rolls
+   * back. */
+  private static final int ALLOC_THREADS = 4;
+
+  /** Number of records each thread in test 7 inserts, and how many it
+   * inserts before waiting for the others. */
+  private static final int ALLOC_RECORDS = 2000;
+  private static final int ALLOC_STEP = 50;
+
+  /**
+   * Test application entry point; runs all tests.
+   */
+  public static void main(String argv[]) {
+
+    // create a clean Minibase instance, with logging
+    Minibase.Logging = true;
+    LogTest lt = new LogTest();
+    lt.delete_minibase();
+    lt.create_minibase();
+
+    // run all the test cases
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    status &= lt.test1();
+    status &= lt.test2();
+    status &= lt.test3();
+    status &= lt.test4();
+    status &= lt.test5();
+    status &= lt.test6();
+    status &= lt.test7();
+    Minibase.DiskManager.destroyDB();
+    Minibase.Logging = false;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Committed records survive a crash.
+   */
+  protected boolean test1() {
+
+    System.out.print("\n  Test 1: Recover committed records after a crash\n");
+    boolean status = PASS;
+    LogMgr log = Minibase.LogManager;
+
+    System.out.print("  - Insert " + FILE_SIZE + " records and commit\n");
+    log.begin();
+    HeapFile file = new HeapFile("committed");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      file.insertRecord(makeRecord(i));
+    }
+    long writes = Minibase.DiskManager.getWriteCount();
+    log.commit();
+    if (Minibase.DiskManager.getWriteCount() != writes) {
+      System.err.print("*** Commit wrote pages\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Crash, recover, and scan the records\n");
+    load_minibase();
+    status &= checkFile("committed", FILE_SIZE);
+
+    if (status == PASS) {
+      System.out.print("  Test 1 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test1()
+
+  /**
+   * An unfinished transaction is rolled back by recovery, even if its pages
+   * were written before the crash.
+   */
+  protected boolean test2() {
+
+    System.out.print("\n  Test 2: Undo an unfinished transaction after a crash\n");
+    boolean status = PASS;
+    LogMgr log = Minibase.LogManager;
+    int allocs = Minibase.DiskManager.getAllocCount();
+
+    System.out.print("  - Insert into a new file and the committed one, "
+        + "and write every page\n");
+    log.begin();
+    HeapFile file = new HeapFile("uncommitted");
+    HeapFile committed = new HeapFile("committed");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      file.insertRecord(makeRecord(i));
+      committed.insertRecord(makeRecord(FILE_SIZE + i));
+    }
+    Minibase.BufferManager.flushAllPages();
+
+    System.out.print("  - Crash, recover, and check that nothing changed\n");
+    load_minibase();
+    if (Minibase.DiskManager.get_file_entry("uncommitted") != null) {
+      System.err.print("*** The new file survived\n");
+      status = FAIL;
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.err.print("*** " + (Minibase.DiskManager.getAllocCount() - allocs)
+          + " pages are still allocated\n");
+      status = FAIL;
+    }
+    status &= checkFile("committed", FILE_SIZE);
+
+    if (status == PASS) {
+      System.out.print("  Test 2 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test2()
+
+  /**
+   * Aborting a transaction rolls it back at once.
+   */
+  protected boolean test3() {
+
+    System.out.print("\n  Test 3: Abort a transaction\n");
+    boolean status = PASS;
+    LogMgr log = Minibase.LogManager;
+    int allocs = Minibase.DiskManager.getAllocCount();
+
+    System.out.print("  - Delete half the records, insert new ones, and abort\n");
+    log.begin();
+    HeapFile file = new HeapFile("committed");
+    HeapScan scan = file.openScan();
+    RID rid = new RID();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.getNext(rid);
+      if (count++ % 2 == 0) {
+        file.deleteRecord(new RID(rid.pageno, rid.slotno));
+      }
+    }
+    scan.close();
+    for (int i = 0; i < FILE_SIZE; i++) {
+      file.insertRecord(makeRecord(-i));
+    }
+    log.abort();
+
+    if (log.getActiveCount() != 0) {
+      System.err.print("*** The transaction is still running\n");
+      status = FAIL;
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.err.print("*** " + (Minibase.DiskManager.getAllocCount() - allocs)
+          + " pages are still allocated\n");
+      status = FAIL;
+    }
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager
+        .getNumBuffers()) {
+      System.err.print("*** The abort left pages pinned\n");
+      status = FAIL;
+    }
+    status &= checkFile("committed", FILE_SIZE);
+
+    System.out.print("  - Check that the abort itself survives a crash\n");
+    load_minibase();
+    status &= checkFile("committed", FILE_SIZE);
+
+    if (status == PASS) {
+      System.out.print("  Test 3 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test3()
+
+  /**
+   * Concurrent commits share log forces.
+   */
+  protected boolean test4() {
+
+    System.out.print("\n  Test 4: Group commit\n");
+    boolean status = PASS;
+    final LogMgr log = Minibase.LogManager;
+
+    // give each thread a page of its own
+    final PageId[] pids = new PageId[NUM_THREADS];
+    for (int t = 0; t < NUM_THREADS; t++) {
+      pids[t] = Minibase.BufferManager.newPage(new Page(), 1);
+      Minibase.BufferManager.unpinPage(pids[t], UNPIN_DIRTY);
+    }
+
+    System.out.print("  - " + NUM_THREADS + " threads commit "
+        + TXNS_PER_THREAD + " transactions each\n");
+    long commits = log.getCommitCount();
+    long flushes = log.getFlushCount();
+    final boolean[] failed = new boolean[1];
+    Thread[] threads = new Thread[NUM_THREADS];
+    long start = System.nanoTime();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final PageId pid = pids[t];
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            Page page = new Page();
+            for (int i = 1; i <= TXNS_PER_THREAD; i++) {
+              log.begin();
+              Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+              page.setIntValue(i, 0);
+              Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+              log.commit();
+            }
+          } catch (RuntimeException exc) {
+            exc.printStackTrace();
+            failed[0] = true;
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException exc) {
+        failed[0] = true;
+      }
+    }
+    long micros = Math.max(1, (System.nanoTime() - start) / 1000);
+    commits = log.getCommitCount() - commits;
+    flushes = log.getFlushCount() - flushes;
+    System.out.print("  - " + commits + " commits, " + flushes
+        + " log forces, " + commits * 1000000 / micros + " commits/sec\n");
+    if (failed[0] || commits != NUM_THREADS * TXNS_PER_THREAD) {
+      System.err.print("*** Not every transaction committed\n");
+      status = FAIL;
+    }
+    if (flushes >= commits) {
+      System.err.print("*** Every commit forced the log itself\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Crash, recover, and check the pages\n");
+    load_minibase();
+    Page page = new Page();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      Minibase.BufferManager.pinPage(pids[t], page, PIN_DISKIO);
+      if (page.getIntValue(0) != TXNS_PER_THREAD) {
+        System.err.print("*** Page " + pids[t].pid + " holds "
+            + page.getIntValue(0) + ", not " + TXNS_PER_THREAD + "\n");
+        status = FAIL;
+      }
+      Minibase.BufferManager.unpinPage(pids[t], UNPIN_CLEAN);
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 4 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test4()
+
+  /**
+   * Recovery starts from the last checkpoint, taken while a transaction was
+   * making changes.
+   */
+  protected boolean test5() {
+
+    System.out.print("\n  Test 5: Recover from a fuzzy checkpoint\n");
+    boolean status = PASS;
+    LogMgr log = Minibase.LogManager;
+    int allocs = Minibase.DiskManager.getAllocCount();
+
+    System.out.print("  - Commit a new file, then checkpoint while another "
+        + "transaction inserts\n");
+    log.begin();
+    HeapFile file = new HeapFile("checkpointed");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      file.insertRecord(makeRecord(i));
+    }
+    log.commit();
+    int committed_allocs = Minibase.DiskManager.getAllocCount();
+    Thread checkpointer = new Thread() {
+      public void run() {
+        Minibase.BufferManager.checkpoint(CHECKPOINT_WINDOW);
+      }
+    };
+    log.begin();
+    checkpointer.start();
+    HeapFile loser = new HeapFile("committed");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      loser.insertRecord(makeRecord(FILE_SIZE + i));
+    }
+    try {
+      checkpointer.join();
+    } catch (InterruptedException exc) {
+      status = FAIL;
+    }
+
+    System.out.print("  - Crash, recover, and check the files\n");
+    long records = log.getRecordCount();
+    load_minibase();
+    long redone = Minibase.LogManager.getRedoCount();
+    System.out.print("  - Redid " + redone + " of " + records
+        + " log records\n");
+    if (redone >= records) {
+      System.err.print("*** Recovery did not start from the checkpoint\n");
+      status = FAIL;
+    }
+    if (Minibase.DiskManager.getAllocCount() != committed_allocs
+        || committed_allocs <= allocs) {
+      System.err.print("*** " + Minibase.DiskManager.getAllocCount()
+          + " pages allocated, expected " + committed_allocs + "\n");
+      status = FAIL;
+    }
+    status &= checkFile("checkpointed", FILE_SIZE);
+    status &= checkFile("committed", FILE_SIZE);
+
+    if (status == PASS) {
+      System.out.print("  Test 5 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test5()
+
+  /**
+   * A page changed in the pool is put back by abort and by recovery,
+   * and recovery reaches pages added by growth the first page on disk does
+   * not show yet.
+   */
+  protected boolean test6() {
+
+    System.out.print("\n  Test 6: Undo a change to a page in the pool, and "
+        + "redo growth\n");
+    boolean status = PASS;
+    LogMgr log = Minibase.LogManager;
+
+    System.out.print("  - Commit a page, then overwrite it and abort\n");
+    log.begin();
+    Page page = new Page();
+    PageId pid = Minibase.BufferManager.newPage(page, 1);
+    fillPage(page, 'A');
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    log.commit();
+    Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    log.begin();
+    overwrite(pid, 'B');
+    log.abort();
+    status &= checkPage(pid, 'A', "after the abort");
+
+    System.out.print("  - Overwrite it again, write it, and crash\n");
+    log.begin();
+    overwrite(pid, 'C');
+    Minibase.BufferManager.flushAllPages();
+    load_minibase();
+    log = Minibase.LogManager;
+    status &= checkPage(pid, 'A', "after recovery");
+
+    System.out.print("  - Grow the file, fill its last page, commit, and "
+        + "crash\n");
+    int old_size = Minibase.DiskManager.getNumPages();
+    log.begin();
+    PageId run = Minibase.BufferManager.newPage(page, old_size);
+    Minibase.BufferManager.unpinPage(run, UNPIN_DIRTY);
+    PageId last = new PageId(run.pid + old_size - 1);
+    Minibase.BufferManager.pinPage(last, page, PIN_NOOP);
+    fillPage(page, 'D');
+    Minibase.BufferManager.unpinPage(last, UNPIN_DIRTY);
+    log.commit();
+    if (last.pid < old_size) {
+      System.err.print("*** The file did not grow\n");
+      status = FAIL;
+    }
+    load_minibase();
+    if (Minibase.DiskManager.getNumPages() <= last.pid) {
+      System.err.print("*** Recovery lost the growth\n");
+      status = FAIL;
+    } else {
+      status &= checkPage(last, 'D', "in the grown file");
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 6 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test6()
+
+  /**
+   * Transactions allocating pages at the same time keep each other's pages
+   * when one of them rolls back, by abort or by recovery.
+   */
+  protected boolean test7() {
+
+    System.out.print("\n  Test 7: Roll back one of " + ALLOC_THREADS
+        + " transactions allocating at once\n");
+    boolean status = PASS;
+
+    System.out.print("  - Insert into a new file each, and abort one\n");
+    status &= allocateAndRollBack("abort", false);
+
+    System.out.print("  - Insert into a new file each, and crash before one "
+        + "ends\n");
+    status &= allocateAndRollBack("crash", true);
+
+    if (status == PASS) {
+      System.out.print("  Test 7 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test7()
+
+  /**
+   * Runs test 7: each thread inserts into a file of its own in a transaction,
+   * all of them in step; all but the first then commit, and the first
+   * aborts, or is left running by a crash.  Checks that the committed files
+   * are whole, that none of their pages is handed out again, and that the
+   * allocation count comes back once they are deleted.
+   */
+  private boolean allocateAndRollBack(String prefix, final boolean crash) {
+
+    boolean status = PASS;
+    final LogMgr log = Minibase.LogManager;
+    int allocs = Minibase.DiskManager.getAllocCount();
+    final CyclicBarrier step = new CyclicBarrier(ALLOC_THREADS);
+    final boolean[] failed = new boolean[1];
+    final String[] names = new String[ALLOC_THREADS];
+    Thread[] threads = new Thread[ALLOC_THREADS];
+    for (int t = 0; t < ALLOC_THREADS; t++) {
+      final int id = t;
+      names[t] = prefix + t;
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            log.begin();
+            HeapFile file = new HeapFile(names[id]);
+            for (int i = 0; i < ALLOC_RECORDS; i++) {
+              file.insertRecord(makeRecord(i));
+              if (i % ALLOC_STEP == ALLOC_STEP - 1) {
+                step.await();
+              }
+            }
+            if (id != 0) {
+              log.commit();
+            }
+            step.await();
+            if (id == 0 && !crash) {
+              log.abort();
+            }
+          } catch (Exception exc) {
+            exc.printStackTrace();
+            failed[0] = true;
+            step.reset();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException exc) {
+        failed[0] = true;
+      }
+    }
+    if (failed[0]) {
+      System.err.print("*** A transaction failed\n");
+      return FAIL;
+    }
+    if (crash) {
+      Minibase.BufferManager.flushAllPages();
+      load_minibase();
+    }
+
+    // the rolled back file is gone, and the others are whole
+    if (Minibase.DiskManager.get_file_entry(names[0]) != null) {
+      System.err.print("*** The rolled back file survived\n");
+      status = FAIL;
+    }
+    for (int t = 1; t < ALLOC_THREADS; t++) {
+      status &= checkFile(names[t], ALLOC_RECORDS);
+    }
+
+    // pages allocated now must not be any of theirs
+    PageId[] pids = new PageId[ALLOC_RECORDS / ALLOC_STEP];
+    Page page = new Page();
+    for (int i = 0; i < pids.length; i++) {
+      pids[i] = Minibase.BufferManager.newPage(page, 1);
+      fillPage(page, 'E');
+      Minibase.BufferManager.unpinPage(pids[i], UNPIN_DIRTY);
+    }
+    for (int t = 1; t < ALLOC_THREADS; t++) {
+      status &= checkFile(names[t], ALLOC_RECORDS);
+    }
+    for (int i = 0; i < pids.length; i++) {
+      Minibase.BufferManager.freePage(pids[i]);
+    }
+
+    // and deleting them frees every page the test allocated
+    for (int t = 1; t < ALLOC_THREADS; t++) {
+      new HeapFile(names[t]).deleteFile();
+    }
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.err.print("*** " + (Minibase.DiskManager.getAllocCount() - allocs)
+          + " pages are still allocated\n");
+      status = FAIL;
+    }
+    return status;
+
+  } // private boolean allocateAndRollBack(String prefix, final boolean crash)
+
+  /**
+   * Fills the given page with the given character in the pool, and unpins
+   * it dirty.
+   */
+  private static void overwrite(PageId pid, char c) {
+    Page page = new Page();
+    Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+    fillPage(page, c);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+  }
+
+  /**
+   * Fills every byte of the page with the given character.
+   */
+  private static void fillPage(Page page, char c) {
+    page.fillBytes(0, page.getSize(), (byte) c);
+  }
+
+  /**
+   * Checks that every byte of the given page is the given character.
+   */
+  private static boolean checkPage(PageId pid, char c, String when) {
+    Page page = new Page();
+    Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+    byte[] data = new byte[page.getSize()];
+    page.getBytes(0, data, 0, data.length);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    for (int i = 0; i < data.length; i++) {
+      if (data[i] != (byte) c) {
+        System.err.print("*** Page " + pid.pid + " holds '" + (char) data[i]
+            + "' at " + i + " " + when + ", not '" + c + "'\n");
+        return FAIL;
+      }
+    }
+    return PASS;
+  }
+
+  /**
+   * Makes a record holding the given number.
+   */
+  private static byte[] makeRecord(int value) {
+    byte[] record = new byte[32];
+    Convert.setIntValue(value, 0, record);
+    Convert.setStringValue("record" + value, 4, record);
+    return record;
+  }
+
+  /**
+   * Checks that the named file holds the records 0 to count - 1 and no
+   * others.
+   */
+  private boolean checkFile(String name, int count) {
+    if (Minibase.DiskManager.get_file_entry(name) == null) {
+      System.err.print("*** File " + name + " is missing\n");
+      return FAIL;
+    }
+    HeapFile file = new HeapFile(name);
+    boolean[] seen = new boolean[count];
+    int found = 0;
+    HeapScan scan = file.openScan();
+    RID rid = new RID();
+    boolean status = PASS;
+    while (scan.hasNext()) {
+      int value = Convert.getIntValue(0, scan.getNext(rid));
+      if (value < 0 || value >= count || seen[value]) {
+        status = FAIL;
+      } else {
+        seen[value] = true;
+        found++;
+      }
+    }
+    scan.close();
+    if (status != PASS || found != count || file.getRecCnt() != count) {
+      System.err.print("*** File " + name + " holds " + found + " of "
+          + count + " records, with " + file.getRecCnt() + " counted\n");
+      return FAIL;
+    }
+    return PASS;
+  } // private boolean checkFile(String name, int count)
+
+} // class LogTest extends TestDriver
@@ -0,0 +1,138 @@
+package tests;
+
+import global.Convert;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Benchmark of a buffer pool kept in direct memory against one of byte
+ * arrays.  With each kind of pool it fills a large pool with pages, then
+ * reports the heap the pool leaves in use, the time full collections take
+ * with the pool live, and the rate of random pins that read and change a
+ * page.  Run it on its own, with room for the pool on the heap and off it:
+ * java -Xmx1g -XX:MaxDirectMemorySize=1g tests.OffHeapBench
+ */
+class OffHeapBench extends TestDriver {
+
+  /** The display name of the benchmark. */
+  private static final String TEST_NAME = "off-heap pool benchmark";
+
+  /** Number of frames in the pool, all of them filled. */
+  private static final int NUM_FRAMES = 300000;
+
+  /** Number of full collections timed. */
+  private static final int NUM_GCS = 5;
+
+  /** Number of random pins timed. */
+  private static final int NUM_PINS = 2000000;
+
+  /** Number of times through both pools; the first warms up the JIT. */
+  private static final int ROUNDS = 2;
+
+  /**
+   * Benchmark entry point; runs each kind of pool in turn.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+      for (boolean off_heap : new boolean[] { false, true }) {
+        OffHeapBench bench = new OffHeapBench();
+        Minibase.OffHeap = off_heap;
+        bench.BUF_SIZE = NUM_FRAMES;
+        bench.DB_SIZE = NUM_FRAMES + 1000;
+        bench.create_minibase();
+        status &= bench.run(off_heap ? "direct memory" : "byte arrays");
+        Minibase.DiskManager.destroyDB();
+        Minibase.BufferManager = null;
+      }
+    }
+    Minibase.OffHeap = false;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " runs completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Fills the pool, then times collections and pins.
+   */
+  protected boolean run(String kind) {
+
+    System.out.print("\n  Pool: " + kind + "\n");
+    boolean status = PASS;
+
+    // fill every frame with a page of its own, numbered
+    Page page = new Page();
+    PageId first = Minibase.BufferManager.newPage(page, NUM_FRAMES);
+    page.setIntValue(first.pid, 0);
+    Minibase.BufferManager.unpinPage(first, UNPIN_DIRTY);
+    byte[] fill = new byte[Minibase.PageSize];
+    Page mem = new Page();
+    for (int i = 1; i < NUM_FRAMES; i++) {
+      PageId pid = new PageId(first.pid + i);
+      Convert.setIntValue(pid.pid, 0, fill);
+      mem.setData(fill);
+      Minibase.BufferManager.pinPage(pid, mem, PIN_MEMCPY);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+
+    // time full collections with the pool live
+    long gc_ms = gcTime();
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < NUM_GCS; i++) {
+      System.gc();
+    }
+    gc_ms = gcTime() - gc_ms;
+    long heap = runtime.totalMemory() - runtime.freeMemory();
+    System.out.print("  - " + heap / (1024 * 1024) + " MB of heap in use, "
+        + gc_ms / NUM_GCS + " ms per full collection\n");
+
+    // pin pages at random, checking and bumping a counter on each
+    Random random = new Random(74);
+    PageId pid = new PageId();
+    long start = System.nanoTime();
+    for (int i = 0; i < NUM_PINS; i++) {
+      pid.pid = first.pid + random.nextInt(NUM_FRAMES);
+      Minibase.BufferManager.pinPage(pid, page, PIN_DISKIO);
+      if (page.getIntValue(0) != pid.pid) {
+        System.err.print("*** Page " + pid.pid + " holds "
+            + page.getIntValue(0) + "\n");
+        status = FAIL;
+      }
+      page.setIntValue(page.getIntValue(4) + 1, 4);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    long micros = Math.max(1, (System.nanoTime() - start) / 1000);
+    System.out.print("  - " + (long) NUM_PINS * 1000000 / micros
+        + " pins/sec\n");
+
+    return status;
+
+  } // protected boolean run (String kind)
+
+  /**
+   * Gets the total time spent collecting so far, in milliseconds.
+   */
+  private static long gcTime() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory
+        .getGarbageCollectorMXBeans()) {
+      total += Math.max(0, gc.getCollectionTime());
+    }
+    return total;
+  }
+
+} // class OffHeapBench extends TestDriver
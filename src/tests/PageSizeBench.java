@@ -0,0 +1,125 @@
+package tests;
+
+import diskmgr.DiskMgr;
+import global.Convert;
+import global.GlobalConst;
+import global.Minibase;
+import global.RID;
+import heap.HeapFile;
+import heap.HeapScan;
+
+/**
+ * Benchmark of the supported page sizes.  For each size it creates a fresh
+ * database with a buffer pool of the same number of bytes, inserts records
+ * into a heap file and scans them back, and reports the rates and the disk
+ * I/O.  Run it on its own: java tests.PageSizeBench
+ */
+class PageSizeBench extends TestDriver {
+
+  /** The display name of the benchmark. */
+  private static final String TEST_NAME = "page size benchmark";
+
+  /** Size of the buffer pool in bytes, the same for every page size. */
+  private static final int POOL_BYTES = 100 * GlobalConst.PAGE_SIZE;
+
+  /** Size of the database file in bytes, the same for every page size. */
+  private static final int DB_BYTES = 40000 * GlobalConst.PAGE_SIZE;
+
+  /** Number of records inserted and scanned. */
+  private static final int NUM_RECS = 50000;
+
+  /** Size of each record, in bytes. */
+  private static final int REC_SIZE = 60;
+
+  /** Number of times through all the sizes; the first warms up the JIT. */
+  private static final int ROUNDS = 2;
+
+  /**
+   * Benchmark entry point; runs every page size in turn.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+      for (int size : DiskMgr.PAGE_SIZES) {
+        PageSizeBench bench = new PageSizeBench();
+        bench.BUF_SIZE = POOL_BYTES / size;
+        bench.DB_SIZE = DB_BYTES / size;
+        Minibase.PageSize = size;
+        bench.create_minibase();
+        status &= bench.run(size);
+        Minibase.DiskManager.destroyDB();
+      }
+    }
+    Minibase.PageSize = GlobalConst.PAGE_SIZE;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " runs completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Times the inserts and the scan at the current page size.
+   */
+  protected boolean run(int size) {
+
+    System.out.print("\n  Page size: " + size + " bytes, " + BUF_SIZE
+        + " frames\n");
+    boolean status = PASS;
+    HeapFile file = new HeapFile("bench_file");
+
+    // insert the records, each tagged with its number
+    byte[] record = new byte[REC_SIZE];
+    long reads = Minibase.DiskManager.getReadCount();
+    long writes = Minibase.DiskManager.getWriteCount();
+    long start = System.nanoTime();
+    for (int i = 0; i < NUM_RECS; i++) {
+      Convert.setIntValue(i, 0, record);
+      file.insertRecord(record);
+    }
+    Minibase.BufferManager.flushAllPages();
+    System.out.print("  - " + rate(NUM_RECS, start) + " inserts/sec, "
+        + (Minibase.DiskManager.getReadCount() - reads) + " reads, "
+        + (Minibase.DiskManager.getWriteCount() - writes) + " writes\n");
+
+    // scan them back, checking the count and the tags
+    reads = Minibase.DiskManager.getReadCount();
+    start = System.nanoTime();
+    HeapScan scan = file.openScan();
+    RID rid = new RID();
+    long sum = 0;
+    int count = 0;
+    while (scan.hasNext()) {
+      sum += Convert.getIntValue(0, scan.getNext(rid));
+      count++;
+    }
+    scan.close();
+    System.out.print("  - " + rate(count, start) + " records/sec scanned, "
+        + (Minibase.DiskManager.getReadCount() - reads) + " reads\n");
+    if (count != NUM_RECS || sum != (long) NUM_RECS * (NUM_RECS - 1) / 2) {
+      System.err.print("*** Scanned " + count + " records, expected "
+          + NUM_RECS + "\n");
+      status = FAIL;
+    }
+
+    file.deleteFile();
+    return status;
+
+  } // protected boolean run (int size)
+
+  /**
+   * Gets the number of operations per second since the given start time.
+   */
+  private static long rate(long ops, long start) {
+    long micros = Math.max(1, (System.nanoTime() - start) / 1000);
+    return ops * 1000000 / micros;
+  }
+
+} // class PageSizeBench extends TestDriver
@@ -0,0 +1,166 @@
+package tests;
+
+import bufmgr.BufMgr;
+import bufmgr.PageTable;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Benchmark of the buffer manager's page table against the boxed HashMap it
+ * replaced.  For each table size, it times lookups of random pages, a few of
+ * which are missing, and then eviction-like churn that removes a page and
+ * puts another in its place.  It does so for one table, and for the tables
+ * of a pool's stripes as BufMgr builds them, where each page is looked up in
+ * its stripe's table.  Run it on its own: java tests.PageTableBench
+ */
+class PageTableBench extends TestDriver {
+
+  /** The display name of the benchmark. */
+  private static final String TEST_NAME = "page table benchmark";
+
+  /** Numbers of entries, as in buffer pools of these sizes. */
+  private static final int[] SIZES = { 1000, 100000, 1000000 };
+
+  /** Number of lookups and of changes timed at each size. */
+  private static final int NUM_OPS = 5000000;
+
+  /** Number of times through all the sizes; the first warms up the JIT. */
+  private static final int ROUNDS = 2;
+
+  /** Sum of the lookups' results, so that they are not optimized away. */
+  private static long sink;
+
+  /**
+   * Benchmark entry point; runs every size in turn.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    PageTableBench bench = new PageTableBench();
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+      for (int size : SIZES) {
+        status &= bench.run(size);
+      }
+    }
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " runs completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Fills both tables with the given number of pages, then times lookups and
+   * changes on each.
+   */
+  protected boolean run(int size) {
+
+    System.out.print("\n  " + size + " entries:\n");
+    boolean status = PASS;
+
+    // the same pages in both, spread over a range a quarter larger so that
+    // some lookups miss
+    int range = size + size / 4;
+    int[] pids = new int[NUM_OPS];
+    Random random = new Random(74);
+    for (int i = 0; i < NUM_OPS; i++) {
+      pids[i] = random.nextInt(range);
+    }
+    PageTable table = new PageTable(range);
+    PageTable[] stripes = BufMgr.newPageTables(size);
+    HashMap<Integer, Integer> map = new HashMap<Integer, Integer>(range * 2);
+    for (int pid = 0; pid < size; pid++) {
+      table.put(pid, pid);
+      stripes[BufMgr.stripeOf(pid, stripes.length)].put(pid, pid);
+      map.put(pid, pid);
+    }
+    double probes = 0;
+    for (PageTable stripe : stripes) {
+      probes += stripe.averageProbes() * stripe.size();
+    }
+    System.out.print("  - probes per lookup: one table "
+        + Math.round(table.averageProbes() * 100) / 100.0 + ", "
+        + stripes.length + " stripes " + Math.round(probes / size * 100) / 100.0
+        + "\n");
+
+    // lookups
+    long start = System.nanoTime();
+    long sum = 0;
+    for (int i = 0; i < NUM_OPS; i++) {
+      sum += table.get(pids[i]);
+    }
+    long table_ns = System.nanoTime() - start;
+    start = System.nanoTime();
+    long striped_sum = 0;
+    for (int i = 0; i < NUM_OPS; i++) {
+      int pid = pids[i];
+      striped_sum += stripes[BufMgr.stripeOf(pid, stripes.length)].get(pid);
+    }
+    long striped_ns = System.nanoTime() - start;
+    start = System.nanoTime();
+    long map_sum = 0;
+    for (int i = 0; i < NUM_OPS; i++) {
+      Integer frame = map.get(pids[i]);
+      map_sum += (frame == null) ? PageTable.NOT_FOUND : frame;
+    }
+    long map_ns = System.nanoTime() - start;
+    if (sum != map_sum || striped_sum != map_sum) {
+      System.err.print("*** Lookups disagree\n");
+      status = FAIL;
+    }
+    sink += sum;
+    report("lookups", table_ns, map_ns);
+    report("striped lookups", striped_ns, map_ns);
+
+    // changes: evict the oldest page and load a new one, as a FIFO pool would
+    start = System.nanoTime();
+    for (int i = 0, next = size; i < NUM_OPS; i++, next++) {
+      table.remove(next - size);
+      table.put(next, i);
+    }
+    table_ns = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0, next = size; i < NUM_OPS; i++, next++) {
+      stripes[BufMgr.stripeOf(next - size, stripes.length)].remove(next - size);
+      stripes[BufMgr.stripeOf(next, stripes.length)].put(next, i);
+    }
+    striped_ns = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0, next = size; i < NUM_OPS; i++, next++) {
+      map.remove(next - size);
+      map.put(next, i);
+    }
+    map_ns = System.nanoTime() - start;
+    int striped_size = 0;
+    for (PageTable stripe : stripes) {
+      striped_size += stripe.size();
+    }
+    if (table.size() != map.size() || striped_size != map.size()) {
+      System.err.print("*** Sizes disagree\n");
+      status = FAIL;
+    }
+    report("remove + put", table_ns, map_ns);
+    report("striped remove + put", striped_ns, map_ns);
+
+    return status;
+
+  } // protected boolean run (int size)
+
+  /**
+   * Prints the rate of each table for one kind of operation.
+   */
+  private static void report(String what, long table_ns, long map_ns) {
+    System.out.print("  - " + what + ": PageTable "
+        + (long) NUM_OPS * 1000 / Math.max(1, table_ns / 1000)
+        + "/ms, HashMap "
+        + (long) NUM_OPS * 1000 / Math.max(1, map_ns / 1000) + "/ms\n");
+  }
+
+} // class PageTableBench extends TestDriver
@@ -0,0 +1,285 @@
+package tests;
+
+import bufmgr.BufMgr;
+import bufmgr.PageTable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Test suite for the buffer manager's page table, checked against
+ * java.util.HashMap.  Each test applies the same changes to both maps and
+ * then compares every key that could be in either.
+ */
+class PageTableTest extends TestDriver {
+
+  /** The display name of the test suite. */
+  private static final String TEST_NAME = "page table tests";
+
+  /** Number of random changes in test 1. */
+  private static final int NUM_OPS = 200000;
+
+  /** Keys in test 1 are drawn from 0 to KEY_RANGE - 1, so that they are
+   * often removed and put back. */
+  private static final int KEY_RANGE = 2000;
+
+  /** Capacity of the table in test 2, which never grows. */
+  private static final int CAPACITY = 64;
+
+  /** Pool sizes whose striped tables test 4 fills. */
+  private static final int[] POOL_SIZES = { 1000, 100000, 1000000 };
+
+  /** Most slots a lookup may look at on average in test 4; about 1.5 is
+   * expected of tables at half load whose pages spread evenly. */
+  private static final double MAX_PROBES = 2.0;
+
+  /**
+   * Test application entry point; runs all tests.
+   */
+  public static void main(String argv[]) {
+
+    // no database is needed
+    PageTableTest pt = new PageTableTest();
+
+    // run all the test cases
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    status &= pt.test1();
+    status &= pt.test2();
+    status &= pt.test3();
+    status &= pt.test4();
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Random puts, replacements and removals, growing from a small table.
+   */
+  protected boolean test1() {
+
+    System.out.print("\n  Test 1: Random changes against a HashMap\n");
+    boolean status = PASS;
+    PageTable table = new PageTable(1);
+    Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+    Random random = new Random(74);
+
+    System.out.print("  - Apply " + NUM_OPS + " puts and removes of "
+        + KEY_RANGE + " keys\n");
+    for (int i = 0; i < NUM_OPS && status == PASS; i++) {
+      int pid = random.nextInt(KEY_RANGE);
+      if (random.nextInt(3) == 0) {
+        table.remove(pid);
+        map.remove(pid);
+      } else {
+        int frame = random.nextInt(1 << 20);
+        table.put(pid, frame);
+        map.put(pid, frame);
+      }
+      if (i % 1000 == 999) {
+        status &= compare(table, map, KEY_RANGE);
+      }
+    }
+
+    System.out.print("  - Remove every key\n");
+    for (int pid = 0; pid < KEY_RANGE; pid++) {
+      table.remove(pid);
+      map.remove(pid);
+    }
+    status &= compare(table, map, KEY_RANGE);
+
+    if (status == PASS) {
+      System.out.print("  Test 1 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test1()
+
+  /**
+   * Keys that share a home slot, removed from the middle of their probe
+   * chain and put back, so that backward-shift deletion must move the rest.
+   */
+  protected boolean test2() {
+
+    System.out.print("\n  Test 2: Collisions around removed slots\n");
+    boolean status = PASS;
+    Random random = new Random(75);
+
+    // the table holds CAPACITY entries in 2 * CAPACITY slots without growing
+    int mask = 2 * CAPACITY - 1;
+    for (int round = 0; round < 100 && status == PASS; round++) {
+      PageTable table = new PageTable(CAPACITY);
+      Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+
+      // chains of keys homed at two neighboring slots, so that they interleave
+      int home = random.nextInt(mask + 1);
+      int[] keys = new int[CAPACITY];
+      int count = 0;
+      for (int pid = 0; count < keys.length; pid++) {
+        int slot = PageTable.hash(pid) & mask;
+        if (slot == home || slot == ((home + 1) & mask)
+            || (count >= keys.length / 2 && random.nextInt(50) == 0)) {
+          keys[count++] = pid;
+        }
+      }
+      for (int k = 0; k < keys.length; k++) {
+        table.put(keys[k], k);
+        map.put(keys[k], k);
+      }
+      int range = keys[keys.length - 1] + 1;
+      status &= compare(table, map, range);
+
+      // remove and put back keys at random, checking after each
+      for (int i = 0; i < 4 * CAPACITY && status == PASS; i++) {
+        int pid = keys[random.nextInt(keys.length)];
+        if (map.containsKey(pid)) {
+          table.remove(pid);
+          map.remove(pid);
+        } else {
+          table.put(pid, i);
+          map.put(pid, i);
+        }
+        status &= compare(table, map, range);
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 2 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test2()
+
+  /**
+   * Shrinking and growing the table, as a pool resize does, keeps every
+   * entry and never drops below the entries held.
+   */
+  protected boolean test3() {
+
+    System.out.print("\n  Test 3: Resize with entries in the table\n");
+    boolean status = PASS;
+    PageTable table = new PageTable(1000);
+    Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+    Random random = new Random(76);
+    int range = 100000;
+
+    for (int i = 0; i < 500; i++) {
+      int pid = random.nextInt(range);
+      table.put(pid, i);
+      map.put(pid, i);
+    }
+    int[] capacities = { 10, 5000, 1, 600, 100000, 0 };
+    for (int capacity : capacities) {
+      System.out.print("  - Resize to " + capacity + " entries\n");
+      table.resize(capacity);
+      status &= compare(table, map, range);
+      for (int i = 0; i < 200; i++) {
+        int pid = random.nextInt(range);
+        if (i % 2 == 0) {
+          table.put(pid, i);
+          map.put(pid, i);
+        } else {
+          table.remove(pid);
+          map.remove(pid);
+        }
+      }
+      status &= compare(table, map, range);
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 3 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test3()
+
+  /**
+   * The tables of a buffer pool's stripes, as BufMgr builds and fills them,
+   * both with consecutive pages and with pages at random: each stripe's pages
+   * must spread over its table, so that lookups stay short.
+   */
+  protected boolean test4() {
+
+    System.out.print("\n  Test 4: Tables per stripe, as the buffer manager "
+        + "builds them\n");
+    boolean status = PASS;
+    Random random = new Random(77);
+
+    for (int size : POOL_SIZES) {
+      for (int pass = 0; pass < 2 && status == PASS; pass++) {
+        boolean consecutive = (pass == 0);
+        PageTable[] tables = BufMgr.newPageTables(size);
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+        for (int frame = 0; frame < size; frame++) {
+          int pid = consecutive ? frame : random.nextInt(Integer.MAX_VALUE);
+          tables[BufMgr.stripeOf(pid, tables.length)].put(pid, frame);
+          map.put(pid, frame);
+        }
+
+        // every page is found in its stripe's table
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+          int pid = entry.getKey();
+          int frame = tables[BufMgr.stripeOf(pid, tables.length)].get(pid);
+          if (frame != entry.getValue()) {
+            System.err.print("*** Page " + pid + " maps to " + frame
+                + ", not " + entry.getValue() + "\n");
+            status = FAIL;
+            break;
+          }
+        }
+
+        // and the stripes' tables are no longer to search than one would be
+        double probes = 0;
+        for (PageTable table : tables) {
+          probes += table.averageProbes() * table.size();
+        }
+        probes /= map.size();
+        System.out.print("  - " + size + (consecutive ? " consecutive"
+            : " random") + " pages in " + tables.length + " stripes: "
+            + Math.round(probes * 100) / 100.0 + " probes per lookup\n");
+        if (probes > MAX_PROBES) {
+          System.err.print("*** Lookups take more than " + MAX_PROBES
+              + " probes on average\n");
+          status = FAIL;
+        }
+      }
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 4 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test4()
+
+  /**
+   * Checks that the table holds exactly the map's entries, looking up every
+   * key from 0 to range - 1.
+   */
+  private static boolean compare(PageTable table, Map<Integer, Integer> map,
+      int range) {
+    if (table.size() != map.size()) {
+      System.err.print("*** Table holds " + table.size() + " entries, not "
+          + map.size() + "\n");
+      return FAIL;
+    }
+    for (int pid = 0; pid < range; pid++) {
+      Integer frame = map.get(pid);
+      int expected = (frame == null) ? PageTable.NOT_FOUND : frame;
+      if (table.get(pid) != expected) {
+        System.err.print("*** Page " + pid + " maps to " + table.get(pid)
+            + ", not " + expected + "\n");
+        return FAIL;
+      }
+    }
+    return PASS;
+  }
+
+} // class PageTableTest extends TestDriver
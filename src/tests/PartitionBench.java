@@ -0,0 +1,171 @@
+package tests;
+
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.util.Random;
+
+/**
+ * Benchmark of a partitioned buffer pool against a single one.  For each
+ * replacement policy and number of partitions, 1 to 64 threads pin pages of a
+ * working set a quarter larger than the pool at random, check them and unpin
+ * them, so that most pins are hits and the rest replace a page.  It reports
+ * the pins per second at each thread count.  Run it on its own:
+ * java tests.PartitionBench
+ */
+class PartitionBench extends TestDriver {
+
+  /** The display name of the benchmark. */
+  private static final String TEST_NAME = "partitioned pool benchmark";
+
+  /** Number of frames in the pool. */
+  private static final int NUM_FRAMES = 4096;
+
+  /** Number of pages in the working set. */
+  private static final int NUM_PAGES = NUM_FRAMES * 5 / 4;
+
+  /** Numbers of partitions to compare. */
+  private static final int[] PARTITIONS = { 1, 16 };
+
+  /** Most threads pinning at once; runs go from 1 up in powers of two. */
+  private static final int MAX_THREADS = 64;
+
+  /** Time each thread count runs for, in milliseconds. */
+  private static final long RUN_MS = 500;
+
+  /** Number of times through all the configurations; the first warms up
+   * the JIT. */
+  private static final int ROUNDS = 2;
+
+  /** Cleared to stop the pinning threads. */
+  private static volatile boolean running;
+
+  /**
+   * Benchmark entry point; runs every configuration in turn.
+   */
+  public static void main(String argv[]) {
+
+    System.out.println("\n" + "Running " + TEST_NAME + "...");
+    boolean status = PASS;
+    for (int round = 1; round <= ROUNDS; round++) {
+      System.out.println("\nRound " + round + (round == 1 ? " (warm-up)" : ""));
+      for (String policy : POLICIES) {
+        for (int partitions : PARTITIONS) {
+          PartitionBench bench = new PartitionBench();
+          Minibase.BufPartitions = partitions;
+          bench.BUF_SIZE = NUM_FRAMES;
+          bench.BUF_POLICY = policy;
+          bench.DB_SIZE = NUM_PAGES + 1000;
+          bench.create_minibase();
+          status &= bench.run(policy, partitions);
+          Minibase.DiskManager.destroyDB();
+        }
+      }
+    }
+    Minibase.BufPartitions = 1;
+
+    // display the final results
+    System.out.println();
+    if (status != PASS) {
+      System.out.println("Error(s) encountered during " + TEST_NAME + ".");
+    } else {
+      System.out.println("All " + TEST_NAME + " runs completed successfully!");
+    }
+
+  } // public static void main (String argv[])
+
+  /**
+   * Writes the working set, then runs each thread count for RUN_MS.
+   */
+  protected boolean run(String policy, int partitions) {
+
+    System.out.print("\n  " + policy + ", " + partitions + " partition"
+        + (partitions == 1 ? "" : "s") + ":\n");
+
+    // write the working set, each page holding its id
+    Page page = new Page();
+    final PageId first = Minibase.BufferManager.newPage(page, NUM_PAGES);
+    page.setIntValue(first.pid, 0);
+    Minibase.BufferManager.unpinPage(first, UNPIN_DIRTY);
+    for (int i = 1; i < NUM_PAGES; i++) {
+      PageId pid = new PageId(first.pid + i);
+      Minibase.BufferManager.pinPage(pid, page, PIN_NOOP);
+      page.setIntValue(pid.pid, 0);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    Minibase.BufferManager.flushAllPages();
+
+    boolean status = PASS;
+    StringBuilder line = new StringBuilder("  -");
+    for (int numThreads = 1; numThreads <= MAX_THREADS; numThreads *= 2) {
+
+      // start the threads, each counting its pins
+      final long[] counts = new long[numThreads];
+      running = true;
+      final boolean[] failed = new boolean[1];
+      Thread[] threads = new Thread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+        final int id = t;
+        threads[t] = new Thread() {
+          public void run() {
+            Random random = new Random(id);
+            Page mine = new Page();
+            PageId pid = new PageId();
+            try {
+              while (running) {
+                pid.pid = first.pid + random.nextInt(NUM_PAGES);
+                Minibase.BufferManager.pinPage(pid, mine, PIN_DISKIO);
+                if (mine.getIntValue(0) != pid.pid) {
+                  failed[0] = true;
+                }
+                Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+                counts[id]++;
+              }
+            } catch (RuntimeException exc) {
+              exc.printStackTrace();
+              failed[0] = true;
+            }
+          }
+        };
+        threads[t].start();
+      }
+      sleep(RUN_MS);
+      running = false;
+      for (Thread thread : threads) {
+        try {
+          thread.join();
+        } catch (InterruptedException exc) {
+          failed[0] = true;
+        }
+      }
+
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      line.append(" " + numThreads + ": " + total * 1000 / RUN_MS);
+      if (failed[0]) {
+        status = FAIL;
+      }
+    }
+    System.out.print(line + " pins/sec\n");
+
+    return status;
+
+  } // protected boolean run (String policy, int partitions)
+
+  /**
+   * Sleeps for the given time, if positive.
+   */
+  private static void sleep(long ms) {
+    if (ms > 0) {
+      try {
+        Thread.sleep(ms);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+} // class PartitionBench extends TestDriver
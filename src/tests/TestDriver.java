@@ -1,7 +1,10 @@
 package tests;
 
+import diskmgr.DiskMgr;
+import diskmgr.DiskStats;
 import global.GlobalConst;
 import global.Minibase;
+import logmgr.LogMgr;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -33,6 +36,10 @@ class TestDriver implements GlobalConst {
   /** Default buffer pool replacement policy */
   protected String BUF_POLICY = "Clock";
 
+  /** Every replacement policy the buffer manager accepts. */
+  protected static final String[] POLICIES = { "Clock", "LRU", "LRU-K", "2Q",
+      "ARC", "CLOCK-Pro" };
+
   // --------------------------------------------------------------------------
 
   /** Random generator; use the same seed to make tests deterministic. */
@@ -45,14 +52,16 @@ class TestDriver implements GlobalConst {
 
     public String desc;
 
-    public int reads;
+    public long reads;
 
-    public int writes;
+    public long writes;
 
     public int allocs;
 
     public int pinned;
 
+    public DiskStats.Snapshot disk;
+
   } // protected class CountData
 
   /**
@@ -68,6 +77,8 @@ class TestDriver implements GlobalConst {
    */
   protected void delete_minibase() {
     new File(DB_PATH).delete();
+    new File(DB_PATH + DiskMgr.MAP_SUFFIX).delete();
+    new File(DB_PATH + LogMgr.LOG_SUFFIX).delete();
   }
 
   /**
@@ -118,6 +129,7 @@ class TestDriver implements GlobalConst {
     data.writes = Minibase.DiskManager.getWriteCount();
     data.allocs = Minibase.DiskManager.getAllocCount();
     data.pinned = BUF_SIZE - Minibase.BufferManager.getNumUnpinned();
+    data.disk = Minibase.DiskManager.getStats().snapshot();
 
   } // protected void saveCounts(String desc)
 
@@ -135,6 +147,13 @@ class TestDriver implements GlobalConst {
         + (Minibase.DiskManager.getWriteCount() - data.writes));
     System.out.println("  *** Net total pages:  "
         + (Minibase.DiskManager.getAllocCount() - data.allocs));
+    DiskStats.Snapshot disk = Minibase.DiskManager.getStats().snapshot()
+        .minus(data.disk);
+    System.out.println("  *** Disk time:        "
+        + disk.getTotalNanos(DiskStats.READ) / 1000000 + " ms reading (p99 "
+        + disk.getPercentile(DiskStats.READ, 0.99) / 1000 + " us), "
+        + disk.getTotalNanos(DiskStats.WRITE) / 1000000 + " ms writing (p99 "
+        + disk.getPercentile(DiskStats.WRITE, 0.99) / 1000 + " us)");
     int numbufs = Minibase.BufferManager.getNumBuffers();
     System.out
         .println("  *** Remaining Pinned: "
@@ -153,7 +172,7 @@ class TestDriver implements GlobalConst {
     System.out.println();
     String seperator = "--------------------------------------";
     System.out.println(seperator);
-    System.out.println("\tReads\tWrites\tAllocs\tPinned");
+    System.out.println("\tReads\tWrites\tAllocs\tPinned\tRead us\tWrite us");
     int size = counts.size();
     for (int i = 1; i < size; i += 2) {
 
@@ -169,6 +188,9 @@ class TestDriver implements GlobalConst {
       System.out.print("\t" + (after.writes - before.writes));
       System.out.print("\t" + (after.allocs - before.allocs));
       System.out.print("\t" + (after.pinned - before.pinned));
+      DiskStats.Snapshot disk = after.disk.minus(before.disk);
+      System.out.print("\t" + disk.getTotalNanos(DiskStats.READ) / 1000);
+      System.out.print("\t" + disk.getTotalNanos(DiskStats.WRITE) / 1000);
       System.out.println();
 
     } // for